@@ -0,0 +1,485 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.isejawa.map.trace.Tracer;
+import ch.inser.isejawa.map.util.GeometryUtil;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonGenerator;
+
+/**
+ * Export of the features of a query to a stream, page by page.
+ *
+ * The pages are downloaded by a background task, on the executor of the long-running downloads, while the previous page is written.
+ * At most {@link #PREFETCHED_PAGES} pages wait to be written: when the client reads slowly the download waits, so the memory used does
+ * not depend on the number of features. The first bytes are written as soon as the first page is received.
+ *
+ * @author INSER SA
+ */
+public class FeatureExporter {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(FeatureExporter.class);
+
+    /**
+     * Number of features by page: the maximum record count of the layer.
+     */
+    public static final int PAGE_SIZE = FeatureServiceHandler.LAYER_PAGE_SIZE;
+
+    /**
+     * Maximum number of pages downloaded in advance.
+     */
+    private static final int PREFETCHED_PAGES = 2;
+
+    /**
+     * Marker of the end of the pages in the queue.
+     */
+    private static final JsonObject END = JsonValue.EMPTY_JSON_OBJECT;
+
+    /**
+     * Export formats.
+     */
+    public enum Format {
+
+        /**
+         * One ArcGIS JSON feature by line.
+         */
+        NDJSON("application/x-ndjson", "ndjson"),
+
+        /**
+         * GeoJSON feature collection, the geometries must be in WGS84 (outSR 4326).
+         */
+        GEOJSON("application/geo+json", "geojson"),
+
+        /**
+         * Comma separated values of the attributes, with the coordinates of the points.
+         */
+        CSV("text/csv", "csv");
+
+        /**
+         * The media type.
+         */
+        private final String iMediaType;
+
+        /**
+         * The file extension.
+         */
+        private final String iExtension;
+
+        /**
+         * Constructor
+         *
+         * @param aMediaType
+         *            the media type
+         * @param aExtension
+         *            the file extension
+         */
+        Format(String aMediaType, String aExtension) {
+            iMediaType = aMediaType;
+            iExtension = aExtension;
+        }
+
+        /**
+         * @return the media type
+         */
+        public String getMediaType() {
+            return iMediaType;
+        }
+
+        /**
+         * @return the file extension
+         */
+        public String getExtension() {
+            return iExtension;
+        }
+    }
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private FeatureExporter() {
+    }
+
+    /**
+     * Export the features of a query.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters
+     * @param aToken
+     *            the token
+     * @param aFormat
+     *            the export format
+     * @param aOutput
+     *            the output stream, not closed
+     * @return the number of exported features
+     * @throws IOException
+     *             if the features can't be downloaded or written
+     */
+    public static int export(String aFeatureUrl, FeatureQuery aQuery, String aToken, Format aFormat, OutputStream aOutput)
+            throws IOException {
+        BlockingQueue<JsonObject> pages = new ArrayBlockingQueue<>(PREFETCHED_PAGES);
+        Future<Integer> download = ServiceExecutor.getStreamExecutor().submit(Tracer.wrap(() -> {
+            try {
+                return FeatureServiceHandler.queryPages(aFeatureUrl, aQuery, aToken, PAGE_SIZE, page -> {
+                    try {
+                        pages.put(page);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Export cancelled");
+                    }
+                });
+            } finally {
+                pages.put(END);
+            }
+        }));
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(aOutput, StandardCharsets.UTF_8));
+        FeatureWriter featureWriter = createWriter(aFormat, writer);
+        int count = 0;
+        try {
+            JsonObject page = pages.take();
+            featureWriter.start(page);
+            while (page != END) {
+                for (JsonValue feature : page.getJsonArray("features")) {
+                    featureWriter.write(feature.asJsonObject());
+                    count++;
+                }
+                featureWriter.flush();
+                page = pages.take();
+            }
+
+            // Raise the download errors before ending the output, so that an incomplete export is not taken for a complete one
+            download.get();
+            featureWriter.end();
+            writer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Error downloading the features of " + aFeatureUrl, e.getCause());
+        } finally {
+            // Stop the download if the client is gone
+            download.cancel(true);
+        }
+        logger.debug(String.format("export: %s features from='%s' format='%s'", count, aFeatureUrl, aFormat));
+        return count;
+    }
+
+    /**
+     * Check that a format name is supported.
+     *
+     * @param aName
+     *            the format name (ndjson, geojson or csv), case insensitive
+     * @return the format
+     * @throws ISException
+     *             if the format is not supported
+     */
+    public static Format getFormat(String aName) throws ISException {
+        for (Format format : Format.values()) {
+            if (format.getExtension().equalsIgnoreCase(aName)) {
+                return format;
+            }
+        }
+        throw new ISException("Unsupported export format: " + aName);
+    }
+
+    /**
+     * Create the writer of a format.
+     *
+     * @param aFormat
+     *            the format
+     * @param aWriter
+     *            the output
+     * @return the feature writer
+     */
+    private static FeatureWriter createWriter(Format aFormat, Writer aWriter) {
+        switch (aFormat) {
+            case GEOJSON:
+                return new GeoJsonWriter(aWriter);
+            case CSV:
+                return new CsvWriter(aWriter);
+            default:
+                return new NdJsonWriter(aWriter);
+        }
+    }
+
+    /**
+     * Writer of the features in an export format.
+     */
+    private abstract static class FeatureWriter {
+
+        /**
+         * The output.
+         */
+        protected final Writer iWriter;
+
+        /**
+         * Constructor
+         *
+         * @param aWriter
+         *            the output
+         */
+        protected FeatureWriter(Writer aWriter) {
+            iWriter = aWriter;
+        }
+
+        /**
+         * Start the export.
+         *
+         * @param aFirstPage
+         *            the first page, {@link FeatureExporter#END} if there is no feature
+         * @throws IOException
+         *             if the output can't be written
+         */
+        void start(JsonObject aFirstPage) throws IOException {
+            // Nothing by default
+        }
+
+        /**
+         * Write a feature.
+         *
+         * @param aFeature
+         *            the feature: {attributes: {..}, geometry: {..}}
+         * @throws IOException
+         *             if the output can't be written
+         */
+        abstract void write(JsonObject aFeature) throws IOException;
+
+        /**
+         * Send the written features to the client.
+         *
+         * @throws IOException
+         *             if the output can't be written
+         */
+        void flush() throws IOException {
+            iWriter.flush();
+        }
+
+        /**
+         * End the export.
+         *
+         * @throws IOException
+         *             if the output can't be written
+         */
+        void end() throws IOException {
+            // Nothing by default
+        }
+    }
+
+    /**
+     * Writer of one ArcGIS JSON feature by line.
+     */
+    private static class NdJsonWriter extends FeatureWriter {
+
+        /**
+         * Constructor
+         *
+         * @param aWriter
+         *            the output
+         */
+        NdJsonWriter(Writer aWriter) {
+            super(aWriter);
+        }
+
+        @Override
+        void write(JsonObject aFeature) throws IOException {
+            iWriter.write(aFeature.toString());
+            iWriter.write('\n');
+        }
+    }
+
+    /**
+     * Writer of a GeoJSON feature collection.
+     */
+    private static class GeoJsonWriter extends FeatureWriter {
+
+        /**
+         * The JSON generator.
+         */
+        private final JsonGenerator iGenerator;
+
+        /**
+         * Constructor
+         *
+         * @param aWriter
+         *            the output
+         */
+        GeoJsonWriter(Writer aWriter) {
+            super(aWriter);
+            iGenerator = Json.createGenerator(aWriter);
+        }
+
+        @Override
+        void start(JsonObject aFirstPage) {
+            iGenerator.writeStartObject().write("type", "FeatureCollection").writeStartArray("features");
+        }
+
+        @Override
+        void write(JsonObject aFeature) {
+            iGenerator.writeStartObject().write("type", "Feature").writeKey("geometry");
+            GeometryUtil.writeGeoJson(aFeature.getJsonObject("geometry"), iGenerator);
+            JsonObject attributes = aFeature.getJsonObject("attributes");
+            iGenerator.write("properties", attributes == null ? JsonValue.EMPTY_JSON_OBJECT : attributes).writeEnd();
+        }
+
+        @Override
+        void flush() {
+            iGenerator.flush();
+        }
+
+        @Override
+        void end() {
+            iGenerator.writeEnd().writeEnd();
+            iGenerator.flush();
+        }
+    }
+
+    /**
+     * Writer of comma separated values. The columns are the fields of the first page, followed by X and Y for the points.
+     */
+    private static class CsvWriter extends FeatureWriter {
+
+        /**
+         * The attribute names of the columns.
+         */
+        private final List<String> iColumns = new ArrayList<>();
+
+        /**
+         * <code>true</code> to write the coordinates of the points.
+         */
+        private boolean iPoints;
+
+        /**
+         * Constructor
+         *
+         * @param aWriter
+         *            the output
+         */
+        CsvWriter(Writer aWriter) {
+            super(aWriter);
+        }
+
+        @Override
+        void start(JsonObject aFirstPage) throws IOException {
+            JsonArray fields = aFirstPage.getJsonArray("fields");
+            if (fields != null) {
+                for (JsonValue field : fields) {
+                    iColumns.add(field.asJsonObject().getString("name"));
+                }
+            } else if (aFirstPage.containsKey("features") && !aFirstPage.getJsonArray("features").isEmpty()) {
+                iColumns.addAll(aFirstPage.getJsonArray("features").getJsonObject(0).getJsonObject("attributes").keySet());
+            }
+            iPoints = "esriGeometryPoint".equals(aFirstPage.getString("geometryType", null));
+
+            List<String> header = new ArrayList<>(iColumns);
+            if (iPoints) {
+                header.add("X");
+                header.add("Y");
+            }
+            writeLine(header);
+        }
+
+        @Override
+        void write(JsonObject aFeature) throws IOException {
+            JsonObject attributes = aFeature.getJsonObject("attributes");
+            List<String> values = new ArrayList<>(iColumns.size() + 2);
+            for (String column : iColumns) {
+                values.add(toText(attributes == null ? null : attributes.get(column)));
+            }
+            if (iPoints) {
+                JsonObject geometry = aFeature.getJsonObject("geometry");
+                values.add(geometry == null ? "" : toText(geometry.get("x")));
+                values.add(geometry == null ? "" : toText(geometry.get("y")));
+            }
+            writeLine(values);
+        }
+
+        /**
+         * Get the text of an attribute value.
+         *
+         * @param aValue
+         *            the value
+         * @return the text, empty for <code>null</code>
+         */
+        private static String toText(JsonValue aValue) {
+            if (aValue == null || aValue == JsonValue.NULL) {
+                return "";
+            }
+            if (aValue instanceof JsonString) {
+                return ((JsonString) aValue).getString();
+            }
+            if (aValue instanceof JsonNumber) {
+                return ((JsonNumber) aValue).toString();
+            }
+            return aValue.toString();
+        }
+
+        /**
+         * Write a line of values, quoted when needed.
+         *
+         * @param aValues
+         *            the values
+         * @throws IOException
+         *             if the output can't be written
+         */
+        private void writeLine(List<String> aValues) throws IOException {
+            for (int i = 0; i < aValues.size(); i++) {
+                if (i > 0) {
+                    iWriter.write(',');
+                }
+                String value = aValues.get(i);
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    iWriter.write('"');
+                    iWriter.write(value.replace("\"", "\"\""));
+                    iWriter.write('"');
+                } else {
+                    iWriter.write(value);
+                }
+            }
+            iWriter.write("\r\n");
+        }
+    }
+}
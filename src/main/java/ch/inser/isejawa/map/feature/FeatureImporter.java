@@ -0,0 +1,585 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.isejawa.map.util.GeometryUtil;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+
+/**
+ * Import of the features of a GeoJSON or CSV file in a feature service layer.
+ *
+ * The file is read record by record and the features are sent by batches to {@link FeatureServiceHandler#addFeatures} by concurrent
+ * workers. The reading waits when the maximum number of batches are being sent, so the memory used does not depend on the size of the
+ * file. The progress can be followed with {@link #getProgress()} during the import. The batches have the maximum record count of the
+ * layer unless a batch size is given, and the import fails at once if the layer does not allow to add features.
+ *
+ * <pre>
+ * FeatureImporter importer = new FeatureImporter(featureUrl, () -&gt; ServiceUtil.getCachedToken(contextManager, referer, null, false)
+ *         .getString("token")).batchSize(500).concurrency(4);
+ * ImportProgress progress = importer.importGeoJson(Paths.get("/data/parcels.geojson"));
+ * </pre>
+ *
+ * @author INSER SA
+ */
+public class FeatureImporter {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(FeatureImporter.class);
+
+    /**
+     * Size of the read buffer in bytes.
+     */
+    private static final int READ_BUFFER = 1 << 16;
+
+    /**
+     * The byte order mark of the UTF-8 files, decoded.
+     */
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /**
+     * The full feature URL including the feature service URL and the layer id.
+     */
+    private final String iFeatureUrl;
+
+    /**
+     * The provider of the token, called for each batch.
+     */
+    private final Callable<String> iTokenProvider;
+
+    /**
+     * Number of features by batch, 0 for the maximum record count of the layer.
+     */
+    private int iBatchSize;
+
+    /**
+     * Maximum number of batches sent at the same time.
+     */
+    private int iConcurrency = 4;
+
+    /**
+     * Rollback the batch if a feature can't be added.
+     */
+    private boolean iRollbackOnFailure;
+
+    /**
+     * Spatial reference of the coordinates of the file.
+     */
+    private int iWkid = 4326;
+
+    /**
+     * CSV column of the x coordinate, <code>null</code> without geometry.
+     */
+    private String iXColumn;
+
+    /**
+     * CSV column of the y coordinate, <code>null</code> without geometry.
+     */
+    private String iYColumn;
+
+    /**
+     * CSV separator.
+     */
+    private char iDelimiter = ',';
+
+    /**
+     * The progress of the running or last import.
+     */
+    private volatile ImportProgress iProgress;
+
+    /**
+     * Constructor
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aTokenProvider
+     *            the provider of the token, called for each batch
+     */
+    public FeatureImporter(String aFeatureUrl, Callable<String> aTokenProvider) {
+        iFeatureUrl = aFeatureUrl;
+        iTokenProvider = aTokenProvider;
+    }
+
+    /**
+     * @param aBatchSize
+     *            number of features by batch (default 0: the maximum record count of the layer)
+     * @return the importer
+     * @throws IllegalArgumentException
+     *             if the batch size is negative
+     */
+    public FeatureImporter batchSize(int aBatchSize) {
+        if (aBatchSize < 0) {
+            throw new IllegalArgumentException("Invalid batch size: " + aBatchSize);
+        }
+        iBatchSize = aBatchSize;
+        return this;
+    }
+
+    /**
+     * @param aConcurrency
+     *            maximum number of batches sent at the same time (default 4)
+     * @return the importer
+     * @throws IllegalArgumentException
+     *             if the concurrency is less than 1
+     */
+    public FeatureImporter concurrency(int aConcurrency) {
+        if (aConcurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + aConcurrency);
+        }
+        iConcurrency = aConcurrency;
+        return this;
+    }
+
+    /**
+     * @param aRollbackOnFailure
+     *            rollback the batch if a feature can't be added (default false)
+     * @return the importer
+     */
+    public FeatureImporter rollbackOnFailure(boolean aRollbackOnFailure) {
+        iRollbackOnFailure = aRollbackOnFailure;
+        return this;
+    }
+
+    /**
+     * @param aWkid
+     *            spatial reference of the coordinates of the file (default 4326)
+     * @return the importer
+     */
+    public FeatureImporter wkid(int aWkid) {
+        iWkid = aWkid;
+        return this;
+    }
+
+    /**
+     * @param aXColumn
+     *            CSV column of the x coordinate
+     * @param aYColumn
+     *            CSV column of the y coordinate
+     * @return the importer
+     */
+    public FeatureImporter csvCoordinates(String aXColumn, String aYColumn) {
+        iXColumn = aXColumn;
+        iYColumn = aYColumn;
+        return this;
+    }
+
+    /**
+     * @param aDelimiter
+     *            CSV separator (default ',')
+     * @return the importer
+     */
+    public FeatureImporter csvDelimiter(char aDelimiter) {
+        iDelimiter = aDelimiter;
+        return this;
+    }
+
+    /**
+     * @return the progress of the running or last import, <code>null</code> before the first import
+     */
+    public ImportProgress getProgress() {
+        return iProgress;
+    }
+
+    /**
+     * Import a GeoJSON file: a feature collection or an array of features.
+     *
+     * @param aFile
+     *            the file
+     * @return the progress, finished
+     * @throws IOException
+     *             if the file can't be read
+     */
+    public ImportProgress importGeoJson(Path aFile) throws IOException {
+        try (Batcher batcher = new Batcher(); Reader reader = openReader(aFile); JsonParser parser = Json.createParser(reader)) {
+            Event event = parser.next();
+            if (event == Event.START_ARRAY) {
+                readGeoJsonFeatures(parser, batcher);
+            } else {
+                while (parser.hasNext() && (event = parser.next()) != Event.END_OBJECT) {
+                    String key = parser.getString();
+                    event = parser.next();
+                    if ("features".equals(key) && event == Event.START_ARRAY) {
+                        readGeoJsonFeatures(parser, batcher);
+                    } else if (event == Event.START_OBJECT) {
+                        parser.skipObject();
+                    } else if (event == Event.START_ARRAY) {
+                        parser.skipArray();
+                    }
+                }
+            }
+            return batcher.iProgress;
+        }
+    }
+
+    /**
+     * Read the features of a GeoJSON array.
+     *
+     * @param aParser
+     *            the parser, positioned at the start of the array
+     * @param aBatcher
+     *            the batcher
+     * @throws IOException
+     *             if the import is interrupted
+     */
+    private void readGeoJsonFeatures(JsonParser aParser, Batcher aBatcher) throws IOException {
+        Event event;
+        while ((event = aParser.next()) != Event.END_ARRAY) {
+            if (event == Event.START_OBJECT) {
+                JsonObject feature = aParser.getObject();
+                JsonObjectBuilder esriFeature = Json.createObjectBuilder();
+                JsonValue properties = feature.get("properties");
+                esriFeature.add("attributes", properties instanceof JsonObject ? properties : JsonValue.EMPTY_JSON_OBJECT);
+                JsonValue geometry = feature.get("geometry");
+                if (geometry instanceof JsonObject) {
+                    esriFeature.add("geometry", GeometryUtil.toEsriGeometry(geometry.asJsonObject(), iWkid));
+                }
+                aBatcher.add(esriFeature.build());
+            }
+        }
+    }
+
+    /**
+     * Import a CSV file with a header line. The values are imported as text, the server converts them to the types of the fields.
+     *
+     * @param aFile
+     *            the file
+     * @return the progress, finished
+     * @throws IOException
+     *             if the file can't be read
+     */
+    public ImportProgress importCsv(Path aFile) throws IOException {
+        try (Batcher batcher = new Batcher(); Reader reader = openReader(aFile)) {
+            List<String> header = readCsvRecord(reader, iDelimiter);
+            if (header == null) {
+                return batcher.iProgress;
+            }
+            List<String> record;
+            while ((record = readCsvRecord(reader, iDelimiter)) != null) {
+                JsonObjectBuilder attributes = Json.createObjectBuilder();
+                String x = null;
+                String y = null;
+                for (int i = 0; i < header.size() && i < record.size(); i++) {
+                    String column = header.get(i);
+                    String value = record.get(i);
+                    if (column.equals(iXColumn)) {
+                        x = value;
+                    } else if (column.equals(iYColumn)) {
+                        y = value;
+                    } else if (value.isEmpty()) {
+                        attributes.addNull(column);
+                    } else {
+                        attributes.add(column, value);
+                    }
+                }
+                JsonObjectBuilder feature = Json.createObjectBuilder().add("attributes", attributes);
+                if (x != null && y != null && !x.isEmpty() && !y.isEmpty()) {
+                    try {
+                        feature.add("geometry", Json.createObjectBuilder().add("x", Double.parseDouble(x)).add("y", Double.parseDouble(y))
+                                .add("spatialReference", Json.createObjectBuilder().add("wkid", iWkid)));
+                    } catch (NumberFormatException e) {
+                        batcher.skip(String.format("Invalid coordinates: x='%s' y='%s'", x, y));
+                        continue;
+                    }
+                }
+                batcher.add(feature.build());
+            }
+            return batcher.iProgress;
+        }
+    }
+
+    /**
+     * Read a CSV record, the quoted values can contain separators, quotes (doubled) and line breaks.
+     *
+     * @param aReader
+     *            the reader
+     * @param aDelimiter
+     *            the separator of the values
+     * @return the values or <code>null</code> at the end of the file
+     * @throws IOException
+     *             if the file can't be read
+     */
+    static List<String> readCsvRecord(Reader aReader, char aDelimiter) throws IOException {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        int c = aReader.read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0) {
+            if (quoted) {
+                if (c == '"') {
+                    int next = aReader.read();
+                    if (next == '"') {
+                        value.append('"');
+                    } else {
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                } else {
+                    value.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == aDelimiter) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                value.append((char) c);
+            }
+            c = aReader.read();
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Open a file for reading with an NIO channel, skipping the byte order mark written by some editors at the start of the UTF-8
+     * files, so that it is not read as part of the first column name.
+     *
+     * @param aFile
+     *            the file
+     * @return the reader
+     * @throws IOException
+     *             if the file can't be opened
+     */
+    private static Reader openReader(Path aFile) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                Channels.newReader(FileChannel.open(aFile, StandardOpenOption.READ), StandardCharsets.UTF_8.newDecoder(), READ_BUFFER),
+                READ_BUFFER);
+        reader.mark(1);
+        if (reader.read() != BYTE_ORDER_MARK) {
+            reader.reset();
+        }
+        return reader;
+    }
+
+    /**
+     * Group the features in batches and send them to concurrent workers.
+     */
+    private class Batcher implements AutoCloseable {
+
+        /**
+         * The progress.
+         */
+        private final ImportProgress iProgress = new ImportProgress();
+
+        /**
+         * Permits of the batches being sent.
+         */
+        private final Semaphore iPermits = new Semaphore(iConcurrency);
+
+        /**
+         * The features of the current batch.
+         */
+        private JsonArrayBuilder iBatch = Json.createArrayBuilder();
+
+        /**
+         * Number of features of the current batch.
+         */
+        private int iBatchCount;
+
+        /**
+         * Index in the file of the first record of the current batch.
+         */
+        private long iFirstRecord;
+
+        /**
+         * Number of batches sent.
+         */
+        private long iBatchIndex;
+
+        /**
+         * Number of features by batch.
+         */
+        private final int iSize;
+
+        /**
+         * Constructor, checking that features can be added to the layer.
+         *
+         * @throws IOException
+         *             if the layer description can't be read or the layer does not allow to add features
+         */
+        Batcher() throws IOException {
+            LayerInfo layer;
+            try {
+                layer = FeatureServiceHandler.getLayerInfo(iFeatureUrl, iTokenProvider.call());
+            } catch (Exception e) {
+                throw new IOException("Error reading the description of the layer " + iFeatureUrl, e);
+            }
+            if (!layer.hasCapability("Create")) {
+                throw new IOException("The layer does not allow to add features: " + iFeatureUrl);
+            }
+            iSize = layer.getPageSize(iBatchSize);
+            FeatureImporter.this.iProgress = iProgress;
+        }
+
+        /**
+         * Add a feature to the current batch, and send the batch when it is full.
+         *
+         * @param aFeature
+         *            the feature
+         * @throws IOException
+         *             if the import is interrupted
+         */
+        void add(JsonObject aFeature) throws IOException {
+            if (iBatchCount == 0) {
+                iFirstRecord = iProgress.getRead();
+            }
+            iProgress.recordRead();
+            iBatch.add(aFeature);
+            iBatchCount++;
+            if (iBatchCount >= iSize) {
+                send();
+            }
+        }
+
+        /**
+         * Count a record that can't be converted to a feature as failed, without sending it.
+         *
+         * @param aMessage
+         *            the reason
+         */
+        void skip(String aMessage) {
+            long record = iProgress.getRead();
+            iProgress.recordRead();
+            iProgress.recordFailed(record, aMessage);
+        }
+
+        /**
+         * Send the current batch, waiting for a worker if needed.
+         *
+         * @throws IOException
+         *             if the import is interrupted
+         */
+        private void send() throws IOException {
+            if (iBatchCount == 0) {
+                return;
+            }
+            JsonArray features = iBatch.build();
+            long batch = iBatchIndex++;
+            long firstRecord = iFirstRecord;
+            iBatch = Json.createArrayBuilder();
+            iBatchCount = 0;
+
+            try {
+                iPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            }
+            iProgress.batchSent();
+            ServiceExecutor.getExecutor().execute(() -> {
+                try {
+                    addBatch(features, batch, firstRecord);
+                } finally {
+                    iPermits.release();
+                }
+            });
+        }
+
+        /**
+         * Add a batch of features to the layer.
+         *
+         * @param aFeatures
+         *            the features
+         * @param aBatch
+         *            index of the batch
+         * @param aFirstRecord
+         *            index in the file of the first record of the batch
+         */
+        private void addBatch(JsonArray aFeatures, long aBatch, long aFirstRecord) {
+            try {
+                JsonObject result = FeatureServiceHandler.addFeatures(iFeatureUrl, aFeatures, iRollbackOnFailure, iTokenProvider.call());
+                JsonArray addResults = result.getJsonArray("addResults");
+                if (addResults == null) {
+                    iProgress.batchDone(0, aFeatures.size(), new ImportProgress.BatchFailure(aBatch, aFirstRecord, aFeatures.size(),
+                            String.valueOf(result.get("error"))));
+                    return;
+                }
+                int added = 0;
+                JsonArrayBuilder failures = Json.createArrayBuilder();
+                for (JsonValue addResult : addResults) {
+                    if (addResult.asJsonObject().getBoolean("success", false)) {
+                        added++;
+                    } else {
+                        failures.add(addResult);
+                    }
+                }
+                int failed = aFeatures.size() - added;
+                iProgress.batchDone(added, failed,
+                        failed == 0 ? null : new ImportProgress.BatchFailure(aBatch, aFirstRecord, aFeatures.size(),
+                                failures.build().toString()));
+            } catch (Exception e) {
+                logger.warn(String.format("addBatch: batch %s failed", aBatch), e);
+                iProgress.batchDone(0, aFeatures.size(),
+                        new ImportProgress.BatchFailure(aBatch, aFirstRecord, aFeatures.size(), e.toString()));
+            }
+        }
+
+        /**
+         * Send the last batch and wait for all the batches.
+         *
+         * @throws IOException
+         *             if the import is interrupted
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                send();
+                iPermits.acquire(iConcurrency);
+                iPermits.release(iConcurrency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            } finally {
+                iProgress.finished();
+                logger.info(String.format("Import in %s: %s", iFeatureUrl, iProgress));
+            }
+        }
+    }
+}
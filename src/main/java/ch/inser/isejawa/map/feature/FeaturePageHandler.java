@@ -0,0 +1,39 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.IOException;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Handler of the pages of features returned by {@link FeatureServiceHandler#queryPages}.
+ *
+ * @author INSER SA
+ */
+@FunctionalInterface
+public interface FeaturePageHandler {
+
+    /**
+     * Handle a page of features.
+     *
+     * @param aPage
+     *            the arcGis answer for the page: {features: [...], fields: [...], exceededTransferLimit: true/false, ...}
+     * @throws IOException
+     *             if the page can't be handled
+     */
+    void handlePage(JsonObject aPage) throws IOException;
+}
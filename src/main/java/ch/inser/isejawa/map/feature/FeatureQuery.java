@@ -0,0 +1,370 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ch.inser.isejawa.map.transport.FormData;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Parameters of a query on a feature service layer, see https://developers.arcgis.com/rest/services-reference/query-feature-service-layer-.htm
+ *
+ * Only the parameters set on the builder are sent to the server, the others keep the server default value. The query is immutable and
+ * encodes its parameters once, so it can be kept and reused for many calls: only the token and the result offset are added to the URL
+ * on each call.
+ *
+ * <pre>
+ * FeatureQuery query = FeatureQuery.builder().where("STATUS = 1").outFields("OBJECTID", "NAME").returnGeometry(false).build();
+ * JsonObject features = FeatureServiceHandler.getFeatures(featureUrl, query, token);
+ * </pre>
+ *
+ * @author INSER SA
+ */
+public class FeatureQuery {
+
+    /**
+     * Name of the result offset parameter, added to the URL on each call.
+     */
+    private static final String RESULT_OFFSET = "resultOffset";
+
+    /**
+     * Name of the token parameter, added to the URL on each call.
+     */
+    private static final String TOKEN = "token";
+
+    /**
+     * The query parameters, in the order they were set.
+     */
+    private final Map<String, String> iParameters;
+
+    /**
+     * The encoded query parameters, without the token and the result offset.
+     */
+    private final String iQueryString;
+
+    /**
+     * Constructor
+     *
+     * @param aParameters
+     *            the query parameters
+     */
+    private FeatureQuery(Map<String, String> aParameters) {
+        iParameters = Collections.unmodifiableMap(new LinkedHashMap<>(aParameters));
+
+        StringBuilder queryString = new StringBuilder();
+        for (Map.Entry<String, String> parameter : iParameters.entrySet()) {
+            if (RESULT_OFFSET.equals(parameter.getKey())) {
+                continue;
+            }
+            if (queryString.length() > 0) {
+                queryString.append('&');
+            }
+            queryString.append(parameter.getKey()).append('=').append(FormData.encode(parameter.getValue()));
+        }
+        iQueryString = queryString.toString();
+    }
+
+    /**
+     * Create a builder for a new query.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create a builder initialized with the parameters of this query.
+     *
+     * @return the builder
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.iParameters.putAll(iParameters);
+        return builder;
+    }
+
+    /**
+     * Get the query parameters.
+     *
+     * @return the parameters by name
+     */
+    public Map<String, String> getParameters() {
+        return iParameters;
+    }
+
+    /**
+     * Get a query parameter.
+     *
+     * @param aName
+     *            the parameter name
+     * @return the parameter value or <code>null</code> if not set
+     */
+    public String getParameter(String aName) {
+        return iParameters.get(aName);
+    }
+
+    /**
+     * Get the encoded query parameters, without the token and the result offset.
+     *
+     * @return the query string
+     */
+    public String getQueryString() {
+        return iQueryString;
+    }
+
+    /**
+     * Get the URL of the query.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id
+     * @param aToken
+     *            the token, not sent if <code>null</code> or empty
+     * @return the URL with the encoded parameters
+     */
+    public String toUrl(String aFeatureUrl, String aToken) {
+        String resultOffset = iParameters.get(RESULT_OFFSET);
+        return toUrl(aFeatureUrl, aToken, resultOffset == null ? -1 : Integer.parseInt(resultOffset));
+    }
+
+    /**
+     * Get the URL of the query for a page of the result.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id
+     * @param aToken
+     *            the token, not sent if <code>null</code> or empty
+     * @param aResultOffset
+     *            return the features from this index, not sent if &lt;0
+     * @return the URL with the encoded parameters
+     */
+    public String toUrl(String aFeatureUrl, String aToken, int aResultOffset) {
+        StringBuilder url = new StringBuilder(aFeatureUrl.length() + iQueryString.length() + 64);
+        url.append(aFeatureUrl).append("/query?").append(iQueryString);
+        if (aToken != null && !aToken.isEmpty()) {
+            url.append('&').append(TOKEN).append('=').append(FormData.encode(aToken));
+        }
+        if (aResultOffset >= 0) {
+            url.append('&').append(RESULT_OFFSET).append('=').append(aResultOffset);
+        }
+        return url.toString();
+    }
+
+    @Override
+    public String toString() {
+        return iParameters.toString();
+    }
+
+    /**
+     * Builder of feature queries.
+     */
+    public static class Builder {
+
+        /**
+         * The query parameters.
+         */
+        private final Map<String, String> iParameters = new LinkedHashMap<>();
+
+        /**
+         * Constructor
+         */
+        private Builder() {
+            iParameters.put("f", "json");
+        }
+
+        /**
+         * Set a query parameter, a <code>null</code> or empty value removes the parameter. The token is not a query parameter, it is
+         * given on each call.
+         *
+         * @param aName
+         *            the parameter name
+         * @param aValue
+         *            the parameter value
+         * @return the builder
+         */
+        public Builder param(String aName, Object aValue) {
+            if (TOKEN.equals(aName)) {
+                throw new IllegalArgumentException("The token is given on each call, not in the query");
+            }
+            if (aValue == null || "".equals(aValue.toString())) {
+                iParameters.remove(aName);
+            } else {
+                iParameters.put(aName, aValue.toString());
+            }
+            return this;
+        }
+
+        /**
+         * @param aWhere
+         *            the where clause
+         * @return the builder
+         */
+        public Builder where(String aWhere) {
+            return param("where", aWhere);
+        }
+
+        /**
+         * @param aObjectIds
+         *            the object ids, comma separated
+         * @return the builder
+         */
+        public Builder objectIds(String aObjectIds) {
+            return param("objectIds", aObjectIds);
+        }
+
+        /**
+         * @param aFields
+         *            the fields to return, all the fields if none is given
+         * @return the builder
+         */
+        public Builder outFields(String... aFields) {
+            return param("outFields", aFields.length == 0 ? "*" : String.join(",", aFields));
+        }
+
+        /**
+         * @param aGeometry
+         *            the geometry to filter the features, in JSON or in the simple syntax (example: xmin,ymin,xmax,ymax)
+         * @param aGeometryType
+         *            the geometryType (e.g: esriGeometryEnvelope)
+         * @return the builder
+         */
+        public Builder geometry(String aGeometry, String aGeometryType) {
+            return param("geometry", aGeometry).param("geometryType", aGeometryType);
+        }
+
+        /**
+         * @param aSpatialRel
+         *            the spatial relationship to apply on the geometry (e.g: esriSpatialRelIntersects)
+         * @return the builder
+         */
+        public Builder spatialRel(String aSpatialRel) {
+            return param("spatialRel", aSpatialRel);
+        }
+
+        /**
+         * @param aInSR
+         *            the spatial reference of the input geometry
+         * @return the builder
+         */
+        public Builder inSR(String aInSR) {
+            return param("inSR", aInSR);
+        }
+
+        /**
+         * @param aOutSR
+         *            the spatial reference of the returned geometries
+         * @return the builder
+         */
+        public Builder outSR(String aOutSR) {
+            return param("outSR", aOutSR);
+        }
+
+        /**
+         * @param aOrderByFields
+         *            sorting by fields
+         * @return the builder
+         */
+        public Builder orderByFields(String aOrderByFields) {
+            return param("orderByFields", aOrderByFields);
+        }
+
+        /**
+         * @param aReturnGeometry
+         *            if true return the geometry of objects, false no geometry
+         * @return the builder
+         */
+        public Builder returnGeometry(boolean aReturnGeometry) {
+            return param("returnGeometry", aReturnGeometry);
+        }
+
+        /**
+         * @param aReturnCountOnly
+         *            if true return only count, false get the features
+         * @return the builder
+         */
+        public Builder returnCountOnly(boolean aReturnCountOnly) {
+            return param("returnCountOnly", aReturnCountOnly);
+        }
+
+        /**
+         * @param aReturnIdsOnly
+         *            if true return only the object ids, false get the features
+         * @return the builder
+         */
+        public Builder returnIdsOnly(boolean aReturnIdsOnly) {
+            return param("returnIdsOnly", aReturnIdsOnly);
+        }
+
+        /**
+         * @param aMaxAllowableOffset
+         *            the maximum allowable offset used to generalize the returned geometries, in the units of the output spatial reference
+         * @return the builder
+         */
+        public Builder maxAllowableOffset(double aMaxAllowableOffset) {
+            return param("maxAllowableOffset", aMaxAllowableOffset);
+        }
+
+        /**
+         * @param aGeometryPrecision
+         *            the number of decimal places of the returned geometries
+         * @return the builder
+         */
+        public Builder geometryPrecision(int aGeometryPrecision) {
+            return param("geometryPrecision", aGeometryPrecision);
+        }
+
+        /**
+         * @param aQuantizationParameters
+         *            the quantization parameters used to generalize the returned geometries (example: {"mode": "view",
+         *            "originPosition": "upperLeft", "tolerance": 1, "extent": {...}})
+         * @return the builder
+         */
+        public Builder quantizationParameters(JsonObject aQuantizationParameters) {
+            return param("quantizationParameters", aQuantizationParameters);
+        }
+
+        /**
+         * @param aResultOffset
+         *            return the features from this index (pagination)
+         * @return the builder
+         */
+        public Builder resultOffset(int aResultOffset) {
+            return param("resultOffset", aResultOffset);
+        }
+
+        /**
+         * @param aResultRecordCount
+         *            maximum number of features to return (pagination)
+         * @return the builder
+         */
+        public Builder resultRecordCount(int aResultRecordCount) {
+            return param("resultRecordCount", aResultRecordCount);
+        }
+
+        /**
+         * Build the query.
+         *
+         * @return the query
+         */
+        public FeatureQuery build() {
+            return new FeatureQuery(iParameters);
+        }
+    }
+}
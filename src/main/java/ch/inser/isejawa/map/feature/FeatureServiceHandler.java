@@ -15,21 +15,33 @@
 
 package ch.inser.isejawa.map.feature;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import ch.inser.rest.util.ISClientBuilder;
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+import ch.inser.isejawa.map.util.TimedCache;
+import ch.inser.jsl.exceptions.ISException;
 import ch.inser.rest.util.JsonUtil;
 
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonNumber;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonValue;
-import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.WebTarget;
-import jakarta.ws.rs.core.Form;
 import jakarta.ws.rs.core.Response;
 
 /**
@@ -55,6 +67,41 @@ public class FeatureServiceHandler {
      */
     private static final String EMTPY_PARAMETER = "";
 
+    /**
+     * Time in milliseconds during which the statistics of a query are cached, unless the layer is edited.
+     */
+    private static final long STATISTICS_TTL = 300_000;
+
+    /**
+     * Maximum time in milliseconds to wait for the statistics.
+     */
+    private static final long STATISTICS_TIMEOUT = 60_000;
+
+    /**
+     * The cached statistics by feature URL, token, query and aggregates.
+     */
+    private static final TimedCache<String, LayerStatistics> STATISTICS = new TimedCache<>();
+
+    /**
+     * Time in milliseconds during which the description of a layer is cached.
+     */
+    private static final long LAYER_INFO_TTL = 600_000;
+
+    /**
+     * The cached layer descriptions by feature URL and token.
+     */
+    private static final TimedCache<String, LayerInfo> LAYER_INFOS = new TimedCache<>();
+
+    /**
+     * Maximum number of object ids in a query, to keep the query URL short.
+     */
+    private static final int MAX_OBJECT_IDS = 500;
+
+    /**
+     * Page size of {@link #queryPages} returning the maximum record count of the layer in each page.
+     */
+    public static final int LAYER_PAGE_SIZE = 0;
+
     /**
      * Get a feature.
      *
@@ -68,14 +115,12 @@ public class FeatureServiceHandler {
      * @return the feature
      */
     public static JsonObject getFeature(String aFeatureUrl, int aObjectId, String aToken) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(String.format("%s/%s", aFeatureUrl, aObjectId)).queryParam("f", "json").queryParam("token",
-                aToken);
-        logger.debug(String.format("getFeature: request to='%s'", target.getUri()));
-        Response response = target.request().get();
+        String url = new FormData().param("f", "json").param("token", aToken).toUrl(String.format("%s/%s", aFeatureUrl, aObjectId));
+        logger.debug(String.format("getFeature: request to='%s'", url));
+        TransportResponse response = Transports.get().get(url);
         logger.debug(String.format("getFeature: response HTTP code='%s'", response.getStatus()));
 
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+        return response.getJsonObject();
     }
 
     /**
@@ -91,14 +136,7 @@ public class FeatureServiceHandler {
      * @return the features
      */
     public static JsonObject getFeatures(String aFeatureUrl, String aWhere, String aToken) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(aFeatureUrl + "/query").queryParam("where", aWhere).queryParam("outFields", "*")
-                .queryParam("f", "json").queryParam("token", aToken);
-        logger.debug(String.format("getFeatures: request to='%s'", target.getUri()));
-        Response response = target.request().get();
-        logger.debug(String.format("getFeatures: response HTTP code='%s'", response.getStatus()));
-
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+        return getFeatures(aFeatureUrl, FeatureQuery.builder().where(unescape(aWhere)).outFields().build(), aToken);
     }
 
     /**
@@ -126,20 +164,13 @@ public class FeatureServiceHandler {
      * @param resultRecordCount
      *            if set, return only a portion of the result (pagination)
      * @return the features
+     * @deprecated use {@link #getFeatures(String, FeatureQuery, String)}
      */
+    @Deprecated
     public static JsonObject getFeatures(String aFeatureUrl, String aToken, String aWhere, String outFields, String geometry,
             String orderByFields, Boolean returnCountOnly, Boolean returnGeometry, String resultOffset, String resultRecordCount) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(aFeatureUrl + "/query").queryParam("f", "json").queryParam("token", aToken)
-                .queryParam("where", aWhere).queryParam("returnCountOnly", returnCountOnly).queryParam("outFields", outFields)
-                .queryParam("geometry", geometry).queryParam("orderByFields", orderByFields).queryParam("returnGeometry", returnGeometry)
-                .queryParam("resultOffset", resultOffset).queryParam("resultRecordCount", resultRecordCount);
-
-        logger.debug(String.format("getFeatures: request to='%s'", target.getUri()));
-        Response response = target.request().get();
-        logger.debug(String.format("getFeatures: response HTTP code='%s'", response.getStatus()));
-
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+        return getFeatures(aFeatureUrl, aToken, aWhere, outFields, geometry, orderByFields, EMTPY_PARAMETER, EMTPY_PARAMETER, resultOffset,
+                resultRecordCount, returnCountOnly, returnGeometry);
     }
 
     /**
@@ -169,22 +200,73 @@ public class FeatureServiceHandler {
      * @param returnGeometry
      *            if true return the geometry of objects, false no geometry
      * @return a JsonObject that is the arcGis answer
+     * @deprecated use {@link #getFeatures(String, FeatureQuery, String)}
      */
+    @Deprecated
     public static JsonObject getFeatures(String aFeatureUrl, String aToken, String aWhere, String outFields, String geometry,
             String orderByFields, String aGeometryType, String aInSR, String resultOffset, String resultRecordCount,
             Boolean returnCountOnly, Boolean returnGeometry) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(aFeatureUrl + "/query").queryParam("f", "json").queryParam("token", aToken)
-                .queryParam("where", aWhere).queryParam("returnCountOnly", returnCountOnly).queryParam("outFields", outFields)
-                .queryParam("geometry", geometry).queryParam("orderByFields", orderByFields).queryParam("returnGeometry", returnGeometry)
-                .queryParam("resultOffset", resultOffset).queryParam("resultRecordCount", resultRecordCount).queryParam("inSR", aInSR)
-                .queryParam("geometryType", aGeometryType);
+        FeatureQuery query = FeatureQuery.builder().where(unescape(aWhere)).param("returnCountOnly", returnCountOnly)
+                .param("outFields", unescape(outFields)).geometry(unescape(geometry), unescape(aGeometryType))
+                .orderByFields(unescape(orderByFields)).param("returnGeometry", returnGeometry)
+                .param("resultOffset", toOffset(resultOffset)).param("resultRecordCount", unescape(resultRecordCount))
+                .inSR(unescape(aInSR)).build();
+        return getFeatures(aFeatureUrl, query, aToken);
+    }
 
-        logger.debug(String.format("getFeatures: request to='%s'", target.getUri()));
-        Response response = target.request().get();
-        logger.debug(String.format("getFeatures: response HTTP code='%s'", response.getStatus()));
+    /**
+     * Decode the %XX sequences of a parameter given to the positional methods. These parameters were given to the JAX-RS client,
+     * which keeps the %XX sequences, so the callers may give them already encoded; decoded, they are encoded only once in the URL.
+     *
+     * @param aValue
+     *            the parameter, encoded or not
+     * @return the decoded parameter
+     */
+    static String unescape(String aValue) {
+        if (aValue == null || aValue.indexOf('%') < 0) {
+            return aValue;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(aValue.length());
+        int start = 0;
+        for (int i = 0; i < aValue.length(); i++) {
+            if (aValue.charAt(i) == '%' && i + 2 < aValue.length() && isHex(aValue.charAt(i + 1)) && isHex(aValue.charAt(i + 2))) {
+                bytes.writeBytes(aValue.substring(start, i).getBytes(StandardCharsets.UTF_8));
+                bytes.write(Integer.parseInt(aValue.substring(i + 1, i + 3), 16));
+                i += 2;
+                start = i + 1;
+            }
+        }
+        bytes.writeBytes(aValue.substring(start).getBytes(StandardCharsets.UTF_8));
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
 
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+    /**
+     * @param aChar
+     *            a character
+     * @return <code>true</code> if the character is an hexadecimal digit
+     */
+    private static boolean isHex(char aChar) {
+        return Character.digit(aChar, 16) >= 0 && aChar < 128;
+    }
+
+    /**
+     * Parse the result offset given to the positional methods, sent as is before: a value that is not a number is not sent.
+     *
+     * @param aResultOffset
+     *            the result offset
+     * @return the result offset, <code>null</code> if not a number
+     */
+    private static Integer toOffset(String aResultOffset) {
+        String offset = unescape(aResultOffset);
+        if (offset == null || offset.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(offset.trim());
+        } catch (NumberFormatException e) {
+            logger.debug(String.format("getFeatures: result offset '%s' is not a number, not sent", aResultOffset));
+            return null;
+        }
     }
 
     /**
@@ -196,7 +278,7 @@ public class FeatureServiceHandler {
      * @param outFields
      *            the outField
      * @param geometry
-     *            the extent, must be encoded for URL
+     *            the extent, encoded for URL or not
      * @param aGeometryType
      *            the geometryType (e.g: esriGeometryPoint)
      * @param returnGeometry
@@ -209,6 +291,219 @@ public class FeatureServiceHandler {
                 EMTPY_PARAMETER, EMTPY_PARAMETER, false, false);
     }
 
+    /**
+     * Get features
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters (where clause, out fields, geometry generalization, ...)
+     * @param aToken
+     *            the token
+     * @return a JsonObject that is the arcGis answer
+     */
+    public static JsonObject getFeatures(String aFeatureUrl, FeatureQuery aQuery, String aToken) {
+        return getFeaturesFromUrl(aQuery.toUrl(aFeatureUrl, aToken));
+    }
+
+    /**
+     * Get a page of features
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters, with the page size in <code>resultRecordCount</code>
+     * @param aToken
+     *            the token
+     * @param aResultOffset
+     *            the index of the first feature of the page
+     * @return a JsonObject that is the arcGis answer
+     */
+    public static JsonObject getFeatures(String aFeatureUrl, FeatureQuery aQuery, String aToken, int aResultOffset) {
+        return getFeaturesFromUrl(aQuery.toUrl(aFeatureUrl, aToken, aResultOffset));
+    }
+
+    /**
+     * Get all the features of a query page by page. Each page is given to the handler as soon as it is received, so the features of
+     * the whole query are never in memory at the same time. The pages are limited to the maximum record count of the layer and are
+     * ordered by object id when the query has no order; if the layer does not support the pagination, the object ids of the query
+     * are fetched first and the features are queried by batches of object ids, ordered by object id.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters
+     * @param aToken
+     *            the token
+     * @param aPageSize
+     *            the number of features by page, {@link #LAYER_PAGE_SIZE} for the maximum record count of the layer
+     * @param aHandler
+     *            the handler of the pages
+     * @return the number of features
+     * @throws ISException
+     *             if the server returns an error
+     * @throws IOException
+     *             if the handler fails
+     */
+    public static int queryPages(String aFeatureUrl, FeatureQuery aQuery, String aToken, int aPageSize, FeaturePageHandler aHandler)
+            throws ISException, IOException {
+        LayerInfo layer = getLayerInfo(aFeatureUrl, aToken);
+        int pageSize = layer.getPageSize(aPageSize);
+        int offset = aQuery.getParameter("resultOffset") == null ? 0 : Integer.parseInt(aQuery.getParameter("resultOffset"));
+        if (!layer.isSupportsPagination()) {
+            return queryPagesByIds(aFeatureUrl, aQuery, aToken, Math.min(pageSize, MAX_OBJECT_IDS), offset, aHandler);
+        }
+
+        // Without order, the server may return the same feature in two pages and skip another one
+        FeatureQuery.Builder builder = aQuery.toBuilder().resultRecordCount(pageSize);
+        if (aQuery.getParameter("orderByFields") == null) {
+            builder.orderByFields(layer.getObjectIdField());
+        }
+        FeatureQuery query = builder.build();
+        int count = 0;
+        boolean exceededTransferLimit = true;
+        while (exceededTransferLimit) {
+            JsonObject page = getFeatures(aFeatureUrl, query, aToken, offset);
+            if (page.containsKey("error")) {
+                throw new ISException("Error querying the features: " + page.get("error"));
+            }
+            JsonArray features = page.getJsonArray("features");
+            if (features == null || features.isEmpty()) {
+                break;
+            }
+            aHandler.handlePage(page);
+            count += features.size();
+            offset += features.size();
+            exceededTransferLimit = page.getBoolean("exceededTransferLimit", false);
+        }
+        logger.debug(String.format("queryPages: %s features by %s from='%s'", count, pageSize, aFeatureUrl));
+        return count;
+    }
+
+    /**
+     * Get all the features of a query by batches of object ids, for the layers not supporting the pagination.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id
+     * @param aQuery
+     *            the query parameters
+     * @param aToken
+     *            the token
+     * @param aBatchSize
+     *            the number of object ids by query
+     * @param aOffset
+     *            the number of features to skip
+     * @param aHandler
+     *            the handler of the pages
+     * @return the number of features
+     * @throws ISException
+     *             if the server returns an error
+     * @throws IOException
+     *             if the handler fails
+     */
+    private static int queryPagesByIds(String aFeatureUrl, FeatureQuery aQuery, String aToken, int aBatchSize, int aOffset,
+            FeaturePageHandler aHandler) throws ISException, IOException {
+        FeatureQuery idsQuery = aQuery.toBuilder().returnIdsOnly(true).param("outFields", null).param("orderByFields", null)
+                .param("resultOffset", null).param("resultRecordCount", null).build();
+        JsonObject ids = getFeatures(aFeatureUrl, idsQuery, aToken);
+        if (ids.containsKey("error")) {
+            throw new ISException("Error querying the object ids: " + ids.get("error"));
+        }
+        JsonArray objectIds = ids.getJsonArray("objectIds");
+        if (objectIds == null) {
+            return 0;
+        }
+        long[] sorted = new long[objectIds.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = objectIds.getJsonNumber(i).longValue();
+        }
+        Arrays.sort(sorted);
+
+        FeatureQuery.Builder query = aQuery.toBuilder().param("resultOffset", null).param("resultRecordCount", null);
+        int count = 0;
+        for (int start = Math.max(0, aOffset); start < sorted.length; start += aBatchSize) {
+            StringBuilder batch = new StringBuilder();
+            for (int i = start; i < Math.min(sorted.length, start + aBatchSize); i++) {
+                batch.append(batch.length() == 0 ? "" : ",").append(sorted[i]);
+            }
+            JsonObject page = getFeatures(aFeatureUrl, query.objectIds(batch.toString()).build(), aToken);
+            if (page.containsKey("error")) {
+                throw new ISException("Error querying the features: " + page.get("error"));
+            }
+            JsonArray features = page.getJsonArray("features");
+            if (features != null && !features.isEmpty()) {
+                aHandler.handlePage(page);
+                count += features.size();
+            }
+        }
+        logger.debug(String.format("queryPages: %s features by object ids from='%s'", count, aFeatureUrl));
+        return count;
+    }
+
+    /**
+     * Get the description of a layer: maximum record count, capabilities, fields, ... The description is cached for 10 minutes
+     * by token.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aToken
+     *            the token
+     * @return the description
+     * @throws ISException
+     *             if the server can't be called or returns an error
+     */
+    public static LayerInfo getLayerInfo(String aFeatureUrl, String aToken) throws ISException {
+        // The description (fields, capabilities) depends on the permissions of the token
+        String key = aFeatureUrl + "|" + aToken;
+        LayerInfo layer = LAYER_INFOS.get(key);
+        if (layer != null) {
+            return layer;
+        }
+
+        String url = new FormData().param("f", "json").param("token", "".equals(aToken) ? null : aToken).toUrl(aFeatureUrl);
+        logger.debug(String.format("getLayerInfo: request to='%s'", aFeatureUrl));
+        JsonObject json;
+        try {
+            json = Transports.get().get(url).getJsonObject();
+        } catch (RuntimeException e) {
+            throw new ISException("Error getting the description of the layer " + aFeatureUrl, e);
+        }
+        if (json.containsKey("error")) {
+            throw new ISException("Error getting the description of the layer " + aFeatureUrl + ": " + json.get("error"));
+        }
+        layer = new LayerInfo(json);
+        logger.debug(String.format("getLayerInfo: layer='%s' %s", aFeatureUrl, layer));
+        LAYER_INFOS.removeExpired();
+        LAYER_INFOS.put(key, layer, System.currentTimeMillis() + LAYER_INFO_TTL);
+        return layer;
+    }
+
+    /**
+     * Remove the cached descriptions of the layers, for example after a change of the services.
+     */
+    public static void clearLayerInfoCache() {
+        LAYER_INFOS.clear();
+    }
+
+    /**
+     * Get features from a query URL
+     *
+     * @param aUrl
+     *            the query URL with the encoded parameters
+     * @return the features
+     */
+    private static JsonObject getFeaturesFromUrl(String aUrl) {
+        logger.debug(String.format("getFeatures: request to='%s'", aUrl));
+        TransportResponse response = Transports.get().get(aUrl);
+        logger.debug(String.format("getFeatures: response HTTP code='%s'", response.getStatus()));
+
+        return response.getJsonObject();
+    }
+
     /**
      * Get features from webTarget
      *
@@ -237,14 +532,150 @@ public class FeatureServiceHandler {
      * @return the features
      */
     public static JsonObject getExtent(String aFeatureUrl, String aWhere, String aToken) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(aFeatureUrl + "/query").queryParam("where", aWhere).queryParam("returnExtentOnly", true)
-                .queryParam("f", "json").queryParam("token", aToken);
-        logger.debug(String.format("getFeatures: request to='%s'", target.getUri()));
-        Response response = target.request().get();
-        logger.debug(String.format("getFeatures: response HTTP code='%s'", response.getStatus()));
+        return getExtent(aFeatureUrl, FeatureQuery.builder().where(unescape(aWhere)).build(), aToken);
+    }
+
+    /**
+     * Get extent
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters selecting the features (where clause, geometry, out spatial reference, ...)
+     * @param aToken
+     *            the token
+     * @return the extent of the features
+     */
+    public static JsonObject getExtent(String aFeatureUrl, FeatureQuery aQuery, String aToken) {
+        return getFeatures(aFeatureUrl, aQuery.toBuilder().param("returnExtentOnly", true).build(), aToken).getJsonObject("extent");
+    }
 
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class)).getJsonObject("extent");
+    /**
+     * Get the features intersecting each geometry of a list, grouping the close geometries in a few queries run concurrently, see
+     * {@link SpatialBatchQuery}.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters common to all the geometries, without geometry
+     * @param aGeometries
+     *            the ArcGIS geometries
+     * @param aInSR
+     *            the spatial reference of the geometries, <code>null</code> for the one of the layer
+     * @param aToken
+     *            the token
+     * @return for each geometry, in the same order, the features intersecting it
+     * @throws ISException
+     *             if a query fails or does not finish in time
+     */
+    public static List<List<JsonObject>> getFeatures(String aFeatureUrl, FeatureQuery aQuery, List<JsonObject> aGeometries, String aInSR,
+            String aToken) throws ISException {
+        return new SpatialBatchQuery(aFeatureUrl, aQuery).inSR(aInSR).query(aGeometries, aToken);
+    }
+
+    /**
+     * Get the count, the extent and optional aggregates of the features of a query. The count and the extent are returned by the same
+     * call, the aggregates by a second call done at the same time. The statistics are cached until the layer is edited through this
+     * handler.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters selecting the features (where clause, geometry, out spatial reference, ...)
+     * @param aOutStatistics
+     *            the aggregates to compute, see {@link LayerStatistics#statistic(String, String)}, <code>null</code> or empty for none
+     * @param aToken
+     *            the token
+     * @return the statistics
+     * @throws ISException
+     *             if the server returns an error
+     */
+    public static LayerStatistics getStatistics(String aFeatureUrl, FeatureQuery aQuery, JsonArray aOutStatistics, String aToken)
+            throws ISException {
+        boolean withAggregates = aOutStatistics != null && !aOutStatistics.isEmpty();
+        // The statistics depend on the permissions of the token
+        String key = aFeatureUrl + "|" + aToken + "|" + aQuery.getQueryString() + "|" + (withAggregates ? aOutStatistics.toString() : "");
+        LayerStatistics statistics = STATISTICS.get(key);
+        if (statistics != null) {
+            return statistics;
+        }
+
+        LayerInfo layer = getLayerInfo(aFeatureUrl, aToken);
+        if (withAggregates && !layer.isSupportsStatistics()) {
+            throw new ISException("The layer does not support the statistics: " + aFeatureUrl);
+        }
+        FeatureQuery filter = aQuery.toBuilder().param("outFields", null).param("orderByFields", null).param("resultOffset", null)
+                .param("resultRecordCount", null).build();
+        List<Callable<JsonObject>> tasks = new ArrayList<>();
+        // The extent is returned with the count only if the layer supports it
+        tasks.add(() -> getFeatures(aFeatureUrl,
+                filter.toBuilder().returnCountOnly(true).param("returnExtentOnly", layer.isSupportsQueryExtent() ? true : null).build(),
+                aToken));
+        if (withAggregates) {
+            tasks.add(() -> getFeatures(aFeatureUrl, filter.toBuilder().param("outStatistics", aOutStatistics).build(), aToken));
+        }
+        List<JsonObject> results = ServiceExecutor.invokeAll(tasks, STATISTICS_TIMEOUT);
+        for (JsonObject result : results) {
+            if (result.containsKey("error")) {
+                throw new ISException("Error getting the statistics: " + result.get("error"));
+            }
+        }
+
+        JsonObject countAndExtent = results.get(0);
+        long count;
+        if (countAndExtent.containsKey("count")) {
+            count = getCount(countAndExtent);
+        } else {
+            // Server not able to return the count with the extent
+            count = getCount(getFeatures(aFeatureUrl, filter.toBuilder().returnCountOnly(true).build(), aToken));
+        }
+
+        JsonObject aggregates = null;
+        if (withAggregates) {
+            JsonArray features = results.get(1).getJsonArray("features");
+            if (features != null && !features.isEmpty()) {
+                aggregates = features.getJsonObject(0).getJsonObject("attributes");
+            }
+        }
+
+        statistics = new LayerStatistics(count, countAndExtent.getJsonObject("extent"), aggregates);
+        STATISTICS.removeExpired();
+        STATISTICS.put(key, statistics, System.currentTimeMillis() + STATISTICS_TTL);
+        return statistics;
+    }
+
+    /**
+     * Get the count of a count query.
+     *
+     * @param aResult
+     *            the result of the query
+     * @return the count
+     * @throws ISException
+     *             if the server returned an error or no count
+     */
+    private static long getCount(JsonObject aResult) throws ISException {
+        if (aResult.containsKey("error")) {
+            throw new ISException("Error getting the statistics: " + aResult.get("error"));
+        }
+        JsonValue count = aResult.get("count");
+        if (!(count instanceof JsonNumber)) {
+            throw new ISException("No count in the response of the server: " + aResult);
+        }
+        return ((JsonNumber) count).longValue();
+    }
+
+    /**
+     * Remove the cached statistics of a layer, called after each edit of the layer.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id
+     */
+    public static void invalidateStatistics(String aFeatureUrl) {
+        String prefix = aFeatureUrl + "|";
+        STATISTICS.removeIf(key -> key.startsWith(prefix));
     }
 
     /**
@@ -337,19 +768,25 @@ public class FeatureServiceHandler {
      *            do rollback if the operation fails
      * @param aToken
      *            the arcgis authentication token
-     * @return the result of the operation: {addResults: [ {objectId: ..., success: true/false}, ...]}
+     * @return the result of the operation: {addResults: [ {objectId: ..., success: true/false}, ...]}, or {error: {...}} if the layer
+     *         does not allow the creation
+     * @see #postEdits(String, String, String, JsonArray, LayerInfo, Function)
      */
     public static JsonObject addFeatures(String aFeatureUrl, JsonArray aFeatures, boolean aRollbackOnFailure, String aToken) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(aFeatureUrl + "/addFeatures").queryParam("token", aToken);
-        logger.debug(String.format("addFeatures: request to='%s'", target.getUri()));
-        logger.debug("addFeatures: features " + aFeatures.toString());
-        Form form = new Form().param("f", "json").param("rollbackOnFailure", Boolean.toString(aRollbackOnFailure)).param("token", aToken)
-                .param("features", aFeatures.toString());
-        Response response = target.request().post(Entity.form(form));
-        logger.debug(String.format("addFeatures: response HTTP code='%s'", response.getStatus()));
-
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+        LayerInfo layer = getEditedLayer(aFeatureUrl, aToken);
+        JsonObject refused = checkCapability(aFeatureUrl, layer, "Create");
+        if (refused != null) {
+            return refused;
+        }
+        String url = new FormData().param("token", aToken).toUrl(aFeatureUrl + "/addFeatures");
+        logger.debug(String.format("addFeatures: request to='%s'", url));
+        logger.debug(String.format("addFeatures: %s features", aFeatures.size()));
+        JsonObject result = postEdits(url, "addFeatures", "addResults", aFeatures, layer,
+                batch -> new FormData().param("f", "json").param("rollbackOnFailure", Boolean.toString(aRollbackOnFailure))
+                        .param("token", aToken).param("features", batch));
+        invalidateStatistics(aFeatureUrl);
+
+        return result;
     }
 
     /**
@@ -362,17 +799,23 @@ public class FeatureServiceHandler {
      *            the feature in a json array to be added in the layer: [{attributes: {..}, geometry: {..}, etc.}, ...]
      * @param aToken
      *            the token
-     * @return the result of the operation: {updateResults: [ {objectId: ..., success: true/false}]}
+     * @return the result of the operation: {updateResults: [ {objectId: ..., success: true/false}]}, or {error: {...}} if the layer
+     *         does not allow the update
+     * @see #postEdits(String, String, String, JsonArray, LayerInfo, Function)
      */
     public static JsonObject updateFeatures(String aFeatureUrl, JsonArray aFeatures, String aToken) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(aFeatureUrl + "/updateFeatures");
-        logger.debug(String.format("updateFeatures: request to='%s'", target.getUri()));
-        logger.debug("updateFeatures: features " + aFeatures.toString());
-        Form form = new Form().param("f", "json").param("token", aToken).param("features", aFeatures.toString());
-        Response response = target.request().post(Entity.form(form));
-        logger.debug(String.format("updateFeatures: response HTTP code='%s'", response.getStatus()));
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+        LayerInfo layer = getEditedLayer(aFeatureUrl, aToken);
+        JsonObject refused = checkCapability(aFeatureUrl, layer, "Update");
+        if (refused != null) {
+            return refused;
+        }
+        String url = aFeatureUrl + "/updateFeatures";
+        logger.debug(String.format("updateFeatures: request to='%s'", url));
+        logger.debug(String.format("updateFeatures: %s features", aFeatures.size()));
+        JsonObject result = postEdits(url, "updateFeatures", "updateResults", aFeatures, layer,
+                batch -> new FormData().param("f", "json").param("token", aToken).param("features", batch));
+        invalidateStatistics(aFeatureUrl);
+        return result;
     }
 
     /**
@@ -388,16 +831,103 @@ public class FeatureServiceHandler {
      *            do rollback if the operation fails
      * @param aToken
      *            the token
-     * @return the result of the operation: {deleteResults: [ {objectId: ..., success: true/false},...]}
+     * @return the result of the operation: {deleteResults: [ {objectId: ..., success: true/false},...]}, or {error: {...}} if the
+     *         layer does not allow the deletion
      */
     public static JsonObject deleteFeatures(String aFeatureUrl, String aClauseWhere, boolean aRollbackOnFailure, String aToken) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(aFeatureUrl + "/deleteFeatures");
-        logger.debug(String.format("deleteFeatures: request to='%s'", target.getUri()));
-        Form form = new Form().param("f", "json").param("token", aToken).param("rollbackOnFailure", Boolean.toString(aRollbackOnFailure))
-                .param("where", aClauseWhere);
-        Response response = target.request().post(Entity.form(form));
+        JsonObject refused = checkCapability(aFeatureUrl, getEditedLayer(aFeatureUrl, aToken), "Delete");
+        if (refused != null) {
+            return refused;
+        }
+        String url = aFeatureUrl + "/deleteFeatures";
+        logger.debug(String.format("deleteFeatures: request to='%s'", url));
+        FormData form = new FormData().param("f", "json").param("token", aToken)
+                .param("rollbackOnFailure", Boolean.toString(aRollbackOnFailure)).param("where", aClauseWhere);
+        TransportResponse response = Transports.get().post(url, form);
         logger.debug(String.format("deleteFeatures: response HTTP code='%s'", response.getStatus()));
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+        invalidateStatistics(aFeatureUrl);
+        return response.getJsonObject();
+    }
+
+    /**
+     * Get the description of an edited layer.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id
+     * @param aToken
+     *            the token
+     * @return the description, <code>null</code> if it can't be read: the edit is then sent as is and checked by the server
+     */
+    private static LayerInfo getEditedLayer(String aFeatureUrl, String aToken) {
+        try {
+            return getLayerInfo(aFeatureUrl, aToken);
+        } catch (ISException e) {
+            logger.warn("Edit sent without the description of the layer", e);
+            return null;
+        }
+    }
+
+    /**
+     * Check the edit capability of a layer before sending an edit.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id
+     * @param aLayer
+     *            the description of the layer, <code>null</code> if unknown
+     * @param aCapability
+     *            the capability: Create, Update or Delete
+     * @return the error in the format of the ArcGIS servers if the layer lists its capabilities without this one, <code>null</code>
+     *         if the edit can be sent
+     */
+    private static JsonObject checkCapability(String aFeatureUrl, LayerInfo aLayer, String aCapability) {
+        if (aLayer == null || !aLayer.getJson().containsKey("capabilities") || aLayer.hasCapability(aCapability)) {
+            return null;
+        }
+        String message = String.format("The layer %s does not have the %s capability", aFeatureUrl, aCapability);
+        logger.warn(message);
+        return Json.createObjectBuilder().add("error", Json.createObjectBuilder().add("code", 400).add("message", message)).build();
+    }
+
+    /**
+     * Post the features of an edit by batches of the maximum record count of the layer. A batch in error stops the edit and its error
+     * is returned, the batches already sent being kept even with <code>rollbackOnFailure</code>; the results of the batches are
+     * joined otherwise.
+     *
+     * @param aUrl
+     *            the URL of the edit operation
+     * @param aOperation
+     *            the name of the operation, for the logs
+     * @param aResults
+     *            the name of the results in the response: addResults or updateResults
+     * @param aFeatures
+     *            the features
+     * @param aLayer
+     *            the description of the layer, <code>null</code> to send all the features at once
+     * @param aForm
+     *            the form of a batch of features
+     * @return the response, or the results of all the batches
+     */
+    private static JsonObject postEdits(String aUrl, String aOperation, String aResults, JsonArray aFeatures, LayerInfo aLayer,
+            Function<JsonArray, FormData> aForm) {
+        int batchSize = aLayer == null ? aFeatures.size() : aLayer.getMaxRecordCount();
+        if (aFeatures.size() <= batchSize) {
+            TransportResponse response = Transports.get().post(aUrl, aForm.apply(aFeatures));
+            logger.debug(String.format("%s: response HTTP code='%s'", aOperation, response.getStatus()));
+            return response.getJsonObject();
+        }
+
+        JsonArrayBuilder results = Json.createArrayBuilder();
+        for (int start = 0; start < aFeatures.size(); start += batchSize) {
+            JsonArray batch = Json.createArrayBuilder(aFeatures.subList(start, Math.min(aFeatures.size(), start + batchSize))).build();
+            TransportResponse response = Transports.get().post(aUrl, aForm.apply(batch));
+            logger.debug(String.format("%s: batch %s response HTTP code='%s'", aOperation, start / batchSize, response.getStatus()));
+            JsonObject json = response.getJsonObject();
+            if (!(json.get(aResults) instanceof JsonArray)) {
+                logger.warn(String.format("%s: batch %s failed, %s features sent", aOperation, start / batchSize, start));
+                return json;
+            }
+            json.getJsonArray(aResults).forEach(results::add);
+        }
+        return Json.createObjectBuilder().add(aResults, results).build();
     }
 }
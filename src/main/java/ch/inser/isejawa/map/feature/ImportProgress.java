@@ -0,0 +1,272 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of an import done by {@link FeatureImporter}, readable from another thread while the import runs.
+ *
+ * @author INSER SA
+ */
+public class ImportProgress {
+
+    /**
+     * Start time in milliseconds since the epoch.
+     */
+    private final long iStart = System.currentTimeMillis();
+
+    /**
+     * End time in milliseconds since the epoch, 0 while the import runs.
+     */
+    private volatile long iEnd;
+
+    /**
+     * Number of records read from the file.
+     */
+    private final AtomicLong iRead = new AtomicLong();
+
+    /**
+     * Number of batches sent to the server.
+     */
+    private final AtomicLong iBatches = new AtomicLong();
+
+    /**
+     * Number of batches done (succeeded or failed).
+     */
+    private final AtomicLong iBatchesDone = new AtomicLong();
+
+    /**
+     * Number of features added.
+     */
+    private final AtomicLong iAdded = new AtomicLong();
+
+    /**
+     * Number of features not added.
+     */
+    private final AtomicLong iFailed = new AtomicLong();
+
+    /**
+     * The failed batches and the records not sent.
+     */
+    private final List<BatchFailure> iFailures = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Count a record read from the file.
+     */
+    void recordRead() {
+        iRead.incrementAndGet();
+    }
+
+    /**
+     * Count a batch sent to the server.
+     */
+    void batchSent() {
+        iBatches.incrementAndGet();
+    }
+
+    /**
+     * Count a batch done.
+     *
+     * @param aAdded
+     *            the number of features added
+     * @param aFailed
+     *            the number of features not added
+     * @param aFailure
+     *            the failure report, <code>null</code> if all the features were added
+     */
+    void batchDone(int aAdded, int aFailed, BatchFailure aFailure) {
+        iAdded.addAndGet(aAdded);
+        iFailed.addAndGet(aFailed);
+        if (aFailure != null) {
+            iFailures.add(aFailure);
+        }
+        iBatchesDone.incrementAndGet();
+    }
+
+    /**
+     * Count a record of the file that could not be converted to a feature and was not sent.
+     *
+     * @param aRecord
+     *            index of the record in the file, from 0
+     * @param aMessage
+     *            the reason
+     */
+    void recordFailed(long aRecord, String aMessage) {
+        iFailed.incrementAndGet();
+        iFailures.add(new BatchFailure(-1, aRecord, 1, aMessage));
+    }
+
+    /**
+     * Mark the import as finished.
+     */
+    void finished() {
+        iEnd = System.currentTimeMillis();
+    }
+
+    /**
+     * @return <code>true</code> if the import is finished
+     */
+    public boolean isFinished() {
+        return iEnd > 0;
+    }
+
+    /**
+     * @return the number of records read from the file
+     */
+    public long getRead() {
+        return iRead.get();
+    }
+
+    /**
+     * @return the number of batches sent to the server
+     */
+    public long getBatches() {
+        return iBatches.get();
+    }
+
+    /**
+     * @return the number of batches done
+     */
+    public long getBatchesDone() {
+        return iBatchesDone.get();
+    }
+
+    /**
+     * @return the number of features added
+     */
+    public long getAdded() {
+        return iAdded.get();
+    }
+
+    /**
+     * @return the number of features not added
+     */
+    public long getFailed() {
+        return iFailed.get();
+    }
+
+    /**
+     * @return the failed batches, and the records not sent with the batch index -1
+     */
+    public List<BatchFailure> getFailures() {
+        synchronized (iFailures) {
+            return new ArrayList<>(iFailures);
+        }
+    }
+
+    /**
+     * @return the duration of the import in milliseconds, up to now if it runs
+     */
+    public long getDuration() {
+        return (iEnd > 0 ? iEnd : System.currentTimeMillis()) - iStart;
+    }
+
+    /**
+     * @return the number of features added or failed by second
+     */
+    public double getThroughput() {
+        long duration = Math.max(1, getDuration());
+        return (iAdded.get() + iFailed.get()) * 1000.0 / duration;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read=%s batches=%s/%s added=%s failed=%s throughput=%.1f/s finished=%s", getRead(), getBatchesDone(),
+                getBatches(), getAdded(), getFailed(), getThroughput(), isFinished());
+    }
+
+    /**
+     * Report of a batch with features not added, or of a record that was not sent.
+     */
+    public static class BatchFailure {
+
+        /**
+         * Index of the batch, from 0, -1 for a record that was not sent.
+         */
+        private final long iBatch;
+
+        /**
+         * Index in the file of the first record of the batch, from 0.
+         */
+        private final long iFirstRecord;
+
+        /**
+         * Number of features of the batch.
+         */
+        private final int iSize;
+
+        /**
+         * The error message or the failed results of the server.
+         */
+        private final String iMessage;
+
+        /**
+         * Constructor
+         *
+         * @param aBatch
+         *            index of the batch
+         * @param aFirstRecord
+         *            index in the file of the first record of the batch
+         * @param aSize
+         *            number of features of the batch
+         * @param aMessage
+         *            the error message or the failed results of the server
+         */
+        BatchFailure(long aBatch, long aFirstRecord, int aSize, String aMessage) {
+            iBatch = aBatch;
+            iFirstRecord = aFirstRecord;
+            iSize = aSize;
+            iMessage = aMessage;
+        }
+
+        /**
+         * @return the index of the batch, from 0, -1 for a record that was not sent
+         */
+        public long getBatch() {
+            return iBatch;
+        }
+
+        /**
+         * @return the index in the file of the first record of the batch, from 0
+         */
+        public long getFirstRecord() {
+            return iFirstRecord;
+        }
+
+        /**
+         * @return the number of features of the batch
+         */
+        public int getSize() {
+            return iSize;
+        }
+
+        /**
+         * @return the error message or the failed results of the server
+         */
+        public String getMessage() {
+            return iMessage;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("batch=%s firstRecord=%s size=%s message=%s", iBatch, iFirstRecord, iSize, iMessage);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+/**
+ * Description of a feature service layer, read from its <code>?f=json</code> resource: limits, capabilities and fields. The
+ * descriptions are cached by {@link FeatureServiceHandler#getLayerInfo(String, String)}.
+ *
+ * @author INSER SA
+ */
+public class LayerInfo {
+
+    /**
+     * Maximum record count of the servers not returning it.
+     */
+    public static final int DEFAULT_MAX_RECORD_COUNT = 1000;
+
+    /**
+     * The time zones by Windows name, the names used by <code>dateFieldsTimeReference</code>.
+     */
+    private static final Map<String, String> WINDOWS_TIME_ZONES = new HashMap<>();
+
+    static {
+        WINDOWS_TIME_ZONES.put("UTC", "UTC");
+        WINDOWS_TIME_ZONES.put("Coordinated Universal Time", "UTC");
+        WINDOWS_TIME_ZONES.put("GMT Standard Time", "Europe/London");
+        WINDOWS_TIME_ZONES.put("W. Europe Standard Time", "Europe/Berlin");
+        WINDOWS_TIME_ZONES.put("Romance Standard Time", "Europe/Paris");
+        WINDOWS_TIME_ZONES.put("Central Europe Standard Time", "Europe/Budapest");
+        WINDOWS_TIME_ZONES.put("Central European Standard Time", "Europe/Warsaw");
+        WINDOWS_TIME_ZONES.put("GTB Standard Time", "Europe/Bucharest");
+        WINDOWS_TIME_ZONES.put("FLE Standard Time", "Europe/Kiev");
+        WINDOWS_TIME_ZONES.put("Russian Standard Time", "Europe/Moscow");
+        WINDOWS_TIME_ZONES.put("Eastern Standard Time", "America/New_York");
+        WINDOWS_TIME_ZONES.put("Central Standard Time", "America/Chicago");
+        WINDOWS_TIME_ZONES.put("Mountain Standard Time", "America/Denver");
+        WINDOWS_TIME_ZONES.put("US Mountain Standard Time", "America/Phoenix");
+        WINDOWS_TIME_ZONES.put("Pacific Standard Time", "America/Los_Angeles");
+        WINDOWS_TIME_ZONES.put("Alaskan Standard Time", "America/Anchorage");
+        WINDOWS_TIME_ZONES.put("Hawaiian Standard Time", "Pacific/Honolulu");
+        WINDOWS_TIME_ZONES.put("India Standard Time", "Asia/Kolkata");
+        WINDOWS_TIME_ZONES.put("China Standard Time", "Asia/Shanghai");
+        WINDOWS_TIME_ZONES.put("Tokyo Standard Time", "Asia/Tokyo");
+        WINDOWS_TIME_ZONES.put("AUS Eastern Standard Time", "Australia/Sydney");
+    }
+
+    /**
+     * The layer resource.
+     */
+    private final JsonObject iJson;
+
+    /**
+     * Maximum number of features returned by a query.
+     */
+    private final int iMaxRecordCount;
+
+    /**
+     * The capabilities, in lower case.
+     */
+    private final Set<String> iCapabilities = new HashSet<>();
+
+    /**
+     * The field types by field name.
+     */
+    private final Map<String, String> iFields = new LinkedHashMap<>();
+
+    /**
+     * The object id field name.
+     */
+    private final String iObjectIdField;
+
+    /**
+     * Constructor
+     *
+     * @param aJson
+     *            the layer resource
+     */
+    public LayerInfo(JsonObject aJson) {
+        iJson = aJson;
+        int maxRecordCount = aJson.getInt("maxRecordCount", 0);
+        iMaxRecordCount = maxRecordCount > 0 ? maxRecordCount : DEFAULT_MAX_RECORD_COUNT;
+        for (String capability : aJson.getString("capabilities", "").split(",")) {
+            if (!capability.trim().isEmpty()) {
+                iCapabilities.add(capability.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        String objectIdField = aJson.getString("objectIdField", null);
+        if (aJson.get("fields") instanceof JsonArray) {
+            for (JsonValue field : aJson.getJsonArray("fields")) {
+                JsonObject fieldObj = field.asJsonObject();
+                String name = fieldObj.getString("name", null);
+                String type = fieldObj.getString("type", null);
+                if (name != null) {
+                    iFields.put(name, type);
+                    if (objectIdField == null && "esriFieldTypeOID".equals(type)) {
+                        objectIdField = name;
+                    }
+                }
+            }
+        }
+        iObjectIdField = objectIdField;
+    }
+
+    /**
+     * @return the layer resource
+     */
+    public JsonObject getJson() {
+        return iJson;
+    }
+
+    /**
+     * @return the maximum number of features returned by a query
+     */
+    public int getMaxRecordCount() {
+        return iMaxRecordCount;
+    }
+
+    /**
+     * Get the size of the pages of a query.
+     *
+     * @param aPageSize
+     *            the requested page size, 0 or less for the maximum record count
+     * @return the page size, at most the maximum record count
+     */
+    public int getPageSize(int aPageSize) {
+        return aPageSize <= 0 ? iMaxRecordCount : Math.min(aPageSize, iMaxRecordCount);
+    }
+
+    /**
+     * @return <code>true</code> if the queries support <code>resultOffset</code> and <code>resultRecordCount</code>
+     */
+    public boolean isSupportsPagination() {
+        return getAdvancedCapability("supportsPagination");
+    }
+
+    /**
+     * @return <code>true</code> if the queries support <code>outStatistics</code>
+     */
+    public boolean isSupportsStatistics() {
+        return getAdvancedCapability("supportsStatistics") || iJson.getBoolean("supportsStatistics", false);
+    }
+
+    /**
+     * @return <code>true</code> if the queries support <code>returnExtentOnly</code>
+     */
+    public boolean isSupportsQueryExtent() {
+        return iJson.getBoolean("supportsReturningQueryExtent", false) || getAdvancedCapability("supportsReturningQueryExtent");
+    }
+
+    /**
+     * @return <code>true</code> if the layer supports the <code>applyEdits</code> operation
+     */
+    public boolean isSupportsApplyEdits() {
+        return hasCapability("Editing") || hasCapability("Create") || hasCapability("Update") || hasCapability("Delete");
+    }
+
+    /**
+     * Check a capability of the layer.
+     *
+     * @param aCapability
+     *            the capability: Query, Create, Update, Delete, Editing, ...
+     * @return <code>true</code> if the layer has the capability. A layer with the Editing capability and without the detailed
+     *         edit capabilities (older servers) allows all the edits.
+     */
+    public boolean hasCapability(String aCapability) {
+        String capability = aCapability.toLowerCase(Locale.ROOT);
+        if (iCapabilities.contains(capability)) {
+            return true;
+        }
+        boolean edit = "create".equals(capability) || "update".equals(capability) || "delete".equals(capability);
+        return edit && iCapabilities.contains("editing") && !iCapabilities.contains("create") && !iCapabilities.contains("update")
+                && !iCapabilities.contains("delete");
+    }
+
+    /**
+     * @return the object id field name, <code>null</code> if unknown
+     */
+    public String getObjectIdField() {
+        return iObjectIdField;
+    }
+
+    /**
+     * @return the field types by field name, in the order of the layer: esriFieldTypeString, esriFieldTypeDate, ...
+     */
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(iFields);
+    }
+
+    /**
+     * Get an editor tracking field.
+     *
+     * @param aName
+     *            the name in <code>editFieldsInfo</code>: creationDateField, creatorField, editDateField or editorField
+     * @return the field name, <code>null</code> if the layer has no editor tracking
+     */
+    public String getEditField(String aName) {
+        JsonValue editFieldsInfo = iJson.get("editFieldsInfo");
+        if (!(editFieldsInfo instanceof JsonObject)) {
+            return null;
+        }
+        JsonValue field = ((JsonObject) editFieldsInfo).get(aName);
+        return field instanceof JsonString ? ((JsonString) field).getString() : null;
+    }
+
+    /**
+     * Get the time zone of the editor tracking dates, in which the dates of the where clauses are interpreted: the
+     * <code>dateFieldsTimeReference</code> of <code>editFieldsInfo</code>, else the one of the layer, else UTC.
+     *
+     * @return the time zone, <code>null</code> if the time zone of the layer is not known
+     */
+    public ZoneId getEditDateTimeZone() {
+        JsonValue editFieldsInfo = iJson.get("editFieldsInfo");
+        JsonValue reference = editFieldsInfo instanceof JsonObject ? ((JsonObject) editFieldsInfo).get("dateFieldsTimeReference") : null;
+        if (!(reference instanceof JsonObject)) {
+            reference = iJson.get("dateFieldsTimeReference");
+        }
+        if (!(reference instanceof JsonObject) || !(((JsonObject) reference).get("timeZone") instanceof JsonString)) {
+            return ZoneOffset.UTC;
+        }
+        JsonObject timeReference = (JsonObject) reference;
+        ZoneId zone = toZoneId(timeReference.getString("timeZone"));
+        if (zone != null && !timeReference.getBoolean("respectsDaylightSaving", true)) {
+            zone = zone.getRules().getStandardOffset(Instant.now());
+        }
+        return zone;
+    }
+
+    /**
+     * Get a time zone from its Windows or IANA name.
+     *
+     * @param aName
+     *            the name
+     * @return the time zone, <code>null</code> if unknown
+     */
+    private static ZoneId toZoneId(String aName) {
+        String name = WINDOWS_TIME_ZONES.getOrDefault(aName, aName);
+        try {
+            return ZoneId.of(name);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get a capability of <code>advancedQueryCapabilities</code>.
+     *
+     * @param aName
+     *            the name of the capability
+     * @return the value, <code>false</code> if not given
+     */
+    private boolean getAdvancedCapability(String aName) {
+        JsonValue capabilities = iJson.get("advancedQueryCapabilities");
+        return capabilities instanceof JsonObject && ((JsonObject) capabilities).getBoolean(aName, false);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LayerInfo[maxRecordCount=%s, pagination=%s, capabilities=%s, objectIdField=%s]", iMaxRecordCount,
+                isSupportsPagination(), iCapabilities, iObjectIdField);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import jakarta.json.Json;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+
+/**
+ * Statistics of the features of a query: count, extent and aggregates of fields, returned by
+ * {@link FeatureServiceHandler#getStatistics(String, FeatureQuery, jakarta.json.JsonArray, String)}.
+ *
+ * @author INSER SA
+ */
+public class LayerStatistics {
+
+    /**
+     * The number of features.
+     */
+    private final long iCount;
+
+    /**
+     * The extent of the features.
+     */
+    private final JsonObject iExtent;
+
+    /**
+     * The aggregates by output field name.
+     */
+    private final JsonObject iStatistics;
+
+    /**
+     * Constructor
+     *
+     * @param aCount
+     *            the number of features
+     * @param aExtent
+     *            the extent of the features, <code>null</code> if unknown
+     * @param aStatistics
+     *            the aggregates by output field name
+     */
+    public LayerStatistics(long aCount, JsonObject aExtent, JsonObject aStatistics) {
+        iCount = aCount;
+        iExtent = aExtent;
+        iStatistics = aStatistics == null ? JsonValue.EMPTY_JSON_OBJECT : aStatistics;
+    }
+
+    /**
+     * Create the definition of an aggregate, for the <code>outStatistics</code> parameter. The output field name is
+     * <code>type_field</code> (example: <code>max_POPULATION</code>).
+     *
+     * @param aStatisticType
+     *            the type of aggregate: count, sum, min, max, avg, stddev or var
+     * @param aField
+     *            the field to aggregate
+     * @return the definition: {statisticType: .., onStatisticField: .., outStatisticFieldName: ..}
+     */
+    public static JsonObject statistic(String aStatisticType, String aField) {
+        return Json.createObjectBuilder().add("statisticType", aStatisticType).add("onStatisticField", aField)
+                .add("outStatisticFieldName", aStatisticType + "_" + aField).build();
+    }
+
+    /**
+     * @return the number of features
+     */
+    public long getCount() {
+        return iCount;
+    }
+
+    /**
+     * @return the extent of the features: {xmin: .., ymin: .., xmax: .., ymax: .., spatialReference: {..}}, <code>null</code> if unknown
+     */
+    public JsonObject getExtent() {
+        return iExtent;
+    }
+
+    /**
+     * @return the aggregates by output field name
+     */
+    public JsonObject getStatistics() {
+        return iStatistics;
+    }
+
+    /**
+     * Get a numeric aggregate defined with {@link #statistic(String, String)}.
+     *
+     * @param aStatisticType
+     *            the type of aggregate
+     * @param aField
+     *            the aggregated field
+     * @return the value or <code>null</code> if not available
+     */
+    public Double getStatistic(String aStatisticType, String aField) {
+        String name = aStatisticType + "_" + aField;
+        JsonValue value = iStatistics.get(name);
+        if (value == null) {
+            // Some databases change the case of the output field names
+            for (String key : iStatistics.keySet()) {
+                if (key.equalsIgnoreCase(name)) {
+                    value = iStatistics.get(key);
+                }
+            }
+        }
+        return value instanceof JsonNumber ? ((JsonNumber) value).doubleValue() : null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%s extent=%s statistics=%s", iCount, iExtent, iStatistics);
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+
+/**
+ * Local snapshot of a feature service layer, kept up to date incrementally with the editor tracking date field of the layer.
+ *
+ * The first synchronization loads all the features. The next ones only load the features edited since the last synchronization and
+ * detect the deleted features by comparing the object ids of the layer with the ones of the snapshot, so the cost of a
+ * synchronization depends on the number of changes and not on the size of the layer. The object id and edit date fields are added
+ * to the out fields of the query, and the edit dates of the where clauses are given in the time zone of the layer. The date of the
+ * last synchronization only moves forward once all the pages are loaded, so a failed synchronization is done again from the same
+ * date.
+ *
+ * <pre>
+ * LayerSync sync = new LayerSync(featureUrl, FeatureQuery.builder().where("1=1").outFields().build());
+ * sync.sync(token); // every few minutes
+ * JsonObject feature = sync.getFeature(12);
+ * </pre>
+ *
+ * @author INSER SA
+ */
+public class LayerSync {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(LayerSync.class);
+
+    /**
+     * Format of the timestamps in the where clauses (standardized queries).
+     */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * The full feature URL including the feature service URL and the layer id.
+     */
+    private final String iFeatureUrl;
+
+    /**
+     * The object id field name, <code>null</code> until read from the layer description.
+     */
+    private String iObjectIdField;
+
+    /**
+     * The editor tracking date field name (last edit date), <code>null</code> until read from the layer description.
+     */
+    private String iEditDateField;
+
+    /**
+     * The time zone in which the layer interprets the dates of the where clauses, <code>null</code> until read from the layer
+     * description.
+     */
+    private ZoneId iTimeZone;
+
+    /**
+     * The query of the features to keep in the snapshot.
+     */
+    private final FeatureQuery iQuery;
+
+    /**
+     * The features of the snapshot by object id.
+     */
+    private final Map<Long, JsonObject> iFeatures = new ConcurrentHashMap<>();
+
+    /**
+     * The most recent edit date of the snapshot features in milliseconds since the epoch, <code>-1</code> before the first
+     * synchronization.
+     */
+    private long iLastEditDate = -1;
+
+    /**
+     * Constructor
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aObjectIdField
+     *            the object id field name
+     * @param aEditDateField
+     *            the editor tracking date field name (last edit date)
+     * @param aQuery
+     *            the query of the features to keep in the snapshot (where clause, out fields, ...)
+     */
+    public LayerSync(String aFeatureUrl, String aObjectIdField, String aEditDateField, FeatureQuery aQuery) {
+        iFeatureUrl = aFeatureUrl;
+        iObjectIdField = aObjectIdField;
+        iEditDateField = aEditDateField;
+        iQuery = aQuery;
+    }
+
+    /**
+     * Constructor with the object id and the edit date fields of the layer description, read at the first synchronization.
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query of the features to keep in the snapshot (where clause, out fields, ...)
+     */
+    public LayerSync(String aFeatureUrl, FeatureQuery aQuery) {
+        this(aFeatureUrl, null, null, aQuery);
+    }
+
+    /**
+     * @param aTimeZone
+     *            the time zone in which the layer interprets the dates of the where clauses, <code>null</code> to read it from the
+     *            layer description
+     * @return this synchronization
+     */
+    public synchronized LayerSync timeZone(ZoneId aTimeZone) {
+        iTimeZone = aTimeZone;
+        return this;
+    }
+
+    /**
+     * Synchronize the snapshot with the layer.
+     *
+     * @param aToken
+     *            the token
+     * @return the result of the synchronization
+     * @throws ISException
+     *             if the layer can't be queried
+     */
+    public synchronized SyncResult sync(String aToken) throws ISException {
+        if (iObjectIdField == null || iEditDateField == null || iTimeZone == null) {
+            readLayer(aToken);
+        }
+        SyncResult result = new SyncResult(iLastEditDate < 0, iLastEditDate);
+        String where = iLastEditDate < 0 ? getWhere() : getWhere(getWhere(), iEditDateField, iLastEditDate, iTimeZone);
+        // Object ids of a full load, the features of a previous failed full load that are no more in the layer being removed
+        Set<Long> loaded = result.isFull() ? new HashSet<>() : null;
+
+        try {
+            FeatureQuery query = iQuery.toBuilder().where(where)
+                    .param("outFields", getOutFields(iQuery.getParameter("outFields"), iObjectIdField, iEditDateField)).build();
+            FeatureServiceHandler.queryPages(iFeatureUrl, query, aToken, FeatureServiceHandler.LAYER_PAGE_SIZE, page -> {
+                for (JsonValue feature : page.getJsonArray("features")) {
+                    long objectId = putFeature(feature.asJsonObject(), result);
+                    if (loaded != null) {
+                        loaded.add(objectId);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new ISException("Error synchronizing the layer " + iFeatureUrl, e);
+        }
+
+        if (result.isFull()) {
+            removeFeatures(loaded, result);
+        } else {
+            removeDeletedFeatures(aToken, result);
+        }
+        iLastEditDate = result.iLastEditDate;
+
+        logger.debug(String.format("sync: layer='%s' %s", iFeatureUrl, result));
+        return result;
+    }
+
+    /**
+     * Read the object id and the edit date fields not given to the constructor and the time zone of the dates from the layer
+     * description.
+     *
+     * @param aToken
+     *            the token
+     * @throws ISException
+     *             if the description can't be read, the layer has no editor tracking or its time zone is unknown
+     */
+    private void readLayer(String aToken) throws ISException {
+        LayerInfo layer = FeatureServiceHandler.getLayerInfo(iFeatureUrl, aToken);
+        if (iObjectIdField == null) {
+            iObjectIdField = layer.getObjectIdField();
+        }
+        if (iEditDateField == null) {
+            iEditDateField = layer.getEditField("editDateField");
+        }
+        if (iObjectIdField == null || iEditDateField == null) {
+            throw new ISException("No object id field or no editor tracking in the description of the layer " + iFeatureUrl);
+        }
+        if (iTimeZone == null) {
+            iTimeZone = layer.getEditDateTimeZone();
+        }
+        if (iTimeZone == null) {
+            throw new ISException("Unknown time zone of the dates of the layer " + iFeatureUrl + ", to be given with timeZone()");
+        }
+    }
+
+    /**
+     * Get the where clause of the features edited since a date.
+     *
+     * @param aWhere
+     *            the where clause of the snapshot
+     * @param aEditDateField
+     *            the edit date field name
+     * @param aLastEditDate
+     *            the date in milliseconds since the epoch
+     * @param aTimeZone
+     *            the time zone in which the layer interprets the dates
+     * @return the where clause
+     */
+    static String getWhere(String aWhere, String aEditDateField, long aLastEditDate, ZoneId aTimeZone) {
+        // The timestamps have a precision of one second: the features edited in the same second as the last one are loaded again
+        return String.format("(%s) AND %s >= TIMESTAMP '%s'", aWhere, aEditDateField,
+                TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(aLastEditDate).atZone(aTimeZone)));
+    }
+
+    /**
+     * Get the out fields of the query, with the fields needed by the synchronization.
+     *
+     * @param aOutFields
+     *            the out fields of the query, comma separated, <code>null</code> for the object id only
+     * @param aFields
+     *            the fields needed by the synchronization
+     * @return the out fields
+     */
+    static String getOutFields(String aOutFields, String... aFields) {
+        List<String> outFields = new ArrayList<>();
+        if (aOutFields != null) {
+            for (String field : aOutFields.split(",")) {
+                if (!field.trim().isEmpty()) {
+                    outFields.add(field.trim());
+                }
+            }
+        }
+        if (outFields.contains("*")) {
+            return aOutFields;
+        }
+        for (String field : aFields) {
+            if (outFields.stream().noneMatch(field::equalsIgnoreCase)) {
+                outFields.add(field);
+            }
+        }
+        return String.join(",", outFields);
+    }
+
+    /**
+     * Get the where clause of the snapshot.
+     *
+     * @return the where clause
+     */
+    private String getWhere() {
+        String where = iQuery.getParameter("where");
+        return where == null ? "1=1" : where;
+    }
+
+    /**
+     * Add or replace a feature of the snapshot.
+     *
+     * @param aFeature
+     *            the feature
+     * @param aResult
+     *            the result of the synchronization to update, with the most recent edit date
+     * @return the object id of the feature
+     * @throws IOException
+     *             if the feature has no object id
+     */
+    private long putFeature(JsonObject aFeature, SyncResult aResult) throws IOException {
+        JsonObject attributes = aFeature.getJsonObject("attributes");
+        JsonValue id = attributes == null ? null : attributes.get(iObjectIdField);
+        if (!(id instanceof JsonNumber)) {
+            throw new IOException("No object id field '" + iObjectIdField + "' in the features of the layer " + iFeatureUrl);
+        }
+        long objectId = ((JsonNumber) id).longValue();
+        JsonObject previous = iFeatures.put(objectId, aFeature);
+        if (previous == null) {
+            aResult.iAdded++;
+        } else if (!previous.equals(aFeature)) {
+            aResult.iUpdated++;
+        }
+
+        JsonValue editDate = attributes.get(iEditDateField);
+        if (editDate instanceof JsonNumber) {
+            aResult.iLastEditDate = Math.max(aResult.iLastEditDate, ((JsonNumber) editDate).longValue());
+        } else if (aResult.iLastEditDate < 0) {
+            aResult.iLastEditDate = 0;
+        }
+        return objectId;
+    }
+
+    /**
+     * Remove the features of the snapshot that are no more in the layer.
+     *
+     * @param aToken
+     *            the token
+     * @param aResult
+     *            the result of the synchronization to update
+     * @throws ISException
+     *             if the layer can't be queried
+     */
+    private void removeDeletedFeatures(String aToken, SyncResult aResult) throws ISException {
+        FeatureQuery idsQuery = FeatureQuery.builder().where(getWhere()).returnIdsOnly(true).build();
+        JsonObject ids = FeatureServiceHandler.getFeatures(iFeatureUrl, idsQuery, aToken);
+        JsonArray objectIds = ids.getJsonArray("objectIds");
+        if (objectIds == null) {
+            if (ids.containsKey("error")) {
+                throw new ISException("Error querying the object ids: " + ids.get("error"));
+            }
+            objectIds = JsonValue.EMPTY_JSON_ARRAY;
+        }
+
+        Set<Long> layerIds = new HashSet<>(objectIds.size() * 2);
+        for (JsonValue objectId : objectIds) {
+            layerIds.add(((JsonNumber) objectId).longValue());
+        }
+        removeFeatures(layerIds, aResult);
+    }
+
+    /**
+     * Remove the features of the snapshot that are not in a set of object ids.
+     *
+     * @param aObjectIds
+     *            the object ids of the features to keep
+     * @param aResult
+     *            the result of the synchronization to update
+     */
+    private void removeFeatures(Set<Long> aObjectIds, SyncResult aResult) {
+        for (Long objectId : iFeatures.keySet()) {
+            if (!aObjectIds.contains(objectId)) {
+                iFeatures.remove(objectId);
+                aResult.iDeleted++;
+            }
+        }
+    }
+
+    /**
+     * Get a feature of the snapshot.
+     *
+     * @param aObjectId
+     *            the object id
+     * @return the feature or <code>null</code> if not found
+     */
+    public JsonObject getFeature(long aObjectId) {
+        return iFeatures.get(aObjectId);
+    }
+
+    /**
+     * Get the features of the snapshot.
+     *
+     * @return the features by object id, read only
+     */
+    public Map<Long, JsonObject> getFeatures() {
+        return Collections.unmodifiableMap(iFeatures);
+    }
+
+    /**
+     * Get the most recent edit date of the snapshot features.
+     *
+     * @return the date in milliseconds since the epoch, <code>-1</code> before the first synchronization
+     */
+    public synchronized long getLastEditDate() {
+        return iLastEditDate;
+    }
+
+    /**
+     * Clear the snapshot, the next synchronization loads all the features again.
+     */
+    public synchronized void reset() {
+        iFeatures.clear();
+        iLastEditDate = -1;
+    }
+
+    /**
+     * Result of a synchronization.
+     */
+    public static class SyncResult {
+
+        /**
+         * <code>true</code> if all the features were loaded.
+         */
+        private final boolean iFull;
+
+        /**
+         * Number of features added to the snapshot.
+         */
+        private int iAdded;
+
+        /**
+         * Number of features updated in the snapshot.
+         */
+        private int iUpdated;
+
+        /**
+         * Number of features removed from the snapshot.
+         */
+        private int iDeleted;
+
+        /**
+         * The most recent edit date of the loaded features in milliseconds since the epoch.
+         */
+        private long iLastEditDate;
+
+        /**
+         * Constructor
+         *
+         * @param aFull
+         *            <code>true</code> if all the features are loaded
+         * @param aLastEditDate
+         *            the most recent edit date of the snapshot before the synchronization
+         */
+        private SyncResult(boolean aFull, long aLastEditDate) {
+            iFull = aFull;
+            iLastEditDate = aLastEditDate;
+        }
+
+        /**
+         * @return <code>true</code> if all the features were loaded
+         */
+        public boolean isFull() {
+            return iFull;
+        }
+
+        /**
+         * @return the number of features added to the snapshot
+         */
+        public int getAdded() {
+            return iAdded;
+        }
+
+        /**
+         * @return the number of features updated in the snapshot
+         */
+        public int getUpdated() {
+            return iUpdated;
+        }
+
+        /**
+         * @return the number of features removed from the snapshot
+         */
+        public int getDeleted() {
+            return iDeleted;
+        }
+
+        /**
+         * @return <code>true</code> if the snapshot changed
+         */
+        public boolean hasChanges() {
+            return iAdded > 0 || iUpdated > 0 || iDeleted > 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("full=%s added=%s updated=%s deleted=%s", iFull, iAdded, iUpdated, iDeleted);
+        }
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.isejawa.map.util.GeometryUtil;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+
+/**
+ * Copy of a feature service layer on the local disk, read through a memory-mapped file.
+ *
+ * The copy survives restarts and is available as soon as the file is mapped, without querying the ArcGIS server. A feature is read by
+ * object id with a binary search in the index and the features in a bounding box are found by scanning the envelopes of the index, only
+ * the matching features are deserialized.
+ *
+ * File format (big-endian):
+ * <ul>
+ * <li>header: magic number (int), version (int), feature count (int), reserved (int), creation time (long), extent of the features
+ * (4 doubles: xmin, ymin, xmax, ymax)</li>
+ * <li>index: for each feature sorted by object id, the object id (long), the envelope of the geometry (4 doubles, NaN without geometry),
+ * the offset of the feature in the data (int) and its length (int)</li>
+ * <li>data: the features in ArcGIS JSON encoded in UTF-8</li>
+ * </ul>
+ *
+ * <pre>
+ * LocalFeatureStore store = new LocalFeatureStore(Paths.get("/data/parcels.ismf"), featureUrl, "OBJECTID",
+ *         FeatureQuery.builder().where("1=1").outFields().build());
+ * if (!store.load()) {
+ *     store.refresh(token);
+ * }
+ * store.scheduleRefresh(1, TimeUnit.DAYS, tokenProvider);
+ * </pre>
+ *
+ * @author INSER SA
+ */
+public class LocalFeatureStore {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(LocalFeatureStore.class);
+
+    /**
+     * Magic number of the files ("ISMF").
+     */
+    private static final int MAGIC = 0x49534D46;
+
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER_SIZE = 56;
+
+    /**
+     * Size of an index entry in bytes.
+     */
+    private static final int ENTRY_SIZE = 48;
+
+    /**
+     * Size of the buffer writing the index in bytes.
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The file of the store.
+     */
+    private final Path iFile;
+
+    /**
+     * The full feature URL including the feature service URL and the layer id.
+     */
+    private final String iFeatureUrl;
+
+    /**
+     * The object id field name.
+     */
+    private final String iObjectIdField;
+
+    /**
+     * The query of the features to store.
+     */
+    private final FeatureQuery iQuery;
+
+    /**
+     * The mapped file, <code>null</code> if not loaded. Replaced as a whole on refresh.
+     */
+    private volatile MappedByteBuffer iBuffer;
+
+    /**
+     * Constructor
+     *
+     * @param aFile
+     *            the file of the store
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aObjectIdField
+     *            the object id field name
+     * @param aQuery
+     *            the query of the features to store (where clause, out fields, out spatial reference, ...)
+     */
+    public LocalFeatureStore(Path aFile, String aFeatureUrl, String aObjectIdField, FeatureQuery aQuery) {
+        iFile = aFile;
+        iFeatureUrl = aFeatureUrl;
+        iObjectIdField = aObjectIdField;
+        iQuery = aQuery;
+    }
+
+    /**
+     * Map the file of the store.
+     *
+     * @return <code>true</code> if the file was mapped, <code>false</code> if it does not exist
+     * @throws IOException
+     *             if the file can't be read, is not a feature store or is truncated
+     */
+    public boolean load() throws IOException {
+        if (!Files.exists(iFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(iFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Feature store too large: " + iFile);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a feature store: " + iFile);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported feature store version " + buffer.getInt(4) + ": " + iFile);
+            }
+            checkEntries(buffer);
+            iBuffer = buffer;
+        }
+        logger.debug(String.format("load: %s features from='%s'", size(), iFile));
+        return true;
+    }
+
+    /**
+     * Check that the index and the features it points to are inside the file, so a truncated or corrupt file fails when loaded and
+     * not when queried.
+     *
+     * @param aBuffer
+     *            the mapped file
+     * @throws IOException
+     *             if an entry or a feature is outside of the file
+     */
+    private void checkEntries(ByteBuffer aBuffer) throws IOException {
+        int count = aBuffer.getInt(8);
+        long dataStart = HEADER_SIZE + (long) count * ENTRY_SIZE;
+        if (count < 0 || dataStart > aBuffer.capacity()) {
+            throw new IOException(String.format("Truncated feature store, %s entries in %s bytes: %s", count, aBuffer.capacity(), iFile));
+        }
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            int offset = aBuffer.getInt(entry + 40);
+            int length = aBuffer.getInt(entry + 44);
+            if (offset < 0 || length < 0 || dataStart + offset + length > aBuffer.capacity()) {
+                throw new IOException(String.format("Truncated feature store, feature %s outside of the file: %s", i, iFile));
+            }
+        }
+    }
+
+    /**
+     * Download the features from the ArcGIS server, write them in the file of the store and map it. The current content stays readable
+     * until the new file is complete.
+     *
+     * @param aToken
+     *            the token
+     * @throws ISException
+     *             if the features can't be queried
+     * @throws IOException
+     *             if the file can't be written
+     */
+    public synchronized void refresh(String aToken) throws ISException, IOException {
+        Path directory = iFile.toAbsolutePath().getParent();
+        Path dataFile = Files.createTempFile(directory, iFile.getFileName().toString(), ".data");
+        Path storeFile = Files.createTempFile(directory, iFile.getFileName().toString(), ".tmp");
+        try {
+            List<IndexEntry> entries = new ArrayList<>();
+            try (OutputStream data = new BufferedOutputStream(Files.newOutputStream(dataFile))) {
+                int[] offset = { 0 };
+                FeatureServiceHandler.queryPages(iFeatureUrl, iQuery, aToken, FeatureServiceHandler.LAYER_PAGE_SIZE, page -> {
+                    for (JsonValue value : page.getJsonArray("features")) {
+                        JsonObject feature = value.asJsonObject();
+                        byte[] bytes = feature.toString().getBytes(StandardCharsets.UTF_8);
+                        // The whole file must be mappable, the current store is kept if the new one is too large
+                        if (HEADER_SIZE + (entries.size() + 1L) * ENTRY_SIZE + offset[0] + bytes.length > Integer.MAX_VALUE) {
+                            throw new IOException("Feature store too large: " + iFile);
+                        }
+                        data.write(bytes);
+                        entries.add(new IndexEntry(feature.getJsonObject("attributes").getJsonNumber(iObjectIdField).longValue(),
+                                GeometryUtil.getEnvelope(feature.getJsonObject("geometry")), offset[0], bytes.length));
+                        offset[0] += bytes.length;
+                    }
+                });
+            }
+            entries.sort(Comparator.comparingLong(e -> e.iObjectId));
+            writeStore(storeFile, dataFile, entries);
+            Files.move(storeFile, iFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(storeFile);
+        }
+        load();
+    }
+
+    /**
+     * Write the file of the store: the header and the index through a small buffer, then the data copied from its file.
+     *
+     * @param aStoreFile
+     *            the file to write
+     * @param aDataFile
+     *            the file with the features
+     * @param aEntries
+     *            the index entries sorted by object id
+     * @throws IOException
+     *             if the file can't be written
+     */
+    private static void writeStore(Path aStoreFile, Path aDataFile, List<IndexEntry> aEntries) throws IOException {
+        double[] extent = { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+        for (IndexEntry entry : aEntries) {
+            if (!Double.isNaN(entry.iEnvelope[0])) {
+                extent[0] = Double.isNaN(extent[0]) ? entry.iEnvelope[0] : Math.min(extent[0], entry.iEnvelope[0]);
+                extent[1] = Double.isNaN(extent[1]) ? entry.iEnvelope[1] : Math.min(extent[1], entry.iEnvelope[1]);
+                extent[2] = Double.isNaN(extent[2]) ? entry.iEnvelope[2] : Math.max(extent[2], entry.iEnvelope[2]);
+                extent[3] = Double.isNaN(extent[3]) ? entry.iEnvelope[3] : Math.max(extent[3], entry.iEnvelope[3]);
+            }
+        }
+
+        try (FileChannel out = FileChannel.open(aStoreFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                FileChannel data = FileChannel.open(aDataFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(aEntries.size()).putInt(0).putLong(System.currentTimeMillis());
+            for (double value : extent) {
+                buffer.putDouble(value);
+            }
+            for (IndexEntry entry : aEntries) {
+                if (buffer.remaining() < ENTRY_SIZE) {
+                    write(out, buffer);
+                }
+                buffer.putLong(entry.iObjectId);
+                for (double value : entry.iEnvelope) {
+                    buffer.putDouble(value);
+                }
+                buffer.putInt(entry.iOffset).putInt(entry.iLength);
+            }
+            write(out, buffer);
+
+            long position = 0;
+            long size = data.size();
+            while (position < size) {
+                position += data.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        }
+    }
+
+    /**
+     * Write the content of a buffer and clear it.
+     *
+     * @param aOut
+     *            the channel to write
+     * @param aBuffer
+     *            the buffer, in write mode
+     * @throws IOException
+     *             if the buffer can't be written
+     */
+    private static void write(FileChannel aOut, ByteBuffer aBuffer) throws IOException {
+        aBuffer.flip();
+        while (aBuffer.hasRemaining()) {
+            aOut.write(aBuffer);
+        }
+        aBuffer.clear();
+    }
+
+    /**
+     * Refresh the store periodically in the background.
+     *
+     * @param aPeriod
+     *            the period between two refreshes
+     * @param aUnit
+     *            the unit of the period
+     * @param aTokenProvider
+     *            the provider of the token for each refresh
+     * @return the scheduled refresh, to cancel it
+     */
+    public ScheduledFuture<?> scheduleRefresh(long aPeriod, TimeUnit aUnit, Callable<String> aTokenProvider) {
+        return ServiceExecutor.getScheduler().scheduleWithFixedDelay(() -> ServiceExecutor.getExecutor().execute(() -> {
+            try {
+                refresh(aTokenProvider.call());
+            } catch (Exception e) {
+                logger.error("Error refreshing the feature store " + iFile, e);
+            }
+        }), aPeriod, aPeriod, aUnit);
+    }
+
+    /**
+     * Get the mapped file.
+     *
+     * @return the mapped file
+     * @throws IllegalStateException
+     *             if the store is not loaded
+     */
+    private ByteBuffer getBuffer() {
+        ByteBuffer buffer = iBuffer;
+        if (buffer == null) {
+            throw new IllegalStateException("Feature store not loaded: " + iFile);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return <code>true</code> if the store is loaded
+     */
+    public boolean isLoaded() {
+        return iBuffer != null;
+    }
+
+    /**
+     * @return the number of features
+     */
+    public int size() {
+        return getBuffer().getInt(8);
+    }
+
+    /**
+     * @return the time of the last refresh in milliseconds since the epoch
+     */
+    public long getCreated() {
+        return getBuffer().getLong(16);
+    }
+
+    /**
+     * @return the extent of the features as {xmin, ymin, xmax, ymax} or <code>null</code> if there is no geometry
+     */
+    public double[] getExtent() {
+        ByteBuffer buffer = getBuffer();
+        double[] extent = { buffer.getDouble(24), buffer.getDouble(32), buffer.getDouble(40), buffer.getDouble(48) };
+        return Double.isNaN(extent[0]) ? null : extent;
+    }
+
+    /**
+     * Get the count and the extent of the stored features, read from the header of the file without querying the ArcGIS server.
+     *
+     * @return the statistics, without aggregates
+     */
+    public LayerStatistics getStatistics() {
+        double[] extent = getExtent();
+        JsonObject extentObject = null;
+        if (extent != null) {
+            extentObject = Json.createObjectBuilder().add("xmin", extent[0]).add("ymin", extent[1]).add("xmax", extent[2])
+                    .add("ymax", extent[3]).build();
+        }
+        return new LayerStatistics(size(), extentObject, null);
+    }
+
+    /**
+     * Get a feature.
+     *
+     * @param aObjectId
+     *            the object id
+     * @return the feature: {attributes: {..}, geometry: {..}} or <code>null</code> if not found
+     */
+    public JsonObject getFeature(long aObjectId) {
+        ByteBuffer buffer = getBuffer();
+        int low = 0;
+        int high = buffer.getInt(8) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long objectId = buffer.getLong(HEADER_SIZE + middle * ENTRY_SIZE);
+            if (objectId < aObjectId) {
+                low = middle + 1;
+            } else if (objectId > aObjectId) {
+                high = middle - 1;
+            } else {
+                return readFeature(buffer, middle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the attributes of a feature.
+     *
+     * @param aObjectId
+     *            the object id
+     * @return the attributes or <code>null</code> if not found
+     */
+    public JsonObject getFeatureAttributes(long aObjectId) {
+        JsonObject feature = getFeature(aObjectId);
+        return feature == null ? null : feature.getJsonObject("attributes");
+    }
+
+    /**
+     * Get the features whose geometry envelope intersects a bounding box.
+     *
+     * @param aXmin
+     *            the minimum x of the bounding box
+     * @param aYmin
+     *            the minimum y of the bounding box
+     * @param aXmax
+     *            the maximum x of the bounding box
+     * @param aYmax
+     *            the maximum y of the bounding box
+     * @return the features
+     */
+    public List<JsonObject> getFeatures(double aXmin, double aYmin, double aXmax, double aYmax) {
+        ByteBuffer buffer = getBuffer();
+        List<JsonObject> features = new ArrayList<>();
+        int count = buffer.getInt(8);
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            double xmin = buffer.getDouble(entry + 8);
+            if (!Double.isNaN(xmin) && xmin <= aXmax && buffer.getDouble(entry + 24) >= aXmin && buffer.getDouble(entry + 16) <= aYmax
+                    && buffer.getDouble(entry + 32) >= aYmin) {
+                features.add(readFeature(buffer, i));
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Read a feature of the data.
+     *
+     * @param aBuffer
+     *            the mapped file
+     * @param aIndex
+     *            the index of the feature
+     * @return the feature
+     */
+    private static JsonObject readFeature(ByteBuffer aBuffer, int aIndex) {
+        int entry = HEADER_SIZE + aIndex * ENTRY_SIZE;
+        int dataStart = HEADER_SIZE + aBuffer.getInt(8) * ENTRY_SIZE;
+        byte[] bytes = new byte[aBuffer.getInt(entry + 44)];
+        ByteBuffer data = aBuffer.duplicate();
+        data.position(dataStart + aBuffer.getInt(entry + 40));
+        data.get(bytes);
+        try (JsonReader reader = Json.createReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+            return reader.readObject();
+        }
+    }
+
+    /**
+     * Entry of the index, used when writing the file.
+     */
+    private static class IndexEntry {
+
+        /**
+         * The object id.
+         */
+        private final long iObjectId;
+
+        /**
+         * The envelope of the geometry.
+         */
+        private final double[] iEnvelope;
+
+        /**
+         * The offset of the feature in the data.
+         */
+        private final int iOffset;
+
+        /**
+         * The length of the feature.
+         */
+        private final int iLength;
+
+        /**
+         * Constructor
+         *
+         * @param aObjectId
+         *            the object id
+         * @param aEnvelope
+         *            the envelope of the geometry or <code>null</code> without geometry
+         * @param aOffset
+         *            the offset of the feature in the data
+         * @param aLength
+         *            the length of the feature
+         */
+        private IndexEntry(long aObjectId, double[] aEnvelope, int aOffset, int aLength) {
+            iObjectId = aObjectId;
+            iEnvelope = aEnvelope == null ? new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN } : aEnvelope;
+            iOffset = aOffset;
+            iLength = aLength;
+        }
+    }
+}
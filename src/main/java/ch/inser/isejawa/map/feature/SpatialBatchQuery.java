@@ -0,0 +1,312 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.isejawa.map.util.GeometryUtil;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+
+/**
+ * Spatial query of the features intersecting each geometry of a list, in a few calls instead of one call by geometry. The geometries
+ * close to each other are grouped, each group is queried with the envelope of its geometries, the groups are queried concurrently and
+ * the features received are assigned to the geometries they intersect.
+ *
+ * <pre>
+ * List&lt;List&lt;JsonObject&gt;&gt; features = new SpatialBatchQuery(url, FeatureQuery.builder().outFields("NAME").build()).inSR("2056")
+ *         .query(parcels, token);
+ * </pre>
+ *
+ * The features are queried with their geometry, in the spatial reference of the input geometries, to be tested locally.
+ *
+ * @author INSER SA
+ */
+public class SpatialBatchQuery {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(SpatialBatchQuery.class);
+
+    /**
+     * Default maximum number of geometries in a query.
+     */
+    private static final int DEFAULT_MAX_GEOMETRIES = 50;
+
+    /**
+     * Default maximum time to wait for all the queries in milliseconds.
+     */
+    private static final long DEFAULT_TIMEOUT = 300_000;
+
+    /**
+     * Automatic grid cell size, as a multiple of the median size of the geometries.
+     */
+    private static final int CELL_FACTOR = 4;
+
+    /**
+     * The full feature URL including the feature service URL and the layer id.
+     */
+    private final String iFeatureUrl;
+
+    /**
+     * The query parameters common to all the geometries (where clause, out fields, ...).
+     */
+    private final FeatureQuery iQuery;
+
+    /**
+     * The spatial reference of the input geometries, <code>null</code> for the one of the layer.
+     */
+    private String iInSR;
+
+    /**
+     * Size of the grid cells grouping the geometries, 0 for automatic.
+     */
+    private double iCellSize;
+
+    /**
+     * Maximum number of geometries in a query.
+     */
+    private int iMaxGeometries = DEFAULT_MAX_GEOMETRIES;
+
+    /**
+     * Maximum time to wait for all the queries in milliseconds.
+     */
+    private long iTimeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Constructor
+     *
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id (example:
+     *            https://arcgis.msfuat.de/server/rest/services/DEV-PRESENCE/Presence/FeatureServer/1)
+     * @param aQuery
+     *            the query parameters common to all the geometries, without geometry
+     */
+    public SpatialBatchQuery(String aFeatureUrl, FeatureQuery aQuery) {
+        iFeatureUrl = aFeatureUrl;
+        iQuery = aQuery;
+    }
+
+    /**
+     * @param aInSR
+     *            the spatial reference of the input geometries (wkid or JSON), <code>null</code> for the one of the layer
+     * @return this query
+     */
+    public SpatialBatchQuery inSR(String aInSR) {
+        iInSR = aInSR;
+        return this;
+    }
+
+    /**
+     * @param aCellSize
+     *            the size of the grid cells grouping the geometries in map units, 0 to derive it from the size of the geometries
+     * @return this query
+     */
+    public SpatialBatchQuery cellSize(double aCellSize) {
+        iCellSize = aCellSize;
+        return this;
+    }
+
+    /**
+     * @param aMaxGeometries
+     *            the maximum number of geometries grouped in a query
+     * @return this query
+     */
+    public SpatialBatchQuery maxGeometries(int aMaxGeometries) {
+        iMaxGeometries = Math.max(1, aMaxGeometries);
+        return this;
+    }
+
+    /**
+     * @param aTimeout
+     *            the maximum time to wait for all the queries in milliseconds
+     * @return this query
+     */
+    public SpatialBatchQuery timeout(long aTimeout) {
+        iTimeout = aTimeout;
+        return this;
+    }
+
+    /**
+     * Query the features intersecting each geometry.
+     *
+     * @param aGeometries
+     *            the ArcGIS geometries: points, multipoints, polylines, polygons or envelopes
+     * @param aToken
+     *            the token
+     * @return for each geometry, in the same order, the features intersecting it (empty for an empty geometry)
+     * @throws ISException
+     *             if a query fails or does not finish in time
+     */
+    public List<List<JsonObject>> query(List<JsonObject> aGeometries, String aToken) throws ISException {
+        List<List<JsonObject>> results = new ArrayList<>(aGeometries.size());
+        double[][] envelopes = new double[aGeometries.size()][];
+        for (int i = 0; i < aGeometries.size(); i++) {
+            results.add(new ArrayList<>());
+            envelopes[i] = GeometryUtil.getEnvelope(aGeometries.get(i));
+        }
+
+        List<List<Integer>> clusters = cluster(envelopes);
+        List<Callable<Integer>> tasks = new ArrayList<>(clusters.size());
+        for (List<Integer> cluster : clusters) {
+            tasks.add(() -> queryCluster(cluster, aGeometries, envelopes, results, aToken));
+        }
+        logger.debug(String.format("query: %s geometries in %s queries to='%s'", aGeometries.size(), clusters.size(), iFeatureUrl));
+        ServiceExecutor.invokeAll(tasks, iTimeout);
+        return results;
+    }
+
+    /**
+     * Query the features of a group of geometries and assign them to the geometries they intersect. Each geometry belongs to one
+     * group, so the groups fill different result lists.
+     *
+     * @param aCluster
+     *            the indexes of the geometries of the group
+     * @param aGeometries
+     *            the geometries
+     * @param aEnvelopes
+     *            the envelopes of the geometries
+     * @param aResults
+     *            the features by geometry
+     * @param aToken
+     *            the token
+     * @return the number of features received
+     * @throws Exception
+     *             if the query fails
+     */
+    private int queryCluster(List<Integer> aCluster, List<JsonObject> aGeometries, double[][] aEnvelopes, List<List<JsonObject>> aResults,
+            String aToken) throws Exception {
+        double[] envelope = null;
+        for (int index : aCluster) {
+            envelope = envelope == null ? aEnvelopes[index].clone() : union(envelope, aEnvelopes[index]);
+        }
+        FeatureQuery.Builder query = iQuery.toBuilder().geometry(GeometryUtil.toEnvelope(envelope).toString(), "esriGeometryEnvelope")
+                .spatialRel("esriSpatialRelIntersects").returnGeometry(true);
+        if (iInSR != null) {
+            query.inSR(iInSR).outSR(iInSR);
+        }
+
+        return FeatureServiceHandler.queryPages(iFeatureUrl, query.build(), aToken, FeatureServiceHandler.LAYER_PAGE_SIZE, page -> {
+            for (JsonValue value : page.getJsonArray("features")) {
+                JsonObject feature = value.asJsonObject();
+                JsonObject geometry = feature.getJsonObject("geometry");
+                double[] featureEnvelope = GeometryUtil.getEnvelope(geometry);
+                if (featureEnvelope == null) {
+                    continue;
+                }
+                for (int index : aCluster) {
+                    if (GeometryUtil.intersects(aEnvelopes[index], featureEnvelope)
+                            && GeometryUtil.intersects(aGeometries.get(index), geometry)) {
+                        aResults.get(index).add(feature);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Group the geometries by cells of a grid, by their envelope center, and split the cells with too many geometries.
+     *
+     * @param aEnvelopes
+     *            the envelopes of the geometries, <code>null</code> for an empty geometry
+     * @return the indexes of the geometries of each group
+     */
+    private List<List<Integer>> cluster(double[][] aEnvelopes) {
+        double cellSize = iCellSize > 0 ? iCellSize : getAutomaticCellSize(aEnvelopes);
+        Map<String, List<Integer>> cells = new LinkedHashMap<>();
+        for (int i = 0; i < aEnvelopes.length; i++) {
+            double[] envelope = aEnvelopes[i];
+            if (envelope == null) {
+                continue;
+            }
+            long column = (long) Math.floor((envelope[0] + envelope[2]) / 2 / cellSize);
+            long row = (long) Math.floor((envelope[1] + envelope[3]) / 2 / cellSize);
+            cells.computeIfAbsent(column + ":" + row, k -> new ArrayList<>()).add(i);
+        }
+
+        List<List<Integer>> clusters = new ArrayList<>();
+        for (List<Integer> cell : cells.values()) {
+            if (cell.size() > iMaxGeometries) {
+                // Split along x so the groups of a cell stay compact
+                cell.sort(Comparator.comparingDouble(i -> aEnvelopes[i][0] + aEnvelopes[i][2]));
+            }
+            for (int start = 0; start < cell.size(); start += iMaxGeometries) {
+                clusters.add(cell.subList(start, Math.min(cell.size(), start + iMaxGeometries)));
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Compute a cell size grouping neighbour geometries: a multiple of the median size of the geometries, or for points the size
+     * giving about the maximum number of geometries by cell if they were evenly spread.
+     *
+     * @param aEnvelopes
+     *            the envelopes of the geometries, <code>null</code> for an empty geometry
+     * @return the cell size
+     */
+    private double getAutomaticCellSize(double[][] aEnvelopes) {
+        List<Double> sizes = new ArrayList<>();
+        double[] extent = null;
+        for (double[] envelope : aEnvelopes) {
+            if (envelope != null) {
+                sizes.add(Math.max(envelope[2] - envelope[0], envelope[3] - envelope[1]));
+                extent = extent == null ? envelope.clone() : union(extent, envelope);
+            }
+        }
+        if (extent == null) {
+            return 1;
+        }
+        Collections.sort(sizes);
+        double median = sizes.get(sizes.size() / 2);
+        if (median > 0) {
+            return median * CELL_FACTOR;
+        }
+        double span = Math.max(extent[2] - extent[0], extent[3] - extent[1]);
+        double cellSize = span / Math.ceil(Math.sqrt((double) sizes.size() / iMaxGeometries));
+        return cellSize > 0 ? cellSize : 1;
+    }
+
+    /**
+     * Expand an envelope to include another one.
+     *
+     * @param aEnvelope
+     *            the envelope to expand, as {xmin, ymin, xmax, ymax}
+     * @param aOther
+     *            the other envelope
+     * @return the expanded envelope
+     */
+    private static double[] union(double[] aEnvelope, double[] aOther) {
+        aEnvelope[0] = Math.min(aEnvelope[0], aOther[0]);
+        aEnvelope[1] = Math.min(aEnvelope[1], aOther[1]);
+        aEnvelope[2] = Math.max(aEnvelope[2], aOther[2]);
+        aEnvelope[3] = Math.max(aEnvelope[3], aOther[3]);
+        return aEnvelope;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Decoding and encoding of the map images. The ImageIO readers and writers are costly to look up and create, they are kept in pools
+ * and reused across the calls. The streams are cached in memory, never in temporary files. The PNG images are encoded with
+ * {@link ParallelPngEncoder}.
+ *
+ * @author INSER SA
+ */
+public class ImageCodecs {
+
+    /**
+     * Maximum number of idle readers or writers kept by format.
+     */
+    private static final int POOL_SIZE = 16;
+
+    /**
+     * Default quality of the JPEG images, from 0 to 1.
+     */
+    private static final float JPEG_QUALITY = 0.85f;
+
+    /**
+     * The idle readers by format name.
+     */
+    private static final Map<String, Queue<ImageReader>> READERS = new ConcurrentHashMap<>();
+
+    /**
+     * The idle writers by format name.
+     */
+    private static final Map<String, Queue<ImageWriter>> WRITERS = new ConcurrentHashMap<>();
+
+    /**
+     * The PNG encoder.
+     */
+    private static final ParallelPngEncoder PNG_ENCODER = new ParallelPngEncoder();
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private ImageCodecs() {
+    }
+
+    /**
+     * Get the format of an image from its first bytes.
+     *
+     * @param aBytes
+     *            the encoded image
+     * @return the ImageIO format name: <code>png</code> or <code>jpeg</code>, <code>null</code> if not recognized (for example an
+     *         error message of the server)
+     */
+    public static String getFormatName(byte[] aBytes) {
+        if (aBytes.length >= 8 && (aBytes[0] & 0xff) == 0x89 && aBytes[1] == 'P' && aBytes[2] == 'N' && aBytes[3] == 'G') {
+            return "png";
+        }
+        if (aBytes.length >= 3 && (aBytes[0] & 0xff) == 0xff && (aBytes[1] & 0xff) == 0xd8 && (aBytes[2] & 0xff) == 0xff) {
+            return "jpeg";
+        }
+        return null;
+    }
+
+    /**
+     * Decode an image.
+     *
+     * @param aBytes
+     *            the encoded image
+     * @return the image, <code>null</code> if the bytes are not a PNG or JPEG image, like {@link ImageIO#read(ImageInputStream)}
+     * @throws IOException
+     *             if the image can't be decoded
+     */
+    public static BufferedImage read(byte[] aBytes) throws IOException {
+        String format = getFormatName(aBytes);
+        if (format == null) {
+            return null;
+        }
+        ImageReader reader = borrowReader(format);
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(aBytes))) {
+            reader.setInput(in, true, true);
+            return reader.read(0);
+        } finally {
+            reader.reset();
+            release(READERS, format, reader);
+        }
+    }
+
+    /**
+     * Encode an image. The alpha channel is dropped for the JPEG format.
+     *
+     * @param aImage
+     *            the image
+     * @param aFormat
+     *            the format, the PNG formats being encoded in true colors
+     * @param aOut
+     *            the stream receiving the image, not closed
+     * @throws IOException
+     *             if the image can't be written
+     */
+    public static void write(BufferedImage aImage, ImageFormat aFormat, OutputStream aOut) throws IOException {
+        if (aFormat.isTransparent()) {
+            PNG_ENCODER.encode(aImage, aOut);
+        } else {
+            writeJpeg(aImage, JPEG_QUALITY, aOut);
+        }
+    }
+
+    /**
+     * Encode an image in JPEG.
+     *
+     * @param aImage
+     *            the image, the alpha channel is dropped
+     * @param aQuality
+     *            the quality, from 0 to 1
+     * @param aOut
+     *            the stream receiving the image, not closed
+     * @throws IOException
+     *             if the image can't be written
+     */
+    public static void writeJpeg(BufferedImage aImage, float aQuality, OutputStream aOut) throws IOException {
+        BufferedImage image = aImage.getColorModel().hasAlpha() ? toRgb(aImage) : aImage;
+        ImageWriter writer = borrowWriter("jpeg");
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(aOut)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(aQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.reset();
+            release(WRITERS, "jpeg", writer);
+        }
+    }
+
+    /**
+     * Copy an image without its alpha channel, on a white background.
+     *
+     * @param aImage
+     *            the image
+     * @return the image in RGB
+     */
+    private static BufferedImage toRgb(BufferedImage aImage) {
+        BufferedImage rgb = new BufferedImage(aImage.getWidth(), aImage.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(aImage, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+
+    /**
+     * Get an idle reader or create one.
+     *
+     * @param aFormat
+     *            the format name
+     * @return the reader
+     * @throws IOException
+     *             if there is no reader for the format
+     */
+    private static ImageReader borrowReader(String aFormat) throws IOException {
+        ImageReader reader = getPool(READERS, aFormat).poll();
+        if (reader != null) {
+            return reader;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(aFormat);
+        if (!readers.hasNext()) {
+            throw new IOException("No image reader for the format " + aFormat);
+        }
+        return readers.next();
+    }
+
+    /**
+     * Get an idle writer or create one.
+     *
+     * @param aFormat
+     *            the format name
+     * @return the writer
+     * @throws IOException
+     *             if there is no writer for the format
+     */
+    private static ImageWriter borrowWriter(String aFormat) throws IOException {
+        ImageWriter writer = getPool(WRITERS, aFormat).poll();
+        if (writer != null) {
+            return writer;
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(aFormat);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for the format " + aFormat);
+        }
+        return writers.next();
+    }
+
+    /**
+     * Get the pool of a format.
+     *
+     * @param <T>
+     *            the reader or writer type
+     * @param aPools
+     *            the pools by format name
+     * @param aFormat
+     *            the format name
+     * @return the pool
+     */
+    private static <T> Queue<T> getPool(Map<String, Queue<T>> aPools, String aFormat) {
+        return aPools.computeIfAbsent(aFormat, k -> new ArrayBlockingQueue<>(POOL_SIZE));
+    }
+
+    /**
+     * Give back a reader or a writer to its pool, or dispose it if the pool is full.
+     *
+     * @param <T>
+     *            the reader or writer type
+     * @param aPools
+     *            the pools by format name
+     * @param aFormat
+     *            the format name
+     * @param aCodec
+     *            the reader or writer
+     */
+    private static <T> void release(Map<String, Queue<T>> aPools, String aFormat, T aCodec) {
+        if (!getPool(aPools, aFormat).offer(aCodec)) {
+            if (aCodec instanceof ImageReader) {
+                ((ImageReader) aCodec).dispose();
+            } else {
+                ((ImageWriter) aCodec).dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+/**
+ * Image format requested to the <code>export</code> operation of a map service, chosen for the transparency and the use of the image
+ * with {@link #negotiate(boolean, Target)}.
+ *
+ * @author INSER SA
+ */
+public enum ImageFormat {
+
+    /** PNG with a palette of 256 colors: small, for the display of vector layers */
+    PNG8("png8", "png", "image/png"),
+
+    /** PNG with 8 bits by channel and alpha: lossless, for the prints and the transparent overlays */
+    PNG32("png32", "png", "image/png"),
+
+    /** JPEG: small for the orthophotos and the basemaps, without transparency */
+    JPG("jpg", "jpeg", "image/jpeg");
+
+    /**
+     * Use of the exported image.
+     */
+    public enum Target {
+
+        /** Display on a screen, the size of the image matters more than the exact colors */
+        SCREEN,
+
+        /** Print, the colors, lines and labels must be exact */
+        PRINT,
+
+        /** Orthophotos and basemaps, with continuous tones */
+        IMAGERY
+    }
+
+    /**
+     * The value of the <code>format</code> parameter of the <code>export</code> operation.
+     */
+    private final String iUpstream;
+
+    /**
+     * The ImageIO format name.
+     */
+    private final String iImageIOName;
+
+    /**
+     * The media type.
+     */
+    private final String iMediaType;
+
+    /**
+     * Constructor
+     *
+     * @param aUpstream
+     *            the value of the <code>format</code> parameter of the <code>export</code> operation
+     * @param aImageIOName
+     *            the ImageIO format name
+     * @param aMediaType
+     *            the media type
+     */
+    ImageFormat(String aUpstream, String aImageIOName, String aMediaType) {
+        iUpstream = aUpstream;
+        iImageIOName = aImageIOName;
+        iMediaType = aMediaType;
+    }
+
+    /**
+     * Choose the format to request to the map service:
+     *
+     * <ul>
+     * <li>screen: png8, transparent or not</li>
+     * <li>print: png32, transparent or not</li>
+     * <li>imagery: jpg, or png32 if transparent</li>
+     * </ul>
+     *
+     * @param aTransparent
+     *            <code>true</code> if the background of the map must be transparent
+     * @param aTarget
+     *            the use of the image, {@link Target#SCREEN} if <code>null</code>
+     * @return the format
+     */
+    public static ImageFormat negotiate(boolean aTransparent, Target aTarget) {
+        if (aTarget == Target.PRINT) {
+            return PNG32;
+        }
+        if (aTarget == Target.IMAGERY) {
+            return aTransparent ? PNG32 : JPG;
+        }
+        return PNG8;
+    }
+
+    /**
+     * @return the value of the <code>format</code> parameter of the <code>export</code> operation
+     */
+    public String getUpstream() {
+        return iUpstream;
+    }
+
+    /**
+     * @return the ImageIO format name: <code>png</code> or <code>jpeg</code>
+     */
+    public String getImageIOName() {
+        return iImageIOName;
+    }
+
+    /**
+     * @return the media type
+     */
+    public String getMediaType() {
+        return iMediaType;
+    }
+
+    /**
+     * @return <code>true</code> if the format keeps the transparency
+     */
+    public boolean isTransparent() {
+        return this != JPG;
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+import ch.inser.jsl.exceptions.ISException;
+
+/**
+ * Export of a map image, in the format negotiated for the transparency and the use of the image. The images larger than the maximum
+ * tile size are exported in tiles requested concurrently and stitched; the images exported in one request are written as received,
+ * without decoding and encoding them again. The PNG images are stitched and encoded by band of tiles, so only one band is decoded
+ * at once; the JPEG images are stitched whole before being encoded.
+ *
+ * <pre>
+ * new MapExport(mapUrl).bbox(2600000, 1200000, 2601000, 1201000).size(6000, 6000).dpi(300).target(ImageFormat.Target.PRINT)
+ *         .write(out, token);
+ * </pre>
+ *
+ * The labels crossing the limit of two tiles can be cut or placed twice, a larger maximum tile size limits their number.
+ *
+ * @author INSER SA
+ */
+public class MapExport {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(MapExport.class);
+
+    /**
+     * Default maximum width and height of a tile, below the default limit of the ArcGIS map services (4096).
+     */
+    private static final int DEFAULT_MAX_TILE_SIZE = 2048;
+
+    /**
+     * Default maximum number of pixels of an exported image.
+     */
+    private static final long DEFAULT_MAX_PIXELS = 50_000_000L;
+
+    /**
+     * The PNG encoder.
+     */
+    private static final ParallelPngEncoder PNG_ENCODER = new ParallelPngEncoder();
+
+    /**
+     * Default maximum time to wait for all the tiles in milliseconds.
+     */
+    private static final long DEFAULT_TIMEOUT = 120_000;
+
+    /**
+     * The map server url.
+     */
+    private final String iMapUrl;
+
+    /**
+     * The extent: xmin, ymin, xmax, ymax.
+     */
+    private double[] iBbox;
+
+    /**
+     * The width of the image in pixels.
+     */
+    private int iWidth = 400;
+
+    /**
+     * The height of the image in pixels.
+     */
+    private int iHeight = 400;
+
+    /**
+     * The resolution, 0 for the default of the server (96).
+     */
+    private int iDpi;
+
+    /**
+     * The spatial reference of the extent and the image, <code>null</code> for the one of the map.
+     */
+    private String iSR;
+
+    /**
+     * <code>true</code> for a transparent background.
+     */
+    private boolean iTransparent;
+
+    /**
+     * The definition expressions of the layers.
+     */
+    private String iLayerDefs = "";
+
+    /**
+     * The layers appearing on the map.
+     */
+    private String iLayers = "";
+
+    /**
+     * The use of the image.
+     */
+    private ImageFormat.Target iTarget = ImageFormat.Target.SCREEN;
+
+    /**
+     * The maximum width and height of a tile.
+     */
+    private int iMaxTileSize = DEFAULT_MAX_TILE_SIZE;
+
+    /**
+     * Maximum time to wait for all the tiles in milliseconds.
+     */
+    private long iTimeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Maximum number of pixels of the image.
+     */
+    private long iMaxPixels = DEFAULT_MAX_PIXELS;
+
+    /**
+     * Constructor
+     *
+     * @param aMapUrl
+     *            the map server url
+     */
+    public MapExport(String aMapUrl) {
+        iMapUrl = aMapUrl;
+    }
+
+    /**
+     * @param aXmin
+     *            the minimum x of the extent
+     * @param aYmin
+     *            the minimum y of the extent
+     * @param aXmax
+     *            the maximum x of the extent
+     * @param aYmax
+     *            the maximum y of the extent
+     * @return this export
+     */
+    public MapExport bbox(double aXmin, double aYmin, double aXmax, double aYmax) {
+        iBbox = new double[] { aXmin, aYmin, aXmax, aYmax };
+        return this;
+    }
+
+    /**
+     * @param aWidth
+     *            the width of the image in pixels
+     * @param aHeight
+     *            the height of the image in pixels
+     * @return this export
+     */
+    public MapExport size(int aWidth, int aHeight) {
+        iWidth = aWidth;
+        iHeight = aHeight;
+        return this;
+    }
+
+    /**
+     * @param aDpi
+     *            the resolution of the image, 0 for the default of the server
+     * @return this export
+     */
+    public MapExport dpi(int aDpi) {
+        iDpi = aDpi;
+        return this;
+    }
+
+    /**
+     * @param aSR
+     *            the spatial reference of the extent and the image (wkid or JSON), <code>null</code> for the one of the map
+     * @return this export
+     */
+    public MapExport sr(String aSR) {
+        iSR = aSR;
+        return this;
+    }
+
+    /**
+     * @param aTransparent
+     *            <code>true</code> for a transparent background
+     * @return this export
+     */
+    public MapExport transparent(boolean aTransparent) {
+        iTransparent = aTransparent;
+        return this;
+    }
+
+    /**
+     * @param aLayerDefs
+     *            the definition expressions of the layers, <code>null</code> for none
+     * @return this export
+     */
+    public MapExport layerDefs(String aLayerDefs) {
+        iLayerDefs = aLayerDefs == null ? "" : aLayerDefs;
+        return this;
+    }
+
+    /**
+     * @param aLayers
+     *            the layers appearing on the map (example: show:1,2), <code>null</code> for the default ones
+     * @return this export
+     */
+    public MapExport layers(String aLayers) {
+        iLayers = aLayers == null ? "" : aLayers;
+        return this;
+    }
+
+    /**
+     * @param aTarget
+     *            the use of the image, choosing its format
+     * @return this export
+     */
+    public MapExport target(ImageFormat.Target aTarget) {
+        iTarget = aTarget;
+        return this;
+    }
+
+    /**
+     * @param aMaxTileSize
+     *            the maximum width and height of a tile, at most the maximum image size of the map service
+     * @return this export
+     */
+    public MapExport maxTileSize(int aMaxTileSize) {
+        iMaxTileSize = Math.max(1, aMaxTileSize);
+        return this;
+    }
+
+    /**
+     * @param aTimeout
+     *            the maximum time to wait for all the tiles in milliseconds
+     * @return this export
+     */
+    public MapExport timeout(long aTimeout) {
+        iTimeout = aTimeout;
+        return this;
+    }
+
+    /**
+     * @param aMaxPixels
+     *            the maximum number of pixels of the image (default 50 millions), the memory used being about 4 bytes by pixel for the
+     *            JPEG images and for {@link #render(String)}
+     * @return this export
+     */
+    public MapExport maxPixels(long aMaxPixels) {
+        iMaxPixels = aMaxPixels;
+        return this;
+    }
+
+    /**
+     * @return the format of the image, negotiated for the transparency and the use of the image
+     */
+    public ImageFormat getFormat() {
+        return ImageFormat.negotiate(iTransparent, iTarget);
+    }
+
+    /**
+     * Export the image and write it. An image exported in one request is written as received, a PNG image exported in tiles is
+     * stitched and encoded by band of tiles.
+     *
+     * @param aOut
+     *            the stream receiving the image, in the format given by {@link #getFormat()}, not closed
+     * @param aToken
+     *            the token
+     * @throws ISException
+     *             if a tile can't be exported
+     * @throws IOException
+     *             if the image can't be written
+     */
+    public void write(OutputStream aOut, String aToken) throws ISException, IOException {
+        check();
+        if (iWidth <= iMaxTileSize && iHeight <= iMaxTileSize) {
+            aOut.write(exportTile(0, 0, iWidth, iHeight, aToken));
+            return;
+        }
+        if (!getFormat().isTransparent()) {
+            ImageCodecs.write(render(aToken), getFormat(), aOut);
+            return;
+        }
+
+        int columns = getColumns();
+        List<byte[]> tiles = exportTiles(aToken);
+        ParallelPngEncoder.BandWriter png = PNG_ENCODER.start(aOut, iWidth, iHeight, iTransparent);
+        for (int y = 0; y < iHeight; y += iMaxTileSize) {
+            BufferedImage band = new BufferedImage(iWidth, Math.min(iMaxTileSize, iHeight - y), getImageType());
+            Graphics2D graphics = band.createGraphics();
+            try {
+                for (int column = 0; column < columns; column++) {
+                    int tile = y / iMaxTileSize * columns + column;
+                    graphics.drawImage(decode(tiles.get(tile)), column * iMaxTileSize, 0, null);
+                    tiles.set(tile, null);
+                }
+            } finally {
+                graphics.dispose();
+            }
+            png.write(band);
+        }
+    }
+
+    /**
+     * Export the image and decode it.
+     *
+     * @param aToken
+     *            the token
+     * @return the image
+     * @throws ISException
+     *             if a tile can't be exported or decoded
+     */
+    public BufferedImage render(String aToken) throws ISException {
+        check();
+        int columns = getColumns();
+        List<byte[]> tiles = exportTiles(aToken);
+        if (tiles.size() == 1) {
+            return decode(tiles.get(0));
+        }
+
+        BufferedImage image = new BufferedImage(iWidth, iHeight, getImageType());
+        Graphics2D graphics = image.createGraphics();
+        try {
+            // The tiles are decoded one by one, only their encoded bytes are kept together
+            for (int i = 0; i < tiles.size(); i++) {
+                graphics.drawImage(decode(tiles.get(i)), i % columns * iMaxTileSize, i / columns * iMaxTileSize, null);
+                tiles.set(i, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Export the tiles of the image concurrently, row by row.
+     *
+     * @param aToken
+     *            the token
+     * @return the encoded tiles
+     * @throws ISException
+     *             if a tile can't be exported
+     */
+    private List<byte[]> exportTiles(String aToken) throws ISException {
+        int columns = getColumns();
+        int rows = (iHeight + iMaxTileSize - 1) / iMaxTileSize;
+        List<Callable<byte[]>> tasks = new ArrayList<>(columns * rows);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int x = column * iMaxTileSize;
+                int y = row * iMaxTileSize;
+                int width = Math.min(iMaxTileSize, iWidth - x);
+                int height = Math.min(iMaxTileSize, iHeight - y);
+                tasks.add(() -> exportTile(x, y, width, height, aToken));
+            }
+        }
+        logger.debug(String.format("exportTiles: %sx%s pixels in %s tiles format='%s' url='%s'", iWidth, iHeight, tasks.size(),
+                getFormat().getUpstream(), iMapUrl));
+        return ServiceExecutor.invokeAll(tasks, iTimeout);
+    }
+
+    /**
+     * Decode a tile.
+     *
+     * @param aTile
+     *            the encoded tile
+     * @return the image
+     * @throws ISException
+     *             if the tile can't be decoded
+     */
+    private static BufferedImage decode(byte[] aTile) throws ISException {
+        BufferedImage tile;
+        try {
+            tile = ImageCodecs.read(aTile);
+        } catch (IOException e) {
+            throw new ISException("Error decoding a tile of the map", e);
+        }
+        if (tile == null) {
+            throw new ISException("The map server returned an image in an unknown format");
+        }
+        return tile;
+    }
+
+    /**
+     * @return the number of tiles in a row
+     */
+    private int getColumns() {
+        return (iWidth + iMaxTileSize - 1) / iMaxTileSize;
+    }
+
+    /**
+     * @return the type of the stitched image, with alpha only for a transparent image in a format with transparency
+     */
+    private int getImageType() {
+        return iTransparent && getFormat().isTransparent() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    /**
+     * Check the parameters of the export.
+     *
+     * @throws ISException
+     *             if the extent is missing or the size is not valid
+     */
+    private void check() throws ISException {
+        if (iBbox == null) {
+            throw new ISException("No extent for the export of " + iMapUrl);
+        }
+        if (iWidth <= 0 || iHeight <= 0 || (long) iWidth * iHeight > iMaxPixels) {
+            throw new ISException(String.format("Invalid image size %sx%s for the export of %s", iWidth, iHeight, iMapUrl));
+        }
+    }
+
+    /**
+     * Export a tile of the image.
+     *
+     * @param aX
+     *            the left pixel of the tile in the image
+     * @param aY
+     *            the top pixel of the tile in the image
+     * @param aWidth
+     *            the width of the tile
+     * @param aHeight
+     *            the height of the tile
+     * @param aToken
+     *            the token
+     * @return the encoded tile
+     * @throws ISException
+     *             if the tile can't be exported
+     */
+    private byte[] exportTile(int aX, int aY, int aWidth, int aHeight, String aToken) throws ISException {
+        // The tiles are aligned on the pixels of the image, the rows going down from ymax
+        double resolutionX = (iBbox[2] - iBbox[0]) / iWidth;
+        double resolutionY = (iBbox[3] - iBbox[1]) / iHeight;
+        double xmin = iBbox[0] + aX * resolutionX;
+        double ymax = iBbox[3] - aY * resolutionY;
+        String bbox = String.format(Locale.ROOT, "%s,%s,%s,%s", xmin, ymax - aHeight * resolutionY, xmin + aWidth * resolutionX, ymax);
+
+        FormData form = new FormData().param("bbox", bbox).param("size", aWidth + "," + aHeight).param("bboxSR", iSR)
+                .param("imageSR", iSR);
+        if (iDpi > 0) {
+            form.param("dpi", String.valueOf(iDpi));
+        }
+        try {
+            return MapServiceHandler.getMapImage(iMapUrl, form, iTransparent, iLayerDefs, iLayers, getFormat(), aToken);
+        } catch (IOException e) {
+            throw new ISException("Error exporting the map " + iMapUrl, e);
+        }
+    }
+}
@@ -16,24 +16,28 @@
 package ch.inser.isejawa.map.map;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import ch.inser.rest.util.ISClientBuilder;
-import ch.inser.rest.util.JsonUtil;
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+import ch.inser.isejawa.map.util.TimedCache;
+import ch.inser.jsl.exceptions.ISException;
 
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObject;
-import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.ClientBuilder;
-import jakarta.ws.rs.client.Entity;
-import jakarta.ws.rs.client.WebTarget;
-import jakarta.ws.rs.core.Form;
-import jakarta.ws.rs.core.Response;
+import jakarta.json.JsonValue;
 
 /**
  * Handler to work with map services.
@@ -48,6 +52,21 @@ public class MapServiceHandler {
      */
     private static final Log logger = LogFactory.getLog(MapServiceHandler.class);
 
+    /**
+     * Maximum time in milliseconds to wait for the domains of several map services.
+     */
+    private static final long DOMAINS_TIMEOUT = 30_000;
+
+    /**
+     * Time in milliseconds during which the domains of a map service are cached.
+     */
+    private static final long DOMAINS_TTL = 600_000;
+
+    /**
+     * The cached domains by map service url and layers.
+     */
+    private static final TimedCache<String, JsonArray> DOMAINS = new TimedCache<>();
+
     /**
      * Constructor
      */
@@ -71,29 +90,127 @@ public class MapServiceHandler {
      *            Determines which layers appear on the exported map.
      * @param aToken
      *            the token
-     * @return the image as a bufferedImage
+     * @return the image as a bufferedImage, <code>null</code> if the server did not return an image
      * @throws IOException
      *             errors
+     * @see MapExport to export large images and write them without decoding and encoding them again
      */
     public static BufferedImage getMapExport(String aMapUrl, String aBbox, String aSize, boolean aTransparent, String aLayerDefs,
             String aLayers, String aToken) throws IOException {
-        Client client = ClientBuilder.newBuilder().build();
-        WebTarget target = null;
+        TransportResponse response = export(aMapUrl, extent(aBbox, aSize), aTransparent, aLayerDefs, aLayers, null, aToken);
+        return ImageCodecs.read(response.getBytes());
+    }
 
-        if ("".equals(aToken)) {
-            target = client.target(aMapUrl + "/export");
-        } else {
-            target = client.target(aMapUrl + "/export").queryParam("token", aToken);
-        }
+    /**
+     * Export as an encoded image a portion of the map, in the format chosen for the use of the image.
+     *
+     * @param aMapUrl
+     *            the map server url
+     * @param aBbox
+     *            The extent (bounding box) of the exported image. Syntax: xmin, ymin, xmax, ymax.
+     * @param aSize
+     *            size of the image (example 800,800)
+     * @param aTransparent
+     *            If true, the image will be exported with the background color of the map set as its transparent color.
+     * @param aLayerDefs
+     *            Filter the features of individual layers in the exported map by specifying definition expressions for those layers.
+     * @param aLayers
+     *            Determines which layers appear on the exported map.
+     * @param aFormat
+     *            the format of the image, see {@link ImageFormat#negotiate(boolean, ImageFormat.Target)}
+     * @param aToken
+     *            the token
+     * @return the encoded image
+     * @throws IOException
+     *             if the server can't be called or does not return an image
+     */
+    public static byte[] getMapImage(String aMapUrl, String aBbox, String aSize, boolean aTransparent, String aLayerDefs,
+            String aLayers, ImageFormat aFormat, String aToken) throws IOException {
+        return getMapImage(aMapUrl, extent(aBbox, aSize), aTransparent, aLayerDefs, aLayers, aFormat, aToken);
+    }
 
-        logger.debug(String.format("export: request to='%s'", target.getUri()));
-        logger.debug(String.format("export: bbox='%s' size ='%s' transparent='%s' layerDefs='%s' layers='%s'", aBbox, aSize, aTransparent,
-                aLayerDefs, aLayers));
+    /**
+     * Export as an encoded image a portion of the map.
+     *
+     * @param aMapUrl
+     *            the map server url
+     * @param aForm
+     *            the parameters giving the extent of the image: bbox, size, dpi, ...
+     * @param aTransparent
+     *            If true, the image will be exported with the background color of the map set as its transparent color.
+     * @param aLayerDefs
+     *            Filter the features of individual layers in the exported map, can be empty.
+     * @param aLayers
+     *            Determines which layers appear on the exported map, can be empty.
+     * @param aFormat
+     *            the format of the image
+     * @param aToken
+     *            the token
+     * @return the encoded image
+     * @throws IOException
+     *             if the server can't be called or does not return an image
+     */
+    static byte[] getMapImage(String aMapUrl, FormData aForm, boolean aTransparent, String aLayerDefs, String aLayers,
+            ImageFormat aFormat, String aToken) throws IOException {
+        TransportResponse response = export(aMapUrl, aForm, aTransparent, aLayerDefs, aLayers, aFormat, aToken);
+        if (response.getStatus() >= 400 || ImageCodecs.getFormatName(response.getBytes()) == null) {
+            throw new IOException(String.format("No image in the response of the map server (HTTP %s): %s", response.getStatus(),
+                    response.getString()));
+        }
+        return response.getBytes();
+    }
 
-        Form form = new Form().param("f", "image").param("bbox", aBbox).param("transparent", String.valueOf(aTransparent));
+    /**
+     * Create the parameters giving the extent of an exported image.
+     *
+     * @param aBbox
+     *            the extent (bounding box) of the image. Syntax: xmin, ymin, xmax, ymax.
+     * @param aSize
+     *            size of the image (example 800,800), empty for the default size
+     * @return the parameters
+     */
+    private static FormData extent(String aBbox, String aSize) {
+        FormData form = new FormData().param("bbox", aBbox);
         if (!"".equals(aSize)) {
             form.param("size", aSize);
         }
+        return form;
+    }
+
+    /**
+     * Call the export operation of a map service.
+     *
+     * @param aMapUrl
+     *            the map server url
+     * @param aForm
+     *            the parameters giving the extent of the image, completed by this method
+     * @param aTransparent
+     *            If true, the image will be exported with the background color of the map set as its transparent color.
+     * @param aLayerDefs
+     *            Filter the features of individual layers in the exported map, can be empty.
+     * @param aLayers
+     *            Determines which layers appear on the exported map, can be empty.
+     * @param aFormat
+     *            the format of the image, <code>null</code> for the default format of the server
+     * @param aToken
+     *            the token
+     * @return the response
+     */
+    private static TransportResponse export(String aMapUrl, FormData aForm, boolean aTransparent, String aLayerDefs, String aLayers,
+            ImageFormat aFormat, String aToken) {
+        String url = aMapUrl + "/export";
+        if (!"".equals(aToken)) {
+            url = new FormData().param("token", aToken).toUrl(url);
+        }
+
+        logger.debug(String.format("export: request to='%s'", url));
+        logger.debug(String.format("export: form='%s' transparent='%s' layerDefs='%s' layers='%s' format='%s'", aForm.toUrl(""),
+                aTransparent, aLayerDefs, aLayers, aFormat == null ? null : aFormat.getUpstream()));
+
+        FormData form = aForm.param("f", "image").param("transparent", String.valueOf(aTransparent));
+        if (aFormat != null) {
+            form.param("format", aFormat.getUpstream());
+        }
         if (!"".equals(aLayerDefs)) {
             form.param("layerDefs", aLayerDefs);
         }
@@ -101,10 +218,9 @@ public class MapServiceHandler {
             form.param("layers", aLayers);
         }
 
-        Response response = target.request().post(Entity.form(form));
+        TransportResponse response = Transports.get().post(url, form);
         logger.debug(String.format("export: response HTTP code='%s'", response.getStatus()));
-
-        return ImageIO.read(new ByteArrayInputStream(response.readEntity(byte[].class)));
+        return response;
     }
 
     /**
@@ -119,13 +235,92 @@ public class MapServiceHandler {
      * @return the domains
      */
     public static JsonObject getMapDomains(String aMapUrl, String aLayers, String aToken) {
-        Client client = ISClientBuilder.build();
-        WebTarget target = client.target(String.format("%s/queryDomains", aMapUrl)).queryParam("f", "json").queryParam("token", aToken)
-                .queryParam("layers", aLayers);
-        logger.debug(String.format("getMapDomains: request to='%s'", target.getUri()));
-        Response response = target.request().get();
+        String url = new FormData().param("f", "json").param("token", aToken).param("layers", aLayers)
+                .toUrl(String.format("%s/queryDomains", aMapUrl));
+        logger.debug(String.format("getMapDomains: request to='%s'", url));
+        TransportResponse response = Transports.get().get(url);
         logger.debug(String.format("getMapDomains: response HTTP code='%s'", response.getStatus()));
 
-        return JsonUtil.stringToJsonObject(response.readEntity(String.class));
+        return response.getJsonObject();
+    }
+
+    /**
+     * Get the map domains, reusing the domains received during the last minutes.
+     *
+     * @param aMapUrl
+     *            the map server url
+     * @param aLayers
+     *            Select the layer to get the domain.
+     * @param aToken
+     *            the token
+     * @return the domains: [{type: .., name: .., codedValues: [..]}, ...]
+     * @throws ISException
+     *             if the map server returns an error
+     */
+    public static JsonArray getCachedMapDomains(String aMapUrl, String aLayers, String aToken) throws ISException {
+        String key = aMapUrl + "|" + aLayers;
+        JsonArray domains = DOMAINS.get(key);
+        if (domains != null) {
+            return domains;
+        }
+
+        JsonObject result = getMapDomains(aMapUrl, aLayers, aToken);
+        domains = result.getJsonArray("domains");
+        if (domains == null) {
+            throw new ISException("No domains in the response of the map server: " + result);
+        }
+        DOMAINS.put(key, domains, System.currentTimeMillis() + DOMAINS_TTL);
+        return domains;
+    }
+
+    /**
+     * Remove the cached domains, for example after a change of the map services.
+     */
+    public static void clearDomainsCache() {
+        DOMAINS.clear();
+    }
+
+    /**
+     * Get the domains of several map services, each with its layer group. The services are called concurrently and the domains are
+     * merged in one array, a domain shared by several layers of a service being returned only once.
+     * The cached domains are reused.
+     *
+     * @param aMapUrls
+     *            the map server urls
+     * @param aLayers
+     *            the layer group of each map server, in the same order
+     * @param aToken
+     *            the token
+     * @return the merged domains
+     * @throws ISException
+     *             if a map server can't be called or returns an error
+     * @throws IllegalArgumentException
+     *             if there is not one layer group by map server
+     */
+    public static JsonArray getMapDomains(List<String> aMapUrls, List<String> aLayers, String aToken) throws ISException {
+        if (aMapUrls.size() != aLayers.size()) {
+            throw new IllegalArgumentException(
+                    String.format("%s map servers but %s layer groups, one group by map server expected", aMapUrls.size(), aLayers.size()));
+        }
+        List<Callable<JsonArray>> tasks = new ArrayList<>();
+        for (int i = 0; i < aMapUrls.size(); i++) {
+            String mapUrl = aMapUrls.get(i);
+            String layers = aLayers.get(i);
+            tasks.add(() -> getCachedMapDomains(mapUrl, layers, aToken));
+        }
+
+        JsonArrayBuilder domains = Json.createArrayBuilder();
+        Set<String> names = new HashSet<>();
+        List<JsonArray> results = ServiceExecutor.invokeAll(tasks, DOMAINS_TIMEOUT);
+        for (int i = 0; i < results.size(); i++) {
+            for (JsonValue domain : results.get(i)) {
+                // The same name can have other coded values on another service
+                String name = domain.asJsonObject().getString("name", null);
+                if (name == null || names.add(aMapUrls.get(i) + "|" + name)) {
+                    domains.add(domain);
+                }
+            }
+        }
+        return domains.build();
     }
 }
@@ -0,0 +1,650 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder compressing the image in horizontal strips in parallel. Each strip is filtered and deflated independently, ended with a
+ * sync flush so the compressed strips can be concatenated in a single zlib stream; the checksum of the whole image is combined from
+ * the checksums of the strips. The images are written in true colors, with an alpha channel if the image has one, 8 bits by channel.
+ * The strips are compressed in the common fork-join pool, the calling thread compressing the first one.
+ *
+ * @author INSER SA
+ */
+public class ParallelPngEncoder {
+
+    /**
+     * The PNG signature.
+     */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    /**
+     * The zlib header: deflate with a 32K window (the level bits are informative only).
+     */
+    private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+
+    /**
+     * Modulo of the Adler-32 checksum.
+     */
+    private static final int ADLER_BASE = 65521;
+
+    /**
+     * Default compression level, the one of the ImageIO PNG writer.
+     */
+    private static final int DEFAULT_LEVEL = 4;
+
+    /**
+     * Default size of the uncompressed data of a strip in bytes.
+     */
+    private static final int DEFAULT_STRIP_BYTES = 512 * 1024;
+
+    /**
+     * Size of the buffer receiving the compressed data.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The compression level, from 0 to 9.
+     */
+    private final int iLevel;
+
+    /**
+     * <code>true</code> to filter each row with the best PNG filter, <code>false</code> to write the rows unfiltered.
+     */
+    private final boolean iAdaptive;
+
+    /**
+     * Size of the uncompressed data of a strip in bytes.
+     */
+    private final int iStripBytes;
+
+    /**
+     * Constructor with the default compression level, for rendered maps.
+     */
+    public ParallelPngEncoder() {
+        this(DEFAULT_LEVEL, false, DEFAULT_STRIP_BYTES);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param aLevel
+     *            the compression level, from 0 (none) to 9 (best)
+     * @param aAdaptive
+     *            <code>true</code> to filter each row with the best PNG filter, for the images with continuous tones
+     * @param aStripBytes
+     *            the size of the uncompressed data of a strip in bytes, the strips having at least one row
+     */
+    public ParallelPngEncoder(int aLevel, boolean aAdaptive, int aStripBytes) {
+        iLevel = aLevel;
+        iAdaptive = aAdaptive;
+        iStripBytes = Math.max(1, aStripBytes);
+    }
+
+    /**
+     * Encode an image.
+     *
+     * @param aImage
+     *            the image
+     * @param aOut
+     *            the stream receiving the PNG file, not closed
+     * @throws IOException
+     *             if the image can't be written or the encoding is interrupted
+     */
+    public void encode(BufferedImage aImage, OutputStream aOut) throws IOException {
+        start(aOut, aImage.getWidth(), aImage.getHeight(), aImage.getColorModel().hasAlpha()).write(aImage);
+    }
+
+    /**
+     * Start a PNG file written band by band, so a large image is never held whole in memory. The file is complete when bands with
+     * the height of the image have been written.
+     *
+     * @param aOut
+     *            the stream receiving the PNG file, not closed
+     * @param aWidth
+     *            the width of the image
+     * @param aHeight
+     *            the height of the image
+     * @param aAlpha
+     *            <code>true</code> to write the alpha channel
+     * @return the writer of the bands
+     * @throws IOException
+     *             if the stream can't be written
+     */
+    public BandWriter start(OutputStream aOut, int aWidth, int aHeight, boolean aAlpha) throws IOException {
+        return new BandWriter(aOut, aWidth, aHeight, aAlpha);
+    }
+
+    /**
+     * Encode an image in memory.
+     *
+     * @param aImage
+     *            the image
+     * @return the PNG file
+     * @throws IOException
+     *             if the encoding is interrupted
+     */
+    public byte[] encodeToBytes(BufferedImage aImage) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(aImage, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Filter and compress a strip of the image.
+     *
+     * @param aImage
+     *            the image
+     * @param aAlpha
+     *            <code>true</code> to write the alpha channel
+     * @param aFirstRow
+     *            the first row of the strip
+     * @param aRows
+     *            the number of rows of the strip
+     * @param aLast
+     *            <code>true</code> for the last strip, ending the zlib stream
+     * @param aPrevious
+     *            the bytes of the row before the strip when it is not in the image, <code>null</code> to read it from the image
+     * @return the compressed strip
+     */
+    private Strip deflate(BufferedImage aImage, boolean aAlpha, int aFirstRow, int aRows, boolean aLast, byte[] aPrevious) {
+        int width = aImage.getWidth();
+        int bpp = aAlpha ? 4 : 3;
+        int rowBytes = width * bpp;
+        int[] pixels = new int[width];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[][] filtered = new byte[iAdaptive ? 5 : 1][rowBytes + 1];
+
+        // The filters of the first row refer to the last row of the previous strip
+        if (iAdaptive && aPrevious != null) {
+            System.arraycopy(aPrevious, 0, previous, 0, rowBytes);
+        } else if (iAdaptive && aFirstRow > 0) {
+            toBytes(getRow(aImage, aFirstRow - 1, pixels), aAlpha, previous);
+        }
+
+        Deflater deflater = new Deflater(iLevel, true);
+        if (iAdaptive) {
+            deflater.setStrategy(Deflater.FILTERED);
+        }
+        Adler32 adler = new Adler32();
+        ByteArrayOutputStream data = new ByteArrayOutputStream(aRows * rowBytes / 4 + 64);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            for (int y = aFirstRow; y < aFirstRow + aRows; y++) {
+                toBytes(getRow(aImage, y, pixels), aAlpha, current);
+                byte[] row;
+                if (iAdaptive) {
+                    row = filter(previous, current, bpp, filtered);
+                } else {
+                    row = filtered[0];
+                    System.arraycopy(current, 0, row, 1, rowBytes);
+                }
+                adler.update(row);
+                deflater.setInput(row);
+                while (!deflater.needsInput()) {
+                    data.write(buffer, 0, deflater.deflate(buffer));
+                }
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            if (aLast) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    data.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // Flush to a byte boundary so the next strip can follow directly
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    data.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Strip(data.toByteArray(), adler.getValue(), (long) aRows * (rowBytes + 1));
+    }
+
+    /**
+     * Get the pixels of a row.
+     *
+     * @param aImage
+     *            the image
+     * @param aY
+     *            the row
+     * @param aPixels
+     *            the buffer receiving the pixels
+     * @return the pixels in non-premultiplied ARGB
+     */
+    private static int[] getRow(BufferedImage aImage, int aY, int[] aPixels) {
+        int type = aImage.getType();
+        if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) {
+            // The packed pixels are already in the right layout, without conversion by pixel
+            return (int[]) aImage.getRaster().getDataElements(0, aY, aImage.getWidth(), 1, aPixels);
+        }
+        return aImage.getRGB(0, aY, aImage.getWidth(), 1, aPixels, 0, aImage.getWidth());
+    }
+
+    /**
+     * Convert the pixels of a row to the bytes of the PNG format.
+     *
+     * @param aPixels
+     *            the pixels in ARGB
+     * @param aAlpha
+     *            <code>true</code> to write the alpha channel
+     * @param aBytes
+     *            the bytes: RGB or RGBA
+     */
+    private static void toBytes(int[] aPixels, boolean aAlpha, byte[] aBytes) {
+        int i = 0;
+        for (int pixel : aPixels) {
+            aBytes[i++] = (byte) (pixel >> 16);
+            aBytes[i++] = (byte) (pixel >> 8);
+            aBytes[i++] = (byte) pixel;
+            if (aAlpha) {
+                aBytes[i++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Filter a row with the 5 PNG filters and keep the one with the smallest sum of absolute differences, the usual heuristic of the
+     * PNG encoders.
+     *
+     * @param aPrevious
+     *            the previous row, zeros for the first row of the image
+     * @param aCurrent
+     *            the row
+     * @param aBpp
+     *            the number of bytes by pixel
+     * @param aFiltered
+     *            the buffers of the filtered rows, with the filter type in the first byte
+     * @return the best filtered row
+     */
+    private static byte[] filter(byte[] aPrevious, byte[] aCurrent, int aBpp, byte[][] aFiltered) {
+        int length = aCurrent.length;
+        int[] sums = new int[5];
+
+        // One loop by filter, the first pixel having no left neighbour
+        byte[] out = aFiltered[0];
+        for (int i = 0; i < length; i++) {
+            out[i + 1] = aCurrent[i];
+            sums[0] += aCurrent[i] & 0xff;
+        }
+        out = aFiltered[1];
+        for (int i = 0; i < aBpp; i++) {
+            out[i + 1] = aCurrent[i];
+            sums[1] += aCurrent[i] & 0xff;
+        }
+        for (int i = aBpp; i < length; i++) {
+            int difference = (aCurrent[i] & 0xff) - (aCurrent[i - aBpp] & 0xff);
+            out[i + 1] = (byte) difference;
+            sums[1] += Math.abs(difference);
+        }
+        out = aFiltered[2];
+        for (int i = 0; i < length; i++) {
+            int difference = (aCurrent[i] & 0xff) - (aPrevious[i] & 0xff);
+            out[i + 1] = (byte) difference;
+            sums[2] += Math.abs(difference);
+        }
+        out = aFiltered[3];
+        for (int i = 0; i < aBpp; i++) {
+            int difference = (aCurrent[i] & 0xff) - ((aPrevious[i] & 0xff) >>> 1);
+            out[i + 1] = (byte) difference;
+            sums[3] += Math.abs(difference);
+        }
+        for (int i = aBpp; i < length; i++) {
+            int difference = (aCurrent[i] & 0xff) - (((aCurrent[i - aBpp] & 0xff) + (aPrevious[i] & 0xff)) >>> 1);
+            out[i + 1] = (byte) difference;
+            sums[3] += Math.abs(difference);
+        }
+        out = aFiltered[4];
+        for (int i = 0; i < aBpp; i++) {
+            // Without left neighbours, the Paeth predictor is the byte above
+            int difference = (aCurrent[i] & 0xff) - (aPrevious[i] & 0xff);
+            out[i + 1] = (byte) difference;
+            sums[4] += Math.abs(difference);
+        }
+        for (int i = aBpp; i < length; i++) {
+            int difference = (aCurrent[i] & 0xff) - paeth(aCurrent[i - aBpp] & 0xff, aPrevious[i] & 0xff, aPrevious[i - aBpp] & 0xff);
+            out[i + 1] = (byte) difference;
+            sums[4] += Math.abs(difference);
+        }
+
+        int best = 0;
+        for (int type = 1; type < sums.length; type++) {
+            if (sums[type] < sums[best]) {
+                best = type;
+            }
+        }
+        aFiltered[best][0] = (byte) best;
+        return aFiltered[best];
+    }
+
+    /**
+     * The Paeth predictor of the PNG format.
+     *
+     * @param aLeft
+     *            the byte on the left
+     * @param aUp
+     *            the byte above
+     * @param aUpLeft
+     *            the byte above on the left
+     * @return the predictor
+     */
+    private static int paeth(int aLeft, int aUp, int aUpLeft) {
+        int pa = Math.abs(aUp - aUpLeft);
+        int pb = Math.abs(aLeft - aUpLeft);
+        int pc = Math.abs(aLeft + aUp - 2 * aUpLeft);
+        if (pa <= pb && pa <= pc) {
+            return aLeft;
+        }
+        return pb <= pc ? aUp : aUpLeft;
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two consecutive blocks of data, like <code>adler32_combine</code> of zlib.
+     *
+     * @param aAdler1
+     *            the checksum of the first block
+     * @param aAdler2
+     *            the checksum of the second block
+     * @param aLength2
+     *            the length of the second block
+     * @return the checksum of the two blocks
+     */
+    static long combineAdler(long aAdler1, long aAdler2, long aLength2) {
+        long rem = aLength2 % ADLER_BASE;
+        long sum1 = aAdler1 & 0xffff;
+        long sum2 = rem * sum1 % ADLER_BASE;
+        sum1 += (aAdler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((aAdler1 >> 16) & 0xffff) + ((aAdler2 >> 16) & 0xffff) + ADLER_BASE - rem;
+        sum1 %= ADLER_BASE;
+        sum2 %= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Write the header chunk.
+     *
+     * @param aOut
+     *            the stream
+     * @param aWidth
+     *            the width
+     * @param aHeight
+     *            the height
+     * @param aAlpha
+     *            <code>true</code> for RGBA, <code>false</code> for RGB
+     * @throws IOException
+     *             if the stream can't be written
+     */
+    private static void writeHeader(DataOutputStream aOut, int aWidth, int aHeight, boolean aAlpha) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(aWidth);
+        data.writeInt(aHeight);
+        data.writeByte(8);
+        data.writeByte(aAlpha ? 6 : 2);
+        data.writeByte(0);
+        data.writeByte(0);
+        data.writeByte(0);
+        writeChunk(aOut, "IHDR", header.toByteArray());
+    }
+
+    /**
+     * Write a chunk.
+     *
+     * @param aOut
+     *            the stream
+     * @param aType
+     *            the chunk type
+     * @param aParts
+     *            the parts of the chunk data
+     * @throws IOException
+     *             if the stream can't be written
+     */
+    private static void writeChunk(DataOutputStream aOut, String aType, byte[]... aParts) throws IOException {
+        int length = 0;
+        for (byte[] part : aParts) {
+            length += part.length;
+        }
+        byte[] type = aType.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        aOut.writeInt(length);
+        aOut.write(type);
+        for (byte[] part : aParts) {
+            crc.update(part);
+            aOut.write(part);
+        }
+        aOut.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * @param aValue
+     *            a 32 bits value
+     * @return the value in 4 bytes, big-endian
+     */
+    private static byte[] toBytes(long aValue) {
+        return new byte[] { (byte) (aValue >> 24), (byte) (aValue >> 16), (byte) (aValue >> 8), (byte) aValue };
+    }
+
+    /**
+     * Writer of a PNG file band by band: each band is compressed in strips in parallel and written before the next one is received.
+     */
+    public final class BandWriter {
+
+        /**
+         * The stream receiving the PNG file.
+         */
+        private final DataOutputStream iOut;
+
+        /**
+         * The width of the image.
+         */
+        private final int iWidth;
+
+        /**
+         * The height of the image.
+         */
+        private final int iHeight;
+
+        /**
+         * <code>true</code> to write the alpha channel.
+         */
+        private final boolean iAlpha;
+
+        /**
+         * Number of rows written.
+         */
+        private int iRows;
+
+        /**
+         * Adler-32 checksum of the uncompressed data written, 1 for no data.
+         */
+        private long iAdler = 1;
+
+        /**
+         * <code>true</code> once the first IDAT chunk, starting with the zlib header, is written.
+         */
+        private boolean iStarted;
+
+        /**
+         * The bytes of the last row written, for the filters of the next band.
+         */
+        private byte[] iLastRow;
+
+        /**
+         * Constructor, writing the signature and the header.
+         *
+         * @param aOut
+         *            the stream receiving the PNG file, not closed
+         * @param aWidth
+         *            the width of the image
+         * @param aHeight
+         *            the height of the image
+         * @param aAlpha
+         *            <code>true</code> to write the alpha channel
+         * @throws IOException
+         *             if the stream can't be written
+         */
+        private BandWriter(OutputStream aOut, int aWidth, int aHeight, boolean aAlpha) throws IOException {
+            iOut = new DataOutputStream(aOut);
+            iWidth = aWidth;
+            iHeight = aHeight;
+            iAlpha = aAlpha;
+            iOut.write(SIGNATURE);
+            writeHeader(iOut, aWidth, aHeight, aAlpha);
+        }
+
+        /**
+         * Write the next rows of the image, the file being ended with the last rows.
+         *
+         * @param aBand
+         *            the rows, with the width of the image
+         * @throws IOException
+         *             if the image can't be written or the encoding is interrupted
+         * @throws IllegalArgumentException
+         *             if the band does not have the width of the image or goes beyond its height
+         */
+        public void write(BufferedImage aBand) throws IOException {
+            int height = aBand.getHeight();
+            if (aBand.getWidth() != iWidth || iRows + height > iHeight) {
+                throw new IllegalArgumentException(String.format("Band of %sx%s pixels after %s rows of an image of %sx%s pixels",
+                        aBand.getWidth(), height, iRows, iWidth, iHeight));
+            }
+            boolean lastBand = iRows + height == iHeight;
+            int rowBytes = iWidth * (iAlpha ? 4 : 3);
+            int stripRows = Math.max(1, Math.min(height, iStripBytes / (rowBytes + 1)));
+            int strips = (height + stripRows - 1) / stripRows;
+
+            List<Future<Strip>> futures = new ArrayList<>(strips);
+            try {
+                for (int i = 1; i < strips; i++) {
+                    int firstRow = i * stripRows;
+                    int rows = Math.min(stripRows, height - firstRow);
+                    boolean last = lastBand && i == strips - 1;
+                    futures.add(ForkJoinPool.commonPool().submit(() -> deflate(aBand, iAlpha, firstRow, rows, last, null)));
+                }
+                writeStrip(deflate(aBand, iAlpha, 0, Math.min(stripRows, height), lastBand && strips == 1, iLastRow),
+                        lastBand && strips == 1);
+                for (int i = 0; i < futures.size(); i++) {
+                    writeStrip(futures.get(i).get(), lastBand && i == futures.size() - 1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while encoding the PNG image");
+            } catch (ExecutionException e) {
+                throw new IOException("Error encoding the PNG image", e.getCause());
+            } finally {
+                for (Future<Strip> future : futures) {
+                    future.cancel(true);
+                }
+            }
+
+            if (iAdaptive && !lastBand) {
+                iLastRow = new byte[rowBytes];
+                toBytes(getRow(aBand, height - 1, new int[iWidth]), iAlpha, iLastRow);
+            }
+            iRows += height;
+            if (lastBand) {
+                writeChunk(iOut, "IEND");
+            }
+            iOut.flush();
+        }
+
+        /**
+         * Write a compressed strip in an IDAT chunk, the first one starting with the zlib header and the last one ending with the
+         * checksum.
+         *
+         * @param aStrip
+         *            the strip
+         * @param aLast
+         *            <code>true</code> for the last strip of the image
+         * @throws IOException
+         *             if the stream can't be written
+         */
+        private void writeStrip(Strip aStrip, boolean aLast) throws IOException {
+            boolean first = !iStarted;
+            iStarted = true;
+            iAdler = combineAdler(iAdler, aStrip.iAdler, aStrip.iLength);
+            if (first && aLast) {
+                writeChunk(iOut, "IDAT", ZLIB_HEADER, aStrip.iData, toBytes(iAdler));
+            } else if (first) {
+                writeChunk(iOut, "IDAT", ZLIB_HEADER, aStrip.iData);
+            } else if (aLast) {
+                writeChunk(iOut, "IDAT", aStrip.iData, toBytes(iAdler));
+            } else {
+                writeChunk(iOut, "IDAT", aStrip.iData);
+            }
+        }
+    }
+
+    /**
+     * A compressed strip.
+     */
+    private static class Strip {
+
+        /**
+         * The compressed data.
+         */
+        private final byte[] iData;
+
+        /**
+         * The Adler-32 checksum of the uncompressed data.
+         */
+        private final long iAdler;
+
+        /**
+         * The length of the uncompressed data.
+         */
+        private final long iLength;
+
+        /**
+         * Constructor
+         *
+         * @param aData
+         *            the compressed data
+         * @param aAdler
+         *            the Adler-32 checksum of the uncompressed data
+         * @param aLength
+         *            the length of the uncompressed data
+         */
+        Strip(byte[] aData, long aAdler, long aLength) {
+            iData = aData;
+            iAdler = aAdler;
+            iLength = aLength;
+        }
+    }
+}
@@ -15,16 +15,22 @@
 
 package ch.inser.isejawa.map.services;
 
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.feature.FeatureExporter;
+import ch.inser.isejawa.map.feature.FeatureQuery;
 import ch.inser.isejawa.map.map.MapServiceHandler;
+import ch.inser.isejawa.map.trace.Span;
+import ch.inser.isejawa.map.trace.Tracer;
+import ch.inser.isejawa.map.util.MapConfiguration;
 import ch.inser.isejawa.map.util.ServiceUtil;
+import ch.inser.jsl.exceptions.ISException;
 import ch.inser.rest.auth.ISSecurityException;
 import ch.inser.rest.util.RestUtil;
 
@@ -33,20 +39,24 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
-import jakarta.json.Json;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
-import jakarta.json.JsonReader;
 import jakarta.servlet.ServletContext;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.CompletionCallback;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
 import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
 
 /**
  * Resource for collecting configurations for an esri map
@@ -69,6 +79,12 @@ public class MapResource {
     @Context
     private ServletContext iContext;
 
+    /**
+     * The headers of the request.
+     */
+    @Context
+    private HttpHeaders iHeaders;
+
     /**
      * Get the map configuration.
      *
@@ -98,11 +114,7 @@ public class MapResource {
             // Check the security
             RestUtil.getClaims(aToken);
 
-            JsonObject configuration;
-            try (JsonReader jsonReader = Json.createReader(
-                    new InputStreamReader(new FileInputStream(contextManager.getProperty("map.config.file")), StandardCharsets.UTF_8))) {
-                configuration = jsonReader.readObject();
-            }
+            JsonObject configuration = MapConfiguration.getClient(contextManager);
 
             // Check if the configuration contain a not client login
             Response error = checkConfiguration(configuration);
@@ -210,16 +222,17 @@ public class MapResource {
      * @param aRequestIP
      *            <code>true</code> to use the <code>requestip</code> client identification instead of <code>referer</code>, more
      *            information on https://developers.arcgis.com/rest/services-reference/generate-token.htm
-     * @param aMapUrl
-     *            The url of the map service
+     * @param aMapUrls
+     *            The urls of the map services, the domains of all the services are merged
      * @param aLayers
-     *            The layer in an array or * char for all layers
+     *            The layers in an array or * char for all layers, one group of layers by map service in the same order
      *
-     * @return the map configuration
+     * @return the map domains
      */
     @ApiOperation(value = "Get the domains")
     @ApiResponses(value = { @ApiResponse(code = 200, message = "OK"), @ApiResponse(code = 400, message = "Error input parameters"),
-            @ApiResponse(code = 401, message = "User not authorized"), @ApiResponse(code = 500, message = "Unexpected error") })
+            @ApiResponse(code = 401, message = "User not authorized"), @ApiResponse(code = 429, message = "Too many requests"),
+            @ApiResponse(code = 500, message = "Unexpected error") })
     @GET()
     @Path("domains")
     @Produces(MediaType.APPLICATION_JSON)
@@ -230,38 +243,254 @@ public class MapResource {
     String aReferer, @QueryParam("requestip")
     @ApiParam(value = "true to use the requestip client identification instead of referer", required = false)
     boolean aRequestIP, @QueryParam("url")
-    @ApiParam(value = "The referer URL", required = true)
-    String aMapUrl, @QueryParam("layers")
-    @ApiParam(value = "The referer URL", required = true)
-    String aLayers) {
+    @ApiParam(value = "The urls of the map services", required = true)
+    List<String> aMapUrls, @QueryParam("layers")
+    @ApiParam(value = "The layers of each map service, in an array or * for all layers", required = true)
+    List<String> aLayers) {
+        Span trace = Tracer.startTrace("GET /map/domains", iHeaders == null ? null : iHeaders.getHeaderString(Tracer.TRACEPARENT));
         try {
-            logger.debug(String.format("MapRessource.domains: url='%s' layers='%s'", aMapUrl, aLayers));
+            logger.debug(String.format("MapRessource.domains: url='%s' layers='%s'", aMapUrls, aLayers));
 
             IContextManager contextManager = RestUtil.getContextManager();
 
             // Check the input values
-            if (aToken == null) {
+            if (aToken == null || aMapUrls == null || aMapUrls.isEmpty() || aLayers == null || aLayers.size() != aMapUrls.size()) {
                 logger.warn("Error input parameters");
                 return Response.status(Status.BAD_REQUEST).build();
             }
 
             // Check the security
-            RestUtil.getClaims(aToken);
+            String user;
+            Span claims = Tracer.startSpan("claims");
+            try {
+                user = RestUtil.getClaims(aToken).getSubject();
+            } finally {
+                claims.end();
+            }
 
-            String token = ServiceUtil.getToken(contextManager, aReferer, aRequestIP).getString("token");
+            // Check the rate limits
+            MapThrottle throttle = MapThrottle.get(contextManager);
+            Response limited = throttle.checkRate(user, aMapUrls);
+            if (limited != null) {
+                RestUtil.cleanNdc();
+                return limited;
+            }
+            if (!throttle.acquire(user)) {
+                RestUtil.cleanNdc();
+                return throttle.busy();
+            }
+
+            JsonArray domains;
+            try {
+                String token;
+                Span tokenSpan = Tracer.startSpan("token");
+                try {
+                    token = ServiceUtil.getCachedToken(contextManager, aReferer, null, aRequestIP).getString("token");
+                } finally {
+                    tokenSpan.end();
+                }
+                try (Span span = Tracer.startSpan("upstream")) {
+                    span.setAttribute("map.services", aMapUrls.size());
+                    domains = MapServiceHandler.getMapDomains(aMapUrls, aLayers, token);
+                }
+            } finally {
+                throttle.release();
+            }
 
-            JsonArray domains = MapServiceHandler.getMapDomains(aMapUrl, aLayers, token).getJsonArray("domains");
+            String body;
+            try (Span span = Tracer.startSpan("serialize")) {
+                span.setAttribute("map.domains", domains.size());
+                body = domains.toString();
+            }
 
             RestUtil.cleanNdc();
-            return Response.ok(domains.toString()).build();
+            ResponseBuilder response = Response.ok(body);
+            if (Tracer.isServerTimingEnabled()) {
+                response.header("Server-Timing", Tracer.serverTiming(trace));
+            }
+            return response.build();
         } catch (ISSecurityException e) {
             logger.warn("User not authorized", e);
+            trace.setError(e);
             RestUtil.cleanNdc();
             return Response.status(Status.UNAUTHORIZED).build();
         } catch (Exception e) {
             logger.error("Unexpected error", e);
+            trace.setError(e);
             RestUtil.cleanNdc();
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        } finally {
+            trace.end();
+        }
+    }
+
+    /**
+     * Export the features of a layer. The features are sent to the client page by page while they are downloaded from the ArcGIS
+     * server.
+     *
+     * @param aToken
+     *            the security token
+     * @param aReferer
+     *            the referer URL
+     * @param aRequestIP
+     *            <code>true</code> to use the <code>requestip</code> client identification instead of <code>referer</code>, more
+     *            information on https://developers.arcgis.com/rest/services-reference/generate-token.htm
+     * @param aService
+     *            Name of service if not the default one
+     * @param aFeatureUrl
+     *            the full feature URL including the feature service URL and the layer id
+     * @param aWhere
+     *            the where clause, all the features if not given
+     * @param aOutFields
+     *            the fields to export, comma separated, all the fields if not given
+     * @param aFormat
+     *            the export format: ndjson, geojson or csv
+     * @param aAsyncResponse
+     *            the response, resumed with the features in the requested format. The running slot is released when the features are
+     *            written, or when the response ends without writing them (error, HEAD request, client gone).
+     */
+    @ApiOperation(value = "Export the features of a layer")
+    @ApiResponses(value = { @ApiResponse(code = 200, message = "OK"), @ApiResponse(code = 400, message = "Error input parameters"),
+            @ApiResponse(code = 401, message = "User not authorized"), @ApiResponse(code = 429, message = "Too many requests"),
+            @ApiResponse(code = 500, message = "Unexpected error") })
+    @GET()
+    @Path("export")
+    @Produces({ "application/x-ndjson", "application/geo+json", "text/csv" })
+    public void export(@HeaderParam("token")
+    @ApiParam(value = "The security token", required = true)
+    String aToken, @HeaderParam("Referer")
+    @ApiParam(value = "The referer URL", required = true)
+    String aReferer, @QueryParam("requestip")
+    @ApiParam(value = "true to use the requestip client identification instead of referer", required = false)
+    boolean aRequestIP, @QueryParam("service")
+    @ApiParam(value = "Name of service if not the default one", required = false)
+    String aService, @QueryParam("url")
+    @ApiParam(value = "The url of the feature layer", required = true)
+    String aFeatureUrl, @QueryParam("where")
+    @ApiParam(value = "The where clause", required = false)
+    String aWhere, @QueryParam("outFields")
+    @ApiParam(value = "The fields to export, comma separated", required = false)
+    String aOutFields, @QueryParam("format")
+    @ApiParam(value = "The export format: ndjson, geojson or csv", required = true)
+    String aFormat, @Suspended
+    AsyncResponse aAsyncResponse) {
+        Span trace = Tracer.startTrace("GET /map/export", iHeaders == null ? null : iHeaders.getHeaderString(Tracer.TRACEPARENT));
+        // The trace ends when the features are written, in the thread of the output
+        boolean streamed = false;
+        MapThrottle.Slot slot = null;
+        try {
+            logger.debug(String.format("MapRessource.export: url='%s' where='%s' format='%s'", aFeatureUrl, aWhere, aFormat));
+
+            IContextManager contextManager = RestUtil.getContextManager();
+
+            // Check the input values
+            if (aToken == null || aFeatureUrl == null || aFormat == null) {
+                logger.warn("Error input parameters");
+                aAsyncResponse.resume(Response.status(Status.BAD_REQUEST).build());
+                return;
+            }
+            FeatureExporter.Format format;
+            try {
+                format = FeatureExporter.getFormat(aFormat);
+            } catch (ISException e) {
+                logger.warn("Error input parameters", e);
+                aAsyncResponse.resume(Response.status(Status.BAD_REQUEST).build());
+                return;
+            }
+
+            // Check the security
+            String user;
+            Span claims = Tracer.startSpan("claims");
+            try {
+                user = RestUtil.getClaims(aToken).getSubject();
+            } finally {
+                claims.end();
+            }
+
+            // Check the rate limits
+            MapThrottle throttle = MapThrottle.get(contextManager);
+            Response limited = throttle.checkRate(user, Collections.singletonList(aFeatureUrl));
+            if (limited != null) {
+                RestUtil.cleanNdc();
+                aAsyncResponse.resume(limited);
+                return;
+            }
+
+            String token;
+            Span tokenSpan = Tracer.startSpan("token");
+            try {
+                token = ServiceUtil.getCachedToken(contextManager, aReferer, aService, aRequestIP).getString("token");
+            } finally {
+                tokenSpan.end();
+            }
+
+            FeatureQuery.Builder query = FeatureQuery.builder().where(aWhere == null || aWhere.isEmpty() ? "1=1" : aWhere)
+                    .param("outFields", aOutFields == null || aOutFields.isEmpty() ? "*" : aOutFields);
+            if (format == FeatureExporter.Format.GEOJSON) {
+                query.outSR("4326");
+            }
+            FeatureQuery featureQuery = query.build();
+
+            // The running slot is held while the features are streamed
+            slot = throttle.acquireSlot(user);
+            if (slot == null) {
+                RestUtil.cleanNdc();
+                aAsyncResponse.resume(throttle.busy());
+                return;
+            }
+            MapThrottle.Slot exportSlot = slot;
+            aAsyncResponse.register((CompletionCallback) aError -> {
+                exportSlot.release();
+                if (aError != null) {
+                    trace.setError(aError);
+                }
+                trace.end();
+            });
+            StreamingOutput output = out -> {
+                try {
+                    Tracer.wrap(trace, () -> {
+                        try (Span span = Tracer.startSpan("stream")) {
+                            int count = FeatureExporter.export(aFeatureUrl, featureQuery, token, format, out);
+                            span.setAttribute("map.features", count);
+                            return count;
+                        }
+                    }).call();
+                } catch (IOException | RuntimeException e) {
+                    trace.setError(e);
+                    throw e;
+                } catch (Exception e) {
+                    trace.setError(e);
+                    throw new IOException(e);
+                } finally {
+                    exportSlot.release();
+                    trace.end();
+                }
+            };
+
+            RestUtil.cleanNdc();
+            streamed = true;
+            aAsyncResponse.resume(Response.ok(output, format.getMediaType())
+                    .header("Content-Disposition", "attachment; filename=\"export." + format.getExtension() + "\"").build());
+        } catch (ISSecurityException e) {
+            logger.warn("User not authorized", e);
+            trace.setError(e);
+            RestUtil.cleanNdc();
+            aAsyncResponse.resume(Response.status(Status.UNAUTHORIZED).build());
+        } catch (Exception e) {
+            logger.error("Unexpected error", e);
+            trace.setError(e);
+            if (slot != null) {
+                slot.release();
+            }
+            RestUtil.cleanNdc();
+            streamed = false;
+            aAsyncResponse.resume(Response.status(Status.INTERNAL_SERVER_ERROR).build());
+        } finally {
+            if (streamed) {
+                Tracer.detach(trace);
+            } else {
+                trace.end();
+            }
         }
     }
 }
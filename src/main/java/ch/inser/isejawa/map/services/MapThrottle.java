@@ -0,0 +1,319 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.util.FairScheduler;
+import ch.inser.isejawa.map.util.RateLimiter;
+
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+/**
+ * Throttling of the requests to the ArcGIS servers, configured with the properties:
+ *
+ * <ul>
+ * <li><code>map.ratelimit.user.rate</code> and <code>map.ratelimit.user.burst</code>: requests by second and at once of a user</li>
+ * <li><code>map.ratelimit.service.rate</code> and <code>map.ratelimit.service.burst</code>: requests by second and at once to an
+ * ArcGIS service</li>
+ * <li><code>map.ratelimit.upstream.concurrency</code>: maximum number of requests running at once, the waiting requests are served
+ * to the users in turn</li>
+ * <li><code>map.ratelimit.upstream.timeout</code>: maximum time to wait for a running slot in milliseconds (default 10000)</li>
+ * </ul>
+ *
+ * A limit is disabled when its property is not set, or when its rate or concurrency is 0. A request over a limit gets a 429 response
+ * with a <code>Retry-After</code> header.
+ * <p>
+ * The throttle is created from the properties at the first request and kept for the life of the JVM, a change of the properties
+ * needs a restart of the application.
+ *
+ * @author INSER SA
+ */
+public class MapThrottle {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(MapThrottle.class);
+
+    /**
+     * Prefix of the properties.
+     */
+    private static final String PREFIX = "map.ratelimit.";
+
+    /**
+     * Default maximum time to wait for a running slot in milliseconds.
+     */
+    private static final long DEFAULT_TIMEOUT = 10_000;
+
+    /**
+     * Key of the users without subject.
+     */
+    private static final String ANONYMOUS = "anonymous";
+
+    /**
+     * Service part of an ArcGIS URL, without the layer and the operation.
+     */
+    private static final Pattern SERVICE = Pattern.compile("^(.*?/(?:MapServer|FeatureServer|ImageServer|GPServer))(?:/.*)?$",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The throttle, created from the properties at the first request.
+     */
+    private static volatile MapThrottle instance;
+
+    /**
+     * The rate limiter by user, <code>null</code> if disabled.
+     */
+    private final RateLimiter iUserLimiter;
+
+    /**
+     * The rate limiter by service, <code>null</code> if disabled.
+     */
+    private final RateLimiter iServiceLimiter;
+
+    /**
+     * The scheduler of the running requests, <code>null</code> if disabled.
+     */
+    private final FairScheduler iScheduler;
+
+    /**
+     * Maximum time to wait for a running slot in milliseconds.
+     */
+    private final long iTimeout;
+
+    /**
+     * Constructor
+     *
+     * @param aContextManager
+     *            the context manager with the properties
+     */
+    MapThrottle(IContextManager aContextManager) {
+        iUserLimiter = getLimiter(aContextManager, "user");
+        iServiceLimiter = getLimiter(aContextManager, "service");
+        String concurrency = aContextManager.getProperty(PREFIX + "upstream.concurrency");
+        int permits = concurrency == null || concurrency.isEmpty() ? 0 : Integer.parseInt(concurrency);
+        iScheduler = permits > 0 ? new FairScheduler(permits) : null;
+        String timeout = aContextManager.getProperty(PREFIX + "upstream.timeout");
+        iTimeout = timeout == null || timeout.isEmpty() ? DEFAULT_TIMEOUT : Long.parseLong(timeout);
+        logger.debug(String.format("MapThrottle: user=%s service=%s concurrency=%s", iUserLimiter != null, iServiceLimiter != null,
+                concurrency));
+    }
+
+    /**
+     * Get the throttle, created at the first call and then kept for the life of the JVM.
+     *
+     * @param aContextManager
+     *            the context manager with the properties
+     * @return the throttle
+     */
+    public static MapThrottle get(IContextManager aContextManager) {
+        MapThrottle throttle = instance;
+        if (throttle == null) {
+            synchronized (MapThrottle.class) {
+                throttle = instance;
+                if (throttle == null) {
+                    throttle = new MapThrottle(aContextManager);
+                    instance = throttle;
+                }
+            }
+        }
+        return throttle;
+    }
+
+    /**
+     * Create a rate limiter from the properties.
+     *
+     * @param aContextManager
+     *            the context manager with the properties
+     * @param aName
+     *            the name of the limit: user or service
+     * @return the rate limiter, <code>null</code> if the rate is not set or is 0
+     */
+    private static RateLimiter getLimiter(IContextManager aContextManager, String aName) {
+        String rate = aContextManager.getProperty(PREFIX + aName + ".rate");
+        if (rate == null || rate.isEmpty()) {
+            return null;
+        }
+        double ratePerSecond = Double.parseDouble(rate);
+        if (ratePerSecond <= 0) {
+            return null;
+        }
+        String burst = aContextManager.getProperty(PREFIX + aName + ".burst");
+        return new RateLimiter(ratePerSecond,
+                burst == null || burst.isEmpty() ? (int) Math.max(1, Math.ceil(ratePerSecond)) : Integer.parseInt(burst));
+    }
+
+    /**
+     * Check the rate limits of a request.
+     *
+     * @param aUser
+     *            the subject of the user
+     * @param aUrls
+     *            the URLs of the ArcGIS services called by the request
+     * @return a 429 response if a limit is reached, <code>null</code> if the request is allowed
+     */
+    public Response checkRate(String aUser, Collection<String> aUrls) {
+        long wait = getWait(aUser, aUrls);
+        return wait > 0 ? tooManyRequests(wait) : null;
+    }
+
+    /**
+     * Take the tokens of a request from the rate limiters. The tokens are taken only if every limit allows the request, the tokens
+     * already taken are given back when a limit is reached.
+     *
+     * @param aUser
+     *            the subject of the user
+     * @param aUrls
+     *            the URLs of the ArcGIS services called by the request
+     * @return 0 if the request is allowed, else the time in milliseconds until it is allowed
+     */
+    long getWait(String aUser, Collection<String> aUrls) {
+        String user = getUserKey(aUser);
+        if (iUserLimiter != null) {
+            long wait = iUserLimiter.tryAcquire(user);
+            if (wait > 0) {
+                logger.warn(String.format("Rate limit of the user '%s' reached", aUser));
+                return wait;
+            }
+        }
+        if (iServiceLimiter != null) {
+            List<String> taken = new ArrayList<>();
+            for (String url : aUrls) {
+                String service = getServiceKey(url);
+                long wait = iServiceLimiter.tryAcquire(service);
+                if (wait > 0) {
+                    logger.warn(String.format("Rate limit of the service '%s' reached", service));
+                    taken.forEach(iServiceLimiter::release);
+                    if (iUserLimiter != null) {
+                        iUserLimiter.release(user);
+                    }
+                    return wait;
+                }
+                taken.add(service);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Wait for a running slot, given to the users in turn when all the slots are used. The slot must be released with
+     * {@link #release()}.
+     *
+     * @param aUser
+     *            the subject of the user
+     * @return <code>true</code> if a slot was given, <code>false</code> after the timeout
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public boolean acquire(String aUser) throws InterruptedException {
+        return iScheduler == null || iScheduler.acquire(getUserKey(aUser), iTimeout);
+    }
+
+    /**
+     * Release a running slot given by {@link #acquire(String)}.
+     */
+    public void release() {
+        if (iScheduler != null) {
+            iScheduler.release();
+        }
+    }
+
+    /**
+     * Wait for a running slot like {@link #acquire(String)}, the slot being released only once however many times
+     * {@link Slot#release()} is called, for the responses released from several places.
+     *
+     * @param aUser
+     *            the subject of the user
+     * @return the slot, <code>null</code> after the timeout
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public Slot acquireSlot(String aUser) throws InterruptedException {
+        return acquire(aUser) ? new Slot() : null;
+    }
+
+    /**
+     * @return the 429 response when no running slot was given before the timeout
+     */
+    public Response busy() {
+        logger.warn("No upstream slot available");
+        return tooManyRequests(iTimeout);
+    }
+
+    /**
+     * Build a 429 response.
+     *
+     * @param aWait
+     *            the time to wait before retrying in milliseconds
+     * @return the response
+     */
+    private static Response tooManyRequests(long aWait) {
+        return Response.status(Status.TOO_MANY_REQUESTS).header("Retry-After", Long.toString(Math.max(1, (aWait + 999) / 1000)))
+                .build();
+    }
+
+    /**
+     * @param aUser
+     *            the subject of the user
+     * @return the key of the user
+     */
+    private static String getUserKey(String aUser) {
+        return aUser == null ? ANONYMOUS : aUser;
+    }
+
+    /**
+     * Get the service part of an ArcGIS URL, so the calls to all the layers of a service share the same limit.
+     *
+     * @param aUrl
+     *            the URL
+     * @return the URL of the service, or the URL if it is not an ArcGIS service URL
+     */
+    static String getServiceKey(String aUrl) {
+        Matcher matcher = SERVICE.matcher(aUrl);
+        return matcher.matches() ? matcher.group(1) : aUrl;
+    }
+
+    /**
+     * A running slot, released once.
+     */
+    public class Slot {
+
+        /**
+         * <code>true</code> once the slot is released.
+         */
+        private final AtomicBoolean iReleased = new AtomicBoolean();
+
+        /**
+         * Release the slot, the next calls do nothing.
+         */
+        public void release() {
+            if (iReleased.compareAndSet(false, true)) {
+                MapThrottle.this.release();
+            }
+        }
+    }
+}
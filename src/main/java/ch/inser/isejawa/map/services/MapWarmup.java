@@ -0,0 +1,225 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.services;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.map.MapServiceHandler;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.isejawa.map.util.MapConfiguration;
+import ch.inser.isejawa.map.util.ServiceExecutor;
+import ch.inser.isejawa.map.util.ServiceUtil;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+/**
+ * Warm-up of the caches before the first requests: map configuration, tokens and domains, and first connection to each ArcGIS server.
+ *
+ * The warm-up is described in the "warmup" entry of the map configuration file:
+ *
+ * <pre>
+ * "warmup": {
+ *     "timeout": 30,
+ *     "referer": "https://myapp.example.com/",
+ *     "requestip": false,
+ *     "services": ["map.service", "other.service"],
+ *     "domains": [{"url": "https://server/arcgis/rest/services/Demo/MapServer", "layers": ["[0,1]", "[4]"]}],
+ *     "hosts": ["https://server"]
+ * }
+ * </pre>
+ *
+ * The tokens are cached by the origin of the referer, so the referer must have the origin of the clients, unless the referer is
+ * configured by service ("servicename.token.referer") or requestip is used. The domains are fetched with the token of the first
+ * service. The hosts of the token services and of the map services are connected even if they are not listed in "hosts", when the
+ * transport keeps its connections (<code>map.transport=http2</code>): the default transport closes them after each request. All the
+ * calls are done concurrently, the warm-up stops after the timeout in seconds (default 30).
+ *
+ * The "warmup" entry is not sent to the clients with the rest of the map configuration.
+ *
+ * @author INSER SA
+ */
+public class MapWarmup {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(MapWarmup.class);
+
+    /**
+     * Default timeout of the warm-up in seconds.
+     */
+    private static final int DEFAULT_TIMEOUT = 30;
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private MapWarmup() {
+    }
+
+    /**
+     * Run the warm-up described in the map configuration file. The errors are logged, they don't stop the warm-up.
+     *
+     * @param aContextManager
+     *            the context manager
+     * @return <code>true</code> if all the warm-up tasks succeeded in time
+     */
+    public static boolean run(IContextManager aContextManager) {
+        long start = System.currentTimeMillis();
+        JsonObject warmup;
+        try {
+            warmup = MapConfiguration.get(aContextManager).getJsonObject("warmup");
+        } catch (Exception e) {
+            logger.error("Error reading the map configuration", e);
+            return false;
+        }
+        if (warmup == null) {
+            logger.debug("run: no warm-up in the map configuration");
+            return true;
+        }
+
+        String referer = warmup.getString("referer", null);
+        boolean requestIP = warmup.getBoolean("requestip", false);
+        List<String> services = getStrings(warmup.getJsonArray("services"));
+        if (services.isEmpty()) {
+            services.add(ServiceUtil.DEFAULT_SERVICE);
+        }
+
+        Set<String> hosts = new LinkedHashSet<>(getStrings(warmup.getJsonArray("hosts")));
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (String service : services) {
+            addHost(hosts, aContextManager.getProperty(service + ".token.service"));
+            tasks.add(() -> {
+                ServiceUtil.getCachedToken(aContextManager, referer, service, requestIP);
+                return Boolean.TRUE;
+            });
+        }
+
+        JsonArray domains = warmup.getJsonArray("domains");
+        if (domains != null) {
+            for (JsonValue value : domains) {
+                JsonObject domain = value.asJsonObject();
+                String mapUrl = domain.getString("url");
+                addHost(hosts, mapUrl);
+                for (String layers : getStrings(domain.getJsonArray("layers"))) {
+                    tasks.add(() -> {
+                        String token = ServiceUtil.getCachedToken(aContextManager, referer, services.get(0), requestIP).getString("token");
+                        MapServiceHandler.getCachedMapDomains(mapUrl, layers, token);
+                        return Boolean.TRUE;
+                    });
+                }
+            }
+        }
+
+        if (Transports.get().isKeepingConnections()) {
+            for (String host : hosts) {
+                tasks.add(() -> connect(host));
+            }
+        } else {
+            logger.debug("run: the transport does not keep the connections, the hosts are not connected");
+        }
+
+        boolean success = runAll(tasks, warmup.getInt("timeout", DEFAULT_TIMEOUT));
+        logger.info(String.format("Map warm-up of %s tasks done in %s ms, success=%s", tasks.size(), System.currentTimeMillis() - start,
+                success));
+        return success;
+    }
+
+    /**
+     * Run the warm-up tasks concurrently.
+     *
+     * @param aTasks
+     *            the tasks
+     * @param aTimeout
+     *            the timeout in seconds
+     * @return <code>true</code> if all the tasks succeeded in time
+     */
+    private static boolean runAll(List<Callable<Boolean>> aTasks, int aTimeout) {
+        boolean success = true;
+        try {
+            for (Future<Boolean> future : ServiceExecutor.getExecutor().invokeAll(aTasks, aTimeout, TimeUnit.SECONDS)) {
+                try {
+                    success &= future.get();
+                } catch (Exception e) {
+                    logger.warn("Map warm-up task failed or timed out", e);
+                    success = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return success;
+    }
+
+    /**
+     * Open a first connection to an ArcGIS server, to resolve its name and negotiate TLS before the first request.
+     *
+     * @param aHost
+     *            the host URL (example: https://server)
+     * @return <code>true</code> if the server answered
+     */
+    private static Boolean connect(String aHost) {
+        int status = Transports.get().head(aHost);
+        logger.debug(String.format("connect: host='%s' response HTTP code='%s'", aHost, status));
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Add the host of a URL to a set of hosts.
+     *
+     * @param aHosts
+     *            the hosts
+     * @param aUrl
+     *            the URL, ignored if <code>null</code>
+     */
+    private static void addHost(Set<String> aHosts, String aUrl) {
+        if (aUrl != null && !aUrl.isEmpty()) {
+            URI uri = URI.create(aUrl);
+            aHosts.add(uri.getScheme() + "://" + uri.getAuthority());
+        }
+    }
+
+    /**
+     * Get the strings of a JSON array.
+     *
+     * @param aArray
+     *            the array, can be <code>null</code>
+     * @return the strings
+     */
+    private static List<String> getStrings(JsonArray aArray) {
+        List<String> strings = new ArrayList<>();
+        if (aArray != null) {
+            for (JsonString string : aArray.getValuesAs(JsonString.class)) {
+                strings.add(string.getString());
+            }
+        }
+        return strings;
+    }
+}
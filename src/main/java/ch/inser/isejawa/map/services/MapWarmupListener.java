@@ -0,0 +1,60 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.services;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.isejawa.map.util.AdaptiveLimiter;
+import ch.inser.rest.util.RestUtil;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/**
+ * Listener running the map warm-up when the application starts, before it receives requests, and removing the adaptive limiters
+ * from JMX when it stops.
+ *
+ * To be declared in the web.xml after the listener initializing the context manager.
+ *
+ * @author INSER SA
+ */
+public class MapWarmupListener implements ServletContextListener {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(MapWarmupListener.class);
+
+    @Override
+    public void contextInitialized(ServletContextEvent aEvent) {
+        IContextManager contextManager = RestUtil.getContextManager();
+        if (contextManager == null) {
+            logger.warn("No context manager, the map warm-up is skipped");
+            return;
+        }
+        MapWarmup.run(contextManager);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent aEvent) {
+        // The MBeans of the platform server would keep the classes of the application loaded
+        Transports.set(null);
+        AdaptiveLimiter.unregisterAll();
+    }
+}
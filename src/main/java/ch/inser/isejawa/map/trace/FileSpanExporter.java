@@ -0,0 +1,56 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Exporter appending the traces to a file, one trace by line (the format read by the file receiver of the OpenTelemetry collector).
+ *
+ * @author INSER SA
+ */
+public class FileSpanExporter implements SpanExporter {
+
+    /**
+     * The file.
+     */
+    private final Path iFile;
+
+    /**
+     * Constructor
+     *
+     * @param aFile
+     *            the file, created if it does not exist
+     */
+    public FileSpanExporter(Path aFile) {
+        iFile = aFile;
+    }
+
+    @Override
+    public synchronized void export(JsonObject aTrace) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(iFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(aTrace.toString());
+            writer.write('\n');
+        }
+    }
+}
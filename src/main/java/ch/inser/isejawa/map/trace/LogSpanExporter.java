@@ -0,0 +1,41 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Exporter writing the traces in the log <code>ch.inser.isejawa.map.trace</code> at info level, one trace by line.
+ *
+ * @author INSER SA
+ */
+public class LogSpanExporter implements SpanExporter {
+
+    /**
+     * The logger of the traces.
+     */
+    private static final Log logger = LogFactory.getLog("ch.inser.isejawa.map.trace");
+
+    @Override
+    public void export(JsonObject aTrace) {
+        if (logger.isInfoEnabled()) {
+            logger.info(aTrace.toString());
+        }
+    }
+}
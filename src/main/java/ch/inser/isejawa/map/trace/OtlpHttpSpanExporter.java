@@ -0,0 +1,79 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Exporter sending the traces to an OpenTelemetry collector with OTLP/HTTP in JSON. The traces are sent asynchronously, so the
+ * requests don't wait for the collector, and an unavailable collector only produces warnings.
+ *
+ * @author INSER SA
+ */
+public class OtlpHttpSpanExporter implements SpanExporter {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(OtlpHttpSpanExporter.class);
+
+    /**
+     * Timeout of a call to the collector.
+     */
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * The collector URL.
+     */
+    private final URI iEndpoint;
+
+    /**
+     * The client.
+     */
+    private final HttpClient iClient = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+    /**
+     * Constructor
+     *
+     * @param aEndpoint
+     *            the collector URL (example: http://localhost:4318/v1/traces)
+     */
+    public OtlpHttpSpanExporter(String aEndpoint) {
+        iEndpoint = URI.create(aEndpoint);
+    }
+
+    @Override
+    public void export(JsonObject aTrace) {
+        HttpRequest request = HttpRequest.newBuilder(iEndpoint).timeout(TIMEOUT).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(aTrace.toString())).build();
+        iClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error != null) {
+                logger.warn("Error sending the trace to " + iEndpoint + ": " + error);
+            } else if (response.statusCode() >= 300) {
+                logger.warn(String.format("Error sending the trace to %s: HTTP code %s", iEndpoint, response.statusCode()));
+            }
+        });
+    }
+}
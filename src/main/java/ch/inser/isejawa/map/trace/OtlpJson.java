@@ -0,0 +1,122 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import java.util.List;
+import java.util.Map;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+
+/**
+ * Conversion of the spans to the OTLP/JSON format of OpenTelemetry, see
+ * https://opentelemetry.io/docs/specs/otlp/#json-protobuf-encoding
+ *
+ * @author INSER SA
+ */
+final class OtlpJson {
+
+    /**
+     * Name of the instrumentation scope.
+     */
+    private static final String SCOPE = "ch.inser.isejawa.map";
+
+    /**
+     * OTLP status code of a failed span.
+     */
+    private static final int STATUS_ERROR = 2;
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private OtlpJson() {
+    }
+
+    /**
+     * Convert spans to OTLP/JSON.
+     *
+     * @param aServiceName
+     *            the service name
+     * @param aSpans
+     *            the spans
+     * @return the OTLP/JSON object: <code>{"resourceSpans": [...]}</code>
+     */
+    static JsonObject toJson(String aServiceName, List<Span> aSpans) {
+        JsonArrayBuilder spans = Json.createArrayBuilder();
+        for (Span span : aSpans) {
+            spans.add(toJson(span));
+        }
+        JsonObject resource = Json.createObjectBuilder()
+                .add("attributes", Json.createArrayBuilder().add(attribute("service.name", aServiceName))).build();
+        JsonObject scopeSpans = Json.createObjectBuilder().add("scope", Json.createObjectBuilder().add("name", SCOPE)).add("spans", spans)
+                .build();
+        return Json.createObjectBuilder().add("resourceSpans", Json.createArrayBuilder()
+                .add(Json.createObjectBuilder().add("resource", resource).add("scopeSpans", Json.createArrayBuilder().add(scopeSpans))))
+                .build();
+    }
+
+    /**
+     * Convert a span.
+     *
+     * @param aSpan
+     *            the span
+     * @return the OTLP/JSON span
+     */
+    private static JsonObject toJson(Span aSpan) {
+        JsonObjectBuilder span = Json.createObjectBuilder().add("traceId", aSpan.getTraceId()).add("spanId", aSpan.getSpanId());
+        if (aSpan.getParentSpanId() != null) {
+            span.add("parentSpanId", aSpan.getParentSpanId());
+        }
+        span.add("name", aSpan.getName()).add("kind", aSpan.getKind().getCode())
+                .add("startTimeUnixNano", Long.toString(aSpan.getStartEpochNanos()))
+                .add("endTimeUnixNano", Long.toString(aSpan.getEndEpochNanos()));
+        JsonArrayBuilder attributes = Json.createArrayBuilder();
+        for (Map.Entry<String, Object> attribute : aSpan.getAttributes().entrySet()) {
+            attributes.add(attribute(attribute.getKey(), attribute.getValue()));
+        }
+        span.add("attributes", attributes);
+        if (aSpan.getError() != null) {
+            span.add("status", Json.createObjectBuilder().add("code", STATUS_ERROR).add("message", aSpan.getError()));
+        }
+        return span.build();
+    }
+
+    /**
+     * Convert an attribute.
+     *
+     * @param aKey
+     *            the key
+     * @param aValue
+     *            the value
+     * @return the OTLP/JSON attribute: <code>{"key": ..., "value": {"stringValue": ...}}</code>
+     */
+    private static JsonObject attribute(String aKey, Object aValue) {
+        JsonObjectBuilder value = Json.createObjectBuilder();
+        if (aValue instanceof Boolean) {
+            value.add("boolValue", (Boolean) aValue);
+        } else if (aValue instanceof Integer || aValue instanceof Long) {
+            // 64 bits integers are strings in OTLP/JSON
+            value.add("intValue", aValue.toString());
+        } else if (aValue instanceof Number) {
+            value.add("doubleValue", ((Number) aValue).doubleValue());
+        } else {
+            value.add("stringValue", aValue.toString());
+        }
+        return Json.createObjectBuilder().add("key", aKey).add("value", value).build();
+    }
+}
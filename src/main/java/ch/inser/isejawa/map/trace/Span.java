@@ -0,0 +1,361 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A timed stage of a request, with the identifiers of the OpenTelemetry model. The spans are started with {@link Tracer} and ended
+ * with {@link #end()}, or by a try-with-resources block:
+ *
+ * <pre>
+ * try (Span span = Tracer.startSpan("token")) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author INSER SA
+ */
+public class Span implements AutoCloseable {
+
+    /**
+     * Span which records nothing, returned when the tracing is disabled.
+     */
+    static final Span NOOP = new Span();
+
+    /**
+     * Kind of span, with the OTLP code.
+     */
+    public enum Kind {
+
+        /** Internal stage */
+        INTERNAL(1),
+
+        /** Request received by the server */
+        SERVER(2),
+
+        /** Request sent to another server */
+        CLIENT(3);
+
+        /**
+         * The OTLP code.
+         */
+        private final int iCode;
+
+        /**
+         * Constructor
+         *
+         * @param aCode
+         *            the OTLP code
+         */
+        Kind(int aCode) {
+            iCode = aCode;
+        }
+
+        /**
+         * @return the OTLP code
+         */
+        public int getCode() {
+            return iCode;
+        }
+    }
+
+    /**
+     * The trace id, 32 hexadecimal characters.
+     */
+    private final String iTraceId;
+
+    /**
+     * The span id, 16 hexadecimal characters.
+     */
+    private final String iSpanId;
+
+    /**
+     * The id of the parent span, <code>null</code> for the root of the trace.
+     */
+    private final String iParentSpanId;
+
+    /**
+     * The name.
+     */
+    private final String iName;
+
+    /**
+     * The kind.
+     */
+    private final Kind iKind;
+
+    /**
+     * First span of the trace in this server, collecting the ended spans to export them together.
+     */
+    private final Span iLocalRoot;
+
+    /**
+     * The span current in the thread when this span was started, current again when this span ends.
+     */
+    private final Span iPrevious;
+
+    /**
+     * Start time in nanoseconds since the epoch.
+     */
+    private final long iStartEpochNanos;
+
+    /**
+     * Start time given by {@link System#nanoTime()}, to measure the duration.
+     */
+    private final long iStartNanos;
+
+    /**
+     * Duration in nanoseconds, -1 while the span runs.
+     */
+    private volatile long iDurationNanos = -1;
+
+    /**
+     * The attributes.
+     */
+    private final Map<String, Object> iAttributes = new LinkedHashMap<>();
+
+    /**
+     * The error message, <code>null</code> if the stage succeeded.
+     */
+    private String iError;
+
+    /**
+     * The ended spans of the trace, filled only in the local root.
+     */
+    private final List<Span> iEnded;
+
+    /**
+     * Constructor of the no-op span.
+     */
+    private Span() {
+        iTraceId = null;
+        iSpanId = null;
+        iParentSpanId = null;
+        iName = null;
+        iKind = Kind.INTERNAL;
+        iLocalRoot = null;
+        iPrevious = null;
+        iStartEpochNanos = 0;
+        iStartNanos = 0;
+        iEnded = null;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param aTraceId
+     *            the trace id
+     * @param aParentSpanId
+     *            the id of the parent span, <code>null</code> for the root of the trace
+     * @param aName
+     *            the name
+     * @param aKind
+     *            the kind
+     * @param aLocalRoot
+     *            the first span of the trace in this server, <code>null</code> if this span is the first one
+     * @param aPrevious
+     *            the span current in the thread
+     */
+    Span(String aTraceId, String aParentSpanId, String aName, Kind aKind, Span aLocalRoot, Span aPrevious) {
+        iTraceId = aTraceId;
+        iSpanId = Tracer.newId(8);
+        iParentSpanId = aParentSpanId;
+        iName = aName;
+        iKind = aKind;
+        iLocalRoot = aLocalRoot == null ? this : aLocalRoot;
+        iPrevious = aPrevious;
+        iEnded = aLocalRoot == null ? new ArrayList<>() : null;
+        Instant now = Instant.now();
+        iStartEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        iStartNanos = System.nanoTime();
+    }
+
+    /**
+     * @return <code>true</code> if the span is recorded, <code>false</code> for the no-op span
+     */
+    public boolean isRecording() {
+        return this != NOOP;
+    }
+
+    /**
+     * Set an attribute.
+     *
+     * @param aKey
+     *            the key, for example <code>http.response.status_code</code>
+     * @param aValue
+     *            the value: string, number or boolean
+     * @return this span
+     */
+    public Span setAttribute(String aKey, Object aValue) {
+        if (isRecording() && aValue != null) {
+            synchronized (iAttributes) {
+                iAttributes.put(aKey, aValue);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Mark the stage as failed.
+     *
+     * @param aError
+     *            the error
+     * @return this span
+     */
+    public Span setError(Throwable aError) {
+        if (isRecording()) {
+            iError = aError.toString();
+        }
+        return this;
+    }
+
+    /**
+     * End the span. The span current before this one becomes current again, and the whole trace is exported when its local root ends.
+     */
+    public void end() {
+        if (!isRecording() || iDurationNanos >= 0) {
+            return;
+        }
+        iDurationNanos = System.nanoTime() - iStartNanos;
+        Tracer.ended(this);
+    }
+
+    @Override
+    public void close() {
+        end();
+    }
+
+    /**
+     * Add an ended span of the trace to the local root.
+     *
+     * @param aSpan
+     *            the ended span
+     */
+    void addEnded(Span aSpan) {
+        synchronized (iEnded) {
+            iEnded.add(aSpan);
+        }
+    }
+
+    /**
+     * @return the ended spans of the trace, for the local root
+     */
+    List<Span> getEnded() {
+        synchronized (iEnded) {
+            return new ArrayList<>(iEnded);
+        }
+    }
+
+    /**
+     * @return the value of the W3C <code>traceparent</code> header propagating this span, <code>null</code> if not recording
+     */
+    public String getTraceparent() {
+        return isRecording() ? "00-" + iTraceId + "-" + iSpanId + "-01" : null;
+    }
+
+    /**
+     * @return the trace id
+     */
+    public String getTraceId() {
+        return iTraceId;
+    }
+
+    /**
+     * @return the span id
+     */
+    public String getSpanId() {
+        return iSpanId;
+    }
+
+    /**
+     * @return the id of the parent span, <code>null</code> for the root of the trace
+     */
+    public String getParentSpanId() {
+        return iParentSpanId;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return iName;
+    }
+
+    /**
+     * @return the kind
+     */
+    public Kind getKind() {
+        return iKind;
+    }
+
+    /**
+     * @return the first span of the trace in this server
+     */
+    Span getLocalRoot() {
+        return iLocalRoot;
+    }
+
+    /**
+     * @return the span current in the thread when this span was started
+     */
+    Span getPrevious() {
+        return iPrevious;
+    }
+
+    /**
+     * @return the start time in nanoseconds since the epoch
+     */
+    public long getStartEpochNanos() {
+        return iStartEpochNanos;
+    }
+
+    /**
+     * @return the end time in nanoseconds since the epoch, 0 while the span runs
+     */
+    public long getEndEpochNanos() {
+        return iDurationNanos < 0 ? 0 : iStartEpochNanos + iDurationNanos;
+    }
+
+    /**
+     * @return the duration in milliseconds, up to now while the span runs
+     */
+    public double getDurationMillis() {
+        long duration = iDurationNanos < 0 ? System.nanoTime() - iStartNanos : iDurationNanos;
+        return duration / 1_000_000.0;
+    }
+
+    /**
+     * @return the attributes
+     */
+    public Map<String, Object> getAttributes() {
+        synchronized (iAttributes) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(iAttributes));
+        }
+    }
+
+    /**
+     * @return the error message, <code>null</code> if the stage succeeded
+     */
+    public String getError() {
+        return iError;
+    }
+}
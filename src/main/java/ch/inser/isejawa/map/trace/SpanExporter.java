@@ -0,0 +1,38 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import java.io.IOException;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Exporter of the traces, called by {@link Tracer} when a request ends.
+ *
+ * @author INSER SA
+ */
+public interface SpanExporter {
+
+    /**
+     * Export the spans of a request.
+     *
+     * @param aTrace
+     *            the spans in the OTLP/JSON format: <code>{"resourceSpans": [...]}</code>
+     * @throws IOException
+     *             if the spans can't be exported
+     */
+    void export(JsonObject aTrace) throws IOException;
+}
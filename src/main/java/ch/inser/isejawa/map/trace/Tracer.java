@@ -0,0 +1,414 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.dynamic.common.IContextManager;
+import ch.inser.rest.util.RestUtil;
+
+/**
+ * Tracing of the requests: the stages of a request are timed in {@link Span spans}, exported in the OpenTelemetry (OTLP/JSON) format
+ * when the request ends. The tracing is configured with the properties of the context manager (or the system properties of the same
+ * names outside of a web application):
+ *
+ * <ul>
+ * <li><code>map.trace.exporter</code>: <code>log</code> (logger <code>ch.inser.isejawa.map.trace</code> at info level),
+ * <code>file</code> or <code>otlp</code> (local collector), no export if not set</li>
+ * <li><code>map.trace.file</code>: the file for the <code>file</code> exporter, one trace by line</li>
+ * <li><code>map.trace.endpoint</code>: the collector URL for the <code>otlp</code> exporter (default
+ * <code>http://localhost:4318/v1/traces</code>)</li>
+ * <li><code>map.trace.service</code>: the service name of the spans (default <code>is-map</code>)</li>
+ * <li><code>map.trace.servertiming</code>: <code>true</code> to return the duration of the stages in a <code>Server-Timing</code>
+ * header</li>
+ * </ul>
+ *
+ * The tracing is disabled, and the spans are no-op, when there is no exporter and no <code>Server-Timing</code> header. The trace
+ * context is received from and propagated to the other servers in the W3C <code>traceparent</code> header.
+ *
+ * @author INSER SA
+ */
+public class Tracer {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(Tracer.class);
+
+    /**
+     * Name of the W3C header propagating the trace context.
+     */
+    public static final String TRACEPARENT = "traceparent";
+
+    /**
+     * Prefix of the properties.
+     */
+    private static final String PREFIX = "map.trace.";
+
+    /**
+     * Default URL of the local collector.
+     */
+    private static final String DEFAULT_ENDPOINT = "http://localhost:4318/v1/traces";
+
+    /**
+     * Default service name of the spans.
+     */
+    private static final String DEFAULT_SERVICE = "is-map";
+
+    /**
+     * Format of the <code>traceparent</code> header: version, trace id, parent span id and flags.
+     */
+    private static final Pattern TRACEPARENT_FORMAT = Pattern.compile("^[0-9a-f]{2}-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}$");
+
+    /**
+     * The span current in each thread.
+     */
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The configuration, read at the first span.
+     */
+    private static volatile Configuration configuration;
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private Tracer() {
+    }
+
+    /**
+     * Start the span of a request received by the server, continuing the trace of the caller if a <code>traceparent</code> header was
+     * received. The span becomes the current span of the thread.
+     *
+     * @param aName
+     *            the name, for example <code>GET /map/domains</code>
+     * @param aTraceparent
+     *            the received <code>traceparent</code> header, can be <code>null</code>
+     * @return the span, no-op if the tracing is disabled
+     */
+    public static Span startTrace(String aName, String aTraceparent) {
+        if (!getConfiguration().iEnabled) {
+            return Span.NOOP;
+        }
+        String traceId = null;
+        String parentSpanId = null;
+        if (aTraceparent != null) {
+            Matcher matcher = TRACEPARENT_FORMAT.matcher(aTraceparent.trim().toLowerCase(Locale.ROOT));
+            if (matcher.matches()) {
+                traceId = matcher.group(1);
+                parentSpanId = matcher.group(2);
+            }
+        }
+        Span span = new Span(traceId == null ? newId(16) : traceId, parentSpanId, aName, Span.Kind.SERVER, null, CURRENT.get());
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Start an internal stage of the current request. The span becomes the current span of the thread.
+     *
+     * @param aName
+     *            the name
+     * @return the span, no-op if there is no current request or the tracing is disabled
+     */
+    public static Span startSpan(String aName) {
+        return startSpan(aName, Span.Kind.INTERNAL);
+    }
+
+    /**
+     * Start a stage of the current request. The span becomes the current span of the thread.
+     *
+     * @param aName
+     *            the name
+     * @param aKind
+     *            the kind, {@link Span.Kind#CLIENT} for a call to another server
+     * @return the span, no-op if there is no current request or the tracing is disabled
+     */
+    public static Span startSpan(String aName, Span.Kind aKind) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return Span.NOOP;
+        }
+        Span span = new Span(parent.getTraceId(), parent.getSpanId(), aName, aKind, parent.getLocalRoot(), parent);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * @return the current span of the thread, no-op if none
+     */
+    public static Span current() {
+        Span span = CURRENT.get();
+        return span == null ? Span.NOOP : span;
+    }
+
+    /**
+     * @return the <code>traceparent</code> header to send to another server, <code>null</code> if there is no current span
+     */
+    public static String traceparent() {
+        return current().getTraceparent();
+    }
+
+    /**
+     * Wrap a task run in another thread, so its spans belong to the span current when the task is created.
+     *
+     * @param <T>
+     *            the result type
+     * @param aTask
+     *            the task
+     * @return the wrapped task, or the task if there is no current span
+     */
+    public static <T> Callable<T> wrap(Callable<T> aTask) {
+        return wrap(CURRENT.get(), aTask);
+    }
+
+    /**
+     * Wrap a task run in another thread, so its spans belong to a given span.
+     *
+     * @param <T>
+     *            the result type
+     * @param aParent
+     *            the span, <code>null</code> or no-op for none
+     * @param aTask
+     *            the task
+     * @return the wrapped task, or the task if the span is not recorded
+     */
+    public static <T> Callable<T> wrap(Span aParent, Callable<T> aTask) {
+        if (aParent == null || !aParent.isRecording()) {
+            return aTask;
+        }
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(aParent);
+            try {
+                return aTask.call();
+            } finally {
+                setCurrent(previous);
+            }
+        };
+    }
+
+    /**
+     * Detach a span from the current thread without ending it, for a request ended in another thread: the span current before it
+     * becomes current again.
+     *
+     * @param aSpan
+     *            the span
+     */
+    public static void detach(Span aSpan) {
+        if (CURRENT.get() == aSpan) {
+            setCurrent(aSpan.getPrevious());
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the duration of the stages is returned in a <code>Server-Timing</code> header
+     */
+    public static boolean isServerTimingEnabled() {
+        return getConfiguration().iServerTiming;
+    }
+
+    /**
+     * Get the <code>Server-Timing</code> header of a request: the duration of each ended stage directly under the request span, and
+     * the total duration.
+     *
+     * @param aRequest
+     *            the span of the request
+     * @return the header value, <code>null</code> if the span is not recorded
+     */
+    public static String serverTiming(Span aRequest) {
+        if (!aRequest.isRecording()) {
+            return null;
+        }
+        Map<String, Double> stages = new LinkedHashMap<>();
+        for (Span span : aRequest.getLocalRoot().getEnded()) {
+            if (aRequest.getSpanId().equals(span.getParentSpanId())) {
+                stages.merge(span.getName(), span.getDurationMillis(), Double::sum);
+            }
+        }
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, Double> stage : stages.entrySet()) {
+            header.append(stage.getKey()).append(";dur=").append(String.format(Locale.ROOT, "%.1f", stage.getValue())).append(", ");
+        }
+        return header.append("total;dur=").append(String.format(Locale.ROOT, "%.1f", aRequest.getDurationMillis())).toString();
+    }
+
+    /**
+     * Handle an ended span: the span current before it becomes current again, and the trace is exported when its local root ends.
+     *
+     * @param aSpan
+     *            the ended span
+     */
+    static void ended(Span aSpan) {
+        if (CURRENT.get() == aSpan) {
+            setCurrent(aSpan.getPrevious());
+        }
+        Span root = aSpan.getLocalRoot();
+        root.addEnded(aSpan);
+        if (root == aSpan) {
+            Configuration config = getConfiguration();
+            if (config.iExporter != null) {
+                try {
+                    config.iExporter.export(OtlpJson.toJson(config.iServiceName, root.getEnded()));
+                } catch (Exception e) {
+                    logger.warn("Error exporting the trace " + root.getTraceId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the current span of the thread.
+     *
+     * @param aSpan
+     *            the span, <code>null</code> for none
+     */
+    private static void setCurrent(Span aSpan) {
+        if (aSpan == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(aSpan);
+        }
+    }
+
+    /**
+     * Create a random identifier.
+     *
+     * @param aBytes
+     *            the number of bytes: 16 for a trace id, 8 for a span id
+     * @return the identifier in hexadecimal
+     */
+    static String newId(int aBytes) {
+        StringBuilder id = new StringBuilder(aBytes * 2);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < aBytes; i += 8) {
+            long value = random.nextLong();
+            while (value == 0) {
+                value = random.nextLong();
+            }
+            id.append(String.format("%016x", value));
+        }
+        return id.toString();
+    }
+
+    /**
+     * Configure the tracing again, for example after a change of the properties.
+     *
+     * @param aContextManager
+     *            the context manager with the properties
+     */
+    public static void configure(IContextManager aContextManager) {
+        configuration = new Configuration(aContextManager);
+    }
+
+    /**
+     * @return the configuration, read from the properties at the first call
+     */
+    private static Configuration getConfiguration() {
+        Configuration config = configuration;
+        if (config == null) {
+            synchronized (Tracer.class) {
+                config = configuration;
+                if (config == null) {
+                    config = new Configuration(RestUtil.getContextManager());
+                    configuration = config;
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Configuration of the tracing.
+     */
+    private static class Configuration {
+
+        /**
+         * The exporter, <code>null</code> if the traces are not exported.
+         */
+        private final SpanExporter iExporter;
+
+        /**
+         * <code>true</code> to return the <code>Server-Timing</code> header.
+         */
+        private final boolean iServerTiming;
+
+        /**
+         * <code>true</code> if the spans are recorded.
+         */
+        private final boolean iEnabled;
+
+        /**
+         * The service name of the spans.
+         */
+        private final String iServiceName;
+
+        /**
+         * Constructor
+         *
+         * @param aContextManager
+         *            the context manager with the properties, can be <code>null</code> outside of a web application
+         */
+        Configuration(IContextManager aContextManager) {
+            String exporter = getProperty(aContextManager, "exporter", null);
+            if (exporter == null || exporter.isEmpty()) {
+                iExporter = null;
+            } else if ("log".equalsIgnoreCase(exporter)) {
+                iExporter = new LogSpanExporter();
+            } else if ("file".equalsIgnoreCase(exporter)) {
+                iExporter = new FileSpanExporter(Paths.get(getProperty(aContextManager, "file", "is-map-traces.json")));
+            } else if ("otlp".equalsIgnoreCase(exporter)) {
+                iExporter = new OtlpHttpSpanExporter(getProperty(aContextManager, "endpoint", DEFAULT_ENDPOINT));
+            } else {
+                logger.warn("Unknown trace exporter: " + exporter);
+                iExporter = null;
+            }
+            iServerTiming = Boolean.parseBoolean(getProperty(aContextManager, "servertiming", "false"));
+            iEnabled = iExporter != null || iServerTiming;
+            iServiceName = getProperty(aContextManager, "service", DEFAULT_SERVICE);
+            logger.debug(String.format("Tracer: exporter='%s' serverTiming=%s", exporter, iServerTiming));
+        }
+
+        /**
+         * Get a tracing property.
+         *
+         * @param aContextManager
+         *            the context manager, can be <code>null</code>
+         * @param aName
+         *            the name of the property without prefix
+         * @param aDefault
+         *            the default value
+         * @return the value
+         */
+        private static String getProperty(IContextManager aContextManager, String aName, String aDefault) {
+            String value = aContextManager == null ? null : aContextManager.getProperty(PREFIX + aName);
+            if (value == null) {
+                value = System.getProperty(PREFIX + aName);
+            }
+            return value == null ? aDefault : value;
+        }
+    }
+}
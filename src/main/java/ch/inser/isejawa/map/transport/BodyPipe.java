@@ -0,0 +1,278 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pipe between a thread writing a request body and the HTTP client reading it. The written bytes are passed in chunks
+ * through a blocking queue, so at most the capacity of the queue is held in memory. Unlike the piped streams of the JDK, the pipe does
+ * not depend on the liveness of the writing or reading thread, which may be recycled by an executor between two calls.
+ *
+ * Closing the input stream aborts the pipe: the writer then fails at once instead of waiting for a reader that is gone.
+ *
+ * @author INSER SA
+ */
+class BodyPipe {
+
+    /**
+     * Size of a chunk in bytes.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Time in milliseconds between two checks of an abort while waiting.
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    /**
+     * Marker of the end of the body.
+     */
+    private static final byte[] END = new byte[0];
+
+    /**
+     * The chunks written and not read yet.
+     */
+    private final BlockingQueue<byte[]> iChunks;
+
+    /**
+     * Maximum time in milliseconds to wait for the other side.
+     */
+    private final long iTimeout;
+
+    /**
+     * <code>true</code> once the pipe is aborted.
+     */
+    private volatile boolean iAborted;
+
+    /**
+     * The side of the writer.
+     */
+    private final OutputStream iOut = new PipeOutputStream();
+
+    /**
+     * The side of the reader.
+     */
+    private final InputStream iIn = new PipeInputStream();
+
+    /**
+     * Constructor
+     *
+     * @param aCapacity
+     *            maximum number of bytes written and not read yet
+     * @param aTimeout
+     *            maximum time in milliseconds to wait for the other side
+     */
+    BodyPipe(int aCapacity, long aTimeout) {
+        iChunks = new ArrayBlockingQueue<>(Math.max(1, aCapacity / CHUNK_SIZE));
+        iTimeout = aTimeout;
+    }
+
+    /**
+     * @return the side of the writer, to close at the end of the body
+     */
+    OutputStream getOutputStream() {
+        return iOut;
+    }
+
+    /**
+     * @return the side of the reader, to close to abort the pipe
+     */
+    InputStream getInputStream() {
+        return iIn;
+    }
+
+    /**
+     * Put a chunk in the queue, waiting for room.
+     *
+     * @param aChunk
+     *            the chunk
+     * @throws IOException
+     *             if the pipe is aborted or the reader does not read within the timeout
+     */
+    private void put(byte[] aChunk) throws IOException {
+        long end = System.currentTimeMillis() + iTimeout;
+        try {
+            while (!iChunks.offer(aChunk, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                checkWait(end);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the request body");
+        }
+    }
+
+    /**
+     * Take a chunk from the queue, waiting for it.
+     *
+     * @return the chunk
+     * @throws IOException
+     *             if the pipe is aborted or the writer does not write within the timeout
+     */
+    private byte[] take() throws IOException {
+        long end = System.currentTimeMillis() + iTimeout;
+        try {
+            byte[] chunk;
+            while ((chunk = iChunks.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+                checkWait(end);
+            }
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the request body");
+        }
+    }
+
+    /**
+     * Check that a wait can go on.
+     *
+     * @param aEnd
+     *            the end of the wait in milliseconds since the epoch
+     * @throws IOException
+     *             if the pipe is aborted or the wait is over
+     */
+    private void checkWait(long aEnd) throws IOException {
+        if (iAborted) {
+            throw new IOException("Request body aborted");
+        }
+        if (System.currentTimeMillis() > aEnd) {
+            throw new IOException("Request body timed out");
+        }
+    }
+
+    /**
+     * The side of the writer, buffering a chunk before putting it in the queue.
+     */
+    private class PipeOutputStream extends OutputStream {
+
+        /**
+         * The current chunk.
+         */
+        private byte[] iChunk = new byte[CHUNK_SIZE];
+
+        /**
+         * Number of bytes in the current chunk.
+         */
+        private int iCount;
+
+        /**
+         * <code>true</code> once closed.
+         */
+        private boolean iClosed;
+
+        @Override
+        public void write(int aByte) throws IOException {
+            if (iCount == iChunk.length) {
+                flush();
+            }
+            iChunk[iCount++] = (byte) aByte;
+        }
+
+        @Override
+        public void write(byte[] aBytes, int aOffset, int aLength) throws IOException {
+            int offset = aOffset;
+            int remaining = aLength;
+            while (remaining > 0) {
+                if (iCount == iChunk.length) {
+                    flush();
+                }
+                int length = Math.min(remaining, iChunk.length - iCount);
+                System.arraycopy(aBytes, offset, iChunk, iCount, length);
+                iCount += length;
+                offset += length;
+                remaining -= length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (iAborted) {
+                throw new IOException("Request body aborted");
+            }
+            if (iCount > 0) {
+                put(iCount == iChunk.length ? iChunk : Arrays.copyOf(iChunk, iCount));
+                iChunk = new byte[CHUNK_SIZE];
+                iCount = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!iClosed) {
+                iClosed = true;
+                flush();
+                put(END);
+            }
+        }
+    }
+
+    /**
+     * The side of the reader.
+     */
+    private class PipeInputStream extends InputStream {
+
+        /**
+         * The current chunk, <code>null</code> before the first read.
+         */
+        private byte[] iChunk;
+
+        /**
+         * Position in the current chunk.
+         */
+        private int iPosition;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] aBytes, int aOffset, int aLength) throws IOException {
+            if (aLength == 0) {
+                return 0;
+            }
+            while (iChunk != END && (iChunk == null || iPosition == iChunk.length)) {
+                iChunk = take();
+                iPosition = 0;
+            }
+            if (iChunk == END) {
+                return -1;
+            }
+            int length = Math.min(aLength, iChunk.length - iPosition);
+            System.arraycopy(iChunk, iPosition, aBytes, aOffset, length);
+            iPosition += length;
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return iChunk == null || iChunk == END ? 0 : iChunk.length - iPosition;
+        }
+
+        @Override
+        public void close() {
+            iAborted = true;
+        }
+    }
+}
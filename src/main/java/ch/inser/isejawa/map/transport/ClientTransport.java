@@ -0,0 +1,99 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.net.URI;
+
+import ch.inser.isejawa.map.trace.Tracer;
+import ch.inser.rest.util.ISClientBuilder;
+
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.Invocation;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+/**
+ * Transport with the JAX-RS client (RESTEasy) built by {@link ISClientBuilder}, one client by request. This is the default transport.
+ * The connections are closed with their client, they are not kept between the requests.
+ *
+ * @author INSER SA
+ */
+public class ClientTransport implements Transport {
+
+    @Override
+    public TransportResponse get(String aUrl) {
+        Client client = ISClientBuilder.build();
+        try {
+            return read(request(client, aUrl).get());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Override
+    public TransportResponse post(String aUrl, FormData aForm) {
+        Client client = ISClientBuilder.build();
+        try {
+            StreamingOutput body = aForm::writeTo;
+            return read(request(client, aUrl).post(Entity.entity(body, MediaType.APPLICATION_FORM_URLENCODED_TYPE)));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Override
+    public int head(String aUrl) {
+        Client client = ISClientBuilder.build();
+        try {
+            Response response = request(client, aUrl).head();
+            int status = response.getStatus();
+            response.close();
+            return status;
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Build a request, propagating the trace of the current request.
+     *
+     * @param aClient
+     *            the client
+     * @param aUrl
+     *            the URL
+     * @return the request
+     */
+    private static Invocation.Builder request(Client aClient, String aUrl) {
+        return aClient.target(URI.create(aUrl)).request().header(Tracer.TRACEPARENT, Tracer.traceparent());
+    }
+
+    /**
+     * Read a response.
+     *
+     * @param aResponse
+     *            the JAX-RS response
+     * @return the response
+     */
+    private static TransportResponse read(Response aResponse) {
+        try {
+            return new TransportResponse(aResponse.getStatus(), aResponse.readEntity(byte[].class));
+        } finally {
+            aResponse.close();
+        }
+    }
+}
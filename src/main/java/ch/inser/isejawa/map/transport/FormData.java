@@ -0,0 +1,194 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+
+/**
+ * Parameters of a request, URL-encoded in the query string of a URL or in the body of a form post.
+ *
+ * <pre>
+ * FormData form = new FormData().param("f", "json").param("token", token);
+ * TransportResponse response = Transports.get().get(form.toUrl(featureUrl + "/1"));
+ * </pre>
+ *
+ * The JSON parameters are serialized and URL-encoded directly into the body when it is written, so a large payload (features to add,
+ * ...) is never held in memory as a string.
+ *
+ * @author INSER SA
+ */
+public class FormData {
+
+    /**
+     * Media type of a form body.
+     */
+    public static final String MEDIA_TYPE = "application/x-www-form-urlencoded";
+
+    /**
+     * Factory of the generators writing the JSON parameters.
+     */
+    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+
+    /**
+     * The parameters in the order they were added, the values are strings or JSON values.
+     */
+    private final Map<String, Object> iParameters = new LinkedHashMap<>();
+
+    /**
+     * Add a parameter.
+     *
+     * @param aName
+     *            the name
+     * @param aValue
+     *            the value, the parameter is not added if <code>null</code>
+     * @return this form
+     */
+    public FormData param(String aName, String aValue) {
+        if (aValue != null) {
+            iParameters.put(aName, aValue);
+        }
+        return this;
+    }
+
+    /**
+     * Add a JSON parameter, serialized when the form is written.
+     *
+     * @param aName
+     *            the name
+     * @param aValue
+     *            the value, the parameter is not added if <code>null</code>
+     * @return this form
+     */
+    public FormData param(String aName, JsonValue aValue) {
+        if (aValue != null) {
+            iParameters.put(aName, aValue);
+        }
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if the form contains JSON parameters, which should be streamed rather than written in a buffer
+     */
+    public boolean isStreamed() {
+        for (Object value : iParameters.values()) {
+            if (value instanceof JsonValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Append the parameters to the query string of a URL.
+     *
+     * @param aUrl
+     *            the URL, with or without query string
+     * @return the URL with the parameters
+     */
+    public String toUrl(String aUrl) {
+        if (iParameters.isEmpty()) {
+            return aUrl;
+        }
+        StringBuilder url = new StringBuilder(aUrl);
+        url.append(aUrl.indexOf('?') < 0 ? '?' : '&');
+        appendTo(url);
+        return url.toString();
+    }
+
+    /**
+     * Write the parameters as a form body.
+     *
+     * @param aOut
+     *            the output stream
+     * @throws IOException
+     *             if the stream can't be written
+     */
+    public void writeTo(OutputStream aOut) throws IOException {
+        boolean first = true;
+        for (Map.Entry<String, Object> parameter : iParameters.entrySet()) {
+            StringBuilder name = new StringBuilder();
+            if (!first) {
+                name.append('&');
+            }
+            name.append(encode(parameter.getKey())).append('=');
+            aOut.write(name.toString().getBytes(StandardCharsets.US_ASCII));
+            if (parameter.getValue() instanceof JsonValue) {
+                try (JsonGenerator generator = GENERATOR_FACTORY.createGenerator(new UrlEncodingWriter(aOut))) {
+                    generator.write((JsonValue) parameter.getValue());
+                } catch (JsonException e) {
+                    throw new IOException("Error writing the parameter " + parameter.getKey(), e);
+                }
+            } else {
+                aOut.write(encode((String) parameter.getValue()).getBytes(StandardCharsets.US_ASCII));
+            }
+            first = false;
+        }
+    }
+
+    /**
+     * @return the parameters as a form body
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Append the encoded parameters.
+     *
+     * @param aBuilder
+     *            the builder
+     */
+    private void appendTo(StringBuilder aBuilder) {
+        boolean first = true;
+        for (Map.Entry<String, Object> parameter : iParameters.entrySet()) {
+            if (!first) {
+                aBuilder.append('&');
+            }
+            aBuilder.append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue().toString()));
+            first = false;
+        }
+    }
+
+    /**
+     * URL-encode a parameter name or value.
+     *
+     * @param aValue
+     *            the value
+     * @return the encoded value
+     */
+    public static String encode(String aValue) {
+        return URLEncoder.encode(aValue, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.isejawa.map.trace.Tracer;
+
+/**
+ * Transport with the JDK HTTP client, using HTTP/2 when the server supports it. A single client is shared by all the requests, so the
+ * concurrent requests to a server are multiplexed over a few connections instead of opening one connection each.
+ *
+ * Each request fails with an {@link HttpTimeoutException} when the response is not received within the timeout. The proxy is the one of
+ * the JVM (<code>https.proxyHost</code>, <code>http.proxyHost</code>, <code>http.nonProxyHosts</code> system properties): the proxy
+ * settings of the <code>ISClientBuilder</code> used by the default transport do not apply to this transport.
+ *
+ * @author INSER SA
+ */
+public class HttpClientTransport implements Transport {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(HttpClientTransport.class);
+
+    /**
+     * Maximum number of bytes of a streamed form written and not sent yet.
+     */
+    private static final int PIPE_SIZE = 65_536;
+
+    /**
+     * Timeout to open a connection.
+     */
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Default timeout of a request.
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(120);
+
+    /**
+     * The shared client.
+     */
+    private final HttpClient iClient;
+
+    /**
+     * Maximum time to wait for the response of a request.
+     */
+    private final Duration iTimeout;
+
+    /**
+     * Constructor with the default timeout.
+     */
+    public HttpClientTransport() {
+        this(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param aTimeout
+     *            maximum time to wait for the response of a request
+     */
+    public HttpClientTransport(Duration aTimeout) {
+        iTimeout = aTimeout;
+        iClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).followRedirects(HttpClient.Redirect.NORMAL)
+                .proxy(ProxySelector.getDefault()).connectTimeout(CONNECT_TIMEOUT).build();
+    }
+
+    @Override
+    public TransportResponse get(String aUrl) {
+        HttpResponse<byte[]> response = send(newRequest(aUrl).GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        return new TransportResponse(response.statusCode(), response.body());
+    }
+
+    @Override
+    public TransportResponse post(String aUrl, FormData aForm) {
+        if (aForm.isStreamed()) {
+            return postStreamed(aUrl, aForm);
+        }
+        HttpRequest request = newRequest(aUrl).header("Content-Type", FormData.MEDIA_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(aForm.toBytes())).build();
+        HttpResponse<byte[]> response = send(request, HttpResponse.BodyHandlers.ofByteArray());
+        return new TransportResponse(response.statusCode(), response.body());
+    }
+
+    /**
+     * Send a form POST request with a body written while it is sent: the calling thread writes the form into a bounded pipe read by
+     * the client. The body can be sent only once, so the request fails if the server asks to send it again.
+     *
+     * @param aUrl
+     *            the URL with the encoded query string
+     * @param aForm
+     *            the form parameters
+     * @return the response
+     */
+    private TransportResponse postStreamed(String aUrl, FormData aForm) {
+        BodyPipe pipe = new BodyPipe(PIPE_SIZE, iTimeout.toMillis());
+        InputStream in = pipe.getInputStream();
+        AtomicBoolean supplied = new AtomicBoolean();
+        HttpRequest request = newRequest(aUrl).header("Content-Type", FormData.MEDIA_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> {
+                    if (supplied.getAndSet(true)) {
+                        throw new IllegalStateException("The form body can be sent only once");
+                    }
+                    return in;
+                })).build();
+        CompletableFuture<HttpResponse<byte[]>> future = iClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        // Unblock the writer if the request ends before the whole body is read
+        future.whenComplete((response, error) -> close(in));
+        try {
+            OutputStream out = pipe.getOutputStream();
+            aForm.writeTo(out);
+            out.close();
+        } catch (IOException e) {
+            if (!future.isDone()) {
+                // Fail the request rather than sending a truncated body
+                close(in);
+                future.cancel(true);
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        try {
+            HttpResponse<byte[]> response = future.get(iTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            return new TransportResponse(response.statusCode(), response.body());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new UncheckedIOException(new HttpTimeoutException("Request timed out: " + aUrl));
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? new UncheckedIOException((IOException) e.getCause())
+                    : new UncheckedIOException(new IOException(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new UncheckedIOException(new InterruptedIOException(e.getMessage()));
+        }
+    }
+
+    /**
+     * Close a stream, ignoring the errors.
+     *
+     * @param aIn
+     *            the stream
+     */
+    private static void close(InputStream aIn) {
+        try {
+            aIn.close();
+        } catch (IOException e) {
+            logger.debug("Error closing the form body stream", e);
+        }
+    }
+
+    @Override
+    public int head(String aUrl) {
+        HttpRequest request = newRequest(aUrl).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        return send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Override
+    public boolean isKeepingConnections() {
+        return true;
+    }
+
+    /**
+     * Create a request builder with the timeout, propagating the trace of the current request.
+     *
+     * @param aUrl
+     *            the URL
+     * @return the request builder
+     */
+    private HttpRequest.Builder newRequest(String aUrl) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(aUrl)).timeout(iTimeout);
+        String traceparent = Tracer.traceparent();
+        if (traceparent != null) {
+            builder.header(Tracer.TRACEPARENT, traceparent);
+        }
+        return builder;
+    }
+
+    /**
+     * Send a request.
+     *
+     * @param <T>
+     *            the type of the body
+     * @param aRequest
+     *            the request
+     * @param aHandler
+     *            the handler of the body
+     * @return the response
+     */
+    private <T> HttpResponse<T> send(HttpRequest aRequest, HttpResponse.BodyHandler<T> aHandler) {
+        try {
+            return iClient.send(aRequest, aHandler);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException(e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import ch.inser.isejawa.map.util.AdaptiveLimiter;
+
+/**
+ * Transport limiting the concurrent calls to each ArcGIS server with an {@link AdaptiveLimiter}, so the concurrent fan-outs
+ * (pagination, tiled exports, batches of object ids) grow while the server keeps up and back off when it saturates. The latency of a
+ * call is compared with the baseline of its operation, the last segment of the URL path (<code>query</code>, <code>export</code>,
+ * ...), so the long exports do not make the queries look slow, nor the queries the exports look fast.
+ *
+ * @author INSER SA
+ */
+class LimitingTransport implements Transport {
+
+    /**
+     * The transport doing the calls.
+     */
+    private final Transport iTransport;
+
+    /**
+     * The initial limit of a server.
+     */
+    private final int iInitialLimit;
+
+    /**
+     * The maximum limit of a server.
+     */
+    private final int iMaxLimit;
+
+    /**
+     * Latency ratio to the baseline above which a server is considered saturated.
+     */
+    private final double iTolerance;
+
+    /**
+     * Maximum time to wait for a slot in milliseconds.
+     */
+    private final long iTimeout;
+
+    /**
+     * The limiters by host.
+     */
+    private final Map<String, AdaptiveLimiter> iLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param aTransport
+     *            the transport doing the calls
+     * @param aInitialLimit
+     *            the initial limit of a server
+     * @param aMaxLimit
+     *            the maximum limit of a server
+     * @param aTolerance
+     *            the latency ratio to the baseline above which a server is considered saturated
+     * @param aTimeout
+     *            the maximum time to wait for a slot in milliseconds
+     */
+    LimitingTransport(Transport aTransport, int aInitialLimit, int aMaxLimit, double aTolerance, long aTimeout) {
+        iTransport = aTransport;
+        iInitialLimit = aInitialLimit;
+        iMaxLimit = aMaxLimit;
+        iTolerance = aTolerance;
+        iTimeout = aTimeout;
+    }
+
+    @Override
+    public TransportResponse get(String aUrl) {
+        return call(aUrl, () -> iTransport.get(aUrl), TransportResponse::getStatus);
+    }
+
+    @Override
+    public TransportResponse post(String aUrl, FormData aForm) {
+        return call(aUrl, () -> iTransport.post(aUrl, aForm), TransportResponse::getStatus);
+    }
+
+    @Override
+    public int head(String aUrl) {
+        return call(aUrl, () -> iTransport.head(aUrl), status -> status);
+    }
+
+    @Override
+    public boolean isKeepingConnections() {
+        return iTransport.isKeepingConnections();
+    }
+
+    /**
+     * Call a server in a slot of its limiter.
+     *
+     * @param <T>
+     *            the result type
+     * @param aUrl
+     *            the URL
+     * @param aCall
+     *            the call
+     * @param aStatus
+     *            the HTTP status of the result
+     * @return the result
+     */
+    private <T> T call(String aUrl, Supplier<T> aCall, ToIntFunction<T> aStatus) {
+        AdaptiveLimiter limiter = getLimiter(aUrl);
+        try {
+            if (!limiter.acquire(iTimeout)) {
+                throw new UncheckedIOException(new IOException(String.format("No free slot in %s ms for the server %s (limit %s)",
+                        iTimeout, limiter.getName(), limiter.getLimit())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for the server " + limiter.getName()));
+        }
+
+        long start = System.nanoTime();
+        boolean overload = true;
+        try {
+            T result = aCall.get();
+            overload = isOverload(aStatus.applyAsInt(result));
+            return result;
+        } finally {
+            limiter.release(getOperation(aUrl), System.nanoTime() - start, overload);
+        }
+    }
+
+    /**
+     * Get the operation called by a URL: the last segment of its path, <code>{id}</code> for a layer or a feature id so the number
+     * of operations stays small.
+     *
+     * @param aUrl
+     *            the URL
+     * @return the operation, empty if the URL has no path
+     */
+    static String getOperation(String aUrl) {
+        String path = URI.create(aUrl).getPath();
+        if (path == null) {
+            return "";
+        }
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String operation = path.substring(path.lastIndexOf('/') + 1);
+        return !operation.isEmpty() && operation.chars().allMatch(Character::isDigit) ? "{id}" : operation;
+    }
+
+    /**
+     * @param aStatus
+     *            an HTTP status
+     * @return <code>true</code> if the status means that the server or a proxy in front of it is overloaded
+     */
+    private static boolean isOverload(int aStatus) {
+        return aStatus == 429 || aStatus == 502 || aStatus == 503 || aStatus == 504;
+    }
+
+    /**
+     * Get the limiter of the server of a URL, created and published in JMX at the first call.
+     *
+     * @param aUrl
+     *            the URL
+     * @return the limiter
+     */
+    private AdaptiveLimiter getLimiter(String aUrl) {
+        URI uri = URI.create(aUrl);
+        String host = uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        return iLimiters.computeIfAbsent(host == null ? "" : host, key -> {
+            AdaptiveLimiter limiter = new AdaptiveLimiter(key, iInitialLimit, iMaxLimit, iTolerance);
+            limiter.register();
+            return limiter;
+        });
+    }
+}
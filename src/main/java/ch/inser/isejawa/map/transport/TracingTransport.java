@@ -0,0 +1,121 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.net.URI;
+
+import ch.inser.isejawa.map.trace.Span;
+import ch.inser.isejawa.map.trace.Tracer;
+
+/**
+ * Transport recording each call to an ArcGIS server in a client span of the current request. The span is current during the call,
+ * so the transport propagates it in the <code>traceparent</code> header.
+ *
+ * @author INSER SA
+ */
+class TracingTransport implements Transport {
+
+    /**
+     * The transport doing the calls.
+     */
+    private final Transport iTransport;
+
+    /**
+     * Constructor
+     *
+     * @param aTransport
+     *            the transport doing the calls
+     */
+    TracingTransport(Transport aTransport) {
+        iTransport = aTransport;
+    }
+
+    @Override
+    public TransportResponse get(String aUrl) {
+        try (Span span = startSpan("GET", aUrl)) {
+            try {
+                return ended(span, iTransport.get(aUrl));
+            } catch (RuntimeException e) {
+                span.setError(e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public TransportResponse post(String aUrl, FormData aForm) {
+        try (Span span = startSpan("POST", aUrl)) {
+            try {
+                return ended(span, iTransport.post(aUrl, aForm));
+            } catch (RuntimeException e) {
+                span.setError(e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean isKeepingConnections() {
+        return iTransport.isKeepingConnections();
+    }
+
+    @Override
+    public int head(String aUrl) {
+        try (Span span = startSpan("HEAD", aUrl)) {
+            try {
+                int status = iTransport.head(aUrl);
+                span.setAttribute("http.response.status_code", status);
+                return status;
+            } catch (RuntimeException e) {
+                span.setError(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Start the span of a call. The query string is not recorded, since it contains the token.
+     *
+     * @param aMethod
+     *            the HTTP method
+     * @param aUrl
+     *            the URL
+     * @return the span
+     */
+    private static Span startSpan(String aMethod, String aUrl) {
+        Span span = Tracer.startSpan(aMethod, Span.Kind.CLIENT);
+        if (span.isRecording()) {
+            URI uri = URI.create(aUrl);
+            span.setAttribute("http.request.method", aMethod).setAttribute("server.address", uri.getHost())
+                    .setAttribute("url.full", uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath());
+        }
+        return span;
+    }
+
+    /**
+     * Record the status of a response.
+     *
+     * @param aSpan
+     *            the span of the call
+     * @param aResponse
+     *            the response
+     * @return the response
+     */
+    private static TransportResponse ended(Span aSpan, TransportResponse aResponse) {
+        aSpan.setAttribute("http.response.status_code", aResponse.getStatus());
+        return aResponse;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+/**
+ * HTTP client used to call the ArcGIS servers. The implementation is chosen with the <code>map.transport</code> property, see
+ * {@link Transports}.
+ *
+ * The implementations are thread-safe. Connection errors are thrown as unchecked exceptions, like the JAX-RS client does, so the
+ * callers handle them the same way whatever the transport.
+ *
+ * @author INSER SA
+ */
+public interface Transport {
+
+    /**
+     * Send a GET request.
+     *
+     * @param aUrl
+     *            the URL with the encoded query string
+     * @return the response
+     */
+    TransportResponse get(String aUrl);
+
+    /**
+     * Send a form POST request.
+     *
+     * @param aUrl
+     *            the URL with the encoded query string
+     * @param aForm
+     *            the form parameters
+     * @return the response
+     */
+    TransportResponse post(String aUrl, FormData aForm);
+
+    /**
+     * Send a HEAD request, to open a connection before the first requests.
+     *
+     * @param aUrl
+     *            the URL
+     * @return the HTTP status code
+     */
+    int head(String aUrl);
+
+    /**
+     * @return <code>true</code> if the connections are kept open between the requests, so a first request to a server saves the
+     *         connection and the TLS negotiation of the next ones
+     */
+    default boolean isKeepingConnections() {
+        return false;
+    }
+}
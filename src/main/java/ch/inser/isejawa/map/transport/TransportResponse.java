@@ -0,0 +1,81 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.nio.charset.StandardCharsets;
+
+import ch.inser.rest.util.JsonUtil;
+
+import jakarta.json.JsonObject;
+
+/**
+ * Response of an ArcGIS server received by a {@link Transport}.
+ *
+ * @author INSER SA
+ */
+public class TransportResponse {
+
+    /**
+     * The HTTP status code.
+     */
+    private final int iStatus;
+
+    /**
+     * The body.
+     */
+    private final byte[] iBody;
+
+    /**
+     * Constructor
+     *
+     * @param aStatus
+     *            the HTTP status code
+     * @param aBody
+     *            the body
+     */
+    public TransportResponse(int aStatus, byte[] aBody) {
+        iStatus = aStatus;
+        iBody = aBody == null ? new byte[0] : aBody;
+    }
+
+    /**
+     * @return the HTTP status code
+     */
+    public int getStatus() {
+        return iStatus;
+    }
+
+    /**
+     * @return the body
+     */
+    public byte[] getBytes() {
+        return iBody;
+    }
+
+    /**
+     * @return the body as a UTF-8 string
+     */
+    public String getString() {
+        return new String(iBody, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the body as a JSON object
+     */
+    public JsonObject getJsonObject() {
+        return JsonUtil.stringToJsonObject(getString());
+    }
+}
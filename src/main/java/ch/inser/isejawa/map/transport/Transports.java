@@ -0,0 +1,178 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.time.Duration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.util.AdaptiveLimiter;
+import ch.inser.rest.util.RestUtil;
+
+/**
+ * Access to the transport used to call the ArcGIS servers, chosen with the <code>map.transport</code> property of the context manager
+ * (or the system property of the same name outside of a web application):
+ *
+ * <ul>
+ * <li><code>resteasy</code> (default): JAX-RS client, see {@link ClientTransport}</li>
+ * <li><code>http2</code>: JDK HTTP client with HTTP/2, see {@link HttpClientTransport}, with the request timeout
+ * <code>map.transport.timeout</code> in milliseconds (default 120000)</li>
+ * </ul>
+ *
+ * With <code>map.limiter.adaptive=true</code>, the concurrent calls to each ArcGIS server are limited by an {@link AdaptiveLimiter}
+ * growing the limit while the latency stays close to its baseline and reducing it when the latency rises or the server answers with
+ * an overload status: <code>map.limiter.initial</code> (default 8), <code>map.limiter.max</code> (default 64),
+ * <code>map.limiter.tolerance</code> (latency ratio to the baseline, default 2) and <code>map.limiter.timeout</code> (maximum wait for
+ * a slot in milliseconds, default 30000). The limiters are published in JMX.
+ *
+ * @author INSER SA
+ */
+public class Transports {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(Transports.class);
+
+    /**
+     * Name of the property choosing the transport.
+     */
+    public static final String PROPERTY = "map.transport";
+
+    /**
+     * Name of the JAX-RS transport.
+     */
+    public static final String RESTEASY = "resteasy";
+
+    /**
+     * Name of the HTTP/2 transport.
+     */
+    public static final String HTTP2 = "http2";
+
+    /**
+     * Name of the property giving the request timeout of the HTTP/2 transport in milliseconds.
+     */
+    public static final String TIMEOUT_PROPERTY = "map.transport.timeout";
+
+    /**
+     * Prefix of the properties of the adaptive concurrency limit.
+     */
+    public static final String LIMITER_PREFIX = "map.limiter.";
+
+    /**
+     * The transport, created at the first call.
+     */
+    private static volatile Transport transport;
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private Transports() {
+    }
+
+    /**
+     * Get the transport chosen by the configuration. The calls are recorded in the trace of the current request.
+     *
+     * @return the transport
+     */
+    public static Transport get() {
+        Transport current = transport;
+        if (current == null) {
+            synchronized (Transports.class) {
+                current = transport;
+                if (current == null) {
+                    current = create(getProperty(PROPERTY));
+                    logger.debug(String.format("Transport: '%s'", current.getClass().getSimpleName()));
+                    if (Boolean.parseBoolean(getProperty(LIMITER_PREFIX + "adaptive"))) {
+                        current = new LimitingTransport(current, getInt("initial", 8), getInt("max", 64),
+                                Double.parseDouble(getLimiterProperty("tolerance", "2")), getInt("timeout", 30_000));
+                    }
+                    current = new TracingTransport(current);
+                    transport = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Replace the transport, for example by a project specific one.
+     *
+     * @param aTransport
+     *            the transport, <code>null</code> to create it again from the configuration
+     */
+    public static void set(Transport aTransport) {
+        transport = aTransport;
+    }
+
+    /**
+     * Create a transport.
+     *
+     * @param aName
+     *            the name of the transport, the default one if <code>null</code>
+     * @return the transport
+     * @throws IllegalArgumentException
+     *             if the name is unknown
+     */
+    public static Transport create(String aName) {
+        if (aName == null || aName.isEmpty() || RESTEASY.equalsIgnoreCase(aName)) {
+            return new ClientTransport();
+        }
+        if (HTTP2.equalsIgnoreCase(aName)) {
+            String timeout = getProperty(TIMEOUT_PROPERTY);
+            return new HttpClientTransport(timeout == null || timeout.isEmpty() ? HttpClientTransport.DEFAULT_TIMEOUT
+                    : Duration.ofMillis(Long.parseLong(timeout)));
+        }
+        throw new IllegalArgumentException("Unknown transport: " + aName);
+    }
+
+    /**
+     * @param aName
+     *            the name of a property of the adaptive concurrency limit, without prefix
+     * @param aDefault
+     *            the default value
+     * @return the value of the property, the default one if not configured
+     */
+    private static String getLimiterProperty(String aName, String aDefault) {
+        String value = getProperty(LIMITER_PREFIX + aName);
+        return value == null ? aDefault : value;
+    }
+
+    /**
+     * @param aName
+     *            the name of an integer property of the adaptive concurrency limit, without prefix
+     * @param aDefault
+     *            the default value
+     * @return the value of the property, the default one if not configured
+     */
+    private static int getInt(String aName, int aDefault) {
+        return Integer.parseInt(getLimiterProperty(aName, String.valueOf(aDefault)));
+    }
+
+    /**
+     * @param aName
+     *            the name of a property
+     * @return the value of the property of the context manager, or of the system property outside of a web application,
+     *         <code>null</code> if not configured
+     */
+    private static String getProperty(String aName) {
+        IContextManager contextManager = RestUtil.getContextManager();
+        String value = contextManager == null ? null : contextManager.getProperty(aName);
+        return value == null ? System.getProperty(aName) : value;
+    }
+}
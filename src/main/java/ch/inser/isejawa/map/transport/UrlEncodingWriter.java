@@ -0,0 +1,204 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer URL-encoding the characters in UTF-8 directly into an output stream, with the same result as {@link FormData#encode(String)}
+ * but without building the encoded string.
+ *
+ * Closing the writer flushes it but leaves the output stream open, so the next form parameters can be written.
+ *
+ * @author INSER SA
+ */
+class UrlEncodingWriter extends Writer {
+
+    /**
+     * Hexadecimal digits of the percent-encoding.
+     */
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Size of the buffer, flushed to the output stream when full.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The output stream.
+     */
+    private final OutputStream iOut;
+
+    /**
+     * The buffer of encoded bytes.
+     */
+    private final byte[] iBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int iCount;
+
+    /**
+     * High surrogate waiting for the low surrogate written in the next call, 0 if none.
+     */
+    private char iHighSurrogate;
+
+    /**
+     * Constructor
+     *
+     * @param aOut
+     *            the output stream
+     */
+    UrlEncodingWriter(OutputStream aOut) {
+        iOut = aOut;
+    }
+
+    @Override
+    public void write(int aChar) throws IOException {
+        encode((char) aChar);
+    }
+
+    @Override
+    public void write(char[] aChars, int aOffset, int aLength) throws IOException {
+        for (int i = aOffset; i < aOffset + aLength; i++) {
+            encode(aChars[i]);
+        }
+    }
+
+    @Override
+    public void write(String aString, int aOffset, int aLength) throws IOException {
+        for (int i = aOffset; i < aOffset + aLength; i++) {
+            encode(aString.charAt(i));
+        }
+    }
+
+    /**
+     * Encode a character.
+     *
+     * @param aChar
+     *            the character
+     * @throws IOException
+     *             if the output stream can't be written
+     */
+    private void encode(char aChar) throws IOException {
+        if (iHighSurrogate != 0) {
+            char high = iHighSurrogate;
+            iHighSurrogate = 0;
+            if (Character.isLowSurrogate(aChar)) {
+                encodeCodePoint(Character.toCodePoint(high, aChar));
+                return;
+            }
+            encodeCodePoint('?');
+        }
+        if (Character.isHighSurrogate(aChar)) {
+            iHighSurrogate = aChar;
+        } else if (Character.isLowSurrogate(aChar)) {
+            encodeCodePoint('?');
+        } else {
+            encodeCodePoint(aChar);
+        }
+    }
+
+    /**
+     * Encode a code point in UTF-8.
+     *
+     * @param aCodePoint
+     *            the code point
+     * @throws IOException
+     *             if the output stream can't be written
+     */
+    private void encodeCodePoint(int aCodePoint) throws IOException {
+        if (aCodePoint < 0x80) {
+            if (aCodePoint >= 'a' && aCodePoint <= 'z' || aCodePoint >= 'A' && aCodePoint <= 'Z' || aCodePoint >= '0' && aCodePoint <= '9'
+                    || aCodePoint == '-' || aCodePoint == '_' || aCodePoint == '.' || aCodePoint == '*') {
+                put(aCodePoint);
+            } else {
+                percent(aCodePoint);
+            }
+        } else if (aCodePoint < 0x800) {
+            percent(0xC0 | aCodePoint >> 6);
+            percent(0x80 | aCodePoint & 0x3F);
+        } else if (aCodePoint < 0x10000) {
+            percent(0xE0 | aCodePoint >> 12);
+            percent(0x80 | aCodePoint >> 6 & 0x3F);
+            percent(0x80 | aCodePoint & 0x3F);
+        } else {
+            percent(0xF0 | aCodePoint >> 18);
+            percent(0x80 | aCodePoint >> 12 & 0x3F);
+            percent(0x80 | aCodePoint >> 6 & 0x3F);
+            percent(0x80 | aCodePoint & 0x3F);
+        }
+    }
+
+    /**
+     * Write a percent-encoded byte.
+     *
+     * @param aByte
+     *            the byte
+     * @throws IOException
+     *             if the output stream can't be written
+     */
+    private void percent(int aByte) throws IOException {
+        put('%');
+        put(HEX[aByte >> 4 & 0xF]);
+        put(HEX[aByte & 0xF]);
+    }
+
+    /**
+     * Put a byte in the buffer.
+     *
+     * @param aByte
+     *            the byte
+     * @throws IOException
+     *             if the output stream can't be written
+     */
+    private void put(int aByte) throws IOException {
+        if (iCount == iBuffer.length) {
+            flushBuffer();
+        }
+        iBuffer[iCount++] = (byte) aByte;
+    }
+
+    /**
+     * Write the buffer to the output stream.
+     *
+     * @throws IOException
+     *             if the output stream can't be written
+     */
+    private void flushBuffer() throws IOException {
+        iOut.write(iBuffer, 0, iCount);
+        iCount = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        iOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (iHighSurrogate != 0) {
+            iHighSurrogate = 0;
+            encodeCodePoint('?');
+        }
+        flush();
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Limiter of the concurrent calls to a server, adapting the limit to the latency and the errors of the calls (AIMD):
+ *
+ * <ul>
+ * <li>while the latency stays below <code>tolerance</code> times the baseline latency and the calls use the limit, the limit grows
+ * by one for each window of <code>limit</code> calls</li>
+ * <li>when the latency exceeds it, the limit is decreased by 10%, when a call fails or the server answers it is overloaded (429,
+ * 502, 503, 504) by 25%, at most once by baseline latency so a burst of slow calls counts as one signal</li>
+ * </ul>
+ *
+ * The baseline is a moving average of the latency, ten times slower for the calls above the tolerance: it follows a lasting change
+ * of the kind of calls, not the queueing of a saturated server. A baseline is kept by operation (query, export, ...), so a slow kind
+ * of call is not compared with the fast ones sharing the server.
+ *
+ * <pre>
+ * if (limiter.acquire(30_000)) {
+ *     long start = System.nanoTime();
+ *     boolean overload = true;
+ *     try {
+ *         ...
+ *         overload = status == 503;
+ *     } finally {
+ *         limiter.release("query", System.nanoTime() - start, overload);
+ *     }
+ * }
+ * </pre>
+ *
+ * @author INSER SA
+ */
+public class AdaptiveLimiter implements AdaptiveLimiterMXBean {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(AdaptiveLimiter.class);
+
+    /**
+     * JMX domain of the limiters.
+     */
+    private static final String JMX_DOMAIN = "ch.inser.isejawa.map";
+
+    /**
+     * Minimum limit.
+     */
+    private static final int MIN_LIMIT = 1;
+
+    /**
+     * Factor of the limit when the latency exceeds the tolerance.
+     */
+    private static final double LATENCY_BACKOFF = 0.9;
+
+    /**
+     * Factor of the limit when a call fails.
+     */
+    private static final double ERROR_BACKOFF = 0.75;
+
+    /**
+     * Weight of a call in the moving average of the baseline latency.
+     */
+    private static final double BASELINE_WEIGHT = 0.05;
+
+    /**
+     * The names of the limiters published in JMX.
+     */
+    private static final Set<ObjectName> REGISTERED = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The name: the host of the server.
+     */
+    private final String iName;
+
+    /**
+     * Maximum limit.
+     */
+    private final int iMaxLimit;
+
+    /**
+     * Latency ratio to the baseline above which the server is considered saturated.
+     */
+    private final double iTolerance;
+
+    /**
+     * The current limit, the integer part being the number of calls allowed.
+     */
+    private double iLimit;
+
+    /**
+     * Number of calls running.
+     */
+    private int iInFlight;
+
+    /**
+     * Number of calls waiting for a slot.
+     */
+    private int iWaiting;
+
+    /**
+     * Baseline latency in nanoseconds by operation, missing before the first call of the operation.
+     */
+    private final Map<String, Double> iBaselines = new HashMap<>();
+
+    /**
+     * Time of the last decrease given by {@link System#nanoTime()}.
+     */
+    private long iLastDecrease;
+
+    /**
+     * Number of calls ended.
+     */
+    private long iCalls;
+
+    /**
+     * Number of calls failed or refused as overloaded.
+     */
+    private long iErrors;
+
+    /**
+     * Number of calls not started in time.
+     */
+    private long iTimeouts;
+
+    /**
+     * Constructor
+     *
+     * @param aName
+     *            the name: the host of the server
+     * @param aInitialLimit
+     *            the initial limit
+     * @param aMaxLimit
+     *            the maximum limit
+     * @param aTolerance
+     *            the latency ratio to the baseline above which the server is considered saturated, for example 2
+     */
+    public AdaptiveLimiter(String aName, int aInitialLimit, int aMaxLimit, double aTolerance) {
+        iName = aName;
+        iMaxLimit = Math.max(MIN_LIMIT, aMaxLimit);
+        iLimit = Math.max(MIN_LIMIT, Math.min(aInitialLimit, iMaxLimit));
+        iTolerance = aTolerance;
+        iLastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Wait for a free slot. Each successful call must be followed by a call to {@link #release(String, long, boolean)}.
+     *
+     * @param aTimeout
+     *            the maximum time to wait in milliseconds
+     * @return <code>true</code> if a slot was taken, <code>false</code> if no slot was free in time
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public synchronized boolean acquire(long aTimeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + aTimeout;
+        iWaiting++;
+        try {
+            while (iInFlight >= (int) iLimit) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    iTimeouts++;
+                    return false;
+                }
+                wait(remaining);
+            }
+            iInFlight++;
+            return true;
+        } finally {
+            iWaiting--;
+        }
+    }
+
+    /**
+     * Free a slot and adapt the limit to the outcome of a call without operation name.
+     *
+     * @param aLatencyNanos
+     *            the duration of the call in nanoseconds
+     * @param aOverload
+     *            <code>true</code> if the call failed or the server answered it is overloaded
+     */
+    public void release(long aLatencyNanos, boolean aOverload) {
+        release("", aLatencyNanos, aOverload);
+    }
+
+    /**
+     * Free a slot and adapt the limit to the outcome of the call, its latency being compared with the baseline of its operation.
+     *
+     * @param aOperation
+     *            the operation called, for example <code>query</code> or <code>export</code>
+     * @param aLatencyNanos
+     *            the duration of the call in nanoseconds
+     * @param aOverload
+     *            <code>true</code> if the call failed or the server answered it is overloaded
+     */
+    public synchronized void release(String aOperation, long aLatencyNanos, boolean aOverload) {
+        boolean used = iInFlight * 2 >= iLimit;
+        iInFlight--;
+        iCalls++;
+        long now = System.nanoTime();
+        Double previous = iBaselines.get(aOperation);
+        double baseline = previous == null ? 0 : previous;
+        if (aOverload) {
+            iErrors++;
+            decrease(now, ERROR_BACKOFF, baseline);
+        } else if (previous == null) {
+            iBaselines.put(aOperation, (double) aLatencyNanos);
+        } else if (aLatencyNanos <= iTolerance * baseline) {
+            iBaselines.put(aOperation, baseline + (aLatencyNanos - baseline) * BASELINE_WEIGHT);
+            if (used) {
+                // Additive increase: about one more slot by window of limit calls
+                iLimit = Math.min(iMaxLimit, iLimit + 1 / iLimit);
+            }
+        } else {
+            // The slow calls move the baseline slowly, to follow a lasting change of the kind of calls
+            iBaselines.put(aOperation, baseline + (aLatencyNanos - baseline) * BASELINE_WEIGHT / 10);
+            decrease(now, LATENCY_BACKOFF, baseline);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Decrease the limit, at most once by baseline latency.
+     *
+     * @param aNow
+     *            the current time given by {@link System#nanoTime()}
+     * @param aFactor
+     *            the factor of the limit
+     * @param aBaseline
+     *            the baseline latency of the operation in nanoseconds
+     */
+    private void decrease(long aNow, double aFactor, double aBaseline) {
+        if (aNow - iLastDecrease < aBaseline) {
+            return;
+        }
+        double limit = Math.max(MIN_LIMIT, iLimit * aFactor);
+        if ((int) limit != (int) iLimit && logger.isDebugEnabled()) {
+            logger.debug(String.format("Limit of '%s' decreased from %s to %s", iName, (int) iLimit, (int) limit));
+        }
+        iLimit = limit;
+        iLastDecrease = aNow;
+    }
+
+    /**
+     * Publish the metrics of the limiter in JMX, replacing a limiter of the same name. The limiters must be removed with
+     * {@link #unregisterAll()} when the application stops, the platform MBean server otherwise keeps its classes loaded.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=AdaptiveLimiter,name=" + ObjectName.quote(iName));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            REGISTERED.add(name);
+        } catch (JMException e) {
+            logger.warn("Error registering the limiter " + iName + " in JMX", e);
+        }
+    }
+
+    /**
+     * Remove from JMX the limiters published by {@link #register()}.
+     */
+    public static void unregisterAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : REGISTERED) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                logger.warn("Error unregistering the limiter " + name + " from JMX", e);
+            }
+            REGISTERED.remove(name);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return iName;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) iLimit;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return iInFlight;
+    }
+
+    @Override
+    public synchronized int getWaiting() {
+        return iWaiting;
+    }
+
+    @Override
+    public synchronized double getBaselineLatencyMillis() {
+        double max = 0;
+        for (double baseline : iBaselines.values()) {
+            max = Math.max(max, baseline);
+        }
+        return max / 1_000_000;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getBaselineLatenciesMillis() {
+        Map<String, Double> baselines = new HashMap<>();
+        for (Map.Entry<String, Double> entry : iBaselines.entrySet()) {
+            baselines.put(entry.getKey(), entry.getValue() / 1_000_000);
+        }
+        return baselines;
+    }
+
+    @Override
+    public synchronized long getCalls() {
+        return iCalls;
+    }
+
+    @Override
+    public synchronized long getErrors() {
+        return iErrors;
+    }
+
+    @Override
+    public synchronized long getTimeouts() {
+        return iTimeouts;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AdaptiveLimiter[name=%s, limit=%s, inFlight=%s, baselines=%s ms]", iName, (int) iLimit, iInFlight,
+                getBaselineLatenciesMillis());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.util.Map;
+
+/**
+ * Metrics of an {@link AdaptiveLimiter}, published in JMX under <code>ch.inser.isejawa.map:type=AdaptiveLimiter,name=&lt;host&gt;</code>.
+ *
+ * @author INSER SA
+ */
+public interface AdaptiveLimiterMXBean {
+
+    /**
+     * @return the name of the limiter: the host of the ArcGIS server
+     */
+    String getName();
+
+    /**
+     * @return the current number of calls allowed at the same time
+     */
+    int getLimit();
+
+    /**
+     * @return the number of calls running
+     */
+    int getInFlight();
+
+    /**
+     * @return the number of calls waiting for a slot
+     */
+    int getWaiting();
+
+    /**
+     * @return the highest latency of the operations of the server when not overloaded in milliseconds, 0 before the first call
+     */
+    double getBaselineLatencyMillis();
+
+    /**
+     * @return the latency of each operation of the server when not overloaded in milliseconds
+     */
+    Map<String, Double> getBaselineLatenciesMillis();
+
+    /**
+     * @return the number of calls ended
+     */
+    long getCalls();
+
+    /**
+     * @return the number of calls failed or refused by the server as overloaded
+     */
+    long getErrors();
+
+    /**
+     * @return the number of calls not started because no slot was free in time
+     */
+    long getTimeouts();
+}
@@ -0,0 +1,198 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of the number of concurrent requests, shared fairly between users.
+ *
+ * When all the permits are used, the waiting requests are queued by user and a released permit is given to the users in turn, so a
+ * user with many requests does not delay the requests of the other users.
+ *
+ * @author INSER SA
+ */
+public class FairScheduler {
+
+    /**
+     * The lock protecting the state.
+     */
+    private final ReentrantLock iLock = new ReentrantLock();
+
+    /**
+     * Number of available permits.
+     */
+    private int iAvailable;
+
+    /**
+     * The waiting requests by user.
+     */
+    private final Map<String, Deque<Waiter>> iWaiters = new HashMap<>();
+
+    /**
+     * The users with waiting requests, in the order they get the next permits.
+     */
+    private final Deque<String> iTurns = new ArrayDeque<>();
+
+    /**
+     * Constructor
+     *
+     * @param aPermits
+     *            the maximum number of concurrent requests
+     */
+    public FairScheduler(int aPermits) {
+        iAvailable = aPermits;
+    }
+
+    /**
+     * Get a permit, waiting for the turn of the user if all the permits are used. The permit must be released with
+     * {@link #release()}.
+     *
+     * @param aUser
+     *            the user
+     * @param aTimeout
+     *            the maximum time to wait in milliseconds
+     * @return <code>true</code> if a permit was given, <code>false</code> after the timeout
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting, no permit is then held
+     */
+    public boolean acquire(String aUser, long aTimeout) throws InterruptedException {
+        iLock.lock();
+        try {
+            if (iAvailable > 0 && iTurns.isEmpty()) {
+                iAvailable--;
+                return true;
+            }
+
+            Waiter waiter = new Waiter(iLock.newCondition());
+            Deque<Waiter> userWaiters = iWaiters.computeIfAbsent(aUser, k -> new ArrayDeque<>());
+            if (userWaiters.isEmpty()) {
+                iTurns.addLast(aUser);
+            }
+            userWaiters.addLast(waiter);
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(aTimeout);
+            try {
+                while (!waiter.iGranted && remaining > 0) {
+                    remaining = waiter.iCondition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.iGranted) {
+                    // The permit was given just before the interruption, pass it on
+                    release();
+                }
+                throw e;
+            } finally {
+                if (!waiter.iGranted) {
+                    removeWaiter(aUser, waiter);
+                }
+            }
+            return waiter.iGranted;
+        } finally {
+            iLock.unlock();
+        }
+    }
+
+    /**
+     * Release a permit, given to the next user waiting.
+     */
+    public void release() {
+        iLock.lock();
+        try {
+            String user = iTurns.pollFirst();
+            if (user == null) {
+                iAvailable++;
+                return;
+            }
+            Deque<Waiter> userWaiters = iWaiters.get(user);
+            Waiter waiter = userWaiters.pollFirst();
+            if (userWaiters.isEmpty()) {
+                iWaiters.remove(user);
+            } else {
+                iTurns.addLast(user);
+            }
+            waiter.iGranted = true;
+            waiter.iCondition.signal();
+        } finally {
+            iLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a waiter which gave up.
+     *
+     * @param aUser
+     *            the user
+     * @param aWaiter
+     *            the waiter
+     */
+    private void removeWaiter(String aUser, Waiter aWaiter) {
+        Deque<Waiter> userWaiters = iWaiters.get(aUser);
+        userWaiters.remove(aWaiter);
+        if (userWaiters.isEmpty()) {
+            iWaiters.remove(aUser);
+            iTurns.remove(aUser);
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for a permit
+     */
+    public int getWaiting() {
+        iLock.lock();
+        try {
+            int waiting = 0;
+            for (Deque<Waiter> userWaiters : iWaiters.values()) {
+                waiting += userWaiters.size();
+            }
+            return waiting;
+        } finally {
+            iLock.unlock();
+        }
+    }
+
+    /**
+     * A waiting request.
+     */
+    private static class Waiter {
+
+        /**
+         * The condition signaled when the permit is given.
+         */
+        private final Condition iCondition;
+
+        /**
+         * <code>true</code> when the permit is given.
+         */
+        private boolean iGranted;
+
+        /**
+         * Constructor
+         *
+         * @param aCondition
+         *            the condition signaled when the permit is given
+         */
+        private Waiter(Condition aCondition) {
+            iCondition = aCondition;
+        }
+    }
+}
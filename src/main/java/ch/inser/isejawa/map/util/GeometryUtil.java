@@ -0,0 +1,623 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonGenerator;
+
+/**
+ * Utilities to work on ArcGIS JSON geometries (points, multipoints, polylines, polygons and envelopes).
+ *
+ * @author INSER SA
+ */
+public class GeometryUtil {
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private GeometryUtil() {
+    }
+
+    /**
+     * Get the envelope of a geometry.
+     *
+     * @param aGeometry
+     *            the geometry: {x: .., y: ..}, {points: [..]}, {paths: [..]}, {rings: [..]} or {xmin: .., ymin: .., xmax: .., ymax: ..}
+     * @return the envelope as {xmin, ymin, xmax, ymax} or <code>null</code> if the geometry is empty
+     */
+    public static double[] getEnvelope(JsonObject aGeometry) {
+        if (aGeometry == null) {
+            return null;
+        }
+        if (aGeometry.containsKey("xmin")) {
+            if (aGeometry.isNull("xmin")) {
+                return null;
+            }
+            return new double[] { aGeometry.getJsonNumber("xmin").doubleValue(), aGeometry.getJsonNumber("ymin").doubleValue(),
+                    aGeometry.getJsonNumber("xmax").doubleValue(), aGeometry.getJsonNumber("ymax").doubleValue() };
+        }
+        if (aGeometry.containsKey("x")) {
+            if (aGeometry.isNull("x")) {
+                return null;
+            }
+            double x = aGeometry.getJsonNumber("x").doubleValue();
+            double y = aGeometry.getJsonNumber("y").doubleValue();
+            return new double[] { x, y, x, y };
+        }
+
+        double[] envelope = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+        if (aGeometry.containsKey("points")) {
+            expand(envelope, aGeometry.getJsonArray("points"));
+        }
+        for (String partsName : new String[] { "paths", "rings" }) {
+            if (aGeometry.containsKey(partsName)) {
+                for (JsonValue part : aGeometry.getJsonArray(partsName)) {
+                    expand(envelope, part.asJsonArray());
+                }
+            }
+        }
+        return envelope[0] <= envelope[2] ? envelope : null;
+    }
+
+    /**
+     * Expand an envelope with the coordinates of a list of points.
+     *
+     * @param aEnvelope
+     *            the envelope as {xmin, ymin, xmax, ymax}
+     * @param aPoints
+     *            the points: [[x, y], ...]
+     */
+    private static void expand(double[] aEnvelope, JsonArray aPoints) {
+        for (JsonValue point : aPoints) {
+            JsonArray coordinates = point.asJsonArray();
+            double x = coordinates.getJsonNumber(0).doubleValue();
+            double y = coordinates.getJsonNumber(1).doubleValue();
+            aEnvelope[0] = Math.min(aEnvelope[0], x);
+            aEnvelope[1] = Math.min(aEnvelope[1], y);
+            aEnvelope[2] = Math.max(aEnvelope[2], x);
+            aEnvelope[3] = Math.max(aEnvelope[3], y);
+        }
+    }
+
+    /**
+     * Check if two envelopes intersect.
+     *
+     * @param aEnvelope1
+     *            the first envelope as {xmin, ymin, xmax, ymax}
+     * @param aEnvelope2
+     *            the second envelope as {xmin, ymin, xmax, ymax}
+     * @return <code>true</code> if the envelopes intersect
+     */
+    public static boolean intersects(double[] aEnvelope1, double[] aEnvelope2) {
+        return aEnvelope1[0] <= aEnvelope2[2] && aEnvelope2[0] <= aEnvelope1[2] && aEnvelope1[1] <= aEnvelope2[3]
+                && aEnvelope2[1] <= aEnvelope1[3];
+    }
+
+    /**
+     * Get an envelope as an ArcGIS envelope geometry, for example for the <code>geometry</code> parameter of a query.
+     *
+     * @param aEnvelope
+     *            the envelope as {xmin, ymin, xmax, ymax}
+     * @return the envelope geometry: {xmin: .., ymin: .., xmax: .., ymax: ..}
+     */
+    public static JsonObject toEnvelope(double[] aEnvelope) {
+        return Json.createObjectBuilder().add("xmin", aEnvelope[0]).add("ymin", aEnvelope[1]).add("xmax", aEnvelope[2])
+                .add("ymax", aEnvelope[3]).build();
+    }
+
+    /**
+     * Check if two geometries intersect (share at least one point), like the <code>esriSpatialRelIntersects</code> relation of the
+     * queries. The coordinates of both geometries must be in the same spatial reference.
+     *
+     * @param aGeometry1
+     *            the first geometry: point, multipoint, polyline, polygon or envelope
+     * @param aGeometry2
+     *            the second geometry: point, multipoint, polyline, polygon or envelope
+     * @return <code>true</code> if the geometries intersect, <code>false</code> if they don't or one of them is empty
+     */
+    public static boolean intersects(JsonObject aGeometry1, JsonObject aGeometry2) {
+        double[] envelope1 = getEnvelope(aGeometry1);
+        double[] envelope2 = getEnvelope(aGeometry2);
+        if (envelope1 == null || envelope2 == null || !intersects(envelope1, envelope2)) {
+            return false;
+        }
+        List<double[]> parts1 = getParts(aGeometry1);
+        List<double[]> parts2 = getParts(aGeometry2);
+        boolean area1 = aGeometry1.containsKey("rings") || aGeometry1.containsKey("xmin");
+        boolean area2 = aGeometry2.containsKey("rings") || aGeometry2.containsKey("xmin");
+
+        // A boundary or a vertex of one geometry touches the other
+        for (double[] part1 : parts1) {
+            for (double[] part2 : parts2) {
+                if (partsIntersect(part1, area1, part2, area2)) {
+                    return true;
+                }
+            }
+        }
+
+        // Without crossing, a part intersects a polygon only if it is inside
+        return area2 && anyInside(parts1, parts2) || area1 && anyInside(parts2, parts1);
+    }
+
+    /**
+     * Check if a part is inside a polygon, knowing that no part crosses the polygon boundary: a part is inside if its first point is.
+     *
+     * @param aParts
+     *            the coordinates of the parts
+     * @param aRings
+     *            the coordinates of the rings of the polygon
+     * @return <code>true</code> if a part is inside the polygon
+     */
+    private static boolean anyInside(List<double[]> aParts, List<double[]> aRings) {
+        for (double[] part : aParts) {
+            if (part.length >= 2 && contains(aRings, part[0], part[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the parts of a geometry as arrays of coordinates {x0, y0, x1, y1, ...}: one part by point, path or ring.
+     *
+     * @param aGeometry
+     *            the geometry
+     * @return the parts
+     */
+    private static List<double[]> getParts(JsonObject aGeometry) {
+        List<double[]> parts = new ArrayList<>();
+        if (aGeometry.containsKey("xmin")) {
+            double[] envelope = getEnvelope(aGeometry);
+            parts.add(new double[] { envelope[0], envelope[1], envelope[0], envelope[3], envelope[2], envelope[3], envelope[2],
+                    envelope[1], envelope[0], envelope[1] });
+        } else if (aGeometry.containsKey("x")) {
+            parts.add(new double[] { aGeometry.getJsonNumber("x").doubleValue(), aGeometry.getJsonNumber("y").doubleValue() });
+        } else {
+            if (aGeometry.containsKey("points")) {
+                for (JsonValue point : aGeometry.getJsonArray("points")) {
+                    parts.add(toCoordinates(Json.createArrayBuilder().add(point).build()));
+                }
+            }
+            for (String partsName : new String[] { "paths", "rings" }) {
+                if (aGeometry.containsKey(partsName)) {
+                    for (JsonValue part : aGeometry.getJsonArray(partsName)) {
+                        parts.add(toCoordinates(part.asJsonArray()));
+                    }
+                }
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Convert a list of points to an array of coordinates.
+     *
+     * @param aPoints
+     *            the points: [[x, y], ...]
+     * @return the coordinates: {x0, y0, x1, y1, ...}
+     */
+    private static double[] toCoordinates(JsonArray aPoints) {
+        double[] coordinates = new double[aPoints.size() * 2];
+        for (int i = 0; i < aPoints.size(); i++) {
+            JsonArray point = aPoints.getJsonArray(i);
+            coordinates[2 * i] = point.getJsonNumber(0).doubleValue();
+            coordinates[2 * i + 1] = point.getJsonNumber(1).doubleValue();
+        }
+        return coordinates;
+    }
+
+    /**
+     * Check if two parts have intersecting segments. A part of a single point is a segment of length 0, a ring is closed.
+     *
+     * @param aPart1
+     *            the coordinates of the first part
+     * @param aRing1
+     *            <code>true</code> if the first part is a ring
+     * @param aPart2
+     *            the coordinates of the second part
+     * @param aRing2
+     *            <code>true</code> if the second part is a ring
+     * @return <code>true</code> if a segment of the first part intersects a segment of the second part
+     */
+    private static boolean partsIntersect(double[] aPart1, boolean aRing1, double[] aPart2, boolean aRing2) {
+        int segments1 = getSegmentCount(aPart1, aRing1);
+        int segments2 = getSegmentCount(aPart2, aRing2);
+        for (int i = 0; i < segments1; i++) {
+            int i2 = (2 * i + 2) % aPart1.length;
+            double ax = aPart1[2 * i];
+            double ay = aPart1[2 * i + 1];
+            double bx = aPart1[i2];
+            double by = aPart1[i2 + 1];
+            for (int j = 0; j < segments2; j++) {
+                int j2 = (2 * j + 2) % aPart2.length;
+                if (segmentsIntersect(ax, ay, bx, by, aPart2[2 * j], aPart2[2 * j + 1], aPart2[j2], aPart2[j2 + 1])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of segments of a part.
+     *
+     * @param aPart
+     *            the coordinates of the part
+     * @param aRing
+     *            <code>true</code> if the part is a ring, closed by a segment from the last point to the first one
+     * @return the number of segments, 1 for a single point
+     */
+    private static int getSegmentCount(double[] aPart, boolean aRing) {
+        int points = aPart.length / 2;
+        return points <= 1 || aRing ? points : points - 1;
+    }
+
+    /**
+     * Check if two segments intersect, including when they touch or overlap.
+     *
+     * @param aAx
+     *            x of the start of the first segment
+     * @param aAy
+     *            y of the start of the first segment
+     * @param aBx
+     *            x of the end of the first segment
+     * @param aBy
+     *            y of the end of the first segment
+     * @param aCx
+     *            x of the start of the second segment
+     * @param aCy
+     *            y of the start of the second segment
+     * @param aDx
+     *            x of the end of the second segment
+     * @param aDy
+     *            y of the end of the second segment
+     * @return <code>true</code> if the segments intersect
+     */
+    private static boolean segmentsIntersect(double aAx, double aAy, double aBx, double aBy, double aCx, double aCy, double aDx,
+            double aDy) {
+        if (Math.max(aAx, aBx) < Math.min(aCx, aDx) || Math.max(aCx, aDx) < Math.min(aAx, aBx) || Math.max(aAy, aBy) < Math.min(aCy, aDy)
+                || Math.max(aCy, aDy) < Math.min(aAy, aBy)) {
+            return false;
+        }
+        double d1 = Math.signum(cross(aCx, aCy, aDx, aDy, aAx, aAy));
+        double d2 = Math.signum(cross(aCx, aCy, aDx, aDy, aBx, aBy));
+        double d3 = Math.signum(cross(aAx, aAy, aBx, aBy, aCx, aCy));
+        double d4 = Math.signum(cross(aAx, aAy, aBx, aBy, aDx, aDy));
+        if (d1 * d2 < 0 && d3 * d4 < 0) {
+            return true;
+        }
+        // Touching or collinear: the bounding boxes overlap, so an end point on the line of the other segment lies on it
+        return d1 == 0 && onSegment(aCx, aCy, aDx, aDy, aAx, aAy) || d2 == 0 && onSegment(aCx, aCy, aDx, aDy, aBx, aBy)
+                || d3 == 0 && onSegment(aAx, aAy, aBx, aBy, aCx, aCy) || d4 == 0 && onSegment(aAx, aAy, aBx, aBy, aDx, aDy);
+    }
+
+    /**
+     * Cross product of (B - A) and (P - A): positive if P is on the left of AB, negative on the right, 0 on the line.
+     *
+     * @param aAx
+     *            x of A
+     * @param aAy
+     *            y of A
+     * @param aBx
+     *            x of B
+     * @param aBy
+     *            y of B
+     * @param aPx
+     *            x of P
+     * @param aPy
+     *            y of P
+     * @return the cross product
+     */
+    private static double cross(double aAx, double aAy, double aBx, double aBy, double aPx, double aPy) {
+        return (aBx - aAx) * (aPy - aAy) - (aBy - aAy) * (aPx - aAx);
+    }
+
+    /**
+     * Check if a point on the line of a segment lies on the segment.
+     *
+     * @param aAx
+     *            x of the start of the segment
+     * @param aAy
+     *            y of the start of the segment
+     * @param aBx
+     *            x of the end of the segment
+     * @param aBy
+     *            y of the end of the segment
+     * @param aPx
+     *            x of the point
+     * @param aPy
+     *            y of the point
+     * @return <code>true</code> if the point is between the ends of the segment
+     */
+    private static boolean onSegment(double aAx, double aAy, double aBx, double aBy, double aPx, double aPy) {
+        return aPx >= Math.min(aAx, aBx) && aPx <= Math.max(aAx, aBx) && aPy >= Math.min(aAy, aBy) && aPy <= Math.max(aAy, aBy);
+    }
+
+    /**
+     * Check if a point is inside a polygon, with the even-odd rule so the holes are excluded whatever the orientation of the rings.
+     *
+     * @param aRings
+     *            the coordinates of the rings
+     * @param aX
+     *            x of the point
+     * @param aY
+     *            y of the point
+     * @return <code>true</code> if the point is inside
+     */
+    private static boolean contains(List<double[]> aRings, double aX, double aY) {
+        boolean inside = false;
+        for (double[] ring : aRings) {
+            int points = ring.length / 2;
+            for (int i = 0, j = points - 1; i < points; j = i++) {
+                double xi = ring[2 * i];
+                double yi = ring[2 * i + 1];
+                double xj = ring[2 * j];
+                double yj = ring[2 * j + 1];
+                if (yi > aY != yj > aY && aX < (xj - xi) * (aY - yi) / (yj - yi) + xi) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Write a geometry in GeoJSON, see https://datatracker.ietf.org/doc/html/rfc7946. The polygons are split in outer rings (clockwise
+     * in ArcGIS) with their holes, a polygon with several outer rings is written as a MultiPolygon.
+     *
+     * @param aGeometry
+     *            the ArcGIS geometry, can be <code>null</code>
+     * @param aGenerator
+     *            the generator, positioned where the geometry value is expected
+     */
+    public static void writeGeoJson(JsonObject aGeometry, JsonGenerator aGenerator) {
+        if (aGeometry == null || aGeometry.isEmpty()) {
+            aGenerator.writeNull();
+            return;
+        }
+        aGenerator.writeStartObject();
+        if (aGeometry.containsKey("x")) {
+            aGenerator.write("type", "Point").writeStartArray("coordinates");
+            aGenerator.write(aGeometry.getJsonNumber("x").doubleValue()).write(aGeometry.getJsonNumber("y").doubleValue());
+            aGenerator.writeEnd();
+        } else if (aGeometry.containsKey("points")) {
+            aGenerator.write("type", "MultiPoint").writeKey("coordinates");
+            writePositions(aGeometry.getJsonArray("points"), false, aGenerator);
+        } else if (aGeometry.containsKey("paths")) {
+            JsonArray paths = aGeometry.getJsonArray("paths");
+            if (paths.size() == 1) {
+                aGenerator.write("type", "LineString").writeKey("coordinates");
+                writePositions(paths.getJsonArray(0), false, aGenerator);
+            } else {
+                aGenerator.write("type", "MultiLineString").writeStartArray("coordinates");
+                for (JsonValue path : paths) {
+                    writePositions(path.asJsonArray(), false, aGenerator);
+                }
+                aGenerator.writeEnd();
+            }
+        } else if (aGeometry.containsKey("rings")) {
+            List<List<JsonArray>> polygons = getPolygons(aGeometry.getJsonArray("rings"));
+            if (polygons.size() == 1) {
+                aGenerator.write("type", "Polygon").writeKey("coordinates");
+                writeRings(polygons.get(0), aGenerator);
+            } else {
+                aGenerator.write("type", "MultiPolygon").writeStartArray("coordinates");
+                for (List<JsonArray> polygon : polygons) {
+                    writeRings(polygon, aGenerator);
+                }
+                aGenerator.writeEnd();
+            }
+        } else if (aGeometry.containsKey("xmin")) {
+            double[] envelope = getEnvelope(aGeometry);
+            aGenerator.write("type", "Polygon").writeStartArray("coordinates").writeStartArray();
+            double[][] corners = { { envelope[0], envelope[1] }, { envelope[2], envelope[1] }, { envelope[2], envelope[3] },
+                    { envelope[0], envelope[3] }, { envelope[0], envelope[1] } };
+            for (double[] corner : corners) {
+                aGenerator.writeStartArray().write(corner[0]).write(corner[1]).writeEnd();
+            }
+            aGenerator.writeEnd().writeEnd();
+        }
+        aGenerator.writeEnd();
+    }
+
+    /**
+     * Group the rings of an ArcGIS polygon: each outer ring (clockwise) with its holes (counterclockwise). A hole belongs to the
+     * smallest outer ring containing it, whatever the order of the rings; a hole in no outer ring belongs to the outer ring before it.
+     *
+     * @param aRings
+     *            the rings
+     * @return the polygons, each one as its outer ring followed by its holes
+     */
+    private static List<List<JsonArray>> getPolygons(JsonArray aRings) {
+        // Without clockwise ring, the first ring is the outer ring
+        boolean noOuter = true;
+        for (JsonValue value : aRings) {
+            noOuter = noOuter && getSignedArea(value.asJsonArray()) > 0;
+        }
+
+        List<List<JsonArray>> polygons = new ArrayList<>();
+        List<double[]> outerRings = new ArrayList<>();
+        List<Double> outerAreas = new ArrayList<>();
+        List<JsonArray> holes = new ArrayList<>();
+        List<Integer> previousOuters = new ArrayList<>();
+        for (JsonValue value : aRings) {
+            JsonArray ring = value.asJsonArray();
+            double area = getSignedArea(ring);
+            if (area <= 0 || noOuter && polygons.isEmpty()) {
+                polygons.add(new ArrayList<>(Collections.singletonList(ring)));
+                outerRings.add(toCoordinates(ring));
+                outerAreas.add(Math.abs(area));
+            } else {
+                holes.add(ring);
+                previousOuters.add(Math.max(0, polygons.size() - 1));
+            }
+        }
+
+        for (int i = 0; i < holes.size(); i++) {
+            JsonArray hole = holes.get(i);
+            int outer = previousOuters.get(i);
+            double outerArea = Double.MAX_VALUE;
+            if (!hole.isEmpty()) {
+                double x = hole.getJsonArray(0).getJsonNumber(0).doubleValue();
+                double y = hole.getJsonArray(0).getJsonNumber(1).doubleValue();
+                for (int j = 0; j < outerRings.size(); j++) {
+                    if (outerAreas.get(j) < outerArea && contains(Collections.singletonList(outerRings.get(j)), x, y)) {
+                        outer = j;
+                        outerArea = outerAreas.get(j);
+                    }
+                }
+            }
+            polygons.get(outer).add(hole);
+        }
+        return polygons;
+    }
+
+    /**
+     * Write the rings of a polygon in GeoJSON, reversed to follow the right-hand rule (outer rings counterclockwise).
+     *
+     * @param aRings
+     *            the outer ring followed by its holes
+     * @param aGenerator
+     *            the generator
+     */
+    private static void writeRings(List<JsonArray> aRings, JsonGenerator aGenerator) {
+        aGenerator.writeStartArray();
+        for (JsonArray ring : aRings) {
+            writePositions(ring, true, aGenerator);
+        }
+        aGenerator.writeEnd();
+    }
+
+    /**
+     * Write a list of positions in GeoJSON.
+     *
+     * @param aPoints
+     *            the points: [[x, y], ...]
+     * @param aReverse
+     *            <code>true</code> to write the points in reverse order
+     * @param aGenerator
+     *            the generator
+     */
+    private static void writePositions(JsonArray aPoints, boolean aReverse, JsonGenerator aGenerator) {
+        aGenerator.writeStartArray();
+        int size = aPoints.size();
+        for (int i = 0; i < size; i++) {
+            JsonArray coordinates = aPoints.getJsonArray(aReverse ? size - 1 - i : i);
+            aGenerator.writeStartArray().write(coordinates.getJsonNumber(0).doubleValue())
+                    .write(coordinates.getJsonNumber(1).doubleValue()).writeEnd();
+        }
+        aGenerator.writeEnd();
+    }
+
+    /**
+     * Compute the signed area of a ring (shoelace formula).
+     *
+     * @param aRing
+     *            the ring: [[x, y], ...]
+     * @return the area, positive if the ring is counterclockwise, negative if it is clockwise
+     */
+    public static double getSignedArea(JsonArray aRing) {
+        double area = 0;
+        int size = aRing.size();
+        for (int i = 0; i < size; i++) {
+            JsonArray point = aRing.getJsonArray(i);
+            JsonArray next = aRing.getJsonArray((i + 1) % size);
+            area += point.getJsonNumber(0).doubleValue() * next.getJsonNumber(1).doubleValue()
+                    - next.getJsonNumber(0).doubleValue() * point.getJsonNumber(1).doubleValue();
+        }
+        return area / 2;
+    }
+
+    /**
+     * Convert a GeoJSON geometry to an ArcGIS geometry. The polygon rings are oriented as expected by ArcGIS: outer rings clockwise and
+     * holes counterclockwise.
+     *
+     * @param aGeoJson
+     *            the GeoJSON geometry, can be <code>null</code>
+     * @param aWkid
+     *            the spatial reference of the coordinates (4326 for GeoJSON files following RFC 7946)
+     * @return the ArcGIS geometry or <code>null</code> if there is no geometry
+     */
+    public static JsonObject toEsriGeometry(JsonObject aGeoJson, int aWkid) {
+        if (aGeoJson == null) {
+            return null;
+        }
+        JsonArray coordinates = aGeoJson.getJsonArray("coordinates");
+        JsonObjectBuilder geometry = Json.createObjectBuilder();
+        switch (aGeoJson.getString("type")) {
+            case "Point":
+                geometry.add("x", coordinates.get(0)).add("y", coordinates.get(1));
+                break;
+            case "MultiPoint":
+                geometry.add("points", coordinates);
+                break;
+            case "LineString":
+                geometry.add("paths", Json.createArrayBuilder().add(coordinates));
+                break;
+            case "MultiLineString":
+                geometry.add("paths", coordinates);
+                break;
+            case "Polygon":
+                geometry.add("rings", addRings(Json.createArrayBuilder(), coordinates));
+                break;
+            case "MultiPolygon":
+                JsonArrayBuilder rings = Json.createArrayBuilder();
+                for (JsonValue polygon : coordinates) {
+                    addRings(rings, polygon.asJsonArray());
+                }
+                geometry.add("rings", rings);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported GeoJSON geometry: " + aGeoJson.getString("type"));
+        }
+        return geometry.add("spatialReference", Json.createObjectBuilder().add("wkid", aWkid)).build();
+    }
+
+    /**
+     * Add the rings of a GeoJSON polygon, the first ring made clockwise and the next ones (holes) counterclockwise.
+     *
+     * @param aRings
+     *            the ArcGIS rings to complete
+     * @param aPolygon
+     *            the rings of the GeoJSON polygon
+     * @return the ArcGIS rings
+     */
+    private static JsonArrayBuilder addRings(JsonArrayBuilder aRings, JsonArray aPolygon) {
+        for (int i = 0; i < aPolygon.size(); i++) {
+            JsonArray ring = aPolygon.getJsonArray(i);
+            boolean clockwise = getSignedArea(ring) < 0;
+            if (clockwise == (i == 0)) {
+                aRings.add(ring);
+            } else {
+                JsonArrayBuilder reversed = Json.createArrayBuilder();
+                for (int j = ring.size() - 1; j >= 0; j--) {
+                    reversed.add(ring.get(j));
+                }
+                aRings.add(reversed);
+            }
+        }
+        return aRings;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.dynamic.common.IContextManager;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+
+/**
+ * Map configuration file, given by the "map.config.file" property. The file is parsed once and parsed again only when it is modified.
+ * The entries read only by the server (the warm-up, with its hosts and referer) are removed from the configuration sent to the
+ * clients.
+ *
+ * @author INSER SA
+ */
+public class MapConfiguration {
+
+    /**
+     * The logger.
+     */
+    private static final Log logger = LogFactory.getLog(MapConfiguration.class);
+
+    /**
+     * The entries of the configuration read only by the server.
+     */
+    private static final String[] SERVER_ENTRIES = { "warmup" };
+
+    /**
+     * The last parsed configuration.
+     */
+    private static volatile Loaded lastLoaded;
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private MapConfiguration() {
+    }
+
+    /**
+     * Get the map configuration.
+     *
+     * @param aContextManager
+     *            the context manager to retrieve the "map.config.file" property
+     * @return the map configuration
+     * @throws IOException
+     *             if the configuration file can't be read
+     */
+    public static JsonObject get(IContextManager aContextManager) throws IOException {
+        return load(aContextManager).iConfiguration;
+    }
+
+    /**
+     * Get the map configuration to send to the clients, without the entries read only by the server.
+     *
+     * @param aContextManager
+     *            the context manager to retrieve the "map.config.file" property
+     * @return the map configuration of the clients
+     * @throws IOException
+     *             if the configuration file can't be read
+     */
+    public static JsonObject getClient(IContextManager aContextManager) throws IOException {
+        return load(aContextManager).iClientConfiguration;
+    }
+
+    /**
+     * Get the parsed configuration file, parsing it if it was modified.
+     *
+     * @param aContextManager
+     *            the context manager to retrieve the "map.config.file" property
+     * @return the parsed configuration
+     * @throws IOException
+     *             if the configuration file can't be read
+     */
+    private static Loaded load(IContextManager aContextManager) throws IOException {
+        Path file = Paths.get(aContextManager.getProperty("map.config.file"));
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+        Loaded loaded = lastLoaded;
+        if (loaded != null && loaded.iFile.equals(file) && loaded.iLastModified == lastModified) {
+            return loaded;
+        }
+
+        logger.debug("get: parse the map configuration " + file);
+        try (JsonReader jsonReader = Json.createReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            loaded = new Loaded(file, lastModified, jsonReader.readObject());
+        }
+        lastLoaded = loaded;
+        return loaded;
+    }
+
+    /**
+     * A parsed configuration file.
+     */
+    private static class Loaded {
+
+        /**
+         * The configuration file.
+         */
+        private final Path iFile;
+
+        /**
+         * The modification time of the file when it was parsed.
+         */
+        private final long iLastModified;
+
+        /**
+         * The configuration.
+         */
+        private final JsonObject iConfiguration;
+
+        /**
+         * The configuration of the clients.
+         */
+        private final JsonObject iClientConfiguration;
+
+        /**
+         * Constructor
+         *
+         * @param aFile
+         *            the configuration file
+         * @param aLastModified
+         *            the modification time of the file when it was parsed
+         * @param aConfiguration
+         *            the configuration
+         */
+        private Loaded(Path aFile, long aLastModified, JsonObject aConfiguration) {
+            iFile = aFile;
+            iLastModified = aLastModified;
+            iConfiguration = aConfiguration;
+            JsonObjectBuilder client = Json.createObjectBuilder(aConfiguration);
+            for (String entry : SERVER_ENTRIES) {
+                client.remove(entry);
+            }
+            iClientConfiguration = client.build();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rate limiter with a token bucket by key (user, service, ...). Each bucket holds at most <code>burst</code> tokens and is refilled with
+ * <code>rate</code> tokens by second, a request takes one token.
+ *
+ * @author INSER SA
+ */
+public class RateLimiter {
+
+    /**
+     * Number of buckets above which the full buckets are removed.
+     */
+    private static final int CLEANUP_SIZE = 10_000;
+
+    /**
+     * Number of tokens added by millisecond.
+     */
+    private final double iRatePerMilli;
+
+    /**
+     * Maximum number of tokens of a bucket.
+     */
+    private final double iBurst;
+
+    /**
+     * The buckets by key.
+     */
+    private final Map<String, Bucket> iBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param aRate
+     *            number of requests allowed by second
+     * @param aBurst
+     *            number of requests allowed at once
+     * @throws IllegalArgumentException
+     *             if the rate is not positive or the burst is less than 1
+     */
+    public RateLimiter(double aRate, int aBurst) {
+        if (!(aRate > 0) || aBurst < 1) {
+            throw new IllegalArgumentException(String.format("Invalid rate limit: rate=%s burst=%s", aRate, aBurst));
+        }
+        iRatePerMilli = aRate / 1000;
+        iBurst = aBurst;
+    }
+
+    /**
+     * Take a token from the bucket of a key.
+     *
+     * @param aKey
+     *            the key
+     * @return 0 if the request is allowed, else the time in milliseconds until a token is available
+     */
+    public long tryAcquire(String aKey) {
+        if (iBuckets.size() > CLEANUP_SIZE) {
+            long now = System.currentTimeMillis();
+            iBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+        return iBuckets.computeIfAbsent(aKey, k -> new Bucket()).tryAcquire(System.currentTimeMillis());
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(String)}, for a request rejected by another limit.
+     *
+     * @param aKey
+     *            the key
+     */
+    public void release(String aKey) {
+        Bucket bucket = iBuckets.get(aKey);
+        if (bucket != null) {
+            bucket.release(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Token bucket of a key.
+     */
+    private class Bucket {
+
+        /**
+         * Number of tokens at the last update.
+         */
+        private double iTokens = iBurst;
+
+        /**
+         * Time of the last update in milliseconds since the epoch.
+         */
+        private long iUpdated = System.currentTimeMillis();
+
+        /**
+         * Take a token.
+         *
+         * @param aNow
+         *            the current time in milliseconds since the epoch
+         * @return 0 if a token was taken, else the time in milliseconds until a token is available
+         */
+        synchronized long tryAcquire(long aNow) {
+            refill(aNow);
+            if (iTokens >= 1) {
+                iTokens--;
+                return 0;
+            }
+            return (long) Math.ceil((1 - iTokens) / iRatePerMilli);
+        }
+
+        /**
+         * Give back a token.
+         *
+         * @param aNow
+         *            the current time in milliseconds since the epoch
+         */
+        synchronized void release(long aNow) {
+            refill(aNow);
+            iTokens = Math.min(iBurst, iTokens + 1);
+        }
+
+        /**
+         * Check if the bucket is full, so it can be removed without changing the limits.
+         *
+         * @param aNow
+         *            the current time in milliseconds since the epoch
+         * @return <code>true</code> if the bucket is full
+         */
+        synchronized boolean isFull(long aNow) {
+            refill(aNow);
+            return iTokens >= iBurst;
+        }
+
+        /**
+         * Add the tokens since the last update.
+         *
+         * @param aNow
+         *            the current time in milliseconds since the epoch
+         */
+        private void refill(long aNow) {
+            iTokens = Math.min(iBurst, iTokens + (aNow - iUpdated) * iRatePerMilli);
+            iUpdated = aNow;
+        }
+    }
+}
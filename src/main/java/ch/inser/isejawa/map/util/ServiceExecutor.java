@@ -0,0 +1,173 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.inser.isejawa.map.trace.Tracer;
+import ch.inser.jsl.exceptions.ISException;
+
+/**
+ * Shared thread pools to run the calls to the ArcGIS servers concurrently: one for the short calls and one for the long-running
+ * downloads, so that a few exports do not block the other requests.
+ *
+ * @author INSER SA
+ */
+public class ServiceExecutor {
+
+    /**
+     * Maximum number of threads calling the ArcGIS servers at the same time.
+     */
+    private static final int MAX_THREADS = 32;
+
+    /**
+     * Maximum number of long-running downloads at the same time, the next ones wait for a free thread.
+     */
+    private static final int MAX_STREAM_THREADS = 8;
+
+    /**
+     * Thread counter, used for the thread names.
+     */
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * The executor.
+     */
+    private static final ExecutorService EXECUTOR = createExecutor("is-map-upstream-", MAX_THREADS);
+
+    /**
+     * The executor of the long-running downloads.
+     */
+    private static final ExecutorService STREAM_EXECUTOR = createExecutor("is-map-stream-", MAX_STREAM_THREADS);
+
+    /**
+     * The scheduler of the background tasks (refreshes, ...).
+     */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "is-map-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Private constructor to hide the public one. All methods are static.
+     */
+    private ServiceExecutor() {
+    }
+
+    /**
+     * Create an executor. The threads are daemons and stop after one minute without work.
+     *
+     * @param aName
+     *            the prefix of the thread names
+     * @param aThreads
+     *            the maximum number of threads
+     * @return the executor
+     */
+    private static ExecutorService createExecutor(String aName, int aThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(aThreads, aThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, aName + THREAD_COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get the shared executor.
+     *
+     * @return the executor
+     */
+    public static ExecutorService getExecutor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Get the shared executor of the long-running downloads (exports, ...), limited to a few threads.
+     *
+     * @return the executor
+     */
+    public static ExecutorService getStreamExecutor() {
+        return STREAM_EXECUTOR;
+    }
+
+    /**
+     * Get the shared scheduler of the background tasks. The scheduled tasks must be short or hand over their work to the
+     * {@link #getExecutor() executor}.
+     *
+     * @return the scheduler
+     */
+    public static ScheduledExecutorService getScheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Run tasks concurrently and wait for all the results. A single task is run in the calling thread.
+     *
+     * @param <T>
+     *            the result type
+     * @param aTasks
+     *            the tasks
+     * @param aTimeout
+     *            the maximum time to wait for all the tasks in milliseconds
+     * @return the results in the order of the tasks
+     * @throws ISException
+     *             if a task fails, is interrupted or does not finish in time
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> aTasks, long aTimeout) throws ISException {
+        List<T> results = new ArrayList<>(aTasks.size());
+        try {
+            if (aTasks.size() == 1) {
+                results.add(aTasks.get(0).call());
+                return results;
+            }
+            // The tasks belong to the trace of the calling request
+            List<Callable<T>> tasks = new ArrayList<>(aTasks.size());
+            for (Callable<T> task : aTasks) {
+                tasks.add(Tracer.wrap(task));
+            }
+            for (Future<T> future : EXECUTOR.invokeAll(tasks, aTimeout, TimeUnit.MILLISECONDS)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ISException("Interrupted while calling the ArcGIS server", e);
+        } catch (CancellationException e) {
+            throw new ISException("Timeout while calling the ArcGIS server", e);
+        } catch (ExecutionException e) {
+            throw new ISException("Error while calling the ArcGIS server", e.getCause());
+        } catch (ISException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ISException("Error while calling the ArcGIS server", e);
+        }
+    }
+}
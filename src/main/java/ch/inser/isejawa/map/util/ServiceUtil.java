@@ -16,22 +16,25 @@
 package ch.inser.isejawa.map.util;
 
 import java.io.StringReader;
+import java.net.URI;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
 import ch.inser.jsl.exceptions.ISException;
 
 import jakarta.json.Json;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonReader;
-import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.Entity;
-import jakarta.ws.rs.client.WebTarget;
-import jakarta.ws.rs.core.Form;
-import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 
 /**
@@ -46,6 +49,36 @@ public class ServiceUtil {
      */
     private static final Log logger = LogFactory.getLog(ServiceUtil.class);
 
+    /**
+     * Name of the default service, prefix of the token properties.
+     */
+    public static final String DEFAULT_SERVICE = "map.service";
+
+    /**
+     * Token lifetime in minutes used by the ArcGIS servers when no expiration is requested.
+     */
+    private static final int DEFAULT_EXPIRATION = 60;
+
+    /**
+     * Time in milliseconds before the token expiration at which a cached token is renewed.
+     */
+    private static final long TOKEN_RENEWAL_MARGIN = 60_000;
+
+    /**
+     * Maximum number of cached tokens.
+     */
+    private static final int MAX_TOKENS = 1000;
+
+    /**
+     * The cached tokens by service, referer and client identification.
+     */
+    private static final TimedCache<String, JsonObject> TOKENS = new TimedCache<>(MAX_TOKENS);
+
+    /**
+     * The tokens being generated by cache key, so that a single caller generates a missing token while the others wait for it.
+     */
+    private static final Map<String, CompletableFuture<JsonObject>> TOKEN_LOADS = new ConcurrentHashMap<>();
+
     /**
      * Private constructor to hide the public one. All methods are static.
      */
@@ -74,16 +107,14 @@ public class ServiceUtil {
      */
     public static JsonObject getToken(String aTokenService, String aUsername, String aPassword, String aReferer, boolean aRequestIP,
             int aExpiration) throws ISException {
-        Client client = ch.inser.rest.util.ISClientBuilder.build();
-
-        WebTarget target = client.target(aTokenService).queryParam("f", "json");
+        String url = new FormData().param("f", "json").toUrl(aTokenService);
 
-        Form form = new Form().param("username", aUsername).param("password", aPassword);
+        FormData form = new FormData().param("username", aUsername).param("password", aPassword);
         form = aRequestIP ? form.param("client", "requestip") : form.param("referer", aReferer);
         form = aExpiration >= 0 ? form.param("expiration", Integer.toString(aExpiration)) : form;
 
-        logger.debug("getToken: request to: " + target.getUri());
-        Response response = target.request().post(Entity.form(form));
+        logger.debug("getToken: request to: " + url);
+        TransportResponse response = Transports.get().post(url, form);
         logger.debug("getToken: response HTTP code: " + response.getStatus());
 
         // Check the result
@@ -92,7 +123,7 @@ public class ServiceUtil {
             throw new ISException("Error getting a new token: " + response.getStatus());
         }
 
-        try (JsonReader reader = Json.createReader(new StringReader(response.readEntity(String.class)))) {
+        try (JsonReader reader = Json.createReader(new StringReader(response.getString()))) {
             return reader.readObject();
         }
     }
@@ -166,6 +197,141 @@ public class ServiceUtil {
                 getTimeout(aContextManager, aServiceName));
     }
 
+    /**
+     * Get a token for a given ArcGIS server, reusing a previously generated token until shortly before it expires. When the token
+     * is missing, a single caller generates it and the concurrent callers reuse it.
+     *
+     * The token is generated for the referer configured in the "servicename.token.referer" property, or else for the origin of the
+     * given referer (<code>https://host:port/</code>), so the clients can't fill the cache by varying their referer.
+     *
+     * @param aContextManager
+     *            the context manager to retrieve "servicename.token.service", "servicename.token.username" and "servicename.token.password"
+     *            properties
+     * @param aReferer
+     *            the referer the base URL of the client application that will use the token to access the ArcGIS server
+     * @param aServiceName
+     *            Name of service, used as prefix of the user/pwd properties, <code>null</code> for the default service
+     * @param aRequestIP
+     *            <code>true</code> to use the <code>requestip</code> client identification instead of <code>referer</code>, more
+     *            information on https://developers.arcgis.com/rest/services-reference/generate-token.htm
+     * @return the token token generated in exchange for user credentials
+     * @throws ISException
+     *             if the token can't be generated from the token service
+     */
+    public static JsonObject getCachedToken(IContextManager aContextManager, String aReferer, String aServiceName, boolean aRequestIP)
+            throws ISException {
+        String serviceName = aServiceName == null ? DEFAULT_SERVICE : aServiceName;
+        String referer = aRequestIP ? null : getReferer(aContextManager, serviceName, aReferer);
+        String key = serviceName + "|" + (aRequestIP ? "requestip" : referer);
+        JsonObject token = TOKENS.get(key);
+        if (token != null) {
+            return token;
+        }
+
+        CompletableFuture<JsonObject> load = new CompletableFuture<>();
+        CompletableFuture<JsonObject> running = TOKEN_LOADS.putIfAbsent(key, load);
+        if (running != null) {
+            return waitToken(running, serviceName);
+        }
+        try {
+            // Generated by another caller between the cache lookup and the registration of the load
+            token = TOKENS.get(key);
+            if (token == null) {
+                token = getToken(aContextManager, referer, serviceName, aRequestIP);
+                if (!token.containsKey("token")) {
+                    logger.warn("getCachedToken: no token in the response of the token service for " + serviceName);
+                } else if (!TOKENS.put(key, token, getExpiresAt(token, getTimeout(aContextManager, serviceName)) - TOKEN_RENEWAL_MARGIN)) {
+                    logger.warn("getCachedToken: token cache full, the token of " + serviceName + " is not cached");
+                }
+            }
+            load.complete(token);
+            return token;
+        } catch (ISException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            TOKEN_LOADS.remove(key, load);
+        }
+    }
+
+    /**
+     * Wait for a token generated by another caller.
+     *
+     * @param aLoad
+     *            the generation of the token
+     * @param aServiceName
+     *            the service name
+     * @return the token
+     * @throws ISException
+     *             if the generation failed or the thread is interrupted
+     */
+    private static JsonObject waitToken(CompletableFuture<JsonObject> aLoad, String aServiceName) throws ISException {
+        try {
+            return aLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ISException("Interrupted while waiting for the token of " + aServiceName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ISException) {
+                throw (ISException) e.getCause();
+            }
+            throw new ISException("Error getting a new token for " + aServiceName, e.getCause());
+        }
+    }
+
+    /**
+     * Get the referer for which the tokens of a service are generated.
+     *
+     * @param aContextManager
+     *            the context manager to retrieve the "servicename.token.referer" property
+     * @param aServiceName
+     *            the service name
+     * @param aReferer
+     *            the referer sent by the client
+     * @return the configured referer, or else the origin of the referer of the client, the referer itself if it is not a URL
+     */
+    static String getReferer(IContextManager aContextManager, String aServiceName, String aReferer) {
+        String referer = aContextManager.getProperty(aServiceName + ".token.referer");
+        if (referer != null && !referer.isEmpty()) {
+            return referer;
+        }
+        if (aReferer == null) {
+            return null;
+        }
+        try {
+            URI uri = URI.create(aReferer);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return aReferer;
+            }
+            return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() < 0 ? "" : ":" + uri.getPort()) + "/";
+        } catch (IllegalArgumentException e) {
+            return aReferer;
+        }
+    }
+
+    /**
+     * Remove the cached tokens, for example after a change of credentials.
+     */
+    public static void clearTokenCache() {
+        TOKENS.clear();
+    }
+
+    /**
+     * Get the expiration time of a token.
+     *
+     * @param aToken
+     *            the token returned by the token service
+     * @param aExpiration
+     *            the requested expiration in minutes or <code>-1</code> if none was requested
+     * @return the expiration time in milliseconds since the epoch
+     */
+    private static long getExpiresAt(JsonObject aToken, int aExpiration) {
+        if (aToken.containsKey("expires")) {
+            return aToken.getJsonNumber("expires").longValue();
+        }
+        return System.currentTimeMillis() + (aExpiration >= 0 ? aExpiration : DEFAULT_EXPIRATION) * 60_000L;
+    }
+
     /**
      * Get a token for a given ArcGIS server.
      *
@@ -0,0 +1,191 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Thread safe cache whose entries expire at a given time. The expired entries are removed when read, and every minute by the next
+ * put for the keys not read again. The number of entries can be bounded, a value is then not cached while the cache is full.
+ *
+ * @author INSER SA
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public class TimedCache<K, V> {
+
+    /**
+     * Interval in milliseconds between two removals of the expired entries.
+     */
+    private static final long PURGE_INTERVAL = 60_000;
+
+    /**
+     * The cached entries.
+     */
+    private final Map<K, Entry<V>> iEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of entries.
+     */
+    private final int iMaxSize;
+
+    /**
+     * Time of the next removal of the expired entries in milliseconds since the epoch.
+     */
+    private volatile long iNextPurge;
+
+    /**
+     * Constructor of an unbounded cache.
+     */
+    public TimedCache() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param aMaxSize
+     *            the maximum number of entries
+     */
+    public TimedCache(int aMaxSize) {
+        iMaxSize = aMaxSize;
+    }
+
+    /**
+     * Get a value from the cache.
+     *
+     * @param aKey
+     *            the key
+     * @return the value or <code>null</code> if not found or expired
+     */
+    public V get(K aKey) {
+        Entry<V> entry = iEntries.get(aKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.iExpiresAt <= System.currentTimeMillis()) {
+            iEntries.remove(aKey, entry);
+            return null;
+        }
+        return entry.iValue;
+    }
+
+    /**
+     * Put a value in the cache.
+     *
+     * @param aKey
+     *            the key
+     * @param aValue
+     *            the value
+     * @param aExpiresAt
+     *            the expiration time in milliseconds since the epoch
+     * @return <code>false</code> if the value was not cached because the cache is full
+     */
+    public boolean put(K aKey, V aValue, long aExpiresAt) {
+        long now = System.currentTimeMillis();
+        if (now >= iNextPurge) {
+            iNextPurge = now + PURGE_INTERVAL;
+            removeExpired();
+        }
+        if (iEntries.size() >= iMaxSize && !iEntries.containsKey(aKey)) {
+            removeExpired();
+            if (iEntries.size() >= iMaxSize) {
+                return false;
+            }
+        }
+        iEntries.put(aKey, new Entry<>(aValue, aExpiresAt));
+        return true;
+    }
+
+    /**
+     * Remove a value from the cache.
+     *
+     * @param aKey
+     *            the key
+     */
+    public void remove(K aKey) {
+        iEntries.remove(aKey);
+    }
+
+    /**
+     * Remove all the values whose key matches a predicate.
+     *
+     * @param aFilter
+     *            the key filter
+     */
+    public void removeIf(Predicate<K> aFilter) {
+        iEntries.keySet().removeIf(aFilter);
+    }
+
+    /**
+     * Remove the expired values, for the caches whose keys are not requested again once expired.
+     */
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        iEntries.values().removeIf(entry -> entry.iExpiresAt <= now);
+    }
+
+    /**
+     * @return the number of entries, including the expired ones not removed yet
+     */
+    public int size() {
+        return iEntries.size();
+    }
+
+    /**
+     * Remove all the values.
+     */
+    public void clear() {
+        iEntries.clear();
+    }
+
+    /**
+     * A cached value with its expiration time.
+     *
+     * @param <V>
+     *            the value type
+     */
+    private static class Entry<V> {
+
+        /**
+         * The value.
+         */
+        private final V iValue;
+
+        /**
+         * The expiration time in milliseconds since the epoch.
+         */
+        private final long iExpiresAt;
+
+        /**
+         * Constructor
+         *
+         * @param aValue
+         *            the value
+         * @param aExpiresAt
+         *            the expiration time in milliseconds since the epoch
+         */
+        private Entry(V aValue, long aExpiresAt) {
+            iValue = aValue;
+            iExpiresAt = aExpiresAt;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import junit.framework.TestCase;
+
+/**
+ * Test of the export of the features in the stream formats, over several pages.
+ */
+public class FeatureExporterTest extends TestCase {
+
+    /**
+     * The feature URL.
+     */
+    private static final String URL = "https://server/rest/services/Test/FeatureServer/1";
+
+    /**
+     * The layer description: two features by page.
+     */
+    private static final String LAYER = "{\"objectIdField\": \"OBJECTID\", \"maxRecordCount\": 2,"
+            + " \"advancedQueryCapabilities\": {\"supportsPagination\": true}}";
+
+    /**
+     * The answers to the feature queries by result offset.
+     */
+    private final Map<Integer, String> iPages = new HashMap<>();
+
+    @Override
+    protected void setUp() {
+        FeatureServiceHandler.clearLayerInfoCache();
+        iPages.put(0, "{\"geometryType\": \"esriGeometryPoint\", \"fields\": [{\"name\": \"OBJECTID\"}, {\"name\": \"NAME\"}],"
+                + " \"exceededTransferLimit\": true, \"features\": [" + feature(1, "a,b", 1) + ","
+                + feature(2, "say \\\"hi\\\"", 2) + "]}");
+        iPages.put(2, "{\"geometryType\": \"esriGeometryPoint\", \"features\": [" + feature(3, "line1\\nline2", 3) + "]}");
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                String url = URLDecoder.decode(aUrl, StandardCharsets.UTF_8);
+                String body = LAYER;
+                for (Map.Entry<Integer, String> page : iPages.entrySet()) {
+                    if (url.contains("/query?") && url.endsWith("&resultOffset=" + page.getKey())) {
+                        body = page.getValue();
+                    }
+                }
+                return new TransportResponse(200, body.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        Transports.set(null);
+        FeatureServiceHandler.clearLayerInfoCache();
+    }
+
+    /**
+     * One ArcGIS feature by line, across the pages.
+     *
+     * @throws IOException
+     *             if the export fails
+     */
+    public void testNdJson() throws IOException {
+        String[] lines = export(FeatureExporter.Format.NDJSON).split("\n", -1);
+        assertEquals(4, lines.length);
+        assertEquals("", lines[3]);
+        for (int i = 0; i < 3; i++) {
+            try (JsonReader reader = Json.createReader(new StringReader(lines[i]))) {
+                assertEquals(i + 1, reader.readObject().getJsonObject("attributes").getInt("OBJECTID"));
+            }
+        }
+    }
+
+    /**
+     * A valid feature collection, the features of the second page separated from the first ones.
+     *
+     * @throws IOException
+     *             if the export fails
+     */
+    public void testGeoJson() throws IOException {
+        JsonObject collection;
+        try (JsonReader reader = Json.createReader(new StringReader(export(FeatureExporter.Format.GEOJSON)))) {
+            collection = reader.readObject();
+        }
+        assertEquals("FeatureCollection", collection.getString("type"));
+        JsonArray features = collection.getJsonArray("features");
+        assertEquals(3, features.size());
+        assertEquals("Point", features.getJsonObject(2).getJsonObject("geometry").getString("type"));
+        assertEquals("line1\nline2", features.getJsonObject(2).getJsonObject("properties").getString("NAME"));
+    }
+
+    /**
+     * The values with commas, quotes and line breaks are quoted, the points have their coordinates.
+     *
+     * @throws IOException
+     *             if the export fails
+     */
+    public void testCsv() throws IOException {
+        assertEquals("OBJECTID,NAME,X,Y\r\n1,\"a,b\",1,11\r\n2,\"say \"\"hi\"\"\",2,12\r\n3,\"line1\nline2\",3,13\r\n",
+                export(FeatureExporter.Format.CSV));
+    }
+
+    /**
+     * A page failing after the first one fails the export once the first page is written, the document is not ended as if it was
+     * complete.
+     */
+    public void testFailedPage() {
+        iPages.put(2, "{\"error\": {\"code\": 500, \"message\": \"Unable to complete operation.\"}}");
+        for (FeatureExporter.Format format : FeatureExporter.Format.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                FeatureExporter.export(URL, FeatureQuery.builder().outFields("*").build(), "", format, out);
+                fail("The second page failed");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Error downloading the features"));
+            }
+            String exported = out.toString(StandardCharsets.UTF_8);
+            // The first page was streamed before the failure
+            assertTrue(exported, exported.contains("a,b"));
+            if (format == FeatureExporter.Format.GEOJSON) {
+                assertTrue(exported, exported.startsWith("{\"type\":\"FeatureCollection\",\"features\":["));
+                try (JsonReader reader = Json.createReader(new StringReader(exported))) {
+                    reader.readObject();
+                    fail("Incomplete GeoJSON ended as a valid document");
+                } catch (JsonException e) {
+                    // Expected
+                }
+            }
+        }
+    }
+
+    /**
+     * @param aFormat
+     *            the format
+     * @return the exported features
+     * @throws IOException
+     *             if the export fails
+     */
+    private static String export(FeatureExporter.Format aFormat) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, FeatureExporter.export(URL, FeatureQuery.builder().outFields("*").build(), "", aFormat, out));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param aObjectId
+     *            the object id
+     * @param aName
+     *            the name, escaped for JSON
+     * @param aX
+     *            the x coordinate, y being x + 10
+     * @return the feature JSON
+     */
+    private static String feature(long aObjectId, String aName, int aX) {
+        return String.format("{\"attributes\": {\"OBJECTID\": %s, \"NAME\": \"%s\"}, \"geometry\": {\"x\": %s, \"y\": %s}}", aObjectId,
+                aName, aX, aX + 10);
+    }
+}
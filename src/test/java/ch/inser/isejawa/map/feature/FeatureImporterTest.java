@@ -0,0 +1,165 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the CSV reading of the import.
+ */
+public class FeatureImporterTest extends TestCase {
+
+    /**
+     * The feature URL.
+     */
+    private static final String URL = "https://server/rest/services/Test/FeatureServer/1";
+
+    /**
+     * The forms posted, decoded.
+     */
+    private final List<String> iForms = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected void setUp() {
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                return new TransportResponse(200, "{\"capabilities\":\"Query,Create\",\"maxRecordCount\":1000}".getBytes());
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                iForms.add(URLDecoder.decode(new String(aForm.toBytes(), StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+                return new TransportResponse(200, "{\"addResults\":[{\"objectId\":1,\"success\":true}]}".getBytes());
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        Transports.set(null);
+        FeatureServiceHandler.clearLayerInfoCache();
+    }
+
+    /**
+     * The quoted values can contain separators, doubled quotes and line breaks.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testCsvRecord() throws IOException {
+        StringReader reader = new StringReader("a,\"b,c\",\"say \"\"hi\"\"\"\r\n\"line1\nline2\",,x\n");
+        assertEquals(Arrays.asList("a", "b,c", "say \"hi\""), FeatureImporter.readCsvRecord(reader, ','));
+        assertEquals(Arrays.asList("line1\nline2", "", "x"), FeatureImporter.readCsvRecord(reader, ','));
+        assertNull(FeatureImporter.readCsvRecord(reader, ','));
+    }
+
+    /**
+     * The separator is configurable and the last record can end without a line break.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testCsvDelimiter() throws IOException {
+        StringReader reader = new StringReader("a;\"b;c\",d");
+        assertEquals(Arrays.asList("a", "b;c,d"), FeatureImporter.readCsvRecord(reader, ';'));
+        assertNull(FeatureImporter.readCsvRecord(reader, ';'));
+    }
+
+    /**
+     * A record with invalid coordinates is counted as failed and the next records are imported.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testInvalidCoordinates() throws IOException {
+        Path file = Files.createTempFile("import", ".csv");
+        try {
+            Files.write(file, "NAME,X,Y\nfirst,2600000,1200000\nsecond,abc,1200000\nthird,2600001,1200001\n".getBytes());
+            ImportProgress progress = new FeatureImporter(URL, () -> "").batchSize(1).concurrency(1).wkid(2056)
+                    .csvCoordinates("X", "Y").importCsv(file);
+            assertEquals(3, progress.getRead());
+            assertEquals(2, progress.getAdded());
+            assertEquals(1, progress.getFailed());
+            assertEquals(1, progress.getFailures().size());
+            assertEquals(-1, progress.getFailures().get(0).getBatch());
+            assertEquals(1, progress.getFailures().get(0).getFirstRecord());
+            assertEquals(2, iForms.size());
+            assertTrue(iForms.toString().contains("\"NAME\":\"third\""));
+            assertFalse(iForms.toString().contains("second"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * The byte order mark of a UTF-8 file is not part of the first column name.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testByteOrderMark() throws IOException {
+        Path file = Files.createTempFile("import", ".csv");
+        try {
+            Files.write(file, "\uFEFFNAME,X,Y\nfirst,2600000,1200000\n".getBytes(StandardCharsets.UTF_8));
+            ImportProgress progress = new FeatureImporter(URL, () -> "").wkid(2056).csvCoordinates("X", "Y").importCsv(file);
+            assertEquals(1, progress.getAdded());
+            assertTrue(iForms.toString(), iForms.get(0).contains("{\"NAME\":\"first\"}"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * The batch size can't be negative and the concurrency must allow one batch at least, an import would wait forever otherwise.
+     */
+    public void testInvalidSettings() {
+        FeatureImporter importer = new FeatureImporter(URL, () -> "").batchSize(0).concurrency(1);
+        try {
+            importer.concurrency(0);
+            fail("Concurrency 0 accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            importer.batchSize(-1);
+            fail("Negative batch size accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the feature query URLs.
+ */
+public class FeatureQueryTest extends TestCase {
+
+    /**
+     * The feature URL.
+     */
+    private static final String URL = "https://server/rest/services/Test/FeatureServer/1";
+
+    /**
+     * Only the parameters set are sent, encoded.
+     */
+    public void testToUrl() {
+        FeatureQuery query = FeatureQuery.builder().where("NAME = 'a b'").outFields("OBJECTID", "NAME").orderByFields("")
+                .returnGeometry(false).build();
+        assertEquals(URL + "/query?f=json&where=NAME%20%3D%20%27a%20b%27&outFields=OBJECTID%2CNAME&returnGeometry=false",
+                query.toUrl(URL, null));
+    }
+
+    /**
+     * The token and the offset are bound on each call.
+     */
+    public void testToUrlPage() {
+        FeatureQuery query = FeatureQuery.builder().where("1=1").resultOffset(10).resultRecordCount(100).build();
+        assertEquals(URL + "/query?f=json&where=1%3D1&resultRecordCount=100&token=abc&resultOffset=10", query.toUrl(URL, "abc"));
+        assertEquals(URL + "/query?f=json&where=1%3D1&resultRecordCount=100&token=abc&resultOffset=200", query.toUrl(URL, "abc", 200));
+        assertEquals(URL + "/query?f=json&where=1%3D1&resultRecordCount=100", query.toUrl(URL, "", -1));
+    }
+
+    /**
+     * A derived query keeps the parameters of the original one.
+     */
+    public void testToBuilder() {
+        FeatureQuery query = FeatureQuery.builder().where("1=1").outFields().build();
+        FeatureQuery derived = query.toBuilder().returnIdsOnly(true).build();
+        assertEquals("*", derived.getParameter("outFields"));
+        assertEquals("true", derived.getParameter("returnIdsOnly"));
+        assertNull(query.getParameter("returnIdsOnly"));
+    }
+
+    /**
+     * The token can't be part of a reusable query.
+     */
+    public void testToken() {
+        try {
+            FeatureQuery.builder().param("token", "abc");
+            fail("The token must be given on each call");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import junit.framework.TestCase;
+
+/**
+ * Test of the URLs of the positional query methods.
+ */
+public class FeatureServiceHandlerTest extends TestCase {
+
+    /**
+     * The feature URL.
+     */
+    private static final String URL = "https://server/rest/services/Test/FeatureServer/1";
+
+    /**
+     * The URLs requested.
+     */
+    private final List<String> iUrls = new ArrayList<>();
+
+    /**
+     * The forms posted.
+     */
+    private final List<String> iForms = new ArrayList<>();
+
+    /**
+     * The answer to the requests.
+     */
+    private String iBody = "{}";
+
+    @Override
+    protected void setUp() {
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                iUrls.add(aUrl);
+                return new TransportResponse(200, iBody.getBytes());
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                iForms.add(URLDecoder.decode(new String(aForm.toBytes(), StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+                return new TransportResponse(200,
+                        (aUrl.contains("/addFeatures") ? "{\"addResults\":[{\"objectId\":1,\"success\":true}]}" : "{\"updateResults\":[]}")
+                                .getBytes());
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        Transports.set(null);
+        FeatureServiceHandler.clearLayerInfoCache();
+        FeatureServiceHandler.invalidateStatistics(URL);
+    }
+
+    /**
+     * A geometry given encoded is not encoded again, the same URL is sent for the geometry not encoded.
+     */
+    @SuppressWarnings("deprecation")
+    public void testEncodedGeometry() {
+        FeatureServiceHandler.getFeatures(URL, "1=1", "*", "%7B%22x%22%3A2600000.5%2C%22y%22%3A1200000%7D", "esriGeometryPoint", true);
+        FeatureServiceHandler.getFeatures(URL, "1=1", "*", "{\"x\":2600000.5,\"y\":1200000}", "esriGeometryPoint", true);
+        String expected = URL + "/query?f=json&where=1%3D1&returnCountOnly=false&outFields=*"
+                + "&geometry=%7B%22x%22%3A2600000.5%2C%22y%22%3A1200000%7D&geometryType=esriGeometryPoint&returnGeometry=false";
+        assertEquals(expected, iUrls.get(0));
+        assertEquals(expected, iUrls.get(1));
+    }
+
+    /**
+     * A result offset that is not a number is not sent.
+     */
+    @SuppressWarnings("deprecation")
+    public void testResultOffset() {
+        FeatureServiceHandler.getFeatures(URL, "", "1=1", "*", "", "", false, false, " ", "100");
+        FeatureServiceHandler.getFeatures(URL, "", "1=1", "*", "", "", false, false, "abc", "100");
+        FeatureServiceHandler.getFeatures(URL, "", "1=1", "*", "", "", false, false, " 20 ", "100");
+        String expected = URL + "/query?f=json&where=1%3D1&returnCountOnly=false&outFields=*&returnGeometry=false";
+        assertEquals(expected + "&resultRecordCount=100", iUrls.get(0));
+        assertEquals(expected + "&resultRecordCount=100", iUrls.get(1));
+        assertEquals(expected + "&resultRecordCount=100&resultOffset=20", iUrls.get(2));
+    }
+
+    /**
+     * Only the valid %XX sequences are decoded.
+     */
+    public void testUnescape() {
+        assertEquals("NAME LIKE 'A%'", FeatureServiceHandler.unescape("NAME LIKE 'A%'"));
+        assertEquals("50% \u00e9", FeatureServiceHandler.unescape("50%25%20%C3%A9"));
+        assertEquals("%zz%4", FeatureServiceHandler.unescape("%zz%4"));
+        assertNull(FeatureServiceHandler.unescape(null));
+    }
+
+    /**
+     * A response without count is an error.
+     */
+    public void testStatisticsNoCount() {
+        try {
+            FeatureServiceHandler.getStatistics(URL, FeatureQuery.builder().where("1=1").build(), null, "abc");
+            fail("No count in the response");
+        } catch (ISException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * The statistics are cached by token.
+     *
+     * @throws ISException
+     *             if the statistics can't be computed
+     */
+    public void testStatisticsByToken() throws ISException {
+        iBody = "{\"count\": 5}";
+        FeatureQuery query = FeatureQuery.builder().where("1=1").build();
+        assertEquals(5, FeatureServiceHandler.getStatistics(URL, query, null, "abc").getCount());
+        int calls = iUrls.size();
+        FeatureServiceHandler.getStatistics(URL, query, null, "abc");
+        assertEquals(calls, iUrls.size());
+        FeatureServiceHandler.getStatistics(URL, query, null, "def");
+        assertTrue(iUrls.size() > calls);
+    }
+
+    /**
+     * The layer descriptions are cached by token.
+     *
+     * @throws ISException
+     *             if the description can't be read
+     */
+    public void testLayerInfoByToken() throws ISException {
+        iBody = "{\"maxRecordCount\": 2000}";
+        assertEquals(2000, FeatureServiceHandler.getLayerInfo(URL, "abc").getMaxRecordCount());
+        FeatureServiceHandler.getLayerInfo(URL, "abc");
+        assertEquals(1, iUrls.size());
+        FeatureServiceHandler.getLayerInfo(URL, "def");
+        assertEquals(2, iUrls.size());
+    }
+
+    /**
+     * The pages are ordered by object id when the query has no order, so that no feature is skipped or repeated between the pages.
+     *
+     * @throws Exception
+     *             if the query fails
+     */
+    public void testQueryPagesOrder() throws Exception {
+        iBody = "{\"objectIdField\": \"FID\", \"advancedQueryCapabilities\": {\"supportsPagination\": true}, \"features\": []}";
+        FeatureServiceHandler.queryPages(URL, FeatureQuery.builder().where("1=1").build(), "abc", 100, aPage -> fail());
+        FeatureServiceHandler.queryPages(URL, FeatureQuery.builder().where("1=1").orderByFields("NAME").build(), "abc", 100,
+                aPage -> fail());
+        assertEquals(3, iUrls.size());
+        assertEquals(URL + "/query?f=json&where=1%3D1&resultRecordCount=100&orderByFields=FID&token=abc&resultOffset=0", iUrls.get(1));
+        assertEquals(URL + "/query?f=json&where=1%3D1&orderByFields=NAME&resultRecordCount=100&token=abc&resultOffset=0", iUrls.get(2));
+    }
+
+    /**
+     * The added features are sent by batches of the maximum record count, and the results are joined.
+     */
+    public void testAddFeaturesBatches() {
+        iBody = "{\"capabilities\": \"Query,Create\", \"maxRecordCount\": 2}";
+        JsonArray features = Json.createArrayBuilder().add(feature(1)).add(feature(2)).add(feature(3)).build();
+        JsonObject result = FeatureServiceHandler.addFeatures(URL, features, true, "abc");
+        assertEquals(2, iForms.size());
+        assertTrue(iForms.get(0), iForms.get(0).contains("\"ID\":1") && iForms.get(0).contains("\"ID\":2"));
+        assertTrue(iForms.get(1), iForms.get(1).contains("\"ID\":3") && !iForms.get(1).contains("\"ID\":1"));
+        assertEquals(2, result.getJsonArray("addResults").size());
+    }
+
+    /**
+     * An edit not allowed by the capabilities of the layer is not sent.
+     */
+    public void testEditCapabilities() {
+        iBody = "{\"capabilities\": \"Query,Update\"}";
+        JsonArray features = Json.createArrayBuilder().add(feature(1)).build();
+        assertTrue(FeatureServiceHandler.addFeatures(URL, features, true, "abc").containsKey("error"));
+        assertTrue(FeatureServiceHandler.deleteFeatures(URL, "1=1", true, "abc").containsKey("error"));
+        assertEquals(0, iForms.size());
+        assertFalse(FeatureServiceHandler.updateFeatures(URL, features, "abc").containsKey("error"));
+        assertEquals(1, iForms.size());
+    }
+
+    /**
+     * @param aId
+     *            the value of the ID attribute
+     * @return a feature
+     */
+    private static JsonObject feature(int aId) {
+        return Json.createObjectBuilder().add("attributes", Json.createObjectBuilder().add("ID", aId)).build();
+    }
+}
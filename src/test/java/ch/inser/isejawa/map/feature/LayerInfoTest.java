@@ -0,0 +1,84 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import ch.inser.rest.util.JsonUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the layer description.
+ */
+public class LayerInfoTest extends TestCase {
+
+    /**
+     * Limits, capabilities and fields of a layer.
+     */
+    public void testLayer() {
+        LayerInfo layer = new LayerInfo(JsonUtil.stringToJsonObject("{\"maxRecordCount\": 2000, \"capabilities\": \"Query,Create,Update\","
+                + " \"advancedQueryCapabilities\": {\"supportsPagination\": true, \"supportsStatistics\": true},"
+                + " \"fields\": [{\"name\": \"FID\", \"type\": \"esriFieldTypeOID\"},"
+                + " {\"name\": \"NAME\", \"type\": \"esriFieldTypeString\"}],"
+                + " \"editFieldsInfo\": {\"editDateField\": \"last_edited_date\"}}"));
+        assertEquals(2000, layer.getMaxRecordCount());
+        assertEquals(2000, layer.getPageSize(FeatureServiceHandler.LAYER_PAGE_SIZE));
+        assertEquals(500, layer.getPageSize(500));
+        assertEquals(2000, layer.getPageSize(5000));
+        assertTrue(layer.isSupportsPagination());
+        assertTrue(layer.isSupportsStatistics());
+        assertTrue(layer.hasCapability("create"));
+        assertFalse(layer.hasCapability("Delete"));
+        assertEquals("FID", layer.getObjectIdField());
+        assertEquals("esriFieldTypeString", layer.getFields().get("NAME"));
+        assertEquals("last_edited_date", layer.getEditField("editDateField"));
+        assertNull(layer.getEditField("creatorField"));
+    }
+
+    /**
+     * Layer of an older server: no maximum record count, no pagination, Editing without detailed edit capabilities.
+     */
+    public void testOldServer() {
+        LayerInfo layer = new LayerInfo(
+                JsonUtil.stringToJsonObject("{\"capabilities\": \"Query,Editing\", \"objectIdField\": \"OBJECTID\"}"));
+        assertEquals(LayerInfo.DEFAULT_MAX_RECORD_COUNT, layer.getMaxRecordCount());
+        assertFalse(layer.isSupportsPagination());
+        assertTrue(layer.hasCapability("Delete"));
+        assertTrue(layer.isSupportsApplyEdits());
+        assertEquals("OBJECTID", layer.getObjectIdField());
+        assertNull(layer.getEditField("editDateField"));
+    }
+
+    /**
+     * Time zone of the editor tracking dates: UTC by default, the one of the editor tracking or of the layer, from a Windows name.
+     */
+    public void testTimeZone() {
+        assertEquals(ZoneOffset.UTC, new LayerInfo(JsonUtil.stringToJsonObject("{}")).getEditDateTimeZone());
+        assertEquals(ZoneId.of("America/Los_Angeles"), new LayerInfo(JsonUtil.stringToJsonObject(
+                "{\"dateFieldsTimeReference\": {\"timeZone\": \"Pacific Standard Time\", \"respectsDaylightSaving\": true}}"))
+                        .getEditDateTimeZone());
+        assertEquals(ZoneId.of("Europe/Zurich"),
+                new LayerInfo(JsonUtil.stringToJsonObject("{\"dateFieldsTimeReference\": {\"timeZone\": \"UTC\"},"
+                        + " \"editFieldsInfo\": {\"dateFieldsTimeReference\": {\"timeZone\": \"Europe/Zurich\"}}}")).getEditDateTimeZone());
+        assertEquals(ZoneOffset.ofHours(1), new LayerInfo(JsonUtil.stringToJsonObject(
+                "{\"dateFieldsTimeReference\": {\"timeZone\": \"W. Europe Standard Time\", \"respectsDaylightSaving\": false}}"))
+                        .getEditDateTimeZone());
+        assertNull(new LayerInfo(JsonUtil.stringToJsonObject("{\"dateFieldsTimeReference\": {\"timeZone\": \"Unknown Time\"}}"))
+                .getEditDateTimeZone());
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.jsl.exceptions.ISException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the incremental synchronization of a layer.
+ */
+public class LayerSyncTest extends TestCase {
+
+    /**
+     * The feature URL.
+     */
+    private static final String URL = "https://server/rest/services/Test/FeatureServer/1";
+
+    /**
+     * The layer description, with the dates in the time zone of Zurich.
+     */
+    private static final String LAYER = "{\"objectIdField\": \"OBJECTID\", \"advancedQueryCapabilities\": {\"supportsPagination\": true},"
+            + " \"editFieldsInfo\": {\"editDateField\": \"EDITED\"},"
+            + " \"dateFieldsTimeReference\": {\"timeZone\": \"W. Europe Standard Time\", \"respectsDaylightSaving\": true}}";
+
+    /**
+     * The decoded query URLs requested.
+     */
+    private final List<String> iQueries = new ArrayList<>();
+
+    /**
+     * The next answer to the feature queries.
+     */
+    private String iFeatures;
+
+    /**
+     * The next answer to the object ids queries.
+     */
+    private String iObjectIds;
+
+    /**
+     * The answers to the feature queries by result offset, replacing {@link #iFeatures} when not empty.
+     */
+    private final Map<Integer, String> iPages = new HashMap<>();
+
+    @Override
+    protected void setUp() {
+        FeatureServiceHandler.clearLayerInfoCache();
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                String url = URLDecoder.decode(aUrl, StandardCharsets.UTF_8);
+                if (!url.contains("/query?")) {
+                    return new TransportResponse(200, LAYER.getBytes(StandardCharsets.UTF_8));
+                }
+                iQueries.add(url);
+                String body = url.contains("returnIdsOnly=true") ? iObjectIds : iFeatures;
+                for (Map.Entry<Integer, String> page : iPages.entrySet()) {
+                    if (url.endsWith("&resultOffset=" + page.getKey())) {
+                        body = page.getValue();
+                    }
+                }
+                return new TransportResponse(200, body.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        Transports.set(null);
+        FeatureServiceHandler.clearLayerInfoCache();
+    }
+
+    /**
+     * A full load, then an incremental synchronization with an update and a deletion.
+     *
+     * @throws ISException
+     *             if the synchronization fails
+     */
+    public void testSync() throws ISException {
+        LayerSync sync = new LayerSync(URL, FeatureQuery.builder().where("TYPE = 1").outFields("NAME").build());
+        iFeatures = "{\"features\": [" + feature(1, "a", 1_700_000_000_000L) + "," + feature(2, "b", 1_700_000_001_000L) + ","
+                + feature(3, "c", 1_700_000_002_000L) + "]}";
+        LayerSync.SyncResult result = sync.sync("");
+        assertTrue(result.isFull());
+        assertEquals(3, result.getAdded());
+        assertEquals(1_700_000_002_000L, sync.getLastEditDate());
+        assertTrue(iQueries.get(0).contains("where=TYPE = 1&outFields=NAME,OBJECTID,EDITED"));
+
+        iFeatures = "{\"features\": [" + feature(2, "b2", 1_700_000_005_000L) + "," + feature(3, "c", 1_700_000_002_000L) + "]}";
+        iObjectIds = "{\"objectIds\": [2, 3]}";
+        result = sync.sync("");
+        assertFalse(result.isFull());
+        assertEquals(0, result.getAdded());
+        assertEquals(1, result.getUpdated());
+        assertEquals(1, result.getDeleted());
+        assertNull(sync.getFeature(1));
+        assertEquals("b2", sync.getFeature(2).getJsonObject("attributes").getString("NAME"));
+        // 2023-11-14 22:13:22 UTC is 23:13:22 in Zurich
+        assertTrue(iQueries.get(1).contains("where=(TYPE = 1) AND EDITED >= TIMESTAMP '2023-11-14 23:13:22'&"));
+        assertTrue(iQueries.get(2).contains("where=TYPE = 1&"));
+    }
+
+    /**
+     * A synchronization failing on a page keeps the date of the previous synchronization, so the next one loads the features of the
+     * missed pages, and a full load removes the features loaded by a failed one that are no more in the layer.
+     *
+     * @throws ISException
+     *             if the synchronization fails
+     */
+    public void testFailedPage() throws ISException {
+        LayerSync sync = new LayerSync(URL, FeatureQuery.builder().outFields("NAME").build());
+        iPages.put(0, "{\"exceededTransferLimit\": true, \"features\": [" + feature(1, "a", 1_700_000_009_000L) + ","
+                + feature(2, "b", 1_700_000_008_000L) + "]}");
+        iPages.put(2, "{\"error\": {\"code\": 500, \"message\": \"Unable to complete operation.\"}}");
+        try {
+            sync.sync("");
+            fail("The second page failed");
+        } catch (ISException e) {
+            // Expected
+        }
+        assertEquals(-1, sync.getLastEditDate());
+
+        iPages.put(0, "{\"exceededTransferLimit\": true, \"features\": [" + feature(2, "b", 1_700_000_008_000L) + ","
+                + feature(3, "c", 1_700_000_001_000L) + "]}");
+        iPages.put(2, "{\"features\": [" + feature(4, "d", 1_700_000_002_000L) + "]}");
+        LayerSync.SyncResult result = sync.sync("");
+        assertTrue(result.isFull());
+        assertEquals(2, result.getAdded());
+        assertEquals(1, result.getDeleted());
+        assertNull(sync.getFeature(1));
+        assertEquals("d", sync.getFeature(4).getJsonObject("attributes").getString("NAME"));
+        assertEquals(1_700_000_008_000L, sync.getLastEditDate());
+
+        // An incremental synchronization failing keeps its date too
+        iPages.put(0, "{\"exceededTransferLimit\": true, \"features\": [" + feature(5, "e", 1_700_000_020_000L) + "]}");
+        iPages.put(1, "{\"error\": {\"code\": 500}}");
+        try {
+            sync.sync("");
+            fail("The second page failed");
+        } catch (ISException e) {
+            // Expected
+        }
+        assertEquals(1_700_000_008_000L, sync.getLastEditDate());
+    }
+
+    /**
+     * The features without object id fail the synchronization instead of being ignored.
+     */
+    public void testNoObjectId() {
+        LayerSync sync = new LayerSync(URL, FeatureQuery.builder().outFields("*").build());
+        iFeatures = "{\"features\": [{\"attributes\": {\"NAME\": \"a\"}}]}";
+        try {
+            sync.sync("");
+            fail("The object id is missing");
+        } catch (ISException e) {
+            // Expected
+        }
+        assertTrue(iQueries.get(0).contains("&outFields=*&"));
+    }
+
+    /**
+     * The edit date is given in the time zone of the layer, in summer and in winter.
+     */
+    public void testWhere() {
+        assertEquals("(1=1) AND EDITED >= TIMESTAMP '2024-07-01 12:00:00'",
+                LayerSync.getWhere("1=1", "EDITED", 1_719_835_200_000L, ZoneOffset.UTC));
+        assertEquals("(1=1) AND EDITED >= TIMESTAMP '2024-07-01 14:00:00'",
+                LayerSync.getWhere("1=1", "EDITED", 1_719_835_200_000L, ZoneId.of("Europe/Zurich")));
+        assertEquals("(1=1) AND EDITED >= TIMESTAMP '2024-01-15 13:00:00'",
+                LayerSync.getWhere("1=1", "EDITED", 1_705_320_000_000L, ZoneId.of("Europe/Zurich")));
+    }
+
+    /**
+     * The object id and edit date fields are added to the out fields when missing.
+     */
+    public void testOutFields() {
+        assertEquals("OBJECTID,EDITED", LayerSync.getOutFields(null, "OBJECTID", "EDITED"));
+        assertEquals("NAME,objectid,EDITED", LayerSync.getOutFields("NAME, objectid", "OBJECTID", "EDITED"));
+        assertEquals("*", LayerSync.getOutFields("*", "OBJECTID", "EDITED"));
+    }
+
+    /**
+     * @param aObjectId
+     *            the object id
+     * @param aName
+     *            the name
+     * @param aEdited
+     *            the edit date
+     * @return the feature JSON
+     */
+    private static String feature(long aObjectId, String aName, long aEdited) {
+        return String.format("{\"attributes\": {\"OBJECTID\": %s, \"NAME\": \"%s\", \"EDITED\": %s}}", aObjectId, aName, aEdited);
+    }
+}
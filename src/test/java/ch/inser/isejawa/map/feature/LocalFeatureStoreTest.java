@@ -0,0 +1,185 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.feature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.JsonObject;
+import junit.framework.TestCase;
+
+/**
+ * Test of the binary format of the local feature store: written from a layer, mapped again and read.
+ */
+public class LocalFeatureStoreTest extends TestCase {
+
+    /**
+     * The feature URL.
+     */
+    private static final String URL = "https://server/rest/services/Test/FeatureServer/1";
+
+    /**
+     * The features of the layer, not sorted by object id, one without geometry.
+     */
+    private static final String FEATURES = "{\"features\": ["
+            + "{\"attributes\": {\"OBJECTID\": 30, \"NAME\": \"line\"}, \"geometry\": {\"paths\": [[[10,10],[20,15]]]}},"
+            + "{\"attributes\": {\"OBJECTID\": 10, \"NAME\": \"point \\u00e9\"}, \"geometry\": {\"x\": 1, \"y\": 2}},"
+            + "{\"attributes\": {\"OBJECTID\": 20, \"NAME\": \"table\"}}]}";
+
+    /**
+     * The directory of the store.
+     */
+    private Path iDirectory;
+
+    @Override
+    protected void setUp() throws IOException {
+        iDirectory = Files.createTempDirectory("store");
+        FeatureServiceHandler.clearLayerInfoCache();
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                String body = aUrl.contains("/query?") ? FEATURES : "{\"advancedQueryCapabilities\": {\"supportsPagination\": true}}";
+                return new TransportResponse(200, body.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Transports.set(null);
+        FeatureServiceHandler.clearLayerInfoCache();
+        try (Stream<Path> files = Files.list(iDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(iDirectory);
+    }
+
+    /**
+     * The features written are found by object id and by envelope after mapping the file again.
+     *
+     * @throws IOException
+     *             if the file can't be written
+     * @throws ISException
+     *             if the layer can't be queried
+     */
+    public void testRoundTrip() throws IOException, ISException {
+        Path file = iDirectory.resolve("test.ismf");
+        FeatureQuery query = FeatureQuery.builder().where("1=1").outFields().build();
+        new LocalFeatureStore(file, URL, "OBJECTID", query).refresh("");
+
+        LocalFeatureStore store = new LocalFeatureStore(file, URL, "OBJECTID", query);
+        assertTrue(store.load());
+        assertEquals(3, store.size());
+        assertEquals(1.0, store.getExtent()[0]);
+        assertEquals(2.0, store.getExtent()[1]);
+        assertEquals(20.0, store.getExtent()[2]);
+        assertEquals(15.0, store.getExtent()[3]);
+
+        assertEquals("point \u00e9", store.getFeatureAttributes(10).getString("NAME"));
+        assertEquals("table", store.getFeatureAttributes(20).getString("NAME"));
+        assertEquals("line", store.getFeature(30).getJsonObject("attributes").getString("NAME"));
+        assertNull(store.getFeature(15));
+        assertNull(store.getFeature(31));
+
+        List<JsonObject> features = store.getFeatures(0, 0, 5, 5);
+        assertEquals(1, features.size());
+        assertEquals(10, features.get(0).getJsonObject("attributes").getInt("OBJECTID"));
+        assertEquals(2, store.getFeatures(0, 0, 12, 11).size());
+        assertTrue(store.getFeatures(100, 100, 200, 200).isEmpty());
+    }
+
+    /**
+     * A file that is not a feature store is rejected.
+     *
+     * @throws IOException
+     *             if the file can't be written
+     */
+    public void testNotAStore() throws IOException {
+        Path file = Files.write(iDirectory.resolve("other.ismf"), "not a feature store, not a feature store, not a store".getBytes());
+        LocalFeatureStore store = new LocalFeatureStore(file, URL, "OBJECTID", FeatureQuery.builder().build());
+        try {
+            store.load();
+            fail("Not a feature store");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(new LocalFeatureStore(iDirectory.resolve("missing.ismf"), URL, "OBJECTID", FeatureQuery.builder().build()).load());
+    }
+
+    /**
+     * A truncated file or a file with a corrupt entry count fails when loaded.
+     *
+     * @throws IOException
+     *             if the file can't be written
+     * @throws ISException
+     *             if the layer can't be queried
+     */
+    public void testTruncated() throws IOException, ISException {
+        Path file = iDirectory.resolve("test.ismf");
+        FeatureQuery query = FeatureQuery.builder().where("1=1").outFields().build();
+        new LocalFeatureStore(file, URL, "OBJECTID", query).refresh("");
+        byte[] bytes = Files.readAllBytes(file);
+
+        assertNotLoaded(Arrays.copyOf(bytes, 56 + 48 + 10), query);
+        assertNotLoaded(Arrays.copyOf(bytes, bytes.length - 5), query);
+        byte[] negative = bytes.clone();
+        ByteBuffer.wrap(negative).putInt(8, -1);
+        assertNotLoaded(negative, query);
+    }
+
+    /**
+     * @param aBytes
+     *            the content of a corrupt store file
+     * @param aQuery
+     *            the query of the store
+     * @throws IOException
+     *             if the file can't be written
+     */
+    private void assertNotLoaded(byte[] aBytes, FeatureQuery aQuery) throws IOException {
+        Path file = Files.write(iDirectory.resolve("corrupt.ismf"), aBytes);
+        try {
+            new LocalFeatureStore(file, URL, "OBJECTID", aQuery).load();
+            fail("Corrupt feature store");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Truncated feature store"));
+        }
+    }
+}
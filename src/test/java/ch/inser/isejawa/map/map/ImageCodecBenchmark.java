@@ -0,0 +1,202 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Cost of the encoding and decoding of the map images by megapixel, with ImageIO alone and with {@link ImageCodecs} and
+ * {@link ParallelPngEncoder}. Not run by the unit tests, start it with:
+ *
+ * <pre>
+ * java ch.inser.isejawa.map.map.ImageCodecBenchmark [width] [height] [iterations]
+ * </pre>
+ *
+ * @author INSER SA
+ */
+public class ImageCodecBenchmark {
+
+    /**
+     * Default width and height of the image.
+     */
+    private static final int DEFAULT_SIZE = 4000;
+
+    /**
+     * Compression level of the adaptive encoding.
+     */
+    private static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * Size of the strips of the adaptive encoding.
+     */
+    private static final int DEFAULT_STRIP_BYTES = 512 * 1024;
+
+    /**
+     * Default number of measured iterations.
+     */
+    private static final int DEFAULT_ITERATIONS = 5;
+
+    /**
+     * Private constructor to hide the public one.
+     */
+    private ImageCodecBenchmark() {
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param aArgs
+     *            the width, the height and the number of iterations
+     * @throws Exception
+     *             if an image can't be encoded or decoded
+     */
+    public static void main(String[] aArgs) throws Exception {
+        int width = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : DEFAULT_SIZE;
+        int height = aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : DEFAULT_SIZE;
+        int iterations = aArgs.length > 2 ? Integer.parseInt(aArgs[2]) : DEFAULT_ITERATIONS;
+        double megapixels = width * (double) height / 1e6;
+        ImageIO.setUseCache(false);
+
+        for (boolean alpha : new boolean[] { false, true }) {
+            BufferedImage image = createMap(width, height, alpha);
+            String type = alpha ? "argb" : "rgb";
+            measure("png encode ImageIO " + type, megapixels, iterations, () -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(image, "png", out);
+                return out.toByteArray();
+            });
+            byte[] parallel = measure("png encode parallel " + type, megapixels, iterations,
+                    () -> new ParallelPngEncoder().encodeToBytes(image));
+            measure("png encode adaptive " + type, megapixels, iterations,
+                    () -> new ParallelPngEncoder(DEFAULT_LEVEL, true, DEFAULT_STRIP_BYTES).encodeToBytes(image));
+            measure("png decode ImageIO " + type, megapixels, iterations, () -> {
+                ImageIO.read(new ByteArrayInputStream(parallel));
+                return parallel;
+            });
+            measure("png decode pooled " + type, megapixels, iterations, () -> {
+                ImageCodecs.read(parallel);
+                return parallel;
+            });
+        }
+
+        BufferedImage image = createMap(width, height, false);
+        byte[] jpeg = measure("jpeg encode ImageIO", megapixels, iterations, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpeg", out);
+            return out.toByteArray();
+        });
+        measure("jpeg encode pooled", megapixels, iterations, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageCodecs.write(image, ImageFormat.JPG, out);
+            return out.toByteArray();
+        });
+        measure("jpeg decode ImageIO", megapixels, iterations, () -> {
+            ImageIO.read(new ByteArrayInputStream(jpeg));
+            return jpeg;
+        });
+        measure("jpeg decode pooled", megapixels, iterations, () -> {
+            ImageCodecs.read(jpeg);
+            return jpeg;
+        });
+    }
+
+    /**
+     * Measure an operation after a warm-up run and print the time by megapixel.
+     *
+     * @param aName
+     *            the name of the operation
+     * @param aMegapixels
+     *            the size of the image in megapixels
+     * @param aIterations
+     *            the number of measured runs
+     * @param aOperation
+     *            the operation, returning an encoded image
+     * @return the encoded image of the last run
+     * @throws Exception
+     *             if the operation fails
+     */
+    private static byte[] measure(String aName, double aMegapixels, int aIterations, Operation aOperation) throws Exception {
+        byte[] result = aOperation.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < aIterations; i++) {
+            result = aOperation.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / aIterations;
+        System.out.println(String.format("%-26s %8.1f ms %7.1f ms/MP %9d bytes", aName, millis, millis / aMegapixels, result.length));
+        return result;
+    }
+
+    /**
+     * Create an image looking like a map: background areas, roads and labels.
+     *
+     * @param aWidth
+     *            the width
+     * @param aHeight
+     *            the height
+     * @param aAlpha
+     *            <code>true</code> for a transparent background
+     * @return the image
+     */
+    private static BufferedImage createMap(int aWidth, int aHeight, boolean aAlpha) {
+        BufferedImage image = new BufferedImage(aWidth, aHeight, aAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Random random = new Random(1);
+        if (!aAlpha) {
+            graphics.setColor(new Color(242, 239, 233));
+            graphics.fillRect(0, 0, aWidth, aHeight);
+        }
+        for (int i = 0; i < aWidth * aHeight / 20_000; i++) {
+            graphics.setColor(new Color(150 + random.nextInt(100), 150 + random.nextInt(100), 150 + random.nextInt(100), 200));
+            graphics.fillRect(random.nextInt(aWidth), random.nextInt(aHeight), 20 + random.nextInt(200), 20 + random.nextInt(200));
+        }
+        graphics.setStroke(new BasicStroke(3));
+        for (int i = 0; i < aWidth * aHeight / 40_000; i++) {
+            graphics.setColor(random.nextBoolean() ? Color.WHITE : new Color(230, 140, 60));
+            graphics.drawLine(random.nextInt(aWidth), random.nextInt(aHeight), random.nextInt(aWidth), random.nextInt(aHeight));
+        }
+        graphics.setColor(Color.DARK_GRAY);
+        for (int i = 0; i < aWidth * aHeight / 10_000; i++) {
+            graphics.drawString("Label " + i, random.nextInt(aWidth), random.nextInt(aHeight));
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * An operation returning an encoded image.
+     */
+    private interface Operation {
+
+        /**
+         * Run the operation.
+         *
+         * @return the encoded image
+         * @throws Exception
+         *             if the operation fails
+         */
+        byte[] run() throws Exception;
+    }
+}
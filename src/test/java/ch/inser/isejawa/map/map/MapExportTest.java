@@ -0,0 +1,185 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.jsl.exceptions.ISException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the export of a map image in tiles, the map server being simulated.
+ */
+public class MapExportTest extends TestCase {
+
+    /**
+     * The map server URL.
+     */
+    private static final String URL = "https://server/rest/services/Test/MapServer";
+
+    /**
+     * Height of the exported images.
+     */
+    private static final int HEIGHT = 230;
+
+    /**
+     * Number of tiles requested.
+     */
+    private final AtomicInteger iTiles = new AtomicInteger();
+
+    @Override
+    protected void setUp() {
+        // The map has one unit by pixel: the pixel x,y of the image has the color x,y
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                iTiles.incrementAndGet();
+                String form = URLDecoder.decode(new String(aForm.toBytes(), StandardCharsets.US_ASCII), StandardCharsets.UTF_8);
+                String[] bbox = form.replaceAll(".*bbox=([^&]*).*", "$1").split(",");
+                String[] size = form.replaceAll(".*size=([^&]*).*", "$1").split(",");
+                int x = (int) Math.round(Double.parseDouble(bbox[0]));
+                int y = HEIGHT - (int) Math.round(Double.parseDouble(bbox[3]));
+                BufferedImage tile = new BufferedImage(Integer.parseInt(size[0]), Integer.parseInt(size[1]), BufferedImage.TYPE_INT_RGB);
+                for (int j = 0; j < tile.getHeight(); j++) {
+                    for (int i = 0; i < tile.getWidth(); i++) {
+                        tile.setRGB(i, j, color(x + i, y + j));
+                    }
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try {
+                    ImageIO.write(tile, "png", out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return new TransportResponse(200, out.toByteArray());
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        Transports.set(null);
+    }
+
+    /**
+     * An image larger than a tile is stitched and encoded by band, with the same pixels as the rendered image.
+     *
+     * @throws Exception
+     *             error
+     */
+    public void testTiledPng() throws Exception {
+        MapExport export = newExport(300).target(ImageFormat.Target.PRINT).maxTileSize(64);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.write(out, "");
+        assertEquals(5 * 4, iTiles.get());
+        assertPixels(ImageIO.read(new ByteArrayInputStream(out.toByteArray())), 300);
+        assertPixels(export.render(""), 300);
+    }
+
+    /**
+     * An image in one tile is written as received.
+     *
+     * @throws Exception
+     *             error
+     */
+    public void testOneTile() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        newExport(200).target(ImageFormat.Target.PRINT).write(out, "");
+        assertEquals(1, iTiles.get());
+        assertPixels(ImageIO.read(new ByteArrayInputStream(out.toByteArray())), 200);
+    }
+
+    /**
+     * The images over the maximum number of pixels are rejected before any request.
+     */
+    public void testMaxPixels() {
+        try {
+            new MapExport(URL).bbox(0, 0, 10_000, 10_000).size(10_000, 10_000).render("");
+            fail("100 millions pixels exported");
+        } catch (ISException e) {
+            assertTrue(e.getMessage().contains("10000x10000"));
+        }
+        try {
+            newExport(300).maxPixels(300 * HEIGHT - 1).render("");
+            fail("Maximum number of pixels not applied");
+        } catch (ISException e) {
+            assertEquals(0, iTiles.get());
+        }
+    }
+
+    /**
+     * @param aWidth
+     *            the width of the image
+     * @return an export of the map with one unit by pixel
+     */
+    private static MapExport newExport(int aWidth) {
+        return new MapExport(URL).bbox(0, 0, aWidth, HEIGHT).size(aWidth, HEIGHT);
+    }
+
+    /**
+     * @param aX
+     *            x of the pixel
+     * @param aY
+     *            y of the pixel
+     * @return the color of the pixel of the map
+     */
+    private static int color(int aX, int aY) {
+        return 0xFF000000 | (aX % 256) << 16 | (aY % 256) << 8 | (aX / 256 + aY / 256);
+    }
+
+    /**
+     * Check the pixels of an exported image.
+     *
+     * @param aImage
+     *            the image
+     * @param aWidth
+     *            the expected width
+     */
+    private static void assertPixels(BufferedImage aImage, int aWidth) {
+        assertEquals(aWidth, aImage.getWidth());
+        assertEquals(HEIGHT, aImage.getHeight());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < aWidth; x++) {
+                assertEquals("pixel " + x + "," + y, color(x, y), aImage.getRGB(x, y));
+            }
+        }
+    }
+}
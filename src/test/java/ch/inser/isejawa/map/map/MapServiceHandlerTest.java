@@ -0,0 +1,123 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.JsonArray;
+import junit.framework.TestCase;
+
+/**
+ * Test of the domains of several map services.
+ */
+public class MapServiceHandlerTest extends TestCase {
+
+    /**
+     * The first map service.
+     */
+    private static final String FIRST = "https://server/rest/services/First/MapServer";
+
+    /**
+     * The second map service.
+     */
+    private static final String SECOND = "https://server/rest/services/Second/MapServer";
+
+    /**
+     * The URLs requested.
+     */
+    private final List<String> iUrls = new ArrayList<>();
+
+    @Override
+    protected void setUp() {
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                synchronized (iUrls) {
+                    iUrls.add(aUrl);
+                }
+                String body;
+                if (aUrl.startsWith(FIRST)) {
+                    // The domain "status" is shared by the layers 0 and 1
+                    body = "{\"domains\": [{\"name\": \"status\", \"codedValues\": [{\"code\": 1}]},"
+                            + " {\"name\": \"status\", \"codedValues\": [{\"code\": 1}]}, {\"name\": \"kind\"}]}";
+                } else {
+                    body = "{\"domains\": [{\"name\": \"status\", \"codedValues\": [{\"code\": 2}]}]}";
+                }
+                return new TransportResponse(200, body.getBytes());
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        Transports.set(null);
+        MapServiceHandler.clearDomainsCache();
+    }
+
+    /**
+     * The domains are merged by service and name: a domain repeated by a service is returned once, the domain of the same name of
+     * another service is kept. The domains are cached by service and layers.
+     *
+     * @throws ISException
+     *             if a service can't be called
+     */
+    public void testMergeDomains() throws ISException {
+        JsonArray domains = MapServiceHandler.getMapDomains(Arrays.asList(FIRST, SECOND), Arrays.asList("[0,1]", "[0]"), "t");
+        assertEquals(3, domains.size());
+        assertEquals("status", domains.getJsonObject(0).getString("name"));
+        assertEquals(1, domains.getJsonObject(0).getJsonArray("codedValues").getJsonObject(0).getInt("code"));
+        assertEquals("kind", domains.getJsonObject(1).getString("name"));
+        assertEquals(2, domains.getJsonObject(2).getJsonArray("codedValues").getJsonObject(0).getInt("code"));
+        assertEquals(2, iUrls.size());
+
+        MapServiceHandler.getMapDomains(Arrays.asList(FIRST, SECOND), Arrays.asList("[0,1]", "[0]"), "t");
+        assertEquals(2, iUrls.size());
+    }
+
+    /**
+     * One layer group is expected by map service.
+     *
+     * @throws ISException
+     *             if a service can't be called
+     */
+    public void testLayerGroups() throws ISException {
+        try {
+            MapServiceHandler.getMapDomains(Arrays.asList(FIRST, SECOND), Arrays.asList("[0]"), "t");
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(iUrls.isEmpty());
+        }
+    }
+}
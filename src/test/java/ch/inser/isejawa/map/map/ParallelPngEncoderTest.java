@@ -0,0 +1,169 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.map;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the PNG encoder: the images encoded in several strips are decoded identically by ImageIO.
+ */
+public class ParallelPngEncoderTest extends TestCase {
+
+    /**
+     * True color image in many strips, filtered and unfiltered.
+     *
+     * @throws IOException
+     *             if the image can't be encoded
+     */
+    public void testRgb() throws IOException {
+        BufferedImage image = createImage(301, 257, BufferedImage.TYPE_INT_RGB);
+        assertPixels(image, decode(new ParallelPngEncoder(6, true, 4096).encodeToBytes(image)));
+        assertPixels(image, decode(new ParallelPngEncoder(6, false, 4096).encodeToBytes(image)));
+    }
+
+    /**
+     * Image with alpha in many strips, and in one strip.
+     *
+     * @throws IOException
+     *             if the image can't be encoded
+     */
+    public void testArgb() throws IOException {
+        BufferedImage image = createImage(200, 150, BufferedImage.TYPE_INT_ARGB);
+        assertPixels(image, decode(new ParallelPngEncoder(6, true, 1).encodeToBytes(image)));
+        assertPixels(image, decode(new ParallelPngEncoder().encodeToBytes(image)));
+    }
+
+    /**
+     * Image of another type, converted to true colors.
+     *
+     * @throws IOException
+     *             if the image can't be encoded
+     */
+    public void testOtherType() throws IOException {
+        BufferedImage image = createImage(97, 61, BufferedImage.TYPE_3BYTE_BGR);
+        assertPixels(image, decode(new ParallelPngEncoder(1, true, 2000).encodeToBytes(image)));
+    }
+
+    /**
+     * Image written band by band, the filters of the first row of a band referring to the last row of the previous band.
+     *
+     * @throws IOException
+     *             if the image can't be encoded
+     */
+    public void testBands() throws IOException {
+        BufferedImage image = createImage(120, 130, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelPngEncoder.BandWriter png = new ParallelPngEncoder(6, true, 2000).start(out, 120, 130, true);
+        for (int y = 0; y < 130; y += 50) {
+            png.write(image.getSubimage(0, y, 120, Math.min(50, 130 - y)));
+        }
+        assertPixels(image, decode(out.toByteArray()));
+
+        try {
+            new ParallelPngEncoder().start(new ByteArrayOutputStream(), 120, 40, true).write(image);
+            fail("Band higher than the image");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * The combined checksums equal the checksum of the whole data.
+     */
+    public void testCombineAdler() {
+        byte[] data = new byte[200_000];
+        new Random(3).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 70_001);
+        Adler32 second = new Adler32();
+        second.update(data, 70_001, data.length - 70_001);
+        assertEquals(whole.getValue(), ParallelPngEncoder.combineAdler(first.getValue(), second.getValue(), data.length - 70_001));
+        assertEquals(second.getValue(), ParallelPngEncoder.combineAdler(1, second.getValue(), data.length - 70_001));
+    }
+
+    /**
+     * Create an image with lines, text and noise.
+     *
+     * @param aWidth
+     *            the width
+     * @param aHeight
+     *            the height
+     * @param aType
+     *            the image type
+     * @return the image
+     */
+    private static BufferedImage createImage(int aWidth, int aHeight, int aType) {
+        BufferedImage image = new BufferedImage(aWidth, aHeight, aType);
+        Random random = new Random(aWidth);
+        for (int y = 0; y < aHeight; y++) {
+            for (int x = 0; x < aWidth; x++) {
+                int alpha = aType == BufferedImage.TYPE_INT_ARGB ? random.nextInt(256) : 255;
+                image.setRGB(x, y, alpha << 24 | (x * 255 / aWidth) << 16 | (y * 255 / aHeight) << 8 | random.nextInt(16));
+            }
+        }
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.drawLine(0, 0, aWidth, aHeight);
+        graphics.drawString("is-map", 10, 20);
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Decode an image with ImageIO.
+     *
+     * @param aBytes
+     *            the PNG file
+     * @return the image
+     * @throws IOException
+     *             if the image can't be decoded
+     */
+    private static BufferedImage decode(byte[] aBytes) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(aBytes));
+    }
+
+    /**
+     * Check that two images have the same pixels.
+     *
+     * @param aExpected
+     *            the expected image
+     * @param aActual
+     *            the decoded image
+     */
+    private static void assertPixels(BufferedImage aExpected, BufferedImage aActual) {
+        assertNotNull(aActual);
+        assertEquals(aExpected.getWidth(), aActual.getWidth());
+        assertEquals(aExpected.getHeight(), aActual.getHeight());
+        for (int y = 0; y < aExpected.getHeight(); y++) {
+            for (int x = 0; x < aExpected.getWidth(); x++) {
+                assertEquals("pixel " + x + "," + y, aExpected.getRGB(x, y), aActual.getRGB(x, y));
+            }
+        }
+    }
+}
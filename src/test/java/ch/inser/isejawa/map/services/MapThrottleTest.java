@@ -0,0 +1,96 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.services;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import ch.inser.dynamic.common.IContextManager;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the rate limits of the throttle.
+ */
+public class MapThrottleTest extends TestCase {
+
+    /**
+     * A map service.
+     */
+    private static final String MAP_URL = "https://gis/arcgis/rest/services/Demo/MapServer/export";
+
+    /**
+     * Another map service.
+     */
+    private static final String OTHER_URL = "https://gis/arcgis/rest/services/Other/MapServer/export";
+
+    /**
+     * The properties of the context manager.
+     */
+    private final Properties iProperties = new Properties();
+
+    @Override
+    protected void setUp() {
+        iProperties.setProperty("map.ratelimit.user.rate", "0.001");
+        iProperties.setProperty("map.ratelimit.user.burst", "2");
+        iProperties.setProperty("map.ratelimit.service.rate", "0.001");
+        iProperties.setProperty("map.ratelimit.service.burst", "1");
+    }
+
+    /**
+     * A request rejected by the service limit gives back the token of the user.
+     */
+    public void testServiceLimitKeepsUserToken() {
+        MapThrottle throttle = new MapThrottle(getContextManager());
+        assertEquals(0, throttle.getWait("user", Collections.singletonList(MAP_URL)));
+        assertTrue(throttle.getWait("user", Collections.singletonList(MAP_URL)) > 0);
+        assertTrue(throttle.getWait("user", Collections.singletonList(MAP_URL)) > 0);
+        assertEquals(0, throttle.getWait("user", Collections.singletonList(OTHER_URL)));
+        assertTrue(throttle.getWait("user", Collections.singletonList("https://gis/arcgis/rest/services/Third/MapServer")) > 0);
+    }
+
+    /**
+     * A request rejected by the limit of one service gives back the tokens of the other services.
+     */
+    public void testServiceLimitKeepsServiceTokens() {
+        iProperties.setProperty("map.ratelimit.user.burst", "10");
+        MapThrottle throttle = new MapThrottle(getContextManager());
+        assertEquals(0, throttle.getWait("a", Collections.singletonList(OTHER_URL)));
+        assertTrue(throttle.getWait("b", Arrays.asList(MAP_URL, OTHER_URL)) > 0);
+        assertEquals(0, throttle.getWait("b", Collections.singletonList(MAP_URL)));
+    }
+
+    /**
+     * The limits are disabled without properties.
+     */
+    public void testDisabled() {
+        iProperties.clear();
+        MapThrottle throttle = new MapThrottle(getContextManager());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, throttle.getWait(null, Collections.singletonList(MAP_URL)));
+        }
+    }
+
+    /**
+     * @return the context manager with the properties
+     */
+    private IContextManager getContextManager() {
+        return (IContextManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IContextManager.class },
+                (proxy, method, args) -> "getProperty".equals(method.getName()) ? iProperties.getProperty((String) args[0]) : null);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.services;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.map.MapServiceHandler;
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.isejawa.map.util.ServiceUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the warm-up of the caches.
+ */
+public class MapWarmupTest extends TestCase {
+
+    /**
+     * The map service of the domains.
+     */
+    private static final String MAP_URL = "https://gis/arcgis/rest/services/Demo/MapServer";
+
+    /**
+     * The properties of the context manager.
+     */
+    private final Properties iProperties = new Properties();
+
+    /**
+     * The requests sent: method and URL.
+     */
+    private final List<String> iRequests = new ArrayList<>();
+
+    /**
+     * <code>true</code> if the transport keeps its connections.
+     */
+    private boolean iKeepingConnections;
+
+    /**
+     * The map configuration file.
+     */
+    private Path iFile;
+
+    @Override
+    protected void setUp() throws IOException {
+        iFile = Files.createTempFile("map", ".json");
+        Files.write(iFile, ("{\"warmup\": {\"timeout\": 10, \"referer\": \"https://app/\", \"services\": [\"map.service\"],"
+                + " \"domains\": [{\"url\": \"" + MAP_URL + "\", \"layers\": [\"[0]\", \"[1]\"]}], \"hosts\": [\"https://other\"]}}")
+                        .getBytes(StandardCharsets.UTF_8));
+        iProperties.setProperty("map.config.file", iFile.toString());
+        iProperties.setProperty("map.service.token.service", "https://portal/sharing/rest/generateToken");
+
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                add("GET " + aUrl);
+                return new TransportResponse(200, "{\"domains\": [{\"name\": \"status\"}]}".getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                add("POST " + aUrl);
+                return new TransportResponse(200, "{\"token\": \"t\", \"expires\": 4102444800000}".getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public int head(String aUrl) {
+                add("HEAD " + aUrl);
+                return 200;
+            }
+
+            @Override
+            public boolean isKeepingConnections() {
+                return iKeepingConnections;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Transports.set(null);
+        ServiceUtil.clearTokenCache();
+        MapServiceHandler.clearDomainsCache();
+        Files.deleteIfExists(iFile);
+    }
+
+    /**
+     * The token is generated once and the domains of each layer group are fetched, the hosts are not connected when the transport
+     * does not keep its connections.
+     */
+    public void testRun() {
+        assertTrue(MapWarmup.run(getContextManager()));
+        assertEquals(1, count("POST https://portal/sharing/rest/generateToken"));
+        assertEquals(2, count("GET " + MAP_URL + "/queryDomains"));
+        assertEquals(0, count("HEAD"));
+    }
+
+    /**
+     * The hosts listed, of the token services and of the map services are connected when the transport keeps its connections.
+     */
+    public void testConnect() {
+        iKeepingConnections = true;
+        assertTrue(MapWarmup.run(getContextManager()));
+        assertEquals(1, count("HEAD https://other"));
+        assertEquals(1, count("HEAD https://portal"));
+        assertEquals(1, count("HEAD https://gis"));
+        assertEquals(3, count("HEAD"));
+    }
+
+    /**
+     * @return the context manager giving the properties
+     */
+    private IContextManager getContextManager() {
+        return (IContextManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IContextManager.class },
+                (proxy, method, args) -> "getProperty".equals(method.getName()) ? iProperties.getProperty((String) args[0]) : null);
+    }
+
+    /**
+     * @param aRequest
+     *            a request sent
+     */
+    private void add(String aRequest) {
+        synchronized (iRequests) {
+            iRequests.add(aRequest);
+        }
+    }
+
+    /**
+     * @param aPrefix
+     *            the start of the requests to count
+     * @return the number of requests sent starting with the prefix
+     */
+    private int count(String aPrefix) {
+        synchronized (iRequests) {
+            return (int) iRequests.stream().filter(request -> request.startsWith(aPrefix)).count();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.trace;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import ch.inser.rest.util.JsonUtil;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import junit.framework.TestCase;
+
+/**
+ * Test of the trace context propagation, of the <code>Server-Timing</code> header and of the OTLP/JSON export.
+ */
+public class TracerTest extends TestCase {
+
+    /**
+     * A received trace context.
+     */
+    private static final String TRACEPARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+    /**
+     * The file of the exported traces.
+     */
+    private Path iFile;
+
+    @Override
+    protected void setUp() throws IOException {
+        iFile = Files.createTempFile("traces", ".json");
+        System.setProperty("map.trace.exporter", "file");
+        System.setProperty("map.trace.file", iFile.toString());
+        System.setProperty("map.trace.servertiming", "true");
+        Tracer.configure(null);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        System.clearProperty("map.trace.exporter");
+        System.clearProperty("map.trace.file");
+        System.clearProperty("map.trace.servertiming");
+        Tracer.configure(null);
+        Files.delete(iFile);
+    }
+
+    /**
+     * The received trace is continued and the propagated header gives the trace and the current span.
+     */
+    public void testTraceparent() {
+        Span trace = Tracer.startTrace("GET /test", TRACEPARENT.toUpperCase());
+        try {
+            assertEquals("0af7651916cd43dd8448eb211c80319c", trace.getTraceId());
+            assertEquals("b7ad6b7169203331", trace.getParentSpanId());
+            assertEquals("00-" + trace.getTraceId() + "-" + trace.getSpanId() + "-01", Tracer.traceparent());
+            try (Span span = Tracer.startSpan("child")) {
+                assertEquals("00-" + trace.getTraceId() + "-" + span.getSpanId() + "-01", Tracer.traceparent());
+            }
+            assertEquals(trace.getTraceparent(), Tracer.traceparent());
+
+            // The sent header is read back by the next server
+            Span next = Tracer.startTrace("GET /next", trace.getTraceparent());
+            assertEquals(trace.getTraceId(), next.getTraceId());
+            assertEquals(trace.getSpanId(), next.getParentSpanId());
+            next.end();
+        } finally {
+            trace.end();
+        }
+        assertNull(Tracer.traceparent());
+    }
+
+    /**
+     * An invalid header starts a new trace.
+     */
+    public void testInvalidTraceparent() {
+        for (String header : new String[] { null, "", "00-123-456-01", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b716920333z-01" }) {
+            Span trace = Tracer.startTrace("GET /test", header);
+            trace.end();
+            assertTrue(trace.getTraceId().matches("[0-9a-f]{32}"));
+            assertTrue(trace.getSpanId().matches("[0-9a-f]{16}"));
+            assertNull(trace.getParentSpanId());
+        }
+    }
+
+    /**
+     * The header lists the ended stages directly under the request, summed by name, and the total.
+     */
+    public void testServerTiming() {
+        Span trace = Tracer.startTrace("GET /test", null);
+        try {
+            Tracer.startSpan("token").end();
+            Span upstream = Tracer.startSpan("upstream");
+            Tracer.startSpan("nested").end();
+            upstream.end();
+            Tracer.startSpan("upstream").end();
+            Tracer.startSpan("running");
+            String header = Tracer.serverTiming(trace);
+            assertTrue(header, header.matches("token;dur=\\d+\\.\\d, upstream;dur=\\d+\\.\\d, total;dur=\\d+\\.\\d"));
+        } finally {
+            Tracer.detach(Tracer.current());
+            trace.end();
+        }
+        assertNull(Tracer.serverTiming(Span.NOOP));
+    }
+
+    /**
+     * The trace is exported in OTLP/JSON when the request ends.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testOtlpJson() throws IOException {
+        Span trace = Tracer.startTrace("GET /test", TRACEPARENT);
+        try (Span span = Tracer.startSpan("POST", Span.Kind.CLIENT)) {
+            span.setAttribute("http.response.status_code", 200).setAttribute("retry", true).setAttribute("ratio", 0.5)
+                    .setAttribute("url.full", "https://server/query").setError(new IOException("refused"));
+        }
+        assertEquals(0, Files.size(iFile));
+        trace.end();
+
+        List<String> lines = Files.readAllLines(iFile, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        JsonObject resourceSpans = JsonUtil.stringToJsonObject(lines.get(0)).getJsonArray("resourceSpans").getJsonObject(0);
+        JsonObject serviceName = resourceSpans.getJsonObject("resource").getJsonArray("attributes").getJsonObject(0);
+        assertEquals("service.name", serviceName.getString("key"));
+        assertEquals("is-map", serviceName.getJsonObject("value").getString("stringValue"));
+        JsonObject scopeSpans = resourceSpans.getJsonArray("scopeSpans").getJsonObject(0);
+        assertEquals("ch.inser.isejawa.map", scopeSpans.getJsonObject("scope").getString("name"));
+
+        JsonArray spans = scopeSpans.getJsonArray("spans");
+        assertEquals(2, spans.size());
+        JsonObject client = spans.getJsonObject(0);
+        JsonObject server = spans.getJsonObject(1);
+        assertEquals("POST", client.getString("name"));
+        assertEquals(3, client.getInt("kind"));
+        assertEquals(server.getString("spanId"), client.getString("parentSpanId"));
+        assertEquals(2, server.getInt("kind"));
+        assertEquals("b7ad6b7169203331", server.getString("parentSpanId"));
+        assertEquals("0af7651916cd43dd8448eb211c80319c", client.getString("traceId"));
+        long start = Long.parseLong(client.getString("startTimeUnixNano"));
+        assertTrue(start > 0 && Long.parseLong(client.getString("endTimeUnixNano")) >= start);
+
+        assertEquals("[{\"key\":\"http.response.status_code\",\"value\":{\"intValue\":\"200\"}},"
+                + "{\"key\":\"retry\",\"value\":{\"boolValue\":true}},{\"key\":\"ratio\",\"value\":{\"doubleValue\":0.5}},"
+                + "{\"key\":\"url.full\",\"value\":{\"stringValue\":\"https://server/query\"}}]",
+                client.getJsonArray("attributes").toString());
+        assertEquals(2, client.getJsonObject("status").getInt("code"));
+        assertEquals("java.io.IOException: refused", client.getJsonObject("status").getString("message"));
+        assertFalse(server.containsKey("status"));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the pipe between the writer of a request body and the HTTP client.
+ */
+public class BodyPipeTest extends TestCase {
+
+    /**
+     * The executor of the readers, its threads being reused between the pipes.
+     */
+    private final ExecutorService iExecutor = Executors.newSingleThreadExecutor();
+
+    @Override
+    protected void tearDown() {
+        iExecutor.shutdownNow();
+    }
+
+    /**
+     * The bytes are read as written, larger than the capacity of the pipe, by a thread reused for several pipes.
+     *
+     * @throws Exception
+     *             error
+     */
+    public void testTransfer() throws Exception {
+        byte[] body = new byte[200_000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        for (int i = 0; i < 3; i++) {
+            BodyPipe pipe = new BodyPipe(16_384, 5_000);
+            Future<byte[]> read = iExecutor.submit(() -> readAll(pipe.getInputStream()));
+            try (OutputStream out = pipe.getOutputStream()) {
+                out.write(body, 0, 1000);
+                out.write(body[1000]);
+                out.write(body, 1001, body.length - 1001);
+            }
+            assertTrue(Arrays.equals(body, read.get()));
+        }
+    }
+
+    /**
+     * The writer fails when the reader closes the pipe.
+     *
+     * @throws Exception
+     *             error
+     */
+    public void testAbort() throws Exception {
+        BodyPipe pipe = new BodyPipe(8192, 5_000);
+        pipe.getInputStream().close();
+        try (OutputStream out = pipe.getOutputStream()) {
+            out.write(new byte[100_000]);
+            fail("Written in an aborted pipe");
+        } catch (IOException e) {
+            assertEquals("Request body aborted", e.getMessage());
+        }
+    }
+
+    /**
+     * The writer fails when nobody reads within the timeout.
+     */
+    public void testTimeout() {
+        BodyPipe pipe = new BodyPipe(8192, 200);
+        try (OutputStream out = pipe.getOutputStream()) {
+            out.write(new byte[100_000]);
+            fail("Written without reader");
+        } catch (IOException e) {
+            assertEquals("Request body timed out", e.getMessage());
+        }
+    }
+
+    /**
+     * @param aIn
+     *            the stream
+     * @return all the bytes of the stream
+     * @throws IOException
+     *             error
+     */
+    private static byte[] readAll(InputStream aIn) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3000];
+        int length;
+        while ((length = aIn.read(buffer)) >= 0) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+}
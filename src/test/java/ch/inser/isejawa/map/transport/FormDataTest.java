@@ -0,0 +1,92 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonValue;
+import junit.framework.TestCase;
+
+/**
+ * Test of the streamed URL-encoding of the forms.
+ */
+public class FormDataTest extends TestCase {
+
+    /**
+     * Text with reserved characters, accents, a character outside of the BMP (surrogate pair) and a line break.
+     */
+    private static final String TEXT = "a&b=c d+e/\u00e9\u20ac \ud83d\uddfa\n";
+
+    /**
+     * A JSON parameter is written with the same bytes as the string encoding of its serialization.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testJsonParameter() throws IOException {
+        JsonValue features = Json.createArrayBuilder().add(Json.createObjectBuilder().add("attributes",
+                Json.createObjectBuilder().add("NAME", TEXT).add("VALUE", 1.5))).build();
+        FormData form = new FormData().param("f", "json").param("features", features).param("token", "t 1");
+        assertTrue(form.isStreamed());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        form.writeTo(out);
+        assertTrue(Arrays.equals(form.toBytes(), out.toByteArray()));
+        String expected = "f=json&features=" + FormData.encode(features.toString()) + "&token=t%201";
+        assertEquals(expected, new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A large JSON parameter, with surrogate pairs across the buffer boundaries, gives the same bytes as the string encoding.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testLargeJsonParameter() throws IOException {
+        JsonArrayBuilder values = Json.createArrayBuilder();
+        for (int i = 0; i < 2000; i++) {
+            values.add(i + TEXT);
+        }
+        JsonValue value = values.build();
+        FormData form = new FormData().param("values", value);
+        assertEquals("values=" + FormData.encode(value.toString()), new String(form.toBytes(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A surrogate pair split across two writes is encoded as one character, a lone surrogate as a question mark like
+     * {@link FormData#encode(String)}.
+     *
+     * @throws IOException
+     *             error
+     */
+    public void testSurrogates() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new UrlEncodingWriter(out)) {
+            writer.write("x\ud83d");
+            writer.write("\uddfay");
+            writer.write("\udc00z\ud83d");
+        }
+        String expected = FormData.encode("x\ud83d\uddfay") + FormData.encode("\udc00z") + FormData.encode("\ud83d");
+        assertEquals(expected, new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals("x%F0%9F%97%BAy%3Fz%3F", expected);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the transport limiting the concurrent calls to each server.
+ */
+public class LimitingTransportTest extends TestCase {
+
+    /**
+     * The operation of a call is the last segment of its path, the ids being merged in one operation.
+     */
+    public void testOperation() {
+        String services = "https://gis.example.com/arcgis/rest/services/a/";
+        assertEquals("query", LimitingTransport.getOperation(services + "FeatureServer/0/query?f=json"));
+        assertEquals("export", LimitingTransport.getOperation(services + "MapServer/export"));
+        assertEquals("{id}", LimitingTransport.getOperation(services + "FeatureServer/12/"));
+        assertEquals("", LimitingTransport.getOperation("https://gis.example.com"));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Comparison of the transports on concurrent GET requests to an ArcGIS server. Not run by the unit tests, start it with:
+ *
+ * <pre>
+ * java ch.inser.isejawa.map.transport.TransportBenchmark &lt;url&gt; [requests] [concurrency]
+ * </pre>
+ *
+ * The URL should be a cheap request, for example <code>https://server/arcgis/rest/services/Demo/MapServer?f=json&amp;token=...</code>.
+ *
+ * @author INSER SA
+ */
+public class TransportBenchmark {
+
+    /**
+     * Default number of requests by transport.
+     */
+    private static final int DEFAULT_REQUESTS = 500;
+
+    /**
+     * Default number of concurrent requests.
+     */
+    private static final int DEFAULT_CONCURRENCY = 64;
+
+    /**
+     * Number of requests sent before the measure, to open the connections.
+     */
+    private static final int WARMUP_REQUESTS = 20;
+
+    /**
+     * Private constructor to hide the public one.
+     */
+    private TransportBenchmark() {
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param aArgs
+     *            the URL, the number of requests and the number of concurrent requests
+     * @throws Exception
+     *             if a request fails
+     */
+    public static void main(String[] aArgs) throws Exception {
+        if (aArgs.length < 1) {
+            System.err.println("Usage: TransportBenchmark <url> [requests] [concurrency]");
+            return;
+        }
+        String url = aArgs[0];
+        int requests = aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : DEFAULT_REQUESTS;
+        int concurrency = aArgs.length > 2 ? Integer.parseInt(aArgs[2]) : DEFAULT_CONCURRENCY;
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (String name : Arrays.asList(Transports.RESTEASY, Transports.HTTP2)) {
+                Transport transport = Transports.create(name);
+                run(executor, transport, url, WARMUP_REQUESTS);
+                long start = System.nanoTime();
+                long[] latencies = run(executor, transport, url, requests);
+                long duration = System.nanoTime() - start;
+                Arrays.sort(latencies);
+                System.out.println(String.format("%-8s requests=%d concurrency=%d total=%d ms throughput=%.1f/s p50=%.1f ms p95=%.1f ms "
+                        + "p99=%.1f ms", name, requests, concurrency, duration / 1_000_000, requests * 1e9 / duration,
+                        percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Send concurrent requests.
+     *
+     * @param aExecutor
+     *            the executor sending the requests
+     * @param aTransport
+     *            the transport
+     * @param aUrl
+     *            the URL
+     * @param aRequests
+     *            the number of requests
+     * @return the latency of each request in nanoseconds
+     * @throws Exception
+     *             if a request fails
+     */
+    private static long[] run(ExecutorService aExecutor, Transport aTransport, String aUrl, int aRequests) throws Exception {
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < aRequests; i++) {
+            tasks.add(() -> {
+                long start = System.nanoTime();
+                TransportResponse response = aTransport.get(aUrl);
+                if (response.getStatus() >= 400) {
+                    throw new IllegalStateException("HTTP " + response.getStatus());
+                }
+                return System.nanoTime() - start;
+            });
+        }
+        long[] latencies = new long[aRequests];
+        int i = 0;
+        for (Future<Long> future : aExecutor.invokeAll(tasks)) {
+            latencies[i++] = future.get();
+        }
+        return latencies;
+    }
+
+    /**
+     * Get a percentile of sorted latencies.
+     *
+     * @param aSorted
+     *            the sorted latencies in nanoseconds
+     * @param aPercentile
+     *            the percentile, from 0 to 100
+     * @return the latency in milliseconds
+     */
+    private static double percentile(long[] aSorted, int aPercentile) {
+        int index = Math.min(aSorted.length - 1, (int) Math.ceil(aPercentile / 100.0 * aSorted.length) - 1);
+        return aSorted[Math.max(0, index)] / 1e6;
+    }
+}
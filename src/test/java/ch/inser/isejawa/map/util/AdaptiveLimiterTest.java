@@ -0,0 +1,205 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the adaptive concurrency limit.
+ */
+public class AdaptiveLimiterTest extends TestCase {
+
+    /**
+     * Latency of the fast calls in nanoseconds, short so the decreases are not delayed by the cooldown.
+     */
+    private static final long FAST = 10_000;
+
+    /**
+     * The limit grows while the slots are used and the latency stays at its baseline, up to the maximum.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public void testIncrease() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 4, 6, 2);
+        for (int i = 0; i < 100; i++) {
+            call(limiter, 4, FAST, false);
+        }
+        assertEquals(6, limiter.getLimit());
+        assertEquals(400, limiter.getCalls());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(FAST / 1e6, limiter.getBaselineLatencyMillis(), 1e-9);
+    }
+
+    /**
+     * The limit does not grow when the slots are not used.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public void testUnused() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 8, 64, 2);
+        for (int i = 0; i < 100; i++) {
+            call(limiter, 1, FAST, false);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    /**
+     * The limit decreases when the latency rises above the tolerance, and when the server is overloaded, down to 1.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public void testDecrease() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 64, 2);
+        call(limiter, 1, FAST, false);
+        Thread.sleep(1);
+        call(limiter, 1, FAST * 3, false);
+        assertEquals(9, limiter.getLimit());
+
+        Thread.sleep(1);
+        call(limiter, 1, FAST, true);
+        assertEquals(6, limiter.getLimit());
+        assertEquals(1, limiter.getErrors());
+
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(1);
+            call(limiter, 1, FAST, true);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    /**
+     * The limit decreases at most once by baseline latency, the calls started before a decrease do not decrease it again.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public void testCooldown() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 64, 2);
+        call(limiter, 1, 60_000_000_000L, false);
+        call(limiter, 5, 60_000_000_000L, true);
+        assertEquals(10, limiter.getLimit());
+    }
+
+    /**
+     * The latency of an operation is compared with the baseline of the same operation, the slow exports do not decrease the limit
+     * of the fast queries.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public void testOperations() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 64, 2);
+        assertTrue(limiter.acquire(0));
+        limiter.release("query", FAST, false);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(1);
+            assertTrue(limiter.acquire(0));
+            limiter.release("export", FAST * 100, false);
+        }
+        assertEquals(10, limiter.getLimit());
+        assertEquals(FAST / 1e6, limiter.getBaselineLatenciesMillis().get("query"), 1e-9);
+        assertEquals(FAST * 100 / 1e6, limiter.getBaselineLatenciesMillis().get("export"), 1e-9);
+        assertEquals(FAST * 100 / 1e6, limiter.getBaselineLatencyMillis(), 1e-9);
+
+        Thread.sleep(1);
+        assertTrue(limiter.acquire(0));
+        limiter.release("query", FAST * 3, false);
+        assertEquals(9, limiter.getLimit());
+    }
+
+    /**
+     * The limiters published in JMX are removed by {@link AdaptiveLimiter#unregisterAll()}.
+     *
+     * @throws Exception
+     *             if the MBean server can't be queried
+     */
+    public void testUnregister() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ch.inser.isejawa.map:type=AdaptiveLimiter,name=" + ObjectName.quote("test:8080"));
+        new AdaptiveLimiter("test:8080", 4, 8, 2).register();
+        assertTrue(server.isRegistered(name));
+        assertEquals(4, server.getAttribute(name, "Limit"));
+
+        AdaptiveLimiter.unregisterAll();
+        assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * A call waits for a free slot, and gives up after the timeout.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public void testTimeout() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 1, 2);
+        assertTrue(limiter.acquire(10));
+        assertFalse(limiter.acquire(10));
+        assertEquals(1, limiter.getTimeouts());
+
+        Thread releaser = new Thread(() -> {
+            sleep(20);
+            limiter.release(FAST, false);
+        });
+        releaser.start();
+        assertTrue(limiter.acquire(5_000));
+        releaser.join();
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    /**
+     * Simulate concurrent calls: take slots, then release them with the same outcome.
+     *
+     * @param aLimiter
+     *            the limiter
+     * @param aConcurrency
+     *            the number of concurrent calls
+     * @param aLatency
+     *            the latency of the calls in nanoseconds
+     * @param aOverload
+     *            the outcome of the calls
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    private static void call(AdaptiveLimiter aLimiter, int aConcurrency, long aLatency, boolean aOverload)
+            throws InterruptedException {
+        for (int i = 0; i < aConcurrency; i++) {
+            assertTrue(aLimiter.acquire(0));
+        }
+        for (int i = 0; i < aConcurrency; i++) {
+            aLimiter.release(aLatency, aOverload);
+        }
+    }
+
+    /**
+     * @param aMillis
+     *            the time to sleep in milliseconds
+     */
+    private static void sleep(long aMillis) {
+        try {
+            Thread.sleep(aMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
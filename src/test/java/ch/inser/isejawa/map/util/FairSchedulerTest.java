@@ -0,0 +1,126 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the permits shared between the users.
+ */
+public class FairSchedulerTest extends TestCase {
+
+    /**
+     * Without free permit, the request waits until the timeout and is then removed from the queue.
+     *
+     * @throws InterruptedException
+     *             error
+     */
+    public void testTimeout() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1);
+        assertTrue(scheduler.acquire("a", 0));
+        assertFalse(scheduler.acquire("b", 20));
+        assertEquals(0, scheduler.getWaiting());
+        scheduler.release();
+        assertTrue(scheduler.acquire("b", 0));
+    }
+
+    /**
+     * The released permits are given to the users in turn, not in the order of the requests.
+     *
+     * @throws InterruptedException
+     *             error
+     */
+    public void testTurns() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1);
+        assertTrue(scheduler.acquire("holder", 0));
+        List<String> order = new CopyOnWriteArrayList<>();
+        String[] users = { "a", "a", "a", "b" };
+        Thread[] threads = new Thread[users.length];
+        for (int i = 0; i < users.length; i++) {
+            String user = users[i];
+            threads[i] = new Thread(() -> {
+                try {
+                    if (scheduler.acquire(user, 10_000)) {
+                        order.add(user);
+                        scheduler.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+            waitFor(scheduler, i + 1);
+        }
+        scheduler.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("[a, b, a, a]", order.toString());
+    }
+
+    /**
+     * A waiting request interrupted keeps no permit, even when the permit was given at the same time.
+     *
+     * @throws InterruptedException
+     *             error
+     */
+    public void testInterrupt() throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            FairScheduler scheduler = new FairScheduler(1);
+            assertTrue(scheduler.acquire("a", 0));
+            AtomicBoolean granted = new AtomicBoolean();
+            Thread waiter = new Thread(() -> {
+                try {
+                    granted.set(scheduler.acquire("b", 10_000));
+                } catch (InterruptedException e) {
+                    // The permit is not held
+                }
+            });
+            waiter.start();
+            waitFor(scheduler, 1);
+            waiter.interrupt();
+            scheduler.release();
+            waiter.join();
+            if (granted.get()) {
+                scheduler.release();
+            }
+            assertTrue("Permit lost at iteration " + i, scheduler.acquire("c", 0));
+            assertEquals(0, scheduler.getWaiting());
+        }
+    }
+
+    /**
+     * Wait until a number of requests are queued.
+     *
+     * @param aScheduler
+     *            the scheduler
+     * @param aWaiting
+     *            the number of requests
+     * @throws InterruptedException
+     *             error
+     */
+    private static void waitFor(FairScheduler aScheduler, int aWaiting) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5_000;
+        while (aScheduler.getWaiting() < aWaiting && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        assertEquals(aWaiting, aScheduler.getWaiting());
+    }
+}
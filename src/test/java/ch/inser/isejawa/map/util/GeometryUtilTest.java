@@ -0,0 +1,232 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.io.StringWriter;
+
+import ch.inser.rest.util.JsonUtil;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.stream.JsonGenerator;
+import junit.framework.TestCase;
+
+/**
+ * Test of the local intersection of the geometries and of the GeoJSON conversion.
+ */
+public class GeometryUtilTest extends TestCase {
+
+    /**
+     * Square 0-10 with a hole 4-6, outer ring clockwise.
+     */
+    private static final JsonObject POLYGON = JsonUtil
+            .stringToJsonObject("{\"rings\": [[[0,0],[0,10],[10,10],[10,0],[0,0]], [[4,4],[6,4],[6,6],[4,6],[4,4]]]}");
+
+    /**
+     * Points inside, outside, in the hole and on the boundary.
+     */
+    public void testPointInPolygon() {
+        assertTrue(GeometryUtil.intersects(point(2, 2), POLYGON));
+        assertFalse(GeometryUtil.intersects(point(12, 2), POLYGON));
+        assertFalse(GeometryUtil.intersects(point(5, 5), POLYGON));
+        assertTrue(GeometryUtil.intersects(POLYGON, point(0, 5)));
+        assertTrue(GeometryUtil.intersects(POLYGON, point(4, 5)));
+    }
+
+    /**
+     * Lines crossing, inside, in the hole and outside.
+     */
+    public void testPolyline() {
+        assertTrue(GeometryUtil.intersects(line(-5, 5, 5, 5), POLYGON));
+        assertTrue(GeometryUtil.intersects(line(1, 1, 2, 2), POLYGON));
+        assertFalse(GeometryUtil.intersects(line(4.5, 4.5, 5.5, 5.5), POLYGON));
+        assertFalse(GeometryUtil.intersects(line(11, 0, 11, 10), POLYGON));
+        assertTrue(GeometryUtil.intersects(line(0, 0, 10, 10), line(0, 10, 10, 0)));
+        assertTrue(GeometryUtil.intersects(line(0, 0, 5, 0), line(5, 0, 10, 0)));
+        assertFalse(GeometryUtil.intersects(line(0, 0, 4, 0), line(5, 0, 10, 0)));
+    }
+
+    /**
+     * Polygons overlapping, containing each other and disjoint, envelopes and multipoints.
+     */
+    public void testPolygons() {
+        assertTrue(GeometryUtil.intersects(envelope(8, 8, 12, 12), POLYGON));
+        assertTrue(GeometryUtil.intersects(envelope(-1, -1, 11, 11), POLYGON));
+        assertTrue(GeometryUtil.intersects(envelope(1, 1, 2, 2), POLYGON));
+        assertFalse(GeometryUtil.intersects(envelope(4.5, 4.5, 5.5, 5.5), POLYGON));
+        assertFalse(GeometryUtil.intersects(envelope(20, 20, 30, 30), POLYGON));
+        assertTrue(GeometryUtil.intersects(JsonUtil.stringToJsonObject("{\"points\": [[20,20],[2,2]]}"), POLYGON));
+        assertFalse(GeometryUtil.intersects(JsonUtil.stringToJsonObject("{\"points\": [[20,20],[5,5]]}"), POLYGON));
+    }
+
+    /**
+     * Points and lines in GeoJSON.
+     */
+    public void testWriteGeoJsonPoint() {
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[1.0,2.0]}", writeGeoJson("{\"x\": 1, \"y\": 2}"));
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[0.0,0.0],[1.0,1.0]]}", writeGeoJson("{\"paths\": [[[0,0],[1,1]]]}"));
+        assertEquals("null", writeGeoJson(null));
+    }
+
+    /**
+     * A polygon with a hole is written counterclockwise, with the hole after the outer ring even if given before it.
+     */
+    public void testWriteGeoJsonPolygon() {
+        JsonObject polygon = JsonUtil.stringToJsonObject(writeGeoJson(POLYGON.toString()));
+        assertEquals("Polygon", polygon.getString("type"));
+        JsonArray rings = polygon.getJsonArray("coordinates");
+        assertEquals(2, rings.size());
+        assertEquals("[[0.0,0.0],[10.0,0.0],[10.0,10.0],[0.0,10.0],[0.0,0.0]]", rings.get(0).toString());
+        assertEquals("[[4.0,4.0],[4.0,6.0],[6.0,6.0],[6.0,4.0],[4.0,4.0]]", rings.get(1).toString());
+
+        String holeFirst = "{\"rings\": [[[4,4],[6,4],[6,6],[4,6],[4,4]], [[0,0],[0,10],[10,10],[10,0],[0,0]]]}";
+        assertEquals(writeGeoJson(POLYGON.toString()), writeGeoJson(holeFirst));
+    }
+
+    /**
+     * The holes are assigned to the outer ring containing them, whatever the order of the rings, an island in a hole being an
+     * other polygon with its own holes.
+     */
+    public void testWriteGeoJsonMultiPolygon() {
+        String rings = "{\"rings\": [[[0,0],[0,10],[10,10],[10,0],[0,0]], [[24,24],[26,24],[26,26],[24,26],[24,24]],"
+                + " [[20,20],[20,30],[30,30],[30,20],[20,20]], [[2,2],[8,2],[8,8],[2,8],[2,2]],"
+                + " [[4,4],[4,6],[6,6],[6,4],[4,4]], [[4.5,4.5],[5.5,4.5],[5.5,5.5],[4.5,5.5],[4.5,4.5]]]}";
+        JsonObject multiPolygon = JsonUtil.stringToJsonObject(writeGeoJson(rings));
+        assertEquals("MultiPolygon", multiPolygon.getString("type"));
+        JsonArray polygons = multiPolygon.getJsonArray("coordinates");
+        assertEquals(3, polygons.size());
+        assertEquals(2, polygons.getJsonArray(0).size());
+        assertEquals(2.0, firstX(polygons.getJsonArray(0).getJsonArray(1)));
+        assertEquals(2, polygons.getJsonArray(1).size());
+        assertEquals(24.0, firstX(polygons.getJsonArray(1).getJsonArray(1)));
+        assertEquals(2, polygons.getJsonArray(2).size());
+        assertEquals(4.5, firstX(polygons.getJsonArray(2).getJsonArray(1)));
+    }
+
+    /**
+     * @param aGeometry
+     *            the ArcGIS geometry, <code>null</code> for none
+     * @return the GeoJSON geometry
+     */
+    private static String writeGeoJson(String aGeometry) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartArray();
+            GeometryUtil.writeGeoJson(aGeometry == null ? null : JsonUtil.stringToJsonObject(aGeometry), generator);
+            generator.writeEnd();
+        }
+        String array = out.toString();
+        return array.substring(1, array.length() - 1);
+    }
+
+    /**
+     * @param aRing
+     *            a GeoJSON ring
+     * @return the x of its first position
+     */
+    private static double firstX(JsonArray aRing) {
+        return aRing.getJsonArray(0).getJsonNumber(0).doubleValue();
+    }
+
+    /**
+     * A GeoJSON point and line are converted with the spatial reference.
+     */
+    public void testToEsriGeometryPoint() {
+        JsonObject point = GeometryUtil.toEsriGeometry(JsonUtil.stringToJsonObject("{\"type\":\"Point\",\"coordinates\":[7.5,46.9]}"),
+                4326);
+        assertEquals(7.5, point.getJsonNumber("x").doubleValue(), 0);
+        assertEquals(46.9, point.getJsonNumber("y").doubleValue(), 0);
+        assertEquals(4326, point.getJsonObject("spatialReference").getInt("wkid"));
+
+        JsonObject line = GeometryUtil.toEsriGeometry(
+                JsonUtil.stringToJsonObject("{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,1]]}"), 2056);
+        assertEquals("[[[0,0],[1,1]]]", line.getJsonArray("paths").toString());
+        assertNull(GeometryUtil.toEsriGeometry(null, 2056));
+    }
+
+    /**
+     * The GeoJSON rings (outer counterclockwise) are converted to ArcGIS rings (outer clockwise, holes counterclockwise), the
+     * polygons of a multipolygon in one array of rings.
+     */
+    public void testToEsriGeometryPolygon() {
+        String outer = "[[0,0],[10,0],[10,10],[0,10],[0,0]]";
+        String hole = "[[4,4],[4,6],[6,6],[6,4],[4,4]]";
+        JsonObject polygon = GeometryUtil.toEsriGeometry(
+                JsonUtil.stringToJsonObject("{\"type\":\"Polygon\",\"coordinates\":[" + outer + "," + hole + "]}"), 2056);
+        JsonArray rings = polygon.getJsonArray("rings");
+        assertEquals("[[0,0],[0,10],[10,10],[10,0],[0,0]]", rings.get(0).toString());
+        assertEquals("[[4,4],[6,4],[6,6],[4,6],[4,4]]", rings.get(1).toString());
+
+        JsonObject multi = GeometryUtil.toEsriGeometry(JsonUtil.stringToJsonObject(
+                "{\"type\":\"MultiPolygon\",\"coordinates\":[[" + outer + "],[[[20,0],[30,0],[30,10],[20,0]]]]}"), 2056);
+        assertEquals(2, multi.getJsonArray("rings").size());
+        assertEquals("[[20,0],[30,10],[30,0],[20,0]]", multi.getJsonArray("rings").get(1).toString());
+    }
+
+    /**
+     * An unknown GeoJSON type is rejected.
+     */
+    public void testToEsriGeometryUnsupported() {
+        try {
+            GeometryUtil.toEsriGeometry(JsonUtil.stringToJsonObject("{\"type\":\"GeometryCollection\",\"geometries\":[]}"), 2056);
+            fail("GeometryCollection not supported");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("GeometryCollection"));
+        }
+    }
+
+    /**
+     * @param aX
+     *            x
+     * @param aY
+     *            y
+     * @return the point geometry
+     */
+    private static JsonObject point(double aX, double aY) {
+        return JsonUtil.stringToJsonObject(String.format("{\"x\": %s, \"y\": %s}", aX, aY));
+    }
+
+    /**
+     * @param aX1
+     *            x of the start
+     * @param aY1
+     *            y of the start
+     * @param aX2
+     *            x of the end
+     * @param aY2
+     *            y of the end
+     * @return the polyline geometry
+     */
+    private static JsonObject line(double aX1, double aY1, double aX2, double aY2) {
+        return JsonUtil.stringToJsonObject(String.format("{\"paths\": [[[%s,%s],[%s,%s]]]}", aX1, aY1, aX2, aY2));
+    }
+
+    /**
+     * @param aXmin
+     *            xmin
+     * @param aYmin
+     *            ymin
+     * @param aXmax
+     *            xmax
+     * @param aYmax
+     *            ymax
+     * @return the envelope geometry
+     */
+    private static JsonObject envelope(double aXmin, double aYmin, double aXmax, double aYmax) {
+        return GeometryUtil.toEnvelope(new double[] { aXmin, aYmin, aXmax, aYmax });
+    }
+}
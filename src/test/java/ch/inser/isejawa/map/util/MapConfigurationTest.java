@@ -0,0 +1,105 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import ch.inser.dynamic.common.IContextManager;
+
+import jakarta.json.JsonObject;
+import junit.framework.TestCase;
+
+/**
+ * Test of the map configuration file.
+ */
+public class MapConfigurationTest extends TestCase {
+
+    /**
+     * The configuration file.
+     */
+    private Path iFile;
+
+    /**
+     * The context manager giving the configuration file.
+     */
+    private IContextManager iContextManager;
+
+    @Override
+    protected void setUp() throws IOException {
+        iFile = Files.createTempFile("map", ".json");
+        iContextManager = (IContextManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IContextManager.class },
+                (proxy, method, args) -> "map.config.file".equals(args[0]) ? iFile.toString() : null);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(iFile);
+    }
+
+    /**
+     * The file is parsed again only when its modification time changes.
+     *
+     * @throws IOException
+     *             if the file can't be written or read
+     */
+    public void testReload() throws IOException {
+        write("{\"version\": 1}", 1_700_000_000_000L);
+        JsonObject first = MapConfiguration.get(iContextManager);
+        assertEquals(1, first.getInt("version"));
+        assertSame(first, MapConfiguration.get(iContextManager));
+
+        // Same modification time: the change is not seen
+        write("{\"version\": 2}", 1_700_000_000_000L);
+        assertSame(first, MapConfiguration.get(iContextManager));
+
+        write("{\"version\": 3}", 1_700_000_001_000L);
+        assertEquals(3, MapConfiguration.get(iContextManager).getInt("version"));
+    }
+
+    /**
+     * The warm-up is not in the configuration of the clients.
+     *
+     * @throws IOException
+     *             if the file can't be written or read
+     */
+    public void testClient() throws IOException {
+        write("{\"version\": 1, \"warmup\": {\"referer\": \"https://internal/\", \"hosts\": [\"https://gis.internal\"]}}",
+                1_700_000_002_000L);
+        assertTrue(MapConfiguration.get(iContextManager).containsKey("warmup"));
+        JsonObject client = MapConfiguration.getClient(iContextManager);
+        assertFalse(client.containsKey("warmup"));
+        assertEquals(1, client.getInt("version"));
+        assertSame(client, MapConfiguration.getClient(iContextManager));
+    }
+
+    /**
+     * @param aContent
+     *            the content of the configuration file
+     * @param aLastModified
+     *            the modification time of the file in milliseconds since the epoch
+     * @throws IOException
+     *             if the file can't be written
+     */
+    private void write(String aContent, long aLastModified) throws IOException {
+        Files.write(iFile, aContent.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(iFile, FileTime.fromMillis(aLastModified));
+    }
+}
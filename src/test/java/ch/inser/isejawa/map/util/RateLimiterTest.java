@@ -0,0 +1,85 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the token buckets.
+ */
+public class RateLimiterTest extends TestCase {
+
+    /**
+     * The burst is allowed at once, then the next request waits for the refill.
+     */
+    public void testBurst() {
+        RateLimiter limiter = new RateLimiter(1, 2);
+        assertEquals(0, limiter.tryAcquire("user"));
+        assertEquals(0, limiter.tryAcquire("user"));
+        long wait = limiter.tryAcquire("user");
+        assertTrue(wait > 0 && wait <= 1000);
+    }
+
+    /**
+     * Each key has its own bucket.
+     */
+    public void testKeys() {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("a") > 0);
+        assertEquals(0, limiter.tryAcquire("b"));
+    }
+
+    /**
+     * The bucket is refilled with the rate.
+     *
+     * @throws InterruptedException
+     *             error
+     */
+    public void testRefill() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(100, 1);
+        assertEquals(0, limiter.tryAcquire("user"));
+        Thread.sleep(50);
+        assertEquals(0, limiter.tryAcquire("user"));
+    }
+
+    /**
+     * A token given back can be taken again, but the bucket never holds more than the burst.
+     */
+    public void testRelease() {
+        RateLimiter limiter = new RateLimiter(0.001, 1);
+        assertEquals(0, limiter.tryAcquire("user"));
+        assertTrue(limiter.tryAcquire("user") > 0);
+        limiter.release("user");
+        limiter.release("user");
+        assertEquals(0, limiter.tryAcquire("user"));
+        assertTrue(limiter.tryAcquire("user") > 0);
+    }
+
+    /**
+     * A rate or a burst that would never allow a request is rejected.
+     */
+    public void testInvalid() {
+        for (double[] limit : new double[][] { { 0, 1 }, { -1, 1 }, { Double.NaN, 1 }, { 1, 0 } }) {
+            try {
+                new RateLimiter(limit[0], (int) limit[1]);
+                fail("Invalid limit accepted: " + limit[0] + "/" + limit[1]);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.inser.dynamic.common.IContextManager;
+import ch.inser.isejawa.map.transport.FormData;
+import ch.inser.isejawa.map.transport.Transport;
+import ch.inser.isejawa.map.transport.TransportResponse;
+import ch.inser.isejawa.map.transport.Transports;
+import ch.inser.jsl.exceptions.ISException;
+
+import jakarta.json.JsonObject;
+import junit.framework.TestCase;
+
+/**
+ * Test of the token cache.
+ */
+public class ServiceUtilTest extends TestCase {
+
+    /**
+     * The properties of the context manager.
+     */
+    private final Properties iProperties = new Properties();
+
+    /**
+     * The context manager giving the properties.
+     */
+    private final IContextManager iContextManager = (IContextManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { IContextManager.class },
+            (proxy, method, args) -> "getProperty".equals(method.getName()) ? iProperties.getProperty((String) args[0]) : null);
+
+    /**
+     * The forms sent to the token service.
+     */
+    private final List<String> iForms = new ArrayList<>();
+
+    /**
+     * Number of tokens generated.
+     */
+    private final AtomicInteger iTokens = new AtomicInteger();
+
+    /**
+     * Lifetime of the generated tokens in milliseconds.
+     */
+    private long iLifetime = 3_600_000;
+
+    @Override
+    protected void setUp() {
+        iProperties.setProperty("map.service.token.service", "https://server/portal/sharing/rest/generateToken");
+        Transports.set(new Transport() {
+
+            @Override
+            public TransportResponse get(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public TransportResponse post(String aUrl, FormData aForm) {
+                synchronized (iForms) {
+                    iForms.add(aForm.toUrl(""));
+                }
+                try {
+                    // Slow token service, so the concurrent callers ask while the token is being generated
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String body = String.format("{\"token\": \"t%s\", \"expires\": %s}", iTokens.incrementAndGet(),
+                        System.currentTimeMillis() + iLifetime);
+                return new TransportResponse(200, body.getBytes());
+            }
+
+            @Override
+            public int head(String aUrl) {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        Transports.set(null);
+        ServiceUtil.clearTokenCache();
+    }
+
+    /**
+     * The concurrent callers asking for a missing token get the token generated by one of them.
+     *
+     * @throws Exception
+     *             if a caller fails
+     */
+    public void testConcurrentCallers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<JsonObject>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> ServiceUtil.getCachedToken(iContextManager, "https://app/", null, false));
+            }
+            for (Future<JsonObject> future : executor.invokeAll(tasks)) {
+                assertEquals("t1", future.get().getString("token"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, iTokens.get());
+    }
+
+    /**
+     * A token is generated again once it is about to expire.
+     *
+     * @throws ISException
+     *             if the token can't be generated
+     */
+    public void testExpiry() throws ISException {
+        iLifetime = 0;
+        assertEquals("t1", ServiceUtil.getCachedToken(iContextManager, "https://app/", null, false).getString("token"));
+        assertEquals("t2", ServiceUtil.getCachedToken(iContextManager, "https://app/", null, false).getString("token"));
+
+        iLifetime = 3_600_000;
+        assertEquals("t3", ServiceUtil.getCachedToken(iContextManager, "https://app/", null, false).getString("token"));
+        assertEquals("t3", ServiceUtil.getCachedToken(iContextManager, "https://app/", null, false).getString("token"));
+    }
+
+    /**
+     * The tokens are generated for the origin of the referer of the clients, or for the configured referer.
+     *
+     * @throws ISException
+     *             if the token can't be generated
+     */
+    public void testReferer() throws ISException {
+        ServiceUtil.getCachedToken(iContextManager, "https://app:8443/page?id=1", null, false);
+        ServiceUtil.getCachedToken(iContextManager, "https://app:8443/other", null, false);
+        assertEquals(1, iTokens.get());
+        assertTrue(iForms.get(0), iForms.get(0).contains("referer=https%3A%2F%2Fapp%3A8443%2F"));
+
+        iProperties.setProperty("map.service.token.referer", "https://configured/");
+        ServiceUtil.getCachedToken(iContextManager, "https://other/", null, false);
+        ServiceUtil.getCachedToken(iContextManager, "https://another/", null, false);
+        assertEquals(2, iTokens.get());
+        assertTrue(iForms.get(1), iForms.get(1).contains("referer=https%3A%2F%2Fconfigured%2F"));
+    }
+}
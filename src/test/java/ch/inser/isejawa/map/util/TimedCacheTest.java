@@ -0,0 +1,65 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.isejawa.map.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of the cache with expiring entries.
+ */
+public class TimedCacheTest extends TestCase {
+
+    /**
+     * An entry is returned until its expiration time, then removed.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public void testExpiry() throws InterruptedException {
+        TimedCache<String, String> cache = new TimedCache<>();
+        long now = System.currentTimeMillis();
+        cache.put("a", "1", now + 60_000);
+        cache.put("b", "2", now + 20);
+        assertEquals("1", cache.get("a"));
+        assertEquals("2", cache.get("b"));
+
+        Thread.sleep(50);
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+        cache.put("c", "3", now);
+        cache.removeExpired();
+        assertEquals(1, cache.size());
+        assertEquals("1", cache.get("a"));
+    }
+
+    /**
+     * A full cache removes its expired entries to make room, and does not cache the value if they are all still valid.
+     */
+    public void testMaxSize() {
+        TimedCache<String, String> cache = new TimedCache<>(2);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.put("a", "1", now - 1));
+        assertTrue(cache.put("b", "2", now + 60_000));
+        assertTrue(cache.put("c", "3", now + 60_000));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+
+        assertFalse(cache.put("d", "4", now + 60_000));
+        assertNull(cache.get("d"));
+        assertTrue(cache.put("b", "5", now + 60_000));
+        assertEquals("5", cache.get("b"));
+    }
+}